@@ -0,0 +1,66 @@
+package ru.jango.j0loader.test;
+
+import android.test.AndroidTestCase;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+
+import ru.jango.j0loader.FailureCache;
+
+public class FailureCacheTest extends AndroidTestCase {
+
+    /**
+     * 1) by default failures are not remembered
+     * 2) failure type is resolved by class hierarchy - most specific type wins
+     * 3) remembered failure is returned until it expires
+     */
+    public void testPolicy() throws Exception {
+        // 1
+        final FailureCache cache = new FailureCache();
+        assertFalse(cache.put(uri(0), new IOException()));
+        assertNull(cache.get(uri(0)));
+
+        // 2
+        cache.setTimeToLive(IOException.class, 1000);
+        cache.setTimeToLive(FileNotFoundException.class, 60000);
+        cache.setTimeToLive(SocketTimeoutException.class, 0);
+        assertEquals(1000, cache.getTimeToLive(new java.net.UnknownHostException()));
+        assertEquals(60000, cache.getTimeToLive(new FileNotFoundException()));
+        assertEquals(0, cache.getTimeToLive(new SocketTimeoutException()));
+        assertEquals(0, cache.getTimeToLive(new IllegalStateException()));
+
+        // 3
+        final FileNotFoundException notFound = new FileNotFoundException();
+        assertTrue(cache.put(uri(0), notFound));
+        assertFalse(cache.put(uri(1), new SocketTimeoutException()));
+        assertSame(notFound, cache.get(uri(0)));
+        assertNull(cache.get(uri(1)));
+
+        cache.setTimeToLive(IOException.class, 1);
+        cache.put(uri(2), new IOException());
+        Thread.sleep(10);
+        assertNull(cache.get(uri(2)));
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Number of remembered failures should be limited; the oldest ones are dropped.
+     */
+    public void testMaxFailures() throws Exception {
+        final FailureCache cache = new FailureCache(3);
+        cache.setTimeToLive(IOException.class, 60000);
+        for (int i=0; i<5; i++)
+            cache.put(uri(i), new IOException());
+
+        assertEquals(3, cache.size());
+        assertNull(cache.get(uri(1)));
+        assertNotNull(cache.get(uri(4)));
+    }
+
+    private URI uri(int i) {
+        return URI.create("http://example.com/img/" + i + ".jpg");
+    }
+
+}
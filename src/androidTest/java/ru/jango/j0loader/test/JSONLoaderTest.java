@@ -7,8 +7,12 @@ import android.test.AndroidTestCase;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.net.URI;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import ru.jango.j0loader.JSONLoader;
 import ru.jango.j0loader.Request;
@@ -57,6 +61,50 @@ public class JSONLoaderTest extends AndroidTestCase {
         waitLoadingThreads(loader);
     }
 
+    /**
+     * 1. prefetch a response - it is loaded, but not reported to listeners
+     * 2. request it - it is reported without loading
+     * 3. request it once more - prefetched response is consumed, so it is loaded again
+     */
+    public void testPrefetch() throws Exception {
+        final URI uri = URI.create("http://localhost/prefetch.json");
+        final LocalJSONLoader loader = new LocalJSONLoader("{\"value\":42}");
+        final List<JSONArray> results = new ArrayList<JSONArray>();
+        loader.addLoadingListener(new LoadingAdapter2<JSONArray>() {
+            @Override
+            public void processFinished(Request request, byte[] rawData, JSONArray data) {
+                super.processFinished(request, rawData, data);
+                results.add(data);
+            }
+        });
+
+        // 1
+        loader.prefetch(new Request(uri));
+        loader.start();
+        waitLoadingThreads(loader);
+
+        assertEquals(1, loader.loads.get());
+        assertTrue(results.isEmpty());
+        assertTrue(loader.getPrefetchedBytes() > 0);
+
+        // 2
+        loader.addToQueue(new Request(uri));
+
+        assertEquals(1, loader.loads.get());
+        assertEquals(1, results.size());
+        assertEquals(42, results.get(0).optJSONObject(0).optInt("value"));
+        assertEquals(0, loader.getPrefetchedBytes());
+        assertEquals(0, loader.getQueueSize());
+
+        // 3
+        loader.addToQueue(new Request(uri));
+        loader.start();
+        waitLoadingThreads(loader);
+
+        assertEquals(2, loader.loads.get());
+        assertEquals(2, results.size());
+    }
+
     private Bitmap getBitmap() {
         //noinspection ConstantConditions
         return BitmapFactory.decodeResource(getContext().getResources(), R.drawable.small);
@@ -81,5 +129,22 @@ public class JSONLoaderTest extends AndroidTestCase {
         }
     }
 
+    private class LocalJSONLoader extends JSONLoaderWrapper {
+        private final byte[] response;
+        private final AtomicInteger loads;
+
+        public LocalJSONLoader(String response) throws Exception {
+            super();
+            this.response = response.getBytes("UTF-8");
+            this.loads = new AtomicInteger();
+        }
+
+        @Override
+        protected InputStream openInputStream(Request request) {
+            loads.incrementAndGet();
+            request.setResponseContentLength(response.length);
+            return new ByteArrayInputStream(response);
+        }
+    }
 
 }
@@ -0,0 +1,50 @@
+package ru.jango.j0loader.test.image;
+
+import android.graphics.Point;
+import android.test.AndroidTestCase;
+import android.widget.ImageView;
+
+import ru.jango.j0loader.image.AsyncImageView;
+import ru.jango.j0loader.image.ImageDecoder;
+import ru.jango.j0util.BmpUtil;
+
+public class AsyncImageViewTest extends AndroidTestCase {
+
+    /**
+     * 1) area, that doesn't limit both dimensions - full size
+     * 2) fitting scale types - the area itself
+     * 3) covering scale types - the area itself, image covers it
+     * 4) area, that doesn't limit one dimension (wraps content) - image is fit into the other one
+     * 5) not scaling scale types - full size
+     */
+    public void testResolveTargetSize() throws Exception {
+        // 1
+        assertNull(AsyncImageView.resolveTargetSize(0, 0, ImageView.ScaleType.FIT_CENTER));
+
+        // 2
+        assertEquals(new Point(300, 200), AsyncImageView.resolveTargetSize(300, 200, ImageView.ScaleType.FIT_CENTER));
+        assertEquals(new Point(300, 200), AsyncImageView.resolveTargetSize(300, 200, ImageView.ScaleType.CENTER_INSIDE));
+        assertEquals(ImageDecoder.ScaleMode.FIT,
+                AsyncImageView.resolveScaleMode(300, 200, ImageView.ScaleType.FIT_CENTER));
+
+        // 3
+        assertEquals(new Point(300, 200), AsyncImageView.resolveTargetSize(300, 200, ImageView.ScaleType.CENTER_CROP));
+        assertEquals(ImageDecoder.ScaleMode.COVER,
+                AsyncImageView.resolveScaleMode(300, 200, ImageView.ScaleType.CENTER_CROP));
+        assertEquals(ImageDecoder.ScaleMode.COVER,
+                AsyncImageView.resolveScaleMode(100, 400, ImageView.ScaleType.FIT_XY));
+
+        // 4
+        assertEquals(new Point(300, BmpUtil.MAX_TEXTURE_SIZE),
+                AsyncImageView.resolveTargetSize(300, 0, ImageView.ScaleType.CENTER_CROP));
+        assertEquals(new Point(BmpUtil.MAX_TEXTURE_SIZE, 200),
+                AsyncImageView.resolveTargetSize(-1, 200, ImageView.ScaleType.FIT_CENTER));
+        assertEquals(ImageDecoder.ScaleMode.FIT,
+                AsyncImageView.resolveScaleMode(300, 0, ImageView.ScaleType.CENTER_CROP));
+
+        // 5
+        assertNull(AsyncImageView.resolveTargetSize(300, 200, ImageView.ScaleType.CENTER));
+        assertNull(AsyncImageView.resolveTargetSize(300, 200, ImageView.ScaleType.MATRIX));
+    }
+
+}
@@ -0,0 +1,93 @@
+package ru.jango.j0loader.test.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.test.AndroidTestCase;
+
+import java.net.URI;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+
+import ru.jango.j0loader.image.Atlas;
+
+public class AtlasTest extends AndroidTestCase {
+
+    private static final URI MANIFEST = URI.create("http://test.com/icons/atlas.json");
+
+    /**
+     * 1) relative URIs should be resolved against manifest's URI, absolute ones are kept
+     * 2) sprite bounds should be converted from [left, top, width, height]
+     * 3) unknown sprites - no bounds
+     */
+    public void testParse() throws Exception {
+        // 1
+        final Atlas atlas = Atlas.parse(MANIFEST, ("{\"image\": \"atlas.png\", \"sprites\": {"
+                + "\"home.png\": [0, 0, 48, 48], "
+                + "\"http://cdn.test.com/search.png\": [48, 16, 32, 24]}}").getBytes("UTF-8"));
+        assertEquals(URI.create("http://test.com/icons/atlas.png"), atlas.getImageURI());
+        assertEquals(2, atlas.size());
+        assertTrue(atlas.contains(URI.create("http://test.com/icons/home.png")));
+        assertTrue(atlas.contains(URI.create("http://cdn.test.com/search.png")));
+
+        // 2
+        assertEquals(new Rect(0, 0, 48, 48), atlas.getSprite(URI.create("http://test.com/icons/home.png")));
+        assertEquals(new Rect(48, 16, 80, 40), atlas.getSprite(URI.create("http://cdn.test.com/search.png")));
+
+        // 3
+        assertNull(atlas.getSprite(URI.create("http://test.com/icons/missing.png")));
+    }
+
+    /**
+     * 1) not a JSON - exception
+     * 2) no image - exception
+     * 3) wrong bounds - exception
+     */
+    public void testParseFailed() throws Exception {
+        // 1
+        assertParseFailed("not a manifest");
+
+        // 2
+        assertParseFailed("{\"sprites\": {}}");
+
+        // 3
+        assertParseFailed("{\"image\": \"atlas.png\", \"sprites\": {\"home.png\": [0, 0, 48]}}");
+        assertParseFailed("{\"image\": \"atlas.png\", \"sprites\": {\"home.png\": [0, 0, 0, 48]}}");
+    }
+
+    /**
+     * 1) every sprite should be cut out in it's size
+     * 2) sprites, that are partially out of the image, should be clipped
+     * 3) sprites, that are out of the image, should be skipped
+     */
+    public void testSlice() throws Exception {
+        final Atlas atlas = Atlas.parse(MANIFEST, ("{\"image\": \"atlas.png\", \"sprites\": {"
+                + "\"a.png\": [0, 0, 48, 48], \"b.png\": [48, 0, 32, 16], "
+                + "\"c.png\": [80, 40, 48, 48], \"d.png\": [200, 0, 16, 16]}}").getBytes("UTF-8"));
+        final Bitmap image = Bitmap.createBitmap(100, 50, Bitmap.Config.ARGB_8888);
+        final Map<URI, Bitmap> sprites = atlas.slice(image);
+
+        // 1
+        assertSize(48, 48, sprites.get(URI.create("http://test.com/icons/a.png")));
+        assertSize(32, 16, sprites.get(URI.create("http://test.com/icons/b.png")));
+
+        // 2
+        assertSize(20, 10, sprites.get(URI.create("http://test.com/icons/c.png")));
+
+        // 3
+        assertEquals(3, sprites.size());
+        assertFalse(image.isRecycled());
+    }
+
+    private void assertParseFailed(String manifest) throws Exception {
+        try {
+            Atlas.parse(MANIFEST, manifest.getBytes("UTF-8"));
+            fail("DataFormatException expected");
+        } catch (DataFormatException ignored) {}
+    }
+
+    private void assertSize(int width, int height, Bitmap bmp) {
+        assertEquals(width, bmp.getWidth());
+        assertEquals(height, bmp.getHeight());
+    }
+
+}
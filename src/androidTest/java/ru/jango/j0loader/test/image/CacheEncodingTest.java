@@ -0,0 +1,99 @@
+package ru.jango.j0loader.test.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+import ru.jango.j0loader.image.CacheEncoding;
+import ru.jango.j0loader.image.ImageDecoder;
+import ru.jango.j0loader.test.Settings;
+import ru.jango.j0util.LogUtil;
+
+public class CacheEncodingTest extends AndroidTestCase {
+
+    /**
+     * 1) quality should be from 0 to 100
+     * 2) only lossy formats show quality
+     */
+    public void testCreate() throws Exception {
+        // 1
+        try {
+            CacheEncoding.jpeg(101);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException ignored) {}
+
+        try {
+            CacheEncoding.webp(-1);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException ignored) {}
+
+        // 2
+        assertEquals("JPEG(80)", CacheEncoding.jpeg(80).toString());
+        assertEquals("PNG", CacheEncoding.png().toString());
+    }
+
+    /**
+     * 1) ORIGINAL should return loaded data as is
+     * 2) only RAW data should be recognized as raw
+     */
+    public void testOriginalAndRaw() throws Exception {
+        // 1
+        final byte[] original = new byte[] {1, 2, 3};
+        assertSame(original, CacheEncoding.original().encode(Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888), original));
+
+        // 2
+        assertFalse(CacheEncoding.isRaw(original));
+        assertFalse(CacheEncoding.isRaw(new byte[] {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0,
+                0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}));
+    }
+
+    /**
+     * 1) download an image and scale it into 400x400
+     * 2) encode it by every policy - encoded data should be decoded into the same size
+     * 3) log encode time and bytes of every policy
+     */
+    public void testMeasure() throws Exception {
+        // 1
+        final byte[] data = download(Settings.IMG_NORMAL.toURL().openStream());
+        final Bitmap bmp = ImageDecoder.decode(data, new Point(400, 400));
+
+        final CacheEncoding[] encodings = {CacheEncoding.original(), CacheEncoding.png(),
+                CacheEncoding.jpeg(CacheEncoding.DEFAULT_QUALITY), CacheEncoding.jpeg(70),
+                CacheEncoding.webp(CacheEncoding.DEFAULT_QUALITY), CacheEncoding.raw()};
+        for (CacheEncoding encoding : encodings) {
+            // 2
+            final long started = System.currentTimeMillis();
+            final byte[] encoded = encoding.encode(bmp, data);
+            final long encodeTime = System.currentTimeMillis() - started;
+
+            final Bitmap decoded = CacheEncoding.decode(encoded, new Point(400, 400));
+            assertEquals(bmp.getWidth(), decoded.getWidth());
+            assertEquals(bmp.getHeight(), decoded.getHeight());
+            decoded.recycle();
+
+            // 3
+            LogUtil.d(CacheEncodingTest.class, encoding + ": " + encoded.length + " bytes, "
+                    + encodeTime + " ms");
+        }
+
+        bmp.recycle();
+    }
+
+    private byte[] download(InputStream in) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            final byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1)
+                out.write(buffer, 0, count);
+        } finally {
+            in.close();
+        }
+
+        return out.toByteArray();
+    }
+
+}
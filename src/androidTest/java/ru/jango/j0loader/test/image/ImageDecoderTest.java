@@ -0,0 +1,184 @@
+package ru.jango.j0loader.test.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+import ru.jango.j0loader.image.ImageDecoder;
+import ru.jango.j0loader.test.Settings;
+import ru.jango.j0util.BmpUtil;
+import ru.jango.j0util.LogUtil;
+
+public class ImageDecoderTest extends AndroidTestCase {
+
+    /**
+     * 1) no scale - original size
+     * 2) image should be proportionally fit into the scale
+     * 3) image should not be upscaled
+     * 4) image should be fit into max texture size
+     * 5) covering image should be not smaller, than the scale, in both dimensions, but not upscaled
+     * and fit into max texture size
+     */
+    public void testResolveSize() throws Exception {
+        // 1
+        assertEquals(new Point(300, 200), ImageDecoder.resolveSize(new Point(300, 200), null));
+
+        // 2
+        assertEquals(new Point(150, 100), ImageDecoder.resolveSize(new Point(300, 200), new Point(150, 150)));
+        assertEquals(new Point(400, 219), ImageDecoder.resolveSize(new Point(4000, 2190), new Point(400, 400)));
+
+        // 3
+        assertEquals(new Point(300, 200), ImageDecoder.resolveSize(new Point(300, 200), new Point(1000, 1000)));
+
+        // 4
+        final int max = BmpUtil.MAX_TEXTURE_SIZE;
+        assertEquals(new Point(max, max / 2), ImageDecoder.resolveSize(new Point(max * 2, max), null));
+
+        // 5
+        final ImageDecoder.ScaleMode cover = ImageDecoder.ScaleMode.COVER;
+        assertEquals(new Point(225, 150), ImageDecoder.resolveSize(new Point(300, 200), new Point(150, 150), cover));
+        assertEquals(new Point(731, 400), ImageDecoder.resolveSize(new Point(4000, 2190), new Point(400, 400), cover));
+        assertEquals(new Point(100, 300), ImageDecoder.resolveSize(new Point(1000, 3000), new Point(100, 100), cover));
+        assertEquals(new Point(300, 200), ImageDecoder.resolveSize(new Point(300, 200), new Point(250, 250), cover));
+        assertEquals(new Point(max, max / 4), ImageDecoder.resolveSize(new Point(max * 4, max), new Point(max, max), cover));
+    }
+
+    /**
+     * 1) sample size should be 1, if image is less than twice larger than target
+     * 2) sample size should be the largest power of two, not making image smaller than target
+     */
+    public void testCalculateSampleSize() throws Exception {
+        // 1
+        assertEquals(1, ImageDecoder.calculateSampleSize(new Point(300, 200), new Point(300, 200)));
+        assertEquals(1, ImageDecoder.calculateSampleSize(new Point(300, 200), new Point(151, 101)));
+
+        // 2
+        assertEquals(2, ImageDecoder.calculateSampleSize(new Point(300, 200), new Point(150, 100)));
+        assertEquals(8, ImageDecoder.calculateSampleSize(new Point(4000, 2190), new Point(400, 219)));
+        assertEquals(4, ImageDecoder.calculateSampleSize(new Point(4000, 2190), new Point(1000, 500)));
+    }
+
+    /**
+     * 1) tiles should cover the whole image row by row
+     * 2) every tile should cover tileSize * sampleSize pixels, except the last ones
+     * 3) image smaller than one tile - one tile
+     */
+    public void testGetTiles() throws Exception {
+        // 1
+        final List<Rect> tiles = ImageDecoder.getTiles(new Point(5000, 3000), 512, 4);
+        assertEquals(6, tiles.size());
+        assertEquals(new Rect(0, 0, 2048, 2048), tiles.get(0));
+        assertEquals(new Rect(2048, 0, 4096, 2048), tiles.get(1));
+
+        // 2
+        assertEquals(new Rect(4096, 0, 5000, 2048), tiles.get(2));
+        assertEquals(new Rect(4096, 2048, 5000, 3000), tiles.get(5));
+
+        // 3
+        assertEquals(1, ImageDecoder.getTiles(new Point(300, 200), 512, 1).size());
+    }
+
+    /**
+     * 1) not an image - exception
+     */
+    public void testDecodeBoundsFailed() throws Exception {
+        // 1
+        try {
+            ImageDecoder.decodeBounds("not an image".getBytes());
+            fail("DataFormatException expected");
+        } catch (DataFormatException ignored) {}
+    }
+
+    /**
+     * 1) download every test image
+     * 2) decode it into 400x400 - result should be fit into the scale
+     * 3) log peak bitmap memory (sampled bitmap) against full-size decode
+     */
+    public void testPeakMemory() throws Exception {
+        final Point scale = new Point(400, 400);
+        for (Settings.Img img : Settings.Img.values()) {
+            if (img == Settings.Img.FAKE)
+                continue;
+
+            // 1
+            final byte[] data = download(img);
+
+            // 2
+            final Bitmap bmp = ImageDecoder.decode(data, scale);
+            assertTrue(bmp.getWidth() <= scale.x);
+            assertTrue(bmp.getHeight() <= scale.y);
+
+            // 3
+            final Point bounds = ImageDecoder.decodeBounds(data);
+            final Point target = ImageDecoder.resolveSize(bounds, scale);
+            final Bitmap sampled = ImageDecoder.decodeSampled(data,
+                    ImageDecoder.calculateSampleSize(bounds, target));
+            LogUtil.d(ImageDecoderTest.class, img + ": " + bounds.x + "x" + bounds.y
+                    + "; full decode bytes: " + (long) bounds.x * bounds.y * 4
+                    + "; peak bytes: " + ImageDecoder.getByteCount(sampled)
+                    + "; result bytes: " + ImageDecoder.getByteCount(bmp));
+
+            sampled.recycle();
+            bmp.recycle();
+        }
+    }
+
+    /**
+     * 1) download every test image
+     * 2) decode it into 400x400 in ARGB_8888 and in RGB_565 - the same size, but half of the memory
+     * 3) log bytes and decode time of both configs
+     */
+    public void testConfigMemory() throws Exception {
+        final Point scale = new Point(400, 400);
+        for (Settings.Img img : Settings.Img.values()) {
+            if (img == Settings.Img.FAKE)
+                continue;
+
+            // 1
+            final byte[] data = download(img);
+
+            // 2
+            long started = System.currentTimeMillis();
+            final Bitmap argb = ImageDecoder.decode(data, scale, null, Bitmap.Config.ARGB_8888);
+            final long argbTime = System.currentTimeMillis() - started;
+
+            started = System.currentTimeMillis();
+            final Bitmap rgb = ImageDecoder.decode(data, scale, null, Bitmap.Config.RGB_565);
+            final long rgbTime = System.currentTimeMillis() - started;
+
+            assertEquals(argb.getWidth(), rgb.getWidth());
+            assertEquals(argb.getHeight(), rgb.getHeight());
+            assertEquals(ImageDecoder.getByteCount(argb), ImageDecoder.getByteCount(rgb) * 2);
+
+            // 3
+            LogUtil.d(ImageDecoderTest.class, img + ": ARGB_8888 - " + ImageDecoder.getByteCount(argb)
+                    + " bytes, " + argbTime + " ms; RGB_565 - " + ImageDecoder.getByteCount(rgb)
+                    + " bytes, " + rgbTime + " ms");
+
+            argb.recycle();
+            rgb.recycle();
+        }
+    }
+
+    private byte[] download(Settings.Img img) throws Exception {
+        final InputStream in = img.getURI().toURL().openStream();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            final byte[] buffer = new byte[4096];
+            int count;
+            while ((count = in.read(buffer)) != -1)
+                out.write(buffer, 0, count);
+        } finally {
+            in.close();
+        }
+
+        return out.toByteArray();
+    }
+
+}
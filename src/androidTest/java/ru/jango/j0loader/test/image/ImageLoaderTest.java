@@ -5,19 +5,36 @@ import android.graphics.BitmapFactory;
 import android.graphics.Point;
 import android.test.AndroidTestCase;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.zip.DataFormatException;
 
 import ru.jango.j0loader.Request;
+import ru.jango.j0loader.image.CacheEncoding;
+import ru.jango.j0loader.image.ImageDecoder;
 import ru.jango.j0loader.image.ImageLoader;
+import ru.jango.j0loader.image.ImageRequest;
+import ru.jango.j0loader.image.Transformation;
+import ru.jango.j0loader.image.cache.DirectCache;
+import ru.jango.j0loader.image.cache.ExpiringCache;
 import ru.jango.j0loader.image.cache.LRUCache;
+import ru.jango.j0loader.queue.LIFOQueue;
+import ru.jango.j0loader.queue.Queue;
 import ru.jango.j0loader.test.Settings;
 import ru.jango.j0loader.test.LoadingAdapter2;
 import ru.jango.j0util.LogUtil;
 
 public class ImageLoaderTest extends AndroidTestCase {
 
+    // Settings.IMG_SMALL, that is loaded without scale
+    private static final int[] ORIGINAL_SMALL = {425, 554, 80492};
+
     /**
      * Test scale resolving algorithm.
      */
@@ -37,9 +54,10 @@ public class ImageLoaderTest extends AndroidTestCase {
      * Test adding into cache and simple queues.
      * 1) create loader and requests
      * 2) add same request two times - should be added into simple queue once
-     * 3) add fake item into cache and small scale into scales
-     * 4) add request with small scale for that fake item and check it was added into cache queue
-     * 5) add request with larger scale and check cache is empty and request was added into simple queue
+     * 3) add fake item into cache as a variant with small scale
+     * 4) add request with about the same scale for that fake item and check it was added into cache queue
+     * 5) add request with larger scale and check it was added into simple queue, but the smaller
+     * variant is kept in cache
      */
     public void testAddToQueue() throws Exception {
         // 1
@@ -54,21 +72,685 @@ public class ImageLoaderTest extends AndroidTestCase {
         assertEquals(0, loader.getCacheQueueSize());
 
         // 3
-        loader.getCache().put(r2.getURI(), new byte[8]);
-        loader.getCache().setScale(r2.getURI(), new Point(10, 10));
+        final ImageRequest cached = new ImageRequest(Settings.IMG_NORMAL);
+        cached.setScale(new Point(10, 10));
+        loader.getCache().put(cached.getCacheKey(), new byte[8]);
+        loader.getCache().setScale(cached.getCacheKey(), new Point(10, 10));
 
         // 4
         loader.addToQueue(r2, new Point(11, 11));
         assertEquals(1, loader.getQueueSize());
         assertEquals(1, loader.getCacheQueueSize());
-        assertEquals(1, loader.getCache().scalesCount());
+        assertEquals(2, loader.getCache().scalesCount());
 
         // 5
-        loader.addToQueue(r2, new Point(100, 100));
+        loader.addToQueue(new ImageRequest(Settings.IMG_NORMAL), new Point(100, 100));
+        assertEquals(2, loader.getQueueSize());
+        assertEquals(1, loader.getCacheQueueSize());
+        assertEquals(1, loader.getCache().count());
+        assertEquals(3, loader.getCache().scalesCount());
+    }
+
+    /**
+     * Test choosing a queue for different variants of a cached image.
+     * 1) add fake item into cache as a variant with 500x500 scale
+     * 2) request without scale and request with smaller scale should be taken from cache
+     * 3) request with larger scale should be loaded
+     * 4) after the original image is cached, any scale should be taken from cache
+     */
+    public void testAddToQueueVariants() throws Exception {
+        // 1
+        final ImageLoaderWrapper loader = new ImageLoaderWrapper();
+        final ImageRequest large = new ImageRequest(Settings.IMG_LARGE);
+        large.setScale(new Point(500, 500));
+        loader.getCache().put(large.getCacheKey(), new byte[8]);
+        loader.getCache().setScale(large.getCacheKey(), large.getScale());
+
+        // 2
+        loader.addToQueue(new Request(Settings.IMG_LARGE));
+        loader.addToQueue(new ImageRequest(Settings.IMG_LARGE), new Point(96, 96));
+        assertEquals(0, loader.getQueueSize());
+        assertEquals(2, loader.getCacheQueueSize());
+
+        // 3
+        loader.addToQueue(new ImageRequest(Settings.IMG_LARGE), new Point(1000, 1000));
+        assertEquals(1, loader.getQueueSize());
+
+        // 4
+        loader.getCache().put(Settings.IMG_LARGE, new byte[8]);
+        loader.addToQueue(new ImageRequest(Settings.IMG_LARGE), new Point(1500, 1500));
+        assertEquals(1, loader.getQueueSize());
+        assertEquals(3, loader.getCacheQueueSize());
+    }
+
+    /**
+     * Test requests with bitmap config.
+     * 1) add fake item into cache as a variant with 500x500 scale
+     * 2) requests in another config should be taken from the same cached data
+     * 3) decoded image of another config should not be taken from memory; of the same config - should
+     */
+    public void testAddToQueueConfig() throws Exception {
+        // 1
+        final ImageLoaderWrapper loader = new ImageLoaderWrapper();
+        final ImageRequest large = new ImageRequest(Settings.IMG_LARGE);
+        large.setScale(new Point(500, 500));
+        loader.getCache().put(large.getCacheKey(), new byte[8]);
+        loader.getCache().setScale(large.getCacheKey(), large.getScale());
+
+        // 2
+        final ImageRequest config = new ImageRequest(Settings.IMG_LARGE);
+        config.setConfig(Bitmap.Config.RGB_565);
+        loader.addToQueue(config, new Point(500, 500));
+        assertEquals(0, loader.getQueueSize());
+        assertEquals(1, loader.getCacheQueueSize());
+        assertEquals(1, loader.getCache().count());
+
+        // 3
+        loader.getBitmapCache().put(large.getCacheKey(), Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888));
+        assertNull(loader.getFromMemory(config));
+        assertNotNull(loader.getFromMemory(large));
+
+        loader.getBitmapCache().put(config.getCacheKey(), Bitmap.createBitmap(10, 10, Bitmap.Config.RGB_565));
+        assertEquals(Bitmap.Config.RGB_565, loader.getFromMemory(config).getConfig());
+    }
+
+    /**
+     * Test variants, that are derived for requests in different configs.
+     * 1) cache an image with alpha as is (raw ARGB_8888)
+     * 2) RGB_565 request for a scaled variant should get RGB_565 image, but the variant should be
+     * cached in ARGB_8888
+     * 3) ARGB_8888 request for the same variant should get ARGB_8888 image from that data
+     */
+    public void testConfigVariants() throws Exception {
+        // 1
+        final List<Bitmap> delivered = new ArrayList<Bitmap>();
+        final ImageLoaderWrapper loader = new ImageLoaderWrapper(new LoadingAdapter2<Bitmap>() {
+            @Override
+            public void processFinished(Request request, byte[] rawData, Bitmap data) {
+                super.processFinished(request, rawData, data);
+                delivered.add(data);
+            }
+        });
+        loader.setCacheEncoding(CacheEncoding.raw());
+        loader.getCache().put(Settings.IMG_SMALL,
+                CacheEncoding.raw().encode(Bitmap.createBitmap(20, 20, Bitmap.Config.ARGB_8888), null));
+
+        // 2
+        final ImageRequest rgb = new ImageRequest(Settings.IMG_SMALL);
+        rgb.setConfig(Bitmap.Config.RGB_565);
+        loader.addToQueue(rgb, new Point(10, 10));
+        loader.start();
+        waitLoadingThreads(loader);
+        assertEquals(1, delivered.size());
+        assertEquals(Bitmap.Config.RGB_565, delivered.get(0).getConfig());
+        assertEquals(Bitmap.Config.ARGB_8888,
+                CacheEncoding.decode(loader.getCache().get(rgb.getDataKey()), null, null).getConfig());
+
+        // 3
+        loader.addToQueue(new ImageRequest(Settings.IMG_SMALL), new Point(10, 10));
+        loader.start();
+        waitLoadingThreads(loader);
+        assertEquals(2, delivered.size());
+        assertEquals(Bitmap.Config.ARGB_8888, delivered.get(1).getConfig());
+    }
+
+    /**
+     * Test variants, whose scales were evicted from scales registry.
+     * 1) cache an image as is (raw 20x20)
+     * 2) request a scaled variant and forget it's scale - the variant should still be derived and
+     * cached in the requested size
+     */
+    public void testEvictedScale() throws Exception {
+        // 1
+        final List<Bitmap> delivered = new ArrayList<Bitmap>();
+        final ImageLoaderWrapper loader = new ImageLoaderWrapper(new LoadingAdapter2<Bitmap>() {
+            @Override
+            public void processFinished(Request request, byte[] rawData, Bitmap data) {
+                super.processFinished(request, rawData, data);
+                delivered.add(data);
+            }
+        });
+        loader.setCacheEncoding(CacheEncoding.raw());
+        loader.getCache().put(Settings.IMG_SMALL,
+                CacheEncoding.raw().encode(Bitmap.createBitmap(20, 20, Bitmap.Config.ARGB_8888), null));
+
+        // 2
+        final ImageRequest scaled = new ImageRequest(Settings.IMG_SMALL);
+        loader.addToQueue(scaled, new Point(10, 10));
+        loader.getCache().removeScale(scaled.getSourceKey());
+        loader.start();
+        waitLoadingThreads(loader);
+        assertEquals(1, delivered.size());
+        assertEquals(10, delivered.get(0).getWidth());
+        assertEquals(10, CacheEncoding.decode(loader.getCache().get(scaled.getSourceKey()), null, null).getWidth());
+    }
+
+    /**
+     * Test variants, that cover the requested scale.
+     * 1) cache an image as is (raw 40x20)
+     * 2) fitting request should get the image fit into the scale
+     * 3) covering request with the same scale should not be satisfied by the fitting variant - it
+     * should get the image, that is not smaller, than the scale, in both dimensions
+     * 4) cached covering variant should be delivered as is, not fit into the scale
+     */
+    public void testCoverVariants() throws Exception {
+        // 1
+        final List<Bitmap> delivered = new ArrayList<Bitmap>();
+        final ImageLoaderWrapper loader = new ImageLoaderWrapper(new LoadingAdapter2<Bitmap>() {
+            @Override
+            public void processFinished(Request request, byte[] rawData, Bitmap data) {
+                super.processFinished(request, rawData, data);
+                delivered.add(data);
+            }
+        });
+        loader.setCacheEncoding(CacheEncoding.raw());
+        loader.setBitmapCache(null);
+        loader.getCache().put(Settings.IMG_SMALL,
+                CacheEncoding.raw().encode(Bitmap.createBitmap(40, 20, Bitmap.Config.ARGB_8888), null));
+
+        // 2
+        loader.addToQueue(new ImageRequest(Settings.IMG_SMALL), new Point(10, 10));
+        loader.start();
+        waitLoadingThreads(loader);
+        assertEquals(1, delivered.size());
+        assertEquals(new Point(10, 5), new Point(delivered.get(0).getWidth(), delivered.get(0).getHeight()));
+
+        // 3
+        final ImageRequest cover = new ImageRequest(Settings.IMG_SMALL);
+        cover.setScaleMode(ImageDecoder.ScaleMode.COVER);
+        loader.addToQueue(cover, new Point(10, 10));
+        loader.start();
+        waitLoadingThreads(loader);
+        assertEquals(2, delivered.size());
+        assertEquals(new Point(20, 10), new Point(delivered.get(1).getWidth(), delivered.get(1).getHeight()));
+        assertTrue(loader.getCache().isCached(cover.getSourceKey()));
+
+        // 4
+        final ImageRequest again = new ImageRequest(Settings.IMG_SMALL);
+        again.setScaleMode(ImageDecoder.ScaleMode.COVER);
+        loader.addToQueue(again, new Point(10, 10));
+        loader.start();
+        waitLoadingThreads(loader);
+        assertEquals(3, delivered.size());
+        assertEquals(new Point(20, 10), new Point(delivered.get(2).getWidth(), delivered.get(2).getHeight()));
+    }
+
+    /**
+     * Test taking images from {@link ru.jango.j0loader.image.cache.DirectCache}.
+     * 1) cache an image as raw pixels in direct cache
+     * 2) it should be decoded straight from direct cache - listeners get NULL as raw data
+     * 3) decoded image should be delivered from bitmap cache without raw data too
+     */
+    public void testDirectCache() throws Exception {
+        // 1
+        final List<Bitmap> delivered = new ArrayList<Bitmap>();
+        final List<byte[]> raw = new ArrayList<byte[]>();
+        final ImageLoaderWrapper loader = new ImageLoaderWrapper(new LoadingAdapter2<Bitmap>() {
+            @Override
+            public void processFinished(Request request, byte[] rawData, Bitmap data) {
+                super.processFinished(request, rawData, data);
+                delivered.add(data);
+                raw.add(rawData);
+            }
+        });
+        loader.setCache(new DirectCache(100000));
+        loader.setCacheEncoding(CacheEncoding.raw());
+        loader.getCache().put(Settings.IMG_SMALL,
+                CacheEncoding.raw().encode(Bitmap.createBitmap(20, 20, Bitmap.Config.ARGB_8888), null));
+
+        // 2
+        loader.addToQueue(new Request(Settings.IMG_SMALL));
+        loader.start();
+        waitLoadingThreads(loader);
+        assertEquals(1, delivered.size());
+        assertEquals(20, delivered.get(0).getWidth());
+        assertNull(raw.get(0));
+        assertEquals(1, loader.getDecodeCount());
+
+        // 3
+        loader.addToQueue(new Request(Settings.IMG_SMALL));
+        waitLoadingThreads(loader);
+        assertEquals(2, delivered.size());
+        assertSame(delivered.get(0), delivered.get(1));
+        assertNull(raw.get(1));
+        assertEquals(1, loader.getDecodeCount());
+    }
+
+    /**
+     * Test requests, that are dropped by {@link ru.jango.j0loader.queue.LIFOQueue} overflow.
+     * 1) create a loader with LIFO queue of 2 requests
+     * 2) add 3 requests - the oldest one should fail with CancellationException
+     */
+    public void testDroppedRequests() throws Exception {
+        // 1
+        final List<Request> failed = new ArrayList<Request>();
+        final ImageLoaderWrapper loader = new ImageLoaderWrapper(new LoadingAdapter2<Bitmap>() {
+            @Override
+            public void processFailed(Request request, Exception e) {
+                super.processFailed(request, e);
+                assertTrue(e instanceof CancellationException);
+                failed.add(request);
+            }
+        }) {
+            @Override
+            protected Queue createQueue() {
+                return new LIFOQueue(2);
+            }
+        };
+
+        // 2
+        loader.addToQueue(new Request(Settings.IMG_SMALL));
+        loader.addToQueue(new Request(Settings.IMG_NORMAL));
+        loader.addToQueue(new Request(Settings.IMG_LARGE));
+        waitLoadingThreads(loader);
         assertEquals(2, loader.getQueueSize());
+        assertEquals(1, failed.size());
+        assertEquals(Settings.IMG_SMALL, failed.get(0).getURI());
+    }
+
+    /**
+     * Test adding recently failed requests.
+     * 1) remember a failure for fake image
+     * 2) add request for that image - it should be added into cache queue and fail fast
+     * 3) cached images should not fail fast, even if they have failed before
+     */
+    public void testAddToQueueFailed() throws Exception {
+        // 1
+        final ImageLoaderWrapper loader = new ImageLoaderWrapper();
+        assertTrue(loader.getFailureCache().put(Settings.IMG_FAKE, new java.io.FileNotFoundException()));
+
+        // 2
+        loader.addToQueue(new Request(Settings.IMG_FAKE));
+        assertEquals(0, loader.getQueueSize());
+        assertEquals(1, loader.getCacheQueueSize());
+
+        // 3
+        loader.getFailureCache().put(Settings.IMG_SMALL, new java.io.FileNotFoundException());
+        loader.getCache().put(Settings.IMG_SMALL, new byte[8]);
+        assertNull(loader.getRecentFailure2(new Request(Settings.IMG_SMALL)));
+    }
+
+    /**
+     * Test moving queued requests.
+     * 1) add three requests - they should be queued in order of adding
+     * 2) prioritized request should be moved into the head of the queue
+     * 3) deprioritized request should be moved into the end of the queue
+     * 4) another request object with the same cache key should move the queued one
+     * 5) requests, that are not queued, should not be moved
+     */
+    public void testPrioritize() throws Exception {
+        // 1
+        final ImageLoaderWrapper loader = new ImageLoaderWrapper();
+        final Request r1 = new Request(Settings.IMG_SMALL);
+        final Request r2 = new Request(Settings.IMG_NORMAL);
+        final Request r3 = new Request(Settings.IMG_LARGE);
+        loader.addToQueue(r1);
+        loader.addToQueue(r2);
+        loader.addToQueue(r3);
+        assertEquals(2, loader.getQueue2().indexOf(r3));
+
+        // 2
+        assertTrue(loader.prioritize(r3));
+        assertEquals(0, loader.getQueue2().indexOf(r3));
+        assertFalse(loader.prioritize(r3));
+
+        // 3
+        assertTrue(loader.deprioritize(r3));
+        assertEquals(2, loader.getQueue2().indexOf(r3));
+
+        // 4
+        assertTrue(loader.prioritize(new Request(Settings.IMG_NORMAL)));
+        assertEquals(0, loader.getQueue2().indexOf(r2));
+        assertEquals(3, loader.getQueueSize());
+
+        // 5
+        assertFalse(loader.prioritize(new Request(Settings.IMG_HUGE)));
+        final ImageRequest scaled = new ImageRequest(Settings.IMG_SMALL);
+        scaled.setScale(new Point(10, 10));
+        assertFalse(loader.deprioritize(scaled));
+    }
+
+    /**
+     * Test cancelling requests by clients.
+     * 1) two clients add requests for the same image - it should be queued once
+     * 2) first client cancels - the image should stay queued for the second one
+     * 3) second client cancels - the image should be removed from queue
+     * 4) requests, that are not queued, should not be cancelled
+     * 5) requests in cache queue should be cancelled too
+     * 6) request, that was taken from queue, but isn't processed by loader thread, should not be
+     * cancelled (and nothing should be stopped)
+     */
+    public void testCancel() throws Exception {
+        // 1
+        final ImageLoaderWrapper loader = new ImageLoaderWrapper();
+        final Request r1 = new Request(Settings.IMG_SMALL);
+        final Request r2 = new Request(Settings.IMG_SMALL);
+        loader.addToQueue(r1);
+        loader.addToQueue(r2);
+        loader.addToQueue(new Request(Settings.IMG_NORMAL));
+        assertEquals(2, loader.getQueueSize());
+
+        // 2
+        assertFalse(loader.cancel(r1));
+        assertEquals(2, loader.getQueueSize());
+
+        // 3
+        assertTrue(loader.cancel(r2));
+        assertEquals(1, loader.getQueueSize());
+        assertEquals(-1, loader.getQueue2().indexOf(Settings.IMG_SMALL));
+
+        // 4
+        assertFalse(loader.cancel(r2));
+        assertFalse(loader.cancel(new Request(Settings.IMG_LARGE)));
+        assertEquals(1, loader.getQueueSize());
+
+        // 5
+        loader.getCache().put(Settings.IMG_LARGE, new byte[8]);
+        loader.addToQueue(new Request(Settings.IMG_LARGE));
+        assertEquals(1, loader.getCacheQueueSize());
+        assertTrue(loader.cancel(new Request(Settings.IMG_LARGE)));
         assertEquals(0, loader.getCacheQueueSize());
-        assertEquals(0, loader.getCache().count());
-        assertEquals(1, loader.getCache().scalesCount());
+
+        // 6
+        final Request taken = loader.getQueue2().next();
+        final Request again = new Request(taken.getURI());
+        loader.addToQueue(again);
+        loader.getQueue2().remove(again);
+        assertNull(loader.getProcessingRequest());
+        assertFalse(loader.cancel(new Request(taken.getURI())));
+        assertFalse(loader.isCurrentCancelled());
+    }
+
+    /**
+     * Test adding images into prefetch queue.
+     * 1) cached images and images, that are already queued, should not be prefetched
+     * 2) other images should be added into prefetch queue in the specified size
+     * 3) image, that is requested as usual, should be moved from prefetch queue into loading queue;
+     * prefetched request itself should become a usual one
+     * 4) reset should clear prefetch queue
+     */
+    public void testPrefetch() throws Exception {
+        // 1
+        final ImageLoaderWrapper loader = new ImageLoaderWrapper();
+        loader.getCache().put(Settings.IMG_SMALL, new byte[8]);
+        loader.addToQueue(new Request(Settings.IMG_NORMAL));
+
+        final List<Request> requests = new ArrayList<Request>();
+        requests.add(new Request(Settings.IMG_SMALL));
+        requests.add(new Request(Settings.IMG_NORMAL));
+        loader.prefetch(requests, null);
+        assertEquals(0, loader.getPrefetchQueueSize());
+
+        // 2
+        final ImageRequest large = new ImageRequest(Settings.IMG_LARGE);
+        loader.prefetch(Arrays.asList(large, new Request(Settings.IMG_HUGE)), new Point(100, 100));
+        assertEquals(2, loader.getPrefetchQueueSize());
+        assertTrue(large.isPrefetch());
+        assertEquals(new Point(100, 100), large.getScale());
+
+        // 3
+        loader.addToQueue(new ImageRequest(Settings.IMG_LARGE), new Point(100, 100));
+        assertEquals(1, loader.getPrefetchQueueSize());
+        assertEquals(2, loader.getQueueSize());
+        assertTrue(large.isPrefetch());
+
+        loader.addToQueue(large);
+        assertFalse(large.isPrefetch());
+        assertEquals(1, loader.getPrefetchQueueSize());
+
+        // 4
+        loader.reset();
+        assertEquals(0, loader.getPrefetchQueueSize());
+    }
+
+    /**
+     * Test delivering decoded images right in the calling thread.
+     * 1) put fake item into cache and it's decoded image into bitmap cache
+     * 2) add request for that image - listener should get it immediately, queues should stay empty
+     * 3) image should be returned by getFromMemory() without counting a hit, smaller variant -
+     * by deriving later
+     * 4) image, that is cached, but not decoded, should go into cache queue
+     * 5) stopped loader shouldn't deliver images immediately - they should go into cache queue
+     */
+    public void testMemoryFastPath() throws Exception {
+        // 1
+        final List<Bitmap> delivered = new ArrayList<Bitmap>();
+        final ImageLoaderWrapper loader = new ImageLoaderWrapper(new LoadingAdapter2<Bitmap>() {
+            @Override
+            public void processFinished(Request request, byte[] rawData, Bitmap data) {
+                super.processFinished(request, rawData, data);
+                delivered.add(data);
+            }
+        });
+        final Bitmap bmp = Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+        loader.getCache().put(Settings.IMG_SMALL, new byte[8]);
+        loader.getBitmapCache().put(Settings.IMG_SMALL, bmp);
+        loader.allowWorking();
+
+        // 2
+        loader.addToQueue(new Request(Settings.IMG_SMALL));
+        assertEquals(1, delivered.size());
+        assertSame(bmp, delivered.get(0));
+        assertEquals(0, loader.getQueueSize());
+        assertEquals(0, loader.getCacheQueueSize());
+        assertEquals(1, loader.getHitCount(ImageLoader.Source.MEMORY));
+
+        // 3
+        assertSame(bmp, loader.getFromMemory(new Request(Settings.IMG_SMALL)));
+        assertEquals(1, loader.getHitCount(ImageLoader.Source.MEMORY));
+        final ImageRequest scaled = new ImageRequest(Settings.IMG_SMALL);
+        scaled.setScale(new Point(5, 5));
+        assertNull(loader.getFromMemory(scaled));
+
+        // 4
+        loader.getCache().put(Settings.IMG_NORMAL, new byte[8]);
+        loader.addToQueue(new Request(Settings.IMG_NORMAL));
+        assertEquals(1, delivered.size());
+        assertEquals(1, loader.getCacheQueueSize());
+
+        // 5
+        loader.stopWorking();
+        loader.addToQueue(new Request(Settings.IMG_SMALL));
+        assertEquals(1, delivered.size());
+        assertEquals(2, loader.getCacheQueueSize());
+    }
+
+    /**
+     * Test listeners, that add requests for images in memory.
+     * 1) put two decoded images into memory
+     * 2) listener of the first image adds the second one - it should be delivered after the
+     * listener call is finished, not inside it
+     */
+    public void testMemoryFastPathReentrance() throws Exception {
+        // 1
+        final List<URI> events = new ArrayList<URI>();
+        final ImageLoaderWrapper[] loader = new ImageLoaderWrapper[1];
+        loader[0] = new ImageLoaderWrapper(new LoadingAdapter2<Bitmap>() {
+            @Override
+            public void processFinished(Request request, byte[] rawData, Bitmap data) {
+                super.processFinished(request, rawData, data);
+                events.add(request.getURI());
+                if (request.getURI().equals(Settings.IMG_SMALL))
+                    loader[0].addToQueue(new Request(Settings.IMG_NORMAL));
+                events.add(request.getURI());
+            }
+        });
+        loader[0].allowWorking();
+        for (URI uri : Arrays.asList(Settings.IMG_SMALL, Settings.IMG_NORMAL)) {
+            loader[0].getCache().put(uri, new byte[8]);
+            loader[0].getBitmapCache().put(uri, Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888));
+        }
+
+        // 2
+        loader[0].addToQueue(new Request(Settings.IMG_SMALL));
+        assertEquals(Arrays.asList(Settings.IMG_SMALL, Settings.IMG_SMALL, Settings.IMG_NORMAL,
+                Settings.IMG_NORMAL), events);
+        assertEquals(0, loader[0].getQueueSize());
+        assertEquals(0, loader[0].getCacheQueueSize());
+    }
+
+    /**
+     * Test revalidation of stale images.
+     * 1) start loader with empty queues - loader thread finishes
+     * 2) add stale image, that is decoded in memory - it should be delivered immediately and
+     * reloaded in background, though loader thread has finished (reloading of fake image fails
+     * silently - the stale one is kept)
+     */
+    public void testRevalidate() throws Exception {
+        // 1
+        final List<Bitmap> delivered = new ArrayList<Bitmap>();
+        final ImageLoaderWrapper loader = new ImageLoaderWrapper(new LoadingAdapter2<Bitmap>() {
+            @Override
+            public void processFinished(Request request, byte[] rawData, Bitmap data) {
+                super.processFinished(request, rawData, data);
+                delivered.add(data);
+            }
+        });
+        loader.start();
+        waitLoadingThreads(loader);
+
+        // 2
+        loader.getCache().put(Settings.IMG_FAKE, new byte[8]);
+        ((ExpiringCache) loader.getCache()).setExpiration(Settings.IMG_FAKE, 1);
+        loader.getBitmapCache().put(Settings.IMG_FAKE, Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888));
+        loader.addToQueue(new Request(Settings.IMG_FAKE));
+        assertEquals(1, delivered.size());
+        waitLoadingThreads(loader);
+        assertEquals(0, loader.getQueueSize());
+        assertNotNull(loader.getFailureCache().get(Settings.IMG_FAKE));
+        assertEquals(1, delivered.size());
+    }
+
+    /**
+     * Test transformations.
+     * 1) put fake source image into cache (raw pixels, so it is decoded without real decoder)
+     * 2) transformed request should be taken from cache and transformed in loader's thread once
+     * 3) transformed image should be cached under the key with transformations; the source stays
+     * 4) request with the same transformations should get the transformed image without transforming
+     * 5) plain request should not get the transformed image; transformed image should be decoded
+     * from cache without transforming, when it is not in memory
+     */
+    public void testTransformations() throws Exception {
+        // 1
+        final List<Bitmap> delivered = new ArrayList<Bitmap>();
+        final ImageLoaderWrapper loader = new ImageLoaderWrapper(new LoadingAdapter2<Bitmap>() {
+            @Override
+            public void processFinished(Request request, byte[] rawData, Bitmap data) {
+                super.processFinished(request, rawData, data);
+                delivered.add(data);
+            }
+        });
+        loader.setCacheEncoding(CacheEncoding.raw());
+        loader.getCache().put(Settings.IMG_SMALL,
+                CacheEncoding.raw().encode(Bitmap.createBitmap(20, 20, Bitmap.Config.ARGB_8888), null));
+
+        // 2
+        final int[] transformCount = {0};
+        final Transformation crop = new Transformation() {
+            @Override
+            public Bitmap transform(Bitmap source) {
+                transformCount[0]++;
+                return Bitmap.createBitmap(source, 0, 0, 10, 10);
+            }
+
+            @Override
+            public String getKey() { return "crop"; }
+        };
+        final ImageRequest request = new ImageRequest(Settings.IMG_SMALL);
+        request.addTransformation(crop);
+        loader.addToQueue(request);
+        assertEquals(1, loader.getCacheQueueSize());
+        loader.start();
+        waitLoadingThreads(loader);
+        assertEquals(1, delivered.size());
+        assertEquals(10, delivered.get(0).getWidth());
+        assertEquals(1, transformCount[0]);
+
+        // 3
+        assertTrue(loader.getCache().isCached(request.getDataKey()));
+        assertTrue(loader.getCache().isCached(Settings.IMG_SMALL));
+        assertEquals(0, loader.getCache().scalesCount());
+
+        // 4
+        final ImageRequest rebound = new ImageRequest(Settings.IMG_SMALL);
+        rebound.addTransformation(crop);
+        loader.addToQueue(rebound);
+        assertEquals(2, delivered.size());
+        assertSame(delivered.get(0), delivered.get(1));
+        assertEquals(1, transformCount[0]);
+
+        // 5
+        assertNull(loader.getFromMemory(new Request(Settings.IMG_SMALL)));
+        loader.getBitmapCache().clear();
+        loader.addToQueue(rebound);
+        loader.start();
+        waitLoadingThreads(loader);
+        assertEquals(3, delivered.size());
+        assertEquals(10, delivered.get(2).getWidth());
+        assertEquals(1, transformCount[0]);
+    }
+
+    /**
+     * Test choosing a queue for region requests (tiles).
+     * 1) tile of not cached image should be loaded
+     * 2) tile of cached image should be decoded from cache, even if only a scaled variant is cached
+     * 3) decoded tile should be delivered immediately with source data (by working loader)
+     * 4) tile of a source, that is kept only by region source cache, should be decoded from it
+     * without loading and caching the source; sources should be opened once
+     */
+    public void testRegionQueue() throws Exception {
+        // 1
+        final List<byte[]> delivered = new ArrayList<byte[]>();
+        final ImageLoaderWrapper loader = new ImageLoaderWrapper(new LoadingAdapter2<Bitmap>() {
+            @Override
+            public void processFinished(Request request, byte[] rawData, Bitmap data) {
+                super.processFinished(request, rawData, data);
+                delivered.add(rawData);
+            }
+        });
+        loader.addToQueue(tile(Settings.IMG_HUGE));
+        assertEquals(1, loader.getQueueSize());
+
+        // 2
+        final ImageRequest scaled = new ImageRequest(Settings.IMG_LARGE);
+        scaled.setScale(new Point(100, 100));
+        loader.getCache().put(scaled.getCacheKey(), new byte[8]);
+        loader.getCache().setScale(scaled.getCacheKey(), scaled.getScale());
+        loader.addToQueue(tile(Settings.IMG_LARGE));
+        assertEquals(2, loader.getQueueSize());
+
+        final byte[] source = new byte[8];
+        loader.getCache().put(Settings.IMG_LARGE, source);
+        loader.addToQueue(tile(Settings.IMG_LARGE));
+        assertEquals(1, loader.getCacheQueueSize());
+
+        // 3
+        loader.getBitmapCache().put(tile(Settings.IMG_LARGE).getCacheKey(),
+                Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888));
+        loader.allowWorking();
+        loader.addToQueue(tile(Settings.IMG_LARGE));
+        loader.stopWorking();
+        assertEquals(1, delivered.size());
+        assertSame(source, delivered.get(0));
+
+        // 4
+        final ByteArrayOutputStream huge = new ByteArrayOutputStream();
+        Bitmap.createBitmap(1024, 1024, Bitmap.Config.ARGB_8888).compress(Bitmap.CompressFormat.PNG, 100, huge);
+        loader.getRegionSourceCache().put(Settings.IMG_HUGE, huge.toByteArray(), 0);
+        loader.addToQueue(tile(Settings.IMG_HUGE));
+        assertEquals(2, loader.getCacheQueueSize());
+
+        loader.start();
+        waitLoadingThreads(loader);
+        assertTrue(delivered.contains(null));
+        assertFalse(loader.getCache().isCached(Settings.IMG_HUGE));
+        assertEquals(2, loader.getRegionSourceCache().size());
+    }
+
+    private Request tile(URI uri) {
+        final ImageRequest request = new ImageRequest(uri);
+        request.setRegion(new android.graphics.Rect(0, 0, 512, 512), 2);
+        return request;
     }
 
     /**
@@ -124,7 +806,7 @@ public class ImageLoaderTest extends AndroidTestCase {
     public void testSimpleDownload() throws Exception {
         // 1
         final int[][] assertValues = {{425, 554, 80492}, {1600, 1000, 483849},
-                {1999, 1095, 1978649}, {2000, 812, 1688679}};
+                {2000, 1095, -1}, {2000, 812, -1}};
         final ImageLoaderWrapper loader = new ImageLoaderWrapper(new AssertListener(assertValues));
 
         // 2
@@ -139,26 +821,30 @@ public class ImageLoaderTest extends AndroidTestCase {
     /**
      * Loading images with scaling.
      * 1) create a loader
-     * 2) init queue with all images from Settings (some should be added several times and with scales)
-     * 3) check loaded images dimensions and sizes
+     * 2) init queue with all images from Settings (some should be added several times and with scales);
+     * requests with and without scale are different variants, so both are loaded, but the same
+     * variant is queued only once
+     * 3) check loaded images dimensions and sizes (variants without scale - in original size)
      * 4) check failed image (Settings.FAKE) (by URI)
      */
     public void testScalingDownload() throws Exception {
         // 1
-        final int[][] assertValues = {{153, 200, 45016}, {1600, 1000, 483849},
-                {399, 218, 136436}, {2000, 812, 1688679}};
+        final int[][] assertValues = {{153, 200, -1}, {1600, 1000, 483849},
+                {400, 219, -1}, {2000, 812, -1}};
         final ImageLoaderWrapper loader = new ImageLoaderWrapper(new AssertListener(assertValues));
 
         // 2
-        loader.addToQueue(new Request(Settings.IMG_SMALL)); // would be ignored
-        loader.addToQueue(new Request(Settings.IMG_SMALL), new Point(200, 200)); // would be loaded and scaled
-        loader.addToQueue(new Request(Settings.IMG_SMALL)); // ignored
+        loader.addToQueue(new Request(Settings.IMG_SMALL)); // another variant - loaded in original size
+        loader.addToQueue(new ImageRequest(Settings.IMG_SMALL), new Point(200, 200)); // would be loaded and scaled
+        loader.addToQueue(new Request(Settings.IMG_SMALL)); // ignored - same variant
+        loader.addToQueue(new ImageRequest(Settings.IMG_SMALL), new Point(200, 200)); // ignored - same variant
         loader.addToQueue(new Request(Settings.IMG_NORMAL)); // loaded
-        loader.addToQueue(new Request(Settings.IMG_LARGE), new Point(400, 400)); // loaded and scaled
-        loader.addToQueue(new Request(Settings.IMG_HUGE)); // ignored
-        loader.addToQueue(new Request(Settings.IMG_HUGE), new Point(3000, 3000)); // loaded and scaled in 2048x2048
-        loader.addToQueue(new Request(Settings.IMG_FAKE)); // ignored
-        loader.addToQueue(new Request(Settings.IMG_FAKE), new Point(300, 300)); // would fail - there is no image
+        loader.addToQueue(new ImageRequest(Settings.IMG_LARGE), new Point(400, 400)); // loaded and scaled
+        loader.addToQueue(new Request(Settings.IMG_HUGE)); // another variant - loaded in 2048x2048
+        loader.addToQueue(new ImageRequest(Settings.IMG_HUGE), new Point(3000, 3000)); // loaded and scaled in 2048x2048
+        loader.addToQueue(new Request(Settings.IMG_FAKE)); // another variant - would fail
+        loader.addToQueue(new ImageRequest(Settings.IMG_FAKE), new Point(300, 300)); // would fail - there is no image
+        loader.addToQueue(new ImageRequest(Settings.IMG_FAKE), new Point(300, 300)); // ignored - same variant
         loader.start();
 
         // 3-4 - auto in AssertListener
@@ -185,16 +871,19 @@ public class ImageLoaderTest extends AndroidTestCase {
     /**
      * Mixed download - both from cache and URI.
      * 1) create a loader
-     * 2) init queue with all images from Settings (some should be added several times and with scales)
-     * 3) check loaded images dimensions and sizes
+     * 2) init queue with all images from Settings (some should be added several times and with scales);
+     * requests with and without scale are different variants, so both are loaded, but the same
+     * variant is queued only once
+     * 3) check loaded images dimensions and sizes (variants without scale - in original size)
      * 4) check failed image (Settings.FAKE) (by URI)
      * 5) after loading small image, require it again - it should be loaded from cache in the same size
-     * 6) after loading normal image, require it again with larger scale - it should be reloaded and recached
+     * 6) after loading normal image, require it again with a scale - it should be derived from the
+     * cached original and cached as one more variant
      */
     private void doTestMixedDownload(final ImageLoaderWrapper loader) throws Exception {
         // 1
-        final int[][] assertValues = {{153, 200, 45016}, {1600, 1000, 483849},
-                {399, 218, 136436}, {2000, 812, 1688679}};
+        final int[][] assertValues = {{153, 200, -1}, {1600, 1000, 483849},
+                {400, 219, -1}, {2000, 812, -1}};
         final int[] smallReload = {1}, normalReload = {1};
         loader.addLoadingListener(new LoadingAdapter2<Bitmap>() {
             @Override
@@ -223,15 +912,16 @@ public class ImageLoaderTest extends AndroidTestCase {
                             assertImages(assertValues, request, rawData, data);
                             // 6
                             assertEquals(2, loader.getCache().count());
-                            loader.addToQueue(new Request(Settings.IMG_NORMAL), new Point(400, 400));
-                            assertEquals(1, loader.getCache().count());
+                            loader.addToQueue(new ImageRequest(Settings.IMG_NORMAL), new Point(400, 400));
+                            assertEquals(2, loader.getCache().count());
                             normalReload[0] = 0;
                         } else {
                             // 6
-                            assertEquals(4, loader.getCache().count());
+                            assertTrue(loader.getCache().isCached(Settings.IMG_NORMAL));
+                            assertTrue(loader.getCache().isCached(request.getCacheKey()));
                             assertEquals(400, data.getWidth());
                             assertEquals(250, data.getHeight());
-                            assertEquals(169972, rawData.length);
+                            assertRawData(-1, rawData, data);
                         }
                         break;
 
@@ -250,16 +940,18 @@ public class ImageLoaderTest extends AndroidTestCase {
         });
 
         // 2
-        loader.addToQueue(new Request(Settings.IMG_SMALL)); // would be ignored
-        loader.addToQueue(new Request(Settings.IMG_SMALL), new Point(200, 200)); // would be loaded and scaled
-        loader.addToQueue(new Request(Settings.IMG_SMALL)); // ignored
+        loader.addToQueue(new Request(Settings.IMG_SMALL)); // another variant - loaded in original size
+        loader.addToQueue(new ImageRequest(Settings.IMG_SMALL), new Point(200, 200)); // would be loaded and scaled
+        loader.addToQueue(new Request(Settings.IMG_SMALL)); // ignored - same variant
+        loader.addToQueue(new ImageRequest(Settings.IMG_SMALL), new Point(200, 200)); // ignored - same variant
         loader.addToQueue(new Request(Settings.IMG_NORMAL)); // loaded
-        loader.addToQueue(new Request(Settings.IMG_LARGE), new Point(400, 400)); // loaded and scaled
-        loader.addToQueue(new Request(Settings.IMG_HUGE)); // ignored
-        loader.addToQueue(new Request(Settings.IMG_HUGE), new Point(3000, 3000)); // loaded and scaled in 2048x2048
-        loader.addToQueue(new Request(Settings.IMG_FAKE)); // ignored
-        loader.addToQueue(new Request(Settings.IMG_FAKE), new Point(300, 300)); // would fail - there is no image
-        assertEquals(5, loader.getQueueSize());
+        loader.addToQueue(new ImageRequest(Settings.IMG_LARGE), new Point(400, 400)); // loaded and scaled
+        loader.addToQueue(new Request(Settings.IMG_HUGE)); // another variant - loaded in 2048x2048
+        loader.addToQueue(new ImageRequest(Settings.IMG_HUGE), new Point(3000, 3000)); // loaded and scaled in 2048x2048
+        loader.addToQueue(new Request(Settings.IMG_FAKE)); // another variant - would fail
+        loader.addToQueue(new ImageRequest(Settings.IMG_FAKE), new Point(300, 300)); // would fail - there is no image
+        loader.addToQueue(new ImageRequest(Settings.IMG_FAKE), new Point(300, 300)); // ignored - same variant
+        assertEquals(8, loader.getQueueSize());
         loader.start();
 
         waitLoadingThreads(loader);
@@ -267,7 +959,8 @@ public class ImageLoaderTest extends AndroidTestCase {
 
     private void waitLoadingThreads(ImageLoaderWrapper loader) {
         //noinspection StatementWithEmptyBody
-        while(loader.getLoaderThread2().isAlive() || loader.getCacheLoaderThread2().isAlive()) {}
+        while(loader.getLoaderThread2().isAlive() || loader.getCacheLoaderThread2().isAlive()
+                || !loader.isPipelineIdle()) {}
     }
 
     private Settings.Img getImg(Request request) {
@@ -284,27 +977,29 @@ public class ImageLoaderTest extends AndroidTestCase {
 
         switch (img) {
             case SMALL:
-                assertEquals(values[0][0], data.getWidth());
-                assertEquals(values[0][1], data.getHeight());
-                assertEquals(values[0][2], rawData.length);
+                final boolean scaled = request instanceof ImageRequest && ((ImageRequest) request).getScale() != null;
+                final int[] small = scaled ? values[0] : ORIGINAL_SMALL;
+                assertEquals(small[0], data.getWidth());
+                assertEquals(small[1], data.getHeight());
+                assertRawData(small[2], rawData, data);
                 break;
 
             case NORMAL:
                 assertEquals(values[1][0], data.getWidth());
                 assertEquals(values[1][1], data.getHeight());
-                assertEquals(values[1][2], rawData.length);
+                assertRawData(values[1][2], rawData, data);
                 break;
 
             case LARGE:
                 assertEquals(values[2][0], data.getWidth());
                 assertEquals(values[2][1], data.getHeight());
-                assertEquals(values[2][2], rawData.length);
+                assertRawData(values[2][2], rawData, data);
                 break;
 
             case HUGE:
                 assertEquals(values[3][0], data.getWidth());
                 assertEquals(values[3][1], data.getHeight());
-                assertEquals(values[3][2], rawData.length);
+                assertRawData(values[3][2], rawData, data);
                 break;
 
             default:
@@ -312,6 +1007,26 @@ public class ImageLoaderTest extends AndroidTestCase {
         }
     }
 
+    /**
+     * Checks raw data size. Size of images, that were scaled by the loader, depends on resampling
+     * ({@link ru.jango.j0loader.image.ImageDecoder}), so for them (size is -1) only checks, that raw
+     * data is an image of the same dimensions.
+     */
+    private void assertRawData(int size, byte[] rawData, Bitmap data) {
+        if (size >= 0) {
+            assertEquals(size, rawData.length);
+            return;
+        }
+
+        try {
+            final Point bounds = ImageDecoder.decodeBounds(rawData);
+            assertEquals(data.getWidth(), bounds.x);
+            assertEquals(data.getHeight(), bounds.y);
+        } catch (DataFormatException e) {
+            fail(e.getMessage());
+        }
+    }
+
     private class AssertListener extends LoadingAdapter2<Bitmap> {
 
         private int[][] values;
@@ -351,5 +1066,7 @@ public class ImageLoaderTest extends AndroidTestCase {
 
         public Thread getLoaderThread2() { return getLoaderThread(); }
         public Thread getCacheLoaderThread2() { return getCacheLoaderThread(); }
+        public Exception getRecentFailure2(Request request) { return getRecentFailure(request); }
+        public Queue getQueue2() { return getQueue(); }
     }
 }
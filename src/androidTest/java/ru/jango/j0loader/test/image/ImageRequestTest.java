@@ -0,0 +1,95 @@
+package ru.jango.j0loader.test.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.test.AndroidTestCase;
+
+import java.net.URI;
+
+import ru.jango.j0loader.Request;
+import ru.jango.j0loader.image.ImageDecoder;
+import ru.jango.j0loader.image.ImageRequest;
+import ru.jango.j0loader.image.Transformation;
+
+public class ImageRequestTest extends AndroidTestCase {
+
+    /**
+     * 1) request without scale has it's URI as cache key, as plain request has
+     * 2) scaled request has variant (with covering scale mode) in the key fragment; original
+     * fragment is dropped
+     * 3) base URI is the same for all variants
+     * 4) region request has region and sample size in the key, instead of scale
+     * 5) empty region or wrong sample size - exception
+     * 6) config is in the cache key, but not in the data key; default config is not in keys
+     * 7) transformations are in the cache key and in the data key in order, but not in the source key
+     */
+    public void testCacheKey() throws Exception {
+        // 1
+        final ImageRequest request = new ImageRequest(URI.create("http://example.com/img.jpg?v=1#top"));
+        assertEquals(request.getURI(), request.getCacheKey());
+        assertEquals(request.getURI(), new Request(request.getURI()).getCacheKey());
+
+        // 2
+        request.setScale(new Point(96, 64));
+        assertEquals(URI.create("http://example.com/img.jpg?v=1#j0=96x64"), request.getCacheKey());
+
+        request.setScaleMode(ImageDecoder.ScaleMode.COVER);
+        assertEquals(URI.create("http://example.com/img.jpg?v=1#j0=96x64+cover"), request.getCacheKey());
+        request.setScaleMode(null);
+        assertEquals(URI.create("http://example.com/img.jpg?v=1#j0=96x64"), request.getCacheKey());
+
+        // 3
+        assertEquals(URI.create("http://example.com/img.jpg?v=1"), ImageRequest.getBaseURI(request.getCacheKey()));
+        assertEquals(URI.create("http://example.com/img.jpg?v=1"), ImageRequest.getBaseURI(request.getURI()));
+
+        // 4
+        request.setRegion(new Rect(0, 512, 512, 1024), 4);
+        assertEquals(URI.create("http://example.com/img.jpg?v=1#j0=0,512-512,1024@4"), request.getCacheKey());
+        request.setRegion(null, 0);
+        assertEquals(URI.create("http://example.com/img.jpg?v=1#j0=96x64"), request.getCacheKey());
+
+        // 5
+        try {
+            request.setRegion(new Rect(10, 10, 10, 20), 1);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException ignored) {}
+
+        try {
+            request.setRegion(new Rect(0, 0, 10, 20), 0);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException ignored) {}
+
+        // 6
+        request.setConfig(Bitmap.Config.RGB_565);
+        assertEquals(URI.create("http://example.com/img.jpg?v=1#j0=96x64:RGB_565"), request.getCacheKey());
+        assertEquals(URI.create("http://example.com/img.jpg?v=1#j0=96x64"), request.getDataKey());
+        request.setScale(null);
+        assertEquals(URI.create("http://example.com/img.jpg?v=1#j0=RGB_565"), request.getCacheKey());
+        assertEquals(request.getURI(), request.getDataKey());
+        request.setConfig(Bitmap.Config.ARGB_8888);
+        assertEquals(request.getURI(), request.getCacheKey());
+
+        // 7
+        request.setScale(new Point(96, 64));
+        request.setConfig(Bitmap.Config.RGB_565);
+        request.addTransformation(transformation("crop"));
+        request.addTransformation(transformation("round(8)"));
+        assertEquals(URI.create("http://example.com/img.jpg?v=1#j0=96x64:RGB_565/crop/round(8)"), request.getCacheKey());
+        assertEquals(URI.create("http://example.com/img.jpg?v=1#j0=96x64/crop/round(8)"), request.getDataKey());
+        assertEquals(URI.create("http://example.com/img.jpg?v=1#j0=96x64"), request.getSourceKey());
+        request.setTransformations(null);
+        assertEquals(request.getSourceKey(), request.getDataKey());
+    }
+
+    private Transformation transformation(final String key) {
+        return new Transformation() {
+            @Override
+            public Bitmap transform(Bitmap source) { return source; }
+
+            @Override
+            public String getKey() { return key; }
+        };
+    }
+
+}
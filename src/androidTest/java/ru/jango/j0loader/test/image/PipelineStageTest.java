@@ -0,0 +1,93 @@
+package ru.jango.j0loader.test.image;
+
+import android.test.AndroidTestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ru.jango.j0loader.image.PipelineStage;
+
+public class PipelineStageTest extends AndroidTestCase {
+
+    /**
+     * 1) tasks should be run in stage's threads, that know their stage
+     * 2) stage should be idle after all tasks are finished and count them
+     */
+    public void testRun() throws Exception {
+        // 1
+        final PipelineStage stage = PipelineStage.createPool("test", 2, 4);
+        final AtomicReference<PipelineStage> current = new AtomicReference<PipelineStage>();
+        final CountDownLatch done = new CountDownLatch(4);
+        for (int i=0; i<4; i++)
+            stage.submit(new Runnable() {
+                @Override
+                public void run() {
+                    current.set(PipelineStage.current());
+                    done.countDown();
+                }
+            });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertSame(stage, current.get());
+        assertNull(PipelineStage.current());
+
+        // 2
+        waitIdle(stage);
+        assertEquals(4, stage.getProcessedCount());
+        assertEquals(0, stage.getBlockedCount());
+    }
+
+    /**
+     * 1) fill the stage with blocked tasks
+     * 2) one more submit should block, until a task is finished
+     * 3) blocking should be counted
+     */
+    public void testBackpressure() throws Exception {
+        // 1
+        final PipelineStage stage = PipelineStage.createPool("test", 1, 2);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Runnable blocked = new Runnable() {
+            @Override
+            public void run() {
+                try { release.await(); }
+                catch (InterruptedException ignored) {}
+            }
+        };
+        stage.submit(blocked);
+        stage.submit(blocked);
+        assertEquals(2, stage.getInFlight());
+
+        // 2
+        final CountDownLatch submitted = new CountDownLatch(1);
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    stage.submit(blocked);
+                    submitted.countDown();
+                } catch (InterruptedException ignored) {}
+            }
+        });
+        producer.start();
+        assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+
+        release.countDown();
+        assertTrue(submitted.await(5, TimeUnit.SECONDS));
+
+        // 3
+        waitIdle(stage);
+        assertEquals(3, stage.getProcessedCount());
+        assertEquals(1, stage.getBlockedCount());
+        assertTrue(stage.getBlockedTime() >= 100);
+    }
+
+    private void waitIdle(PipelineStage stage) throws Exception {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!stage.isIdle() && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+
+        assertTrue(stage.isIdle());
+    }
+
+}
@@ -0,0 +1,121 @@
+package ru.jango.j0loader.test.image;
+
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import ru.jango.j0loader.image.PreviewDecoder;
+
+public class PreviewDecoderTest extends AndroidTestCase {
+
+    private static final byte[] THUMBNAIL = bytes(0xFF, 0xD8, 0xFF, 0xDB, 1, 2, 3, 0xFF, 0xD9);
+
+    /**
+     * 1) thumbnail should be found in EXIF segment (big and little endian)
+     * 2) partially loaded segment - no thumbnail yet
+     * 3) EXIF without thumbnail or not a JPEG - no thumbnail
+     * 4) malformed offset and length (their sum overflows) - no thumbnail and no exceptions
+     */
+    public void testExifThumbnail() throws Exception {
+        // 1
+        final byte[] jpeg = exifJPEG(false, true);
+        assertTrue(Arrays.equals(THUMBNAIL, PreviewDecoder.findExifThumbnail(jpeg, jpeg.length)));
+
+        final byte[] littleEndian = exifJPEG(true, true);
+        assertTrue(Arrays.equals(THUMBNAIL, PreviewDecoder.findExifThumbnail(littleEndian, littleEndian.length)));
+
+        // 2
+        assertNull(PreviewDecoder.findExifThumbnail(jpeg, 40));
+
+        // 3
+        final byte[] noThumbnail = exifJPEG(false, false);
+        assertNull(PreviewDecoder.findExifThumbnail(noThumbnail, noThumbnail.length));
+        assertNull(PreviewDecoder.findExifThumbnail("not an image".getBytes(), 12));
+
+        // 4
+        final byte[] malformed = exifJPEG(false, true, 0x100, 0x7FFFFFF0);
+        assertNull(PreviewDecoder.findExifThumbnail(malformed, malformed.length));
+        assertNull(PreviewDecoder.decodePreview(malformed, malformed.length, null));
+    }
+
+    /**
+     * 1) first scan of a progressive JPEG should end at the next marker; stuffed bytes and
+     * restart markers should be skipped
+     * 2) partially loaded scan - not found yet
+     * 3) baseline JPEG - no scans
+     */
+    public void testFirstScan() throws Exception {
+        // 1
+        final byte[] progressive = scanJPEG(0xC2);
+        final int scanEnd = progressive.length - 4;
+        assertEquals(scanEnd, PreviewDecoder.findFirstScanEnd(progressive, progressive.length));
+
+        // 2
+        assertEquals(-1, PreviewDecoder.findFirstScanEnd(progressive, scanEnd));
+
+        // 3
+        final byte[] baseline = scanJPEG(0xC0);
+        assertEquals(-1, PreviewDecoder.findFirstScanEnd(baseline, baseline.length));
+    }
+
+    private byte[] exifJPEG(boolean littleEndian, boolean withThumbnail) throws Exception {
+        return exifJPEG(littleEndian, withThumbnail, 44, THUMBNAIL.length);
+    }
+
+    private byte[] exifJPEG(boolean littleEndian, boolean withThumbnail, int offset, int length) throws Exception {
+        final ByteArrayOutputStream tiff = new ByteArrayOutputStream();
+        tiff.write(littleEndian ? 'I' : 'M');
+        tiff.write(littleEndian ? 'I' : 'M');
+        write(tiff, 0x2A, 2, littleEndian);
+        write(tiff, 8, 4, littleEndian);        // IFD0 offset
+
+        write(tiff, 0, 2, littleEndian);        // IFD0: no entries
+        write(tiff, withThumbnail ? 14 : 0, 4, littleEndian);   // IFD1 offset
+
+        if (withThumbnail) {
+            write(tiff, 2, 2, littleEndian);    // IFD1: offset and length of thumbnail
+            write(tiff, 0x0201, 2, littleEndian);
+            write(tiff, 4, 2, littleEndian);
+            write(tiff, 1, 4, littleEndian);
+            write(tiff, offset, 4, littleEndian);
+            write(tiff, 0x0202, 2, littleEndian);
+            write(tiff, 4, 2, littleEndian);
+            write(tiff, 1, 4, littleEndian);
+            write(tiff, length, 4, littleEndian);
+            write(tiff, 0, 4, littleEndian);
+            tiff.write(THUMBNAIL);
+        }
+
+        final ByteArrayOutputStream jpeg = new ByteArrayOutputStream();
+        jpeg.write(bytes(0xFF, 0xD8, 0xFF, 0xE1));
+        write(jpeg, 2 + 6 + tiff.size(), 2, false);
+        jpeg.write("Exif".getBytes());
+        jpeg.write(bytes(0, 0));
+        jpeg.write(tiff.toByteArray());
+        jpeg.write(bytes(0xFF, 0xDA, 0, 2, 1, 2, 3, 0xFF, 0xD9));
+        return jpeg.toByteArray();
+    }
+
+    private byte[] scanJPEG(int frameMarker) {
+        return bytes(0xFF, 0xD8,
+                0xFF, frameMarker, 0, 4, 1, 2,
+                0xFF, 0xDA, 0, 3, 1,
+                0x12, 0xFF, 0x00, 0x34, 0xFF, 0xD0, 0x56,
+                0xFF, 0xC4, 0, 2);
+    }
+
+    private void write(ByteArrayOutputStream out, int value, int size, boolean littleEndian) {
+        for (int i=0; i<size; i++)
+            out.write(value >> (8 * (littleEndian ? i : size - 1 - i)));
+    }
+
+    private static byte[] bytes(int... values) {
+        final byte[] data = new byte[values.length];
+        for (int i=0; i<values.length; i++)
+            data[i] = (byte) values[i];
+
+        return data;
+    }
+
+}
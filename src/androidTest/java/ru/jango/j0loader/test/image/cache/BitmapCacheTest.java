@@ -0,0 +1,78 @@
+package ru.jango.j0loader.test.image.cache;
+
+import android.graphics.Bitmap;
+import android.test.AndroidTestCase;
+
+import java.net.URI;
+
+import ru.jango.j0loader.image.cache.BitmapCache;
+
+public class BitmapCacheTest extends AndroidTestCase {
+
+    // 10x10 ARGB_8888 - 400 bytes
+    private static final int BMP_SIZE = 400;
+
+    /**
+     * 1) cached image should be returned as is, without decoding
+     * 2) size should be counted in bitmap bytes
+     * 3) least recently used images should be evicted first
+     * 4) images larger than max size should not be cached
+     */
+    public void testPutGet() throws Exception {
+        // 1
+        final BitmapCache cache = new BitmapCache(BMP_SIZE * 3);
+        final Bitmap bmp = createBitmap();
+        assertTrue(cache.put(uri(0), bmp));
+        assertSame(bmp, cache.get(uri(0)));
+
+        // 2
+        cache.put(uri(1), createBitmap());
+        cache.put(uri(2), createBitmap());
+        assertEquals(BMP_SIZE * 3, cache.size());
+        assertEquals(3, cache.count());
+
+        // 3
+        cache.get(uri(0));
+        cache.put(uri(3), createBitmap());
+        assertTrue(cache.contains(uri(0)));
+        assertFalse(cache.contains(uri(1)));
+        assertEquals(1, cache.getStats().getEvictionCount());
+
+        // 4
+        assertFalse(cache.put(uri(4), Bitmap.createBitmap(100, 100, Bitmap.Config.ARGB_8888)));
+        assertFalse(cache.contains(uri(4)));
+        assertEquals(3, cache.count());
+    }
+
+    /**
+     * 1) recycled images should be dropped and counted as misses
+     * 2) cache should be trimmed without changing max size
+     */
+    public void testRecycledAndTrim() throws Exception {
+        // 1
+        final BitmapCache cache = new BitmapCache(BMP_SIZE * 4);
+        final Bitmap bmp = createBitmap();
+        cache.put(uri(0), bmp);
+        bmp.recycle();
+        assertNull(cache.get(uri(0)));
+        assertEquals(0, cache.count());
+        assertEquals(1, cache.getStats().getMissCount());
+
+        // 2
+        for (int i=0; i<4; i++)
+            cache.put(uri(i), createBitmap());
+        cache.trimToSize(BMP_SIZE);
+        assertEquals(1, cache.count());
+        assertTrue(cache.contains(uri(3)));
+        assertEquals(BMP_SIZE * 4, cache.getMaxCacheSize());
+    }
+
+    private Bitmap createBitmap() {
+        return Bitmap.createBitmap(10, 10, Bitmap.Config.ARGB_8888);
+    }
+
+    private URI uri(int i) {
+        return URI.create("http://test.com/img" + i + ".jpg");
+    }
+
+}
@@ -0,0 +1,81 @@
+package ru.jango.j0loader.test.image.cache;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.test.AndroidTestCase;
+
+import ru.jango.j0loader.image.cache.BitmapPool;
+
+public class BitmapPoolTest extends AndroidTestCase {
+
+    // 10x10 ARGB_8888 - 400 bytes
+    private static final int BMP_SIZE = 400;
+
+    /**
+     * 1) bitmap of the same size and config should be reused
+     * 2) every get should be counted as reuse or allocation
+     * 3) immutable and recycled bitmaps should not be pooled
+     */
+    public void testReuse() throws Exception {
+        if (!BitmapPool.isSupported()) return;
+
+        // 1
+        final BitmapPool pool = new BitmapPool(BMP_SIZE * 4);
+        final Bitmap bmp = createBitmap(10, 10);
+        assertTrue(pool.put(bmp));
+        assertEquals(BMP_SIZE, pool.size());
+        assertSame(bmp, pool.get(10, 10, Bitmap.Config.ARGB_8888));
+        assertEquals(0, pool.size());
+
+        // 2
+        assertNull(pool.get(10, 10, Bitmap.Config.ARGB_8888));
+        pool.recordAllocation();
+        assertEquals(1, pool.getReuseCount());
+        assertEquals(2, pool.getAllocationCount());
+
+        // 3
+        assertFalse(pool.put(createBitmap(10, 10).copy(Bitmap.Config.ARGB_8888, false)));
+        final Bitmap recycled = createBitmap(10, 10);
+        recycled.recycle();
+        assertFalse(pool.put(recycled));
+        assertEquals(0, pool.count());
+    }
+
+    /**
+     * 1) oldest bitmaps should be recycled, when pool exceeds max size
+     * 2) pool should be trimmed without changing max size
+     * 3) since API 19 larger bitmap should be reconfigured to the required size
+     */
+    public void testBounds() throws Exception {
+        if (!BitmapPool.isSupported()) return;
+
+        // 1
+        final BitmapPool pool = new BitmapPool(BMP_SIZE * 2);
+        final Bitmap first = createBitmap(10, 10);
+        pool.put(first);
+        pool.put(createBitmap(10, 10));
+        pool.put(createBitmap(10, 10));
+        assertEquals(2, pool.count());
+        assertTrue(first.isRecycled());
+
+        // 2
+        pool.trimToSize(BMP_SIZE);
+        assertEquals(1, pool.count());
+        assertEquals(BMP_SIZE * 2, pool.getMaxCacheSize());
+        pool.clear();
+
+        // 3
+        pool.put(createBitmap(10, 10));
+        final Bitmap bmp = pool.get(5, 5, Bitmap.Config.ARGB_8888);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            assertNotNull(bmp);
+            assertEquals(5, bmp.getWidth());
+            assertEquals(5, bmp.getHeight());
+        } else assertNull(bmp);
+    }
+
+    private Bitmap createBitmap(int width, int height) {
+        return Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+    }
+
+}
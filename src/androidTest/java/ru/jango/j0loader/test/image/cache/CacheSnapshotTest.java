@@ -0,0 +1,152 @@
+package ru.jango.j0loader.test.image.cache;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+
+import ru.jango.j0loader.Request;
+import ru.jango.j0loader.image.ImageLoader;
+import ru.jango.j0loader.image.cache.CacheSnapshot;
+import ru.jango.j0loader.image.cache.DirectCache;
+import ru.jango.j0loader.image.cache.LRUCache;
+import ru.jango.j0util.LogUtil;
+
+public class CacheSnapshotTest extends AndroidTestCase {
+
+    /**
+     * 1) save a cache with several entries and open the snapshot
+     * 2) check entries data and expiration
+     * 3) check missing entry
+     */
+    public void testWriteOpen() throws Exception {
+        // 1
+        final LRUCache cache = new LRUCache(100000);
+        for (int i=0; i<10; i++)
+            cache.put(uri(i), data(i, 100 + i));
+        cache.setExpiration(uri(3), 12345);
+
+        final File file = File.createTempFile("snapshot", ".bin");
+        assertEquals(10, CacheSnapshot.write(cache, file, Long.MAX_VALUE));
+        final CacheSnapshot snapshot = CacheSnapshot.open(file);
+
+        // 2
+        assertEquals(10, snapshot.count());
+        for (int i=0; i<10; i++) {
+            final byte[] data = snapshot.get(uri(i));
+            assertEquals(100 + i, data.length);
+            assertEquals((byte) i, data[data.length - 1]);
+        }
+        assertEquals(12345, snapshot.getExpiration(uri(3)));
+        assertEquals(0, snapshot.getExpiration(uri(4)));
+
+        // 3
+        assertFalse(snapshot.contains(uri(10)));
+        assertNull(snapshot.get(uri(10)));
+        file.delete();
+    }
+
+    /**
+     * 1) only most recently used entries, that fit into the size, should be saved
+     * 2) file in unknown format should be rejected
+     * 3) DirectCache should save the same hot set
+     * 4) failed write shouldn't leave temporary file
+     */
+    public void testHotSet() throws Exception {
+        // 1
+        final LRUCache cache = new LRUCache(100000);
+        for (int i=0; i<10; i++)
+            cache.put(uri(i), data(i, 100));
+        cache.get(uri(0));
+
+        final File file = File.createTempFile("snapshot", ".bin");
+        assertEquals(3, CacheSnapshot.write(cache, file, 350));
+        final CacheSnapshot snapshot = CacheSnapshot.open(file);
+        assertTrue(snapshot.contains(uri(0)));
+        assertTrue(snapshot.contains(uri(9)));
+        assertTrue(snapshot.contains(uri(8)));
+        assertFalse(snapshot.contains(uri(1)));
+
+        // 2
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[20]);
+        out.close();
+        try {
+            CacheSnapshot.open(file);
+            fail("broken snapshot was opened");
+        } catch (IOException ignored) {}
+
+        // 3
+        final DirectCache directCache = new DirectCache(100000);
+        for (int i=0; i<10; i++)
+            directCache.put(uri(i), data(i, 100));
+        directCache.get(uri(0));
+        directCache.put(uri(5), data(5, 500));
+
+        assertEquals(3, CacheSnapshot.write(directCache, file, 350));
+        final CacheSnapshot directSnapshot = CacheSnapshot.open(file);
+        assertTrue(directSnapshot.contains(uri(0)));
+        assertTrue(directSnapshot.contains(uri(9)));
+        assertTrue(directSnapshot.contains(uri(8)));
+        assertFalse(directSnapshot.contains(uri(5)));
+        file.delete();
+
+        // 4
+        final File dir = new File(file.getPath() + ".dir");
+        assertTrue(dir.mkdir());
+        assertTrue(new File(dir, "child").createNewFile());
+        try {
+            CacheSnapshot.write(cache, dir, 350);
+            fail("directory was replaced");
+        } catch (IOException ignored) {}
+        assertFalse(new File(dir.getPath() + ".tmp").exists());
+        new File(dir, "child").delete();
+        dir.delete();
+    }
+
+    /**
+     * 1) images from snapshot should be loaded from cache queue
+     * 2) opening a large snapshot should not depend on it's size
+     */
+    public void testLoader() throws Exception {
+        // 1
+        final LRUCache cache = new LRUCache(10000000);
+        for (int i=0; i<20000; i++)
+            cache.put(uri(i), data(i, 100));
+
+        final File file = File.createTempFile("snapshot", ".bin");
+        CacheSnapshot.write(cache, file, Long.MAX_VALUE);
+
+        final ImageLoader loader = new ImageLoader();
+        loader.setSnapshot(CacheSnapshot.open(file));
+        loader.addToQueue(new Request(uri(5)));
+        loader.addToQueue(new Request(uri(20000)));
+        assertEquals(1, loader.getCacheQueueSize());
+        assertEquals(1, loader.getQueueSize());
+
+        // 2
+        final long started = System.nanoTime();
+        final CacheSnapshot snapshot = CacheSnapshot.open(file);
+        final long opened = System.nanoTime();
+        for (int i=0; i<20000; i++)
+            assertNotNull(snapshot.get(uri(i)));
+        final long read = System.nanoTime();
+
+        LogUtil.d(CacheSnapshotTest.class, "20000 entries: opened in " + (opened - started) / 1000
+                + "us; all entries read in " + (read - opened) / 1000000 + "ms");
+        file.delete();
+    }
+
+    private byte[] data(int i, int length) {
+        final byte[] data = new byte[length];
+        data[length - 1] = (byte) i;
+        return data;
+    }
+
+    private URI uri(int i) {
+        return URI.create("http://example.com/img/" + i + ".jpg");
+    }
+
+}
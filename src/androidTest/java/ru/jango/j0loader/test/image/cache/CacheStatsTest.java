@@ -0,0 +1,93 @@
+package ru.jango.j0loader.test.image.cache;
+
+import android.test.AndroidTestCase;
+
+import java.net.URI;
+
+import ru.jango.j0loader.image.cache.CacheStats;
+import ru.jango.j0loader.image.cache.ConcurrentCache;
+import ru.jango.j0loader.image.cache.DefaultCache;
+import ru.jango.j0loader.image.cache.DirectCache;
+import ru.jango.j0loader.image.cache.LRUCache;
+import ru.jango.j0loader.image.cache.StatsCache;
+import ru.jango.j0loader.image.cache.TinyLFUCache;
+
+public class CacheStatsTest extends AndroidTestCase {
+
+    /**
+     * Same scenario for all evicting caches:
+     * 1) put 3 entries into cache for 2 entries - one eviction
+     * 2) get evicted and cached entries - one miss and one hit
+     * 3) record load time for the miss
+     * 4) reset
+     */
+    public void testEvictingCaches() throws Exception {
+        doTestStats(new LRUCache(200));
+        doTestStats(new ConcurrentCache(200, 1));
+        doTestStats(new DirectCache(200));
+    }
+
+    /**
+     * DefaultCache doesn't evict - it rejects puts, when it is full.
+     */
+    public void testDefaultCache() throws Exception {
+        final DefaultCache cache = new DefaultCache();
+        cache.setMaxCacheSize(150);
+        assertTrue(cache.put(uri(0), new byte[100]));
+        assertTrue(cache.put(uri(1), new byte[100]));
+        assertFalse(cache.put(uri(2), new byte[100]));
+
+        final CacheStats stats = cache.getStats();
+        assertEquals(2, stats.getPutCount());
+        assertEquals(1, stats.getRejectedPutCount());
+        assertEquals(0, stats.getEvictionCount());
+    }
+
+    /**
+     * TinyLFUCache counts rejections by admission policy.
+     */
+    public void testTinyLFUCache() throws Exception {
+        final TinyLFUCache cache = new TinyLFUCache(200);
+        cache.put(uri(0), new byte[100]);
+        cache.put(uri(1), new byte[100]);
+        cache.put(uri(2), new byte[100]);
+
+        final CacheStats stats = cache.getStats();
+        assertEquals(2, stats.getPutCount());
+        assertEquals(1, stats.getRejectedPutCount());
+    }
+
+    private void doTestStats(StatsCache cache) {
+        // 1
+        cache.put(uri(0), new byte[100]);
+        cache.put(uri(1), new byte[100]);
+        cache.put(uri(2), new byte[100]);
+
+        // 2
+        assertNull(cache.get(uri(0)));
+        assertNotNull(cache.get(uri(2)));
+
+        // 3
+        cache.recordLoadTime(30);
+        cache.recordLoadTime(10);
+
+        CacheStats stats = cache.getStats();
+        assertEquals(3, stats.getPutCount());
+        assertEquals(1, stats.getEvictionCount());
+        assertEquals(1, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+        assertEquals(0.5, stats.getHitRate(), 0.001);
+        assertEquals(20.0, stats.getAverageLoadPenalty(), 0.001);
+
+        // 4
+        cache.resetStats();
+        stats = cache.getStats();
+        assertEquals(0, stats.getRequestCount());
+        assertEquals(0, stats.getPutCount());
+    }
+
+    private URI uri(int i) {
+        return URI.create("http://example.com/img/" + i + ".jpg");
+    }
+
+}
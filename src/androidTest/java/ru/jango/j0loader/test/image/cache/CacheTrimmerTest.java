@@ -0,0 +1,143 @@
+package ru.jango.j0loader.test.image.cache;
+
+import android.test.AndroidTestCase;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import ru.jango.j0loader.image.cache.Cache;
+import ru.jango.j0loader.image.cache.CacheTrimmer;
+import ru.jango.j0loader.image.cache.ComponentCallbacksPressureSource;
+import ru.jango.j0loader.image.cache.ConcurrentCache;
+import ru.jango.j0loader.image.cache.DefaultCache;
+import ru.jango.j0loader.image.cache.DirectCache;
+import ru.jango.j0loader.image.cache.HeapPressureSource;
+import ru.jango.j0loader.image.cache.LRUCache;
+import ru.jango.j0loader.image.cache.MemoryPressure;
+import ru.jango.j0loader.image.cache.MemoryPressureSource;
+import ru.jango.j0loader.image.cache.TinyLFUCache;
+
+public class CacheTrimmerTest extends AndroidTestCase {
+
+    private static final int ENTRY_SIZE = 100;
+    private static final int ENTRIES_COUNT = 10;
+
+    /**
+     * Every cache implementation should be trimmed step by step: 75%, 50%, 25%, 0% of max size.
+     * Max size itself should stay the same.
+     */
+    public void testTrimSteps() throws Exception {
+        final List<DefaultCache> caches = new ArrayList<DefaultCache>();
+        caches.add(new DefaultCache());
+        caches.add(new LRUCache(ENTRY_SIZE * ENTRIES_COUNT));
+        caches.add(new TinyLFUCache(ENTRY_SIZE * ENTRIES_COUNT));
+        caches.add(new ConcurrentCache(ENTRY_SIZE * ENTRIES_COUNT, 4));
+        caches.add(new DirectCache(ENTRY_SIZE * ENTRIES_COUNT));
+        caches.get(0).setMaxCacheSize(ENTRY_SIZE * ENTRIES_COUNT);
+
+        for (DefaultCache cache : caches) {
+            final CacheTrimmer trimmer = new CacheTrimmer();
+            trimmer.addTrimmable(cache);
+            fill(cache);
+
+            for (MemoryPressure level : MemoryPressure.values()) {
+                trimmer.onMemoryPressure(level);
+
+                final long expected = (long) (ENTRY_SIZE * ENTRIES_COUNT * level.getRetainedFraction());
+                assertTrue(cache.getClass().getSimpleName() + " " + level, cache.size() <= expected);
+                assertEquals(cache.getClass().getSimpleName() + " " + level, expected / ENTRY_SIZE, cache.count());
+            }
+
+            assertEquals(ENTRY_SIZE * ENTRIES_COUNT, cache.getMaxCacheSize());
+        }
+    }
+
+    /**
+     * 1) trimming should evict least recently used entries first
+     * 2) trimmed entries should be counted as evictions
+     */
+    public void testTrimOrder() throws Exception {
+        // 1
+        final LRUCache cache = new LRUCache(ENTRY_SIZE * ENTRIES_COUNT);
+        fill(cache);
+        cache.get(uri(0));
+
+        final CacheTrimmer trimmer = new CacheTrimmer();
+        trimmer.addTrimmable(cache);
+        trimmer.onMemoryPressure(MemoryPressure.CRITICAL);
+        assertTrue(cache.isCached(uri(0)));
+        assertFalse(cache.isCached(uri(1)));
+
+        // 2
+        assertEquals(ENTRIES_COUNT - ENTRIES_COUNT / 4, cache.getStats().getEvictionCount());
+    }
+
+    /**
+     * 1) heap source should signal only when pressure becomes worse
+     * 2) pressure level should be reset after heap usage drops
+     */
+    public void testHeapSource() throws Exception {
+        final float[] usage = new float[1];
+        final HeapPressureSource source = new HeapPressureSource() {
+            @Override
+            protected float getUsedFraction() {
+                return usage[0];
+            }
+        };
+
+        final List<MemoryPressure> signals = new ArrayList<MemoryPressure>();
+        source.addListener(new MemoryPressureSource.Listener() {
+            @Override
+            public void onMemoryPressure(MemoryPressure level) {
+                signals.add(level);
+            }
+        });
+
+        // 1
+        usage[0] = 0.5f;
+        assertNull(source.check());
+        usage[0] = 0.8f;
+        assertEquals(MemoryPressure.MODERATE, source.check());
+        source.check();
+        usage[0] = 0.97f;
+        source.check();
+        usage[0] = 0.9f;
+        source.check();
+        usage[0] = 0.97f;
+        source.check();
+        assertEquals(2, signals.size());
+        assertEquals(MemoryPressure.CRITICAL, signals.get(1));
+
+        // 2
+        usage[0] = 0.1f;
+        source.check();
+        usage[0] = 0.8f;
+        source.check();
+        assertEquals(3, signals.size());
+    }
+
+    /**
+     * System trim levels should be mapped by severity.
+     */
+    public void testTrimLevels() throws Exception {
+        assertEquals(MemoryPressure.MODERATE, ComponentCallbacksPressureSource.toPressure(5));
+        assertEquals(MemoryPressure.HIGH, ComponentCallbacksPressureSource.toPressure(10));
+        assertEquals(MemoryPressure.CRITICAL, ComponentCallbacksPressureSource.toPressure(15));
+        assertEquals(MemoryPressure.MODERATE, ComponentCallbacksPressureSource.toPressure(20));
+        assertEquals(MemoryPressure.HIGH, ComponentCallbacksPressureSource.toPressure(40));
+        assertEquals(MemoryPressure.CRITICAL, ComponentCallbacksPressureSource.toPressure(60));
+        assertEquals(MemoryPressure.COMPLETE, ComponentCallbacksPressureSource.toPressure(80));
+        assertNull(ComponentCallbacksPressureSource.toPressure(0));
+    }
+
+    private void fill(Cache cache) {
+        for (int i=0; i<ENTRIES_COUNT; i++)
+            cache.put(uri(i), new byte[ENTRY_SIZE]);
+    }
+
+    private URI uri(int i) {
+        return URI.create("http://example.com/img/" + i + ".jpg");
+    }
+
+}
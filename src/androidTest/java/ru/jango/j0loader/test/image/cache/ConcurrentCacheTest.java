@@ -0,0 +1,153 @@
+package ru.jango.j0loader.test.image.cache;
+
+import android.test.AndroidTestCase;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import ru.jango.j0loader.image.cache.DefaultCache;
+import ru.jango.j0loader.image.cache.ConcurrentCache;
+import ru.jango.j0loader.image.cache.LRUCache;
+import ru.jango.j0util.LogUtil;
+
+public class ConcurrentCacheTest extends AndroidTestCase {
+
+    private static final int CACHE_SIZE = 100000;
+    private static final int THREADS = 4;
+    private static final int OPERATIONS = 100000;
+
+    /**
+     * Eviction in one segment and in many segments should be the same.
+     */
+    public void testEviction() throws Exception {
+        doTestEviction(1);
+        doTestEviction(16);
+    }
+
+    /**
+     * 1) put entries until the cache is full
+     * 2) touch the first entry and put one more - the first should survive, the second should
+     * be evicted
+     * 3) entry larger than the whole cache should be rejected
+     */
+    private void doTestEviction(int concurrencyLevel) throws Exception {
+        // 1
+        final ConcurrentCache cache = new ConcurrentCache(1000, concurrencyLevel);
+        for (int i=0; i<10; i++)
+            assertTrue(cache.put(uri(i), new byte[100]));
+        assertEquals(1000, cache.size());
+        assertEquals(10, cache.count());
+
+        // 2
+        cache.get(uri(0));
+        cache.put(uri(10), new byte[100]);
+        assertTrue(cache.isCached(uri(0)));
+        assertFalse(cache.isCached(uri(1)));
+        assertEquals(1000, cache.size());
+
+        // 3
+        assertFalse(cache.put(uri(11), new byte[1001]));
+    }
+
+    /**
+     * Usage order should be common for all segments.
+     * 1) put entries until the cache is full and touch them in reverse order
+     * 2) put more entries - they should evict entries in the touch order, whatever segments they
+     * are in
+     * 3) snapshot should be in the usage order
+     */
+    public void testGlobalLRU() throws Exception {
+        // 1
+        final ConcurrentCache cache = new ConcurrentCache(1000, 16);
+        for (int i=0; i<10; i++)
+            cache.put(uri(i), new byte[100]);
+        for (int i=9; i>=0; i--)
+            cache.get(uri(i));
+
+        // 2
+        for (int i=0; i<5; i++) {
+            cache.put(uri(100 + i), new byte[100]);
+            assertFalse(cache.isCached(uri(9 - i)));
+            for (int j=0; j<9-i; j++)
+                assertTrue(cache.isCached(uri(j)));
+        }
+
+        // 3
+        final List<URI> order = new ArrayList<URI>(cache.snapshot().keySet());
+        assertEquals(Arrays.asList(uri(4), uri(3), uri(2), uri(1), uri(0),
+                uri(100), uri(101), uri(102), uri(103), uri(104)), order);
+    }
+
+    /**
+     * Max size should be common for all segments.
+     */
+    public void testSegmentsShareMaxSize() throws Exception {
+        final ConcurrentCache cache = new ConcurrentCache(1000, 16);
+        assertTrue(cache.put(uri(0), new byte[900]));
+        assertTrue(cache.isCached(uri(0)));
+
+        for (int i=1; i<100; i++)
+            cache.put(uri(i), new byte[50]);
+        assertTrue(cache.size() <= 1000);
+    }
+
+    /**
+     * Multi-threaded benchmark: several threads do the same mix of isCached/get/put
+     * operations against {@link ru.jango.j0loader.image.cache.LRUCache} and
+     * {@link ru.jango.j0loader.image.cache.ConcurrentCache}. Size limits should be kept, size and
+     * count should match the contents.
+     */
+    public void testConcurrentBenchmark() throws Exception {
+        final long lru = benchmark(new LRUCache(CACHE_SIZE));
+        final long concurrent = benchmark(new ConcurrentCache(CACHE_SIZE));
+        LogUtil.d(ConcurrentCacheTest.class, THREADS + " threads, " + OPERATIONS + " operations each: "
+                + "LRUCache " + lru + "ms; ConcurrentCache " + concurrent + "ms");
+    }
+
+    private long benchmark(final DefaultCache cache) throws Exception {
+        final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        final Thread[] threads = new Thread[THREADS];
+        for (int t=0; t<THREADS; t++) {
+            final int seed = t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final Random random = new Random(seed);
+                        for (int i=0; i<OPERATIONS; i++) {
+                            final URI uri = uri(random.nextInt(200));
+                            if (cache.isCached(uri)) cache.get(uri);
+                            else cache.put(uri, new byte[1000]);
+                        }
+                    } catch (Throwable e) { error.set(e); }
+                }
+            });
+        }
+
+        final long started = System.currentTimeMillis();
+        for (Thread thread : threads) thread.start();
+        for (Thread thread : threads) thread.join();
+        final long time = System.currentTimeMillis() - started;
+
+        assertNull(error.get());
+        assertTrue(cache.size() <= CACHE_SIZE);
+
+        final Map<URI, byte[]> snapshot = cache.snapshot();
+        long size = 0;
+        for (byte[] raw : snapshot.values())
+            size += raw.length;
+        assertEquals(snapshot.size(), cache.count());
+        assertEquals(size, cache.size());
+        return time;
+    }
+
+    private URI uri(int i) {
+        return URI.create("http://example.com/img/" + i + ".jpg");
+    }
+
+}
@@ -0,0 +1,54 @@
+package ru.jango.j0loader.test.image.cache;
+
+import android.test.AndroidTestCase;
+
+import java.net.URI;
+
+import ru.jango.j0loader.image.cache.DefaultCache;
+import ru.jango.j0loader.image.cache.LRUCache;
+
+public class DefaultCacheTest extends AndroidTestCase {
+
+    /**
+     * 1) image without expiration never expires
+     * 2) image with expiration in future is fresh
+     * 3) image with expiration in past is stale, but still could be retrieved
+     * 4) removed image is not stale
+     */
+    public void testExpiration() throws Exception {
+        // 1
+        final DefaultCache cache = new DefaultCache();
+        cache.put(uri(0), new byte[10]);
+        assertFalse(cache.isExpired(uri(0)));
+
+        // 2
+        cache.setExpiration(uri(0), System.currentTimeMillis() + 60000);
+        assertFalse(cache.isExpired(uri(0)));
+
+        // 3
+        cache.setExpiration(uri(0), System.currentTimeMillis() - 1);
+        assertTrue(cache.isExpired(uri(0)));
+        assertNotNull(cache.get(uri(0)));
+
+        // 4
+        cache.remove(uri(0));
+        assertFalse(cache.isExpired(uri(0)));
+    }
+
+    /**
+     * Expiration should be forgotten together with evicted entry.
+     */
+    public void testExpirationEvicted() throws Exception {
+        final LRUCache cache = new LRUCache(100);
+        cache.put(uri(0), new byte[100]);
+        cache.setExpiration(uri(0), System.currentTimeMillis() - 1);
+        cache.put(uri(1), new byte[100]);
+        cache.put(uri(0), new byte[50]);
+        assertFalse(cache.isExpired(uri(0)));
+    }
+
+    private URI uri(int i) {
+        return URI.create("http://example.com/img/" + i + ".jpg");
+    }
+
+}
@@ -0,0 +1,117 @@
+package ru.jango.j0loader.test.image.cache;
+
+import android.test.AndroidTestCase;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import ru.jango.j0loader.image.cache.DirectCache;
+
+public class DirectCacheTest extends AndroidTestCase {
+
+    /**
+     * 1) put data and get it back (both as a copy and as a buffer view)
+     * 2) rewrite an entry with data of different size
+     * 3) remove an entry
+     */
+    public void testPutGet() throws Exception {
+        // 1
+        final DirectCache cache = new DirectCache(1000);
+        final byte[] data = genData(100, 1);
+        assertTrue(cache.put(uri(0), data));
+        assertTrue(Arrays.equals(data, cache.get(uri(0))));
+
+        final ByteBuffer view = cache.getBuffer(uri(0));
+        assertEquals(100, view.remaining());
+        assertEquals(data[99], view.get(99));
+        assertTrue(view.isReadOnly());
+
+        // 2
+        final byte[] data2 = genData(300, 2);
+        assertTrue(cache.put(uri(0), data2));
+        assertTrue(Arrays.equals(data2, cache.get(uri(0))));
+        assertEquals(300, cache.size());
+        assertEquals(1, cache.count());
+
+        // 3
+        assertTrue(Arrays.equals(data2, cache.remove(uri(0))));
+        assertFalse(cache.isCached(uri(0)));
+        assertEquals(0, cache.size());
+    }
+
+    /**
+     * 1) fill the cache
+     * 2) remove two adjacent entries from the middle - freed blocks should be merged, so larger
+     * entry fits without evictions
+     * 3) put one more large entry - least recently used entries should be evicted
+     * 4) entry larger than the cache should be rejected
+     */
+    public void testAllocator() throws Exception {
+        // 1
+        final DirectCache cache = new DirectCache(1000);
+        for (int i=0; i<10; i++)
+            assertTrue(cache.put(uri(i), genData(100, i)));
+
+        // 2
+        cache.remove(uri(4));
+        cache.remove(uri(5));
+        assertTrue(cache.put(uri(10), genData(200, 10)));
+        assertEquals(9, cache.count());
+
+        // 3
+        cache.get(uri(0));
+        assertTrue(cache.put(uri(11), genData(250, 11)));
+        assertTrue(cache.isCached(uri(0)));
+        assertTrue(cache.isCached(uri(11)));
+        assertFalse(cache.isCached(uri(1)));
+        assertTrue(cache.size() <= 1000);
+        assertTrue(Arrays.equals(genData(250, 11), cache.get(uri(11))));
+        assertTrue(Arrays.equals(genData(100, 0), cache.get(uri(0))));
+
+        // 4
+        assertFalse(cache.put(uri(12), genData(1001, 12)));
+    }
+
+    /**
+     * 1) fill the cache and acquire an entry
+     * 2) remove it and put a new entry of the same size - acquired memory shouldn't be reused
+     * 3) release the entry - it's memory should be reused
+     */
+    public void testAcquire() throws Exception {
+        // 1
+        final DirectCache cache = new DirectCache(1000);
+        for (int i=0; i<10; i++)
+            assertTrue(cache.put(uri(i), genData(100, i)));
+        final ByteBuffer view = cache.acquireBuffer(uri(0));
+        assertNotNull(view);
+        assertNull(cache.acquireBuffer(uri(100)));
+
+        // 2
+        cache.remove(uri(0));
+        assertTrue(cache.put(uri(10), genData(100, 10)));
+        assertFalse(cache.isCached(uri(1)));
+        final byte[] pinned = new byte[100];
+        view.duplicate().get(pinned);
+        assertTrue(Arrays.equals(genData(100, 0), pinned));
+
+        // 3
+        cache.releaseBuffer(view);
+        assertTrue(cache.put(uri(11), genData(100, 11)));
+        assertTrue(cache.isCached(uri(2)));
+        assertEquals(10, cache.count());
+    }
+
+    private byte[] genData(int length, int seed) {
+        final byte[] data = new byte[length];
+        for (int i=0; i<length; i++)
+            data[i] = (byte) (seed * 31 + i);
+
+        return data;
+    }
+
+    private URI uri(int i) {
+        return URI.create("http://example.com/img/" + i + ".jpg");
+    }
+
+}
@@ -0,0 +1,139 @@
+package ru.jango.j0loader.test.image.cache;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.net.URI;
+import java.util.zip.DataFormatException;
+
+import ru.jango.j0loader.image.cache.RegionSourceCache;
+
+public class RegionSourceCacheTest extends AndroidTestCase {
+
+    /**
+     * 1) kept source should give the same decoder for all tiles
+     * 2) least recently used decoders should be evicted; without directory evicted sources are
+     * forgotten
+     * 3) data, that is not an image, should not be kept
+     */
+    public void testPutGet() throws Exception {
+        // 1
+        final RegionSourceCache cache = new RegionSourceCache(2);
+        final BitmapRegionDecoder decoder = cache.put(uri(0), createImage(), 0);
+        assertSame(decoder, cache.get(uri(0)));
+        assertTrue(cache.contains(uri(0)));
+
+        // 2
+        cache.put(uri(1), createImage(), 0);
+        cache.get(uri(0));
+        cache.put(uri(2), createImage(), 0);
+        assertEquals(2, cache.size());
+        assertNull(cache.get(uri(1)));
+        assertFalse(cache.contains(uri(1)));
+        assertSame(decoder, cache.get(uri(0)));
+
+        // 3
+        try {
+            cache.put(uri(3), new byte[] {1, 2, 3}, 0);
+            fail("not an image was kept");
+        } catch (DataFormatException ignored) {}
+        assertFalse(cache.contains(uri(3)));
+    }
+
+    /**
+     * 1) with directory sources should be kept in files
+     * 2) evicted decoder should be opened from file again
+     * 3) removed source should be forgotten, file should be deleted
+     * 4) clear() should keep files, clear(true) - delete them
+     */
+    public void testFiles() throws Exception {
+        // 1
+        final File dir = new File(System.getProperty("java.io.tmpdir"), "region-sources-test");
+        final RegionSourceCache cache = new RegionSourceCache(1);
+        cache.setDir(dir);
+        cache.clear(true);
+        cache.put(uri(0), createImage(), 0);
+        assertEquals(1, dir.listFiles().length);
+
+        // 2
+        cache.put(uri(1), createImage(), 0);
+        assertEquals(1, cache.size());
+        assertTrue(cache.contains(uri(0)));
+        assertNotNull(cache.get(uri(0)));
+
+        // 3
+        cache.remove(uri(1));
+        assertFalse(cache.contains(uri(1)));
+        assertEquals(1, dir.listFiles().length);
+
+        // 4
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertTrue(cache.contains(uri(0)));
+        cache.clear(true);
+        assertFalse(cache.contains(uri(0)));
+    }
+
+    /**
+     * 1) directory should be limited by size - least recently used file should be deleted
+     * 2) expiration should be kept in files and read by another instance
+     */
+    public void testDirLimit() throws Exception {
+        // 1
+        final File dir = new File(System.getProperty("java.io.tmpdir"), "region-sources-limit-test");
+        final int length = createImage().length;
+        final RegionSourceCache cache = new RegionSourceCache(1);
+        cache.setDir(dir);
+        cache.setMaxDirSize(length * 2 + length / 2);
+        cache.clear(true);
+
+        for (int i=0; i<3; i++) {
+            cache.put(uri(i), createImage(), 0);
+            Thread.sleep(20);
+        }
+        assertEquals(2, dir.listFiles().length);
+        assertFalse(cache.contains(uri(0)));
+        assertTrue(cache.contains(uri(1)));
+        assertTrue(cache.contains(uri(2)));
+
+        // 2
+        cache.clear(true);
+        cache.put(uri(0), createImage(), 1);
+        cache.put(uri(1), createImage(), Long.MAX_VALUE);
+
+        final RegionSourceCache restarted = new RegionSourceCache(1);
+        restarted.setDir(dir);
+        assertTrue(restarted.isExpired(uri(0)));
+        assertFalse(restarted.isExpired(uri(1)));
+        assertEquals(Long.MAX_VALUE, restarted.getExpiration(uri(1)));
+        restarted.clear(true);
+    }
+
+    /**
+     * 1) source without expiration should never be stale
+     * 2) source with past expiration should be stale
+     */
+    public void testExpiration() throws Exception {
+        // 1
+        final RegionSourceCache cache = new RegionSourceCache();
+        cache.put(uri(0), createImage(), 0);
+        assertFalse(cache.isExpired(uri(0)));
+
+        // 2
+        cache.put(uri(1), createImage(), 1);
+        assertTrue(cache.isExpired(uri(1)));
+    }
+
+    private byte[] createImage() {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888).compress(Bitmap.CompressFormat.PNG, 100, out);
+        return out.toByteArray();
+    }
+
+    private URI uri(int i) {
+        return URI.create("http://example.com/" + i + ".jpg");
+    }
+}
@@ -0,0 +1,89 @@
+package ru.jango.j0loader.test.image.cache;
+
+import android.graphics.Point;
+import android.test.AndroidTestCase;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+
+import ru.jango.j0loader.image.cache.LRUCache;
+import ru.jango.j0loader.image.cache.ScaleRegistry;
+
+public class ScaleRegistryTest extends AndroidTestCase {
+
+    /**
+     * 1) number of scales should be limited
+     * 2) least recently used scales should be dropped first
+     */
+    public void testBounds() throws Exception {
+        // 1
+        final ScaleRegistry registry = new ScaleRegistry(3);
+        for (int i=0; i<3; i++)
+            registry.put(uri(i), new Point(i, i));
+
+        // 2
+        registry.get(uri(0));
+        registry.put(uri(3), new Point(3, 3));
+        assertEquals(3, registry.size());
+        assertTrue(registry.contains(uri(0)));
+        assertFalse(registry.contains(uri(1)));
+
+        registry.setMaxScales(1);
+        assertEquals(1, registry.size());
+        assertTrue(registry.contains(uri(3)));
+    }
+
+    /**
+     * 1) scale of an evicted image should be dropped
+     * 2) scale of a manually removed image should be kept
+     */
+    public void testLifecycle() throws Exception {
+        // 1
+        final LRUCache cache = new LRUCache(100);
+        cache.setScale(uri(0), new Point(10, 10));
+        cache.put(uri(0), new byte[100]);
+        cache.put(uri(1), new byte[100]);
+        assertFalse(cache.hasScale(uri(0)));
+
+        // 2
+        cache.setScale(uri(1), new Point(10, 10));
+        cache.remove(uri(1));
+        assertTrue(cache.hasScale(uri(1)));
+    }
+
+    /**
+     * 1) saved scales should be loaded in the same order
+     * 2) data in unknown format should be rejected
+     */
+    public void testPersistence() throws Exception {
+        // 1
+        final ScaleRegistry registry = new ScaleRegistry(2);
+        registry.put(uri(0), new Point(10, 20));
+        registry.put(uri(1), new Point(30, 40));
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        registry.save(out);
+
+        final ScaleRegistry loaded = new ScaleRegistry(2);
+        loaded.load(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(2, loaded.size());
+        assertEquals(30, loaded.get(uri(1)).x);
+        assertEquals(40, loaded.get(uri(1)).y);
+
+        loaded.put(uri(2), new Point(1, 1));
+        assertFalse(loaded.contains(uri(0)));
+
+        // 2
+        try {
+            loaded.load(new ByteArrayInputStream(new byte[12]));
+            fail("broken data was loaded");
+        } catch (IOException ignored) {}
+    }
+
+    private URI uri(int i) {
+        return URI.create("http://example.com/img/" + i + ".jpg");
+    }
+
+}
@@ -0,0 +1,104 @@
+package ru.jango.j0loader.test.image.cache;
+
+import android.test.AndroidTestCase;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import ru.jango.j0loader.image.cache.Cache;
+import ru.jango.j0loader.image.cache.FrequencySketch;
+import ru.jango.j0loader.image.cache.LRUCache;
+import ru.jango.j0loader.image.cache.TinyLFUCache;
+import ru.jango.j0util.LogUtil;
+
+public class TinyLFUCacheTest extends AndroidTestCase {
+
+    private static final int CACHE_SIZE = 500000;
+
+    /**
+     * 1) increment one element several times, check it's frequency
+     * 2) check that never seen element has (almost) zero frequency
+     */
+    public void testSketch() throws Exception {
+        // 1
+        final FrequencySketch sketch = new FrequencySketch(64);
+        for (int i=0; i<5; i++)
+            sketch.increment("avatar");
+        assertEquals(5, sketch.frequency("avatar"));
+
+        // 2
+        assertTrue(sketch.frequency("never_seen") <= 1);
+    }
+
+    /**
+     * 1) fill cache with one-hit entries
+     * 2) new one-hit entry should be rejected
+     * 3) frequent entry should be admitted and push out one-hit entries
+     */
+    public void testAdmission() throws Exception {
+        // 1
+        final TinyLFUCache cache = new TinyLFUCache(1000);
+        for (int i=0; i<10; i++)
+            assertTrue(cache.put(uri("feed", i), new byte[100]));
+        assertEquals(1000, cache.size());
+
+        // 2
+        assertFalse(cache.put(uri("feed", 10), new byte[100]));
+        assertEquals(10, cache.count());
+
+        // 3
+        cache.get(uri("avatar", 0));
+        cache.get(uri("avatar", 0));
+        assertTrue(cache.put(uri("avatar", 0), new byte[200]));
+        assertTrue(cache.isCached(uri("avatar", 0)));
+        assertEquals(9, cache.count());
+        assertTrue(cache.size() <= 1000);
+    }
+
+    /**
+     * Replays one recorded feed trace against {@link ru.jango.j0loader.image.cache.LRUCache} and
+     * {@link ru.jango.j0loader.image.cache.TinyLFUCache} of the same size and compares hit ratios.
+     * Trace: a long scroll through one-hit feed images, interleaved with a small set of avatars
+     * and icons, that are shown on every screen.
+     */
+    public void testHitRatio() throws Exception {
+        final List<URI> trace = recordFeedTrace();
+
+        final double lru = replay(new LRUCache(CACHE_SIZE), trace);
+        final double tinyLFU = replay(new TinyLFUCache(CACHE_SIZE), trace);
+        LogUtil.d(TinyLFUCacheTest.class, "hit ratio: LRUCache " + lru + "; TinyLFUCache " + tinyLFU);
+
+        assertTrue(tinyLFU > lru);
+    }
+
+    private double replay(Cache cache, List<URI> trace) {
+        int hits = 0;
+        for (URI uri : trace) {
+            if (cache.isCached(uri)) {
+                cache.get(uri);
+                hits++;
+            } else cache.put(uri, new byte[uri.getPath().startsWith("/feed") ? 30000 : 10000]);
+        }
+
+        return (double) hits / trace.size();
+    }
+
+    private List<URI> recordFeedTrace() {
+        final Random random = new Random(42);
+        final List<URI> trace = new ArrayList<URI>();
+        for (int i=0; i<2000; i++) {
+            trace.add(uri("feed", i));
+            if (random.nextBoolean())
+                trace.add(uri("avatar", random.nextInt(30)));
+        }
+
+        return trace;
+    }
+
+    private URI uri(String type, int i) {
+        return URI.create("http://example.com/" + type + "/" + i + ".jpg");
+    }
+
+}
@@ -0,0 +1,109 @@
+package ru.jango.j0loader.test.queue;
+
+import android.graphics.Point;
+import android.test.AndroidTestCase;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import ru.jango.j0loader.Request;
+import ru.jango.j0loader.image.ImageRequest;
+import ru.jango.j0loader.queue.LIFOQueue;
+
+public class LIFOQueueTest extends AndroidTestCase {
+
+    /**
+     * 1) the most recently added request should be served first
+     * 2) request with the same cache key should not be added twice, but moved into the head
+     * 3) another variant of the same image should be added as usual
+     */
+    public void testOrder() throws Exception {
+        // 1
+        final LIFOQueue queue = new LIFOQueue();
+        queue.add(request(0));
+        queue.add(request(1));
+        queue.add(request(2));
+        assertEquals(uri(2), queue.next().getURI());
+
+        // 2
+        queue.add(request(0));
+        assertEquals(2, queue.size());
+        assertEquals(uri(0), queue.next().getURI());
+
+        // 3
+        final ImageRequest scaled = new ImageRequest(uri(1));
+        scaled.setScale(new Point(100, 100));
+        queue.add(scaled);
+        assertEquals(2, queue.size());
+        assertSame(scaled, queue.next());
+    }
+
+    /**
+     * 1) the oldest requests should be dropped, when the queue overflows
+     * 2) decreasing max depth should drop requests immediately
+     * 3) max depth should not be negative
+     */
+    public void testMaxDepth() throws Exception {
+        // 1
+        final LIFOQueue queue = new LIFOQueue(3);
+        for (int i=0; i<5; i++)
+            queue.add(request(i));
+        assertEquals(3, queue.size());
+        assertEquals(2, queue.getDroppedCount());
+        assertEquals(-1, queue.indexOf(uri(0)));
+        assertEquals(-1, queue.indexOf(uri(1)));
+        assertEquals(0, queue.indexOf(uri(4)));
+
+        // 2
+        queue.setMaxDepth(1);
+        assertEquals(1, queue.size());
+        assertEquals(uri(4), queue.next().getURI());
+
+        // 3
+        try {
+            queue.setMaxDepth(-1);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException ignored) {}
+    }
+
+    /**
+     * 1) dropped requests should be reported to drop listener
+     * 2) listener could add requests into the queue
+     */
+    public void testDropListener() throws Exception {
+        // 1
+        final LIFOQueue queue = new LIFOQueue(2);
+        final List<Request> dropped = new ArrayList<Request>();
+        queue.setDropListener(new LIFOQueue.DropListener() {
+            @Override
+            public void onDropped(Request request) {
+                dropped.add(request);
+                // 2
+                if (request.getURI().equals(uri(1)))
+                    queue.add(request(10));
+            }
+        });
+
+        queue.addAll(Arrays.asList(request(0), request(1), request(2)));
+        assertEquals(1, dropped.size());
+        assertEquals(uri(0), dropped.get(0).getURI());
+
+        queue.setMaxDepth(1);
+        assertEquals(3, dropped.size());
+        assertEquals(uri(1), dropped.get(1).getURI());
+        assertEquals(uri(2), dropped.get(2).getURI());
+        assertEquals(1, queue.size());
+        assertEquals(uri(10), queue.next().getURI());
+    }
+
+    private Request request(int i) {
+        return new Request(uri(i));
+    }
+
+    private URI uri(int i) {
+        return URI.create("http://test.com/img" + i + ".jpg");
+    }
+
+}
@@ -27,7 +27,10 @@ import java.net.URISyntaxException;
 import java.net.URLConnection;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.LinkedList;
 import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import android.content.Context;
 import android.net.ConnectivityManager;
@@ -35,6 +38,7 @@ import android.net.NetworkInfo;
 import android.os.Handler;
 
 import ru.jango.j0loader.queue.DefaultQueue;
+import ru.jango.j0loader.queue.LIFOQueue;
 import ru.jango.j0loader.queue.Queue;
 import ru.jango.j0util.LogUtil;
 
@@ -47,6 +51,10 @@ import ru.jango.j0util.LogUtil;
  * <li>provides one {@link java.lang.Thread} for asynchronous queue execution ({@link #loadInBackground(Request)})</li>
  * <li>control thread execution ({@link #canWork()}, {@link #cancelCurrent()})</li>
  * <li>control queue execution ({@link #createQueue()})</li>
+ * <li>remember recent failures and fail fast without loading ({@link #createFailureCache()});
+ * disabled by default</li>
+ * <li>prefetch data in background without reporting to listeners ({@link #prefetch(Request)}) -
+ * prefetches are loaded only when the loading queue is empty</li>
  * </ul>
  * <br>
  *
@@ -66,13 +74,24 @@ public abstract class DataLoader<T> {
     protected final int CONNECT_TIMEOUT = 15000;
     protected final int READ_TIMEOUT = 10000;
 
+    /**
+     * Default limit of prefetched bytes, that are loaded, but not processed yet - 2MB.
+     */
+    public static final long DEFAULT_MAX_PREFETCH_BYTES = 2 * 1024 * 1024;
+
 	private Handler mainThreadHandler;
 	private Set<LoadingListener<T>> listeners;
 
 	private Thread loaderThread;
 	private Queue queue;
+    private Queue prefetchQueue;
+    private FailureCache failureCache;
+    private AtomicLong prefetchBytes;           // prefetched bytes, that are loaded, but not processed yet
+    private volatile long maxPrefetchBytes;
 	private boolean working;        // TRUE if the queue is executing
     private boolean currCancelled;  // TRUE if processing of current Request should be stopped
+    private Request processing;     // Request, that is being processed by loader thread, or NULL
+    private final ThreadLocal<LinkedList<Runnable>> postponedCalls;    // immediate calls from listeners
 	private boolean debug;          // TRUE if debug messages should be logged
     private boolean fullAsyncMode;  // TRUE if listeners should be executed in loading thread
 
@@ -80,6 +99,13 @@ public abstract class DataLoader<T> {
 		mainThreadHandler = new Handler();
 		listeners = new HashSet<LoadingListener<T>>();
         queue = createQueue();
+        prefetchQueue = createPrefetchQueue();
+        watchDrops(queue);
+        watchDrops(prefetchQueue);
+        failureCache = createFailureCache();
+        prefetchBytes = new AtomicLong();
+        maxPrefetchBytes = DEFAULT_MAX_PREFETCH_BYTES;
+        postponedCalls = new ThreadLocal<LinkedList<Runnable>>();
 	}
 	
 	protected void logDebug(String message) {
@@ -170,6 +196,34 @@ public abstract class DataLoader<T> {
         return currCancelled;
     }
 
+    /**
+     * Returns a {@link Request}, that is being processed by loader thread now (a queue element or
+     * a prefetch), or NULL, if loader thread is idle.
+     */
+    public synchronized Request getProcessingRequest() {
+        return processing;
+    }
+
+    /**
+     * Stops processing of the {@link Request} (or another {@link Request} with the same cache key),
+     * if loader thread is processing it now. Unlike {@link #cancelCurrent()}, it never stops
+     * a request, that was taken by loader thread meanwhile.
+     *
+     * @return  TRUE if processing was cancelled
+     */
+    public synchronized boolean cancelProcessing(Request request) {
+        if (processing == null || !processing.getCacheKey().equals(request.getCacheKey()))
+            return false;
+
+        currCancelled = true;
+        return true;
+    }
+
+    private synchronized void setProcessingRequest(Request request) {
+        processing = request;
+        currCancelled = false;
+    }
+
     /**
      * By default full asynchronous mode is OFF and all
      * {@link ru.jango.j0loader.DataLoader.LoadingListener}'s methods are called in main thread
@@ -208,6 +262,43 @@ public abstract class DataLoader<T> {
 		this.debug = debug;
 	}
 
+    /**
+     * Returns negative cache of recent failures.
+     */
+    public FailureCache getFailureCache() {
+        return failureCache;
+    }
+
+    /**
+     * Sets negative cache of recent failures.
+     */
+    public void setFailureCache(FailureCache failureCache) {
+        this.failureCache = failureCache;
+    }
+
+    /**
+     * Returns limit of prefetched bytes, that are loaded, but not processed yet.
+     *
+     * @see #prefetch(Request)
+     */
+    public long getMaxPrefetchBytes() {
+        return maxPrefetchBytes;
+    }
+
+    /**
+     * @see #getMaxPrefetchBytes()
+     */
+    public void setMaxPrefetchBytes(long maxPrefetchBytes) {
+        this.maxPrefetchBytes = maxPrefetchBytes;
+    }
+
+    /**
+     * Returns number of prefetched bytes, that are loaded, but not processed yet.
+     */
+    public long getPrefetchBytesInFlight() {
+        return prefetchBytes.get();
+    }
+
     /**
      * Returns a {@link java.lang.Thread} where the queue is executed. In subclasses this
      * method could be overwritten to provide another thread.
@@ -226,21 +317,28 @@ public abstract class DataLoader<T> {
     ////////////////////////////////////////////////////////////////////////
 
     /**
-     * Adds a {@link ru.jango.j0loader.Request} into the end of the loading queue.
+     * Adds a {@link ru.jango.j0loader.Request} into the end of the loading queue. If the request
+     * has recently failed ({@link #getFailureCache()}), it is added into the head of the queue -
+     * it will fail immediately, without loading.
      *
      * @param request   a {@link Request} to add
      */
     public void addToQueue(Request request) {
-        queue.add(request);
+        dropPrefetch(request);
+        if (getRecentFailure(request) != null) queue.insert(0, request);
+        else queue.add(request);
     }
 
     /**
      * Adds all {@link ru.jango.j0loader.Request}s into the end of the loading queue.
      *
      * @param requests   a pack of {@link Request}s to add
+     *
+     * @see #addToQueue(Request)
      */
     public void addToQueue(Collection<Request> requests) {
-        queue.addAll(requests);
+        for (Request request : requests)
+            addToQueue(request);
     }
 
     /**
@@ -254,6 +352,26 @@ public abstract class DataLoader<T> {
         queue.remove(request);
     }
 
+    /**
+     * Moves a queued {@link Request} into the head of the loading queue - it will be processed
+     * next, before the requests, that were added earlier.
+     *
+     * @return  TRUE if the queue was modified
+     */
+    public boolean prioritize(Request request) {
+        return queue.move(request, 0);
+    }
+
+    /**
+     * Moves a queued {@link Request} into the end of the loading queue - it will be processed
+     * after all other requests.
+     *
+     * @return  TRUE if the queue was modified
+     */
+    public boolean deprioritize(Request request) {
+        return queue.move(request, Integer.MAX_VALUE);
+    }
+
     /**
      * Returns current element (witch is processed now) or null.
      */
@@ -287,7 +405,15 @@ public abstract class DataLoader<T> {
      */
     public void start()  {
         allowWorking();
+        startLoaderThread();
+    }
 
+    /**
+     * Starts loader thread, if it isn't running. Unlike {@link #start()}, it doesn't allow
+     * execution, so it is used to resume the loader, that was started earlier, but finished the
+     * queue already.
+     */
+    protected synchronized void startLoaderThread() {
         final Thread thread = getLoaderThread();
         if (!thread.isAlive()) thread.start();
     }
@@ -297,11 +423,143 @@ public abstract class DataLoader<T> {
      * <ul>
      * <li>stop operations by {@link #stopWorking()}</li>
      * <li>clear queue by {@link #clearQueue()}</li>
+     * <li>clear prefetch queue by {@link #clearPrefetchQueue()}</li>
      * </ul>
      */
     public void reset() {
         stopWorking();
         clearQueue();
+        clearPrefetchQueue();
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //
+    //		Prefetch queue controlling methods
+    //
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Adds a {@link ru.jango.j0loader.Request} into the prefetch queue - a low priority lane, that
+     * is loaded by the same thread, but only when the loading queue is empty. Prefetch results are
+     * not reported to listeners - subclasses just cache them, so later requests for the same data
+     * are faster. Loaders without their own cache could only warm HTTP response cache, if it is
+     * installed (see android.net.http.HttpResponseCache); {@link ru.jango.j0loader.ParamedLoader}
+     * keeps a few prefetched responses in memory. Prefetched request, that is added into the
+     * loading queue later, becomes a usual one.
+     * <br><br>
+     * If a request is added into the loading queue while a prefetch is being loaded, the prefetch
+     * yields - it is stopped and queued again. Prefetches, that exceed
+     * {@link #getMaxPrefetchBytes()}, are dropped; and no more prefetches are started, while
+     * prefetched data waits for processing. As usual, {@link #start()} should be called.
+     *
+     * @param request   a {@link Request} to prefetch
+     */
+    public void prefetch(Request request) {
+        request.setPrefetch(true);
+        prefetchQueue.add(request);
+    }
+
+    /**
+     * Turns a prefetched {@link ru.jango.j0loader.Request} into a usual one, when it is added into
+     * the loading queue: it is removed from the prefetch queue, and it's results are reported to
+     * listeners.
+     */
+    protected void dropPrefetch(Request request) {
+        if (!request.isPrefetch())
+            return;
+
+        prefetchQueue.remove(request);
+        request.setPrefetch(false);
+    }
+
+    /**
+     * Adds all {@link ru.jango.j0loader.Request}s into the prefetch queue.
+     *
+     * @see #prefetch(Request)
+     */
+    public void prefetch(Collection<Request> requests) {
+        for (Request request : requests)
+            prefetch(request);
+    }
+
+    /**
+     * Returns number of elements in prefetch queue.
+     */
+    public int getPrefetchQueueSize() {
+        return prefetchQueue.size();
+    }
+
+    /**
+     * Clears the prefetch queue.
+     */
+    public void clearPrefetchQueue() {
+        prefetchQueue.clear();
+    }
+
+    /**
+     * Special method for prefetch queue configuration.
+     *
+     * @return  prefetch queue instance
+     * @see #createQueue()
+     */
+    protected Queue createPrefetchQueue() {
+        return new DefaultQueue();
+    }
+
+    /**
+     * Returns the prefetch queue, created by {@link #createPrefetchQueue()}.
+     */
+    protected Queue getPrefetchQueue() {
+        return prefetchQueue;
+    }
+
+    /**
+     * Counts prefetched bytes, that are loaded, but will be processed later (for example, in
+     * another thread). While {@link #getMaxPrefetchBytes()} is reached, no more prefetches are
+     * started.
+     *
+     * @see #releasePrefetchBytes(long)
+     */
+    protected void holdPrefetchBytes(long bytes) {
+        prefetchBytes.addAndGet(bytes);
+    }
+
+    /**
+     * Uncounts processed prefetched bytes and resumes prefetching, if it was paused.
+     *
+     * @see #holdPrefetchBytes(long)
+     */
+    protected void releasePrefetchBytes(long bytes) {
+        if (prefetchBytes.addAndGet(-bytes) < maxPrefetchBytes && !prefetchQueue.isEmpty() && canWork())
+            startLoaderThread();
+    }
+
+    /**
+     * Returns next prefetch, or NULL if there are no prefetches, or too many prefetched bytes
+     * wait for processing.
+     */
+    private Request nextPrefetch() {
+        if (prefetchBytes.get() >= maxPrefetchBytes)
+            return null;
+
+        return prefetchQueue.next();
+    }
+
+    /**
+     * Checks if a prefetch could go on loading: it yields to requests, that were added into the
+     * loading queue meanwhile (and is queued again), and is dropped, if it exceeds
+     * {@link #getMaxPrefetchBytes()}. Stopped prefetch is cancelled as a current queue element.
+     */
+    private boolean canContinuePrefetch(Request request, long loadedBytes) {
+        if (!queue.isEmpty()) {
+            logDebug("prefetch yields to loading queue: " + request.getURI());
+            prefetchQueue.insert(0, request);
+        } else if (loadedBytes + prefetchBytes.get() > maxPrefetchBytes) {
+            logDebug("prefetch exceeds max bytes in flight, dropped: " + request.getURI());
+        } else return true;
+
+        currCancelled = true;
+        return false;
     }
 
     /**
@@ -318,6 +576,67 @@ public abstract class DataLoader<T> {
         return new DefaultQueue();
     }
 
+    /**
+     * Makes a queue, that could drop requests by itself ({@link ru.jango.j0loader.queue.LIFOQueue}),
+     * report them into {@link #onRequestDropped(Request)}. Loader's own queues are watched
+     * automatically.
+     */
+    protected void watchDrops(Queue queue) {
+        if (!(queue instanceof LIFOQueue))
+            return;
+
+        ((LIFOQueue) queue).setDropListener(new LIFOQueue.DropListener() {
+            @Override
+            public void onDropped(Request request) { onRequestDropped(request); }
+        });
+    }
+
+    /**
+     * Called, when a queued {@link ru.jango.j0loader.Request} was dropped by the queue itself
+     * (e.g. by {@link ru.jango.j0loader.queue.LIFOQueue} overflow). It would never be processed,
+     * so it is reported to listeners as failed with {@link java.util.concurrent.CancellationException}.
+     * Unlike other failures it is reported even if the loader is stopped - clients still wait
+     * for it. Dropped prefetches are not reported.
+     */
+    protected void onRequestDropped(final Request request) {
+        if (request.isPrefetch()) return;
+        logDebug("onRequestDropped: " + request.getURI());
+
+        final Exception e = new CancellationException("Request was dropped by the queue: " + request.getURI());
+        deliver(new Runnable() {
+            @Override
+            public void run() { doPostProcessFailed(request, e); }
+        });
+    }
+
+    /**
+     * Returns the loading queue, created by {@link #createQueue()}.
+     */
+    protected Queue getQueue() {
+        return queue;
+    }
+
+    /**
+     * Special method for negative cache configuration. By default {@link ru.jango.j0loader.DataLoader}
+     * creates an empty {@link ru.jango.j0loader.FailureCache} - it doesn't remember any failures.
+     * <br><br>
+     * Failures are remembered by {@link java.net.URI}, so if the same URI could give different
+     * responses (for example, HTTP POST with different params), time to live should be small.
+     *
+     * @return  negative cache instance
+     */
+    protected FailureCache createFailureCache() {
+        return new FailureCache();
+    }
+
+    /**
+     * Returns recent failure of the specified {@link ru.jango.j0loader.Request}, or NULL, if it
+     * should be loaded as usual.
+     */
+    protected Exception getRecentFailure(Request request) {
+        return failureCache == null ? null : failureCache.get(request.getURI());
+    }
+
     ////////////////////////////////////////////////////////////////////////
     //
     //		Loading methods
@@ -332,6 +651,31 @@ public abstract class DataLoader<T> {
 	 */
 	protected abstract void loadInBackground(Request request) throws Exception;
 
+    /**
+     * Processes one queue element: reports start, calls {@link #loadInBackground(Request)} and
+     * reports failure, if any. Recently failed requests fail immediately, without loading.
+     * Is called from a loading thread.
+     */
+    protected void processRequest(Request request) {
+        final Exception recentFailure = getRecentFailure(request);
+        if (recentFailure != null) {
+            logDebug("failing fast: " + request.getURI() + " : " + recentFailure);
+            onProcessFailed(request, recentFailure);
+            return;
+        }
+
+        try {
+            onProcessStarted(request);
+            loadInBackground(request);
+            if (failureCache != null) failureCache.remove(request.getURI());
+        } catch (Exception e) {
+            if (failureCache != null && canWork() && !isCurrentCancelled())
+                failureCache.put(request.getURI(), e);
+
+            onProcessFailed(request, e);
+        }
+    }
+
 	/**
      * Helper method for subclasses - opens an {@link java.io.InputStream} and does the loading.
 	 *
@@ -352,7 +696,8 @@ public abstract class DataLoader<T> {
 	
     /**
 	 * Helper method for subclasses - actually does the loading. Also automatically calls
-     * {@link #onDownloadingUpdateProgress(Request, long, long)} during the work; handles
+     * {@link #onDownloadingUpdateProgress(Request, long, long)} and
+     * {@link #onPartialData(Request, byte[], int)} during the work; handles
      * {@link #canWork()} and {@link #isCurrentCancelled()} flags.
 	 */
 	protected byte[] doLoad(Request request, InputStream in) throws IOException {
@@ -360,16 +705,20 @@ public abstract class DataLoader<T> {
 		int nRead, totalRead = 0;
 		byte[] data = new byte[BUFFER_SIZE_BYTES];
 
-		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		final LoadingBuffer buffer = new LoadingBuffer();
         final BufferedInputStream input = new BufferedInputStream(in);
 		while ((nRead = input.read(data, 0, data.length))!=-1 && canWork() && !isCurrentCancelled())  {
 			buffer.write(data, 0, nRead);
 			totalRead += nRead;
+            if (request.isPrefetch() && !canContinuePrefetch(request, totalRead))
+                break;
 			
 			boolean updateProgress = System.currentTimeMillis() > progressLastUpdated + PROGRESS_UPDATE_INTERVAL_MS;
-			if (request.getResponseContentLength()!=-1 && updateProgress) {
+			if (updateProgress) {
 				progressLastUpdated = System.currentTimeMillis();
-				onDownloadingUpdateProgress(request, totalRead, request.getResponseContentLength());
+                if (request.getResponseContentLength()!=-1)
+				    onDownloadingUpdateProgress(request, totalRead, request.getResponseContentLength());
+                onPartialData(request, buffer.getBuffer(), totalRead);
 			}
 		}
 		buffer.flush();
@@ -380,19 +729,56 @@ public abstract class DataLoader<T> {
         return ret;
     }
 
+    /**
+     * Is called from {@link #doLoad(Request, java.io.InputStream)} every
+     * {@link #PROGRESS_UPDATE_INTERVAL_MS} with the data, that is already loaded - subclasses could
+     * use it for previews. Does nothing by default.
+     *
+     * @param data      loading buffer - it is reused by loading, so it shouldn't be kept or changed
+     * @param length    number of loaded bytes in the buffer
+     */
+    protected void onPartialData(Request request, byte[] data, int length) {}
+
+    /**
+     * {@link java.io.ByteArrayOutputStream}, that gives access to it's buffer without copying.
+     */
+    private static class LoadingBuffer extends ByteArrayOutputStream {
+        public byte[] getBuffer() { return buf; }
+    }
+
 	/**
      * Helper method for subclasses - actually opens an {@link java.io.InputStream} and sets
-     * content length inside the passed {@link ru.jango.j0loader.Request} object -
-     * {@link ru.jango.j0loader.Request#setResponseContentLength(long)}.
+     * content length and expiration inside the passed {@link ru.jango.j0loader.Request} object -
+     * {@link ru.jango.j0loader.Request#setResponseContentLength(long)},
+     * {@link ru.jango.j0loader.Request#setResponseExpiration(long)}.
 	 */
 	protected InputStream openInputStream(Request request) throws IOException, URISyntaxException {
 		final URLConnection urlConnection = request.getURL().openConnection();
         configURLConnection(urlConnection);
 
 		request.setResponseContentLength(urlConnection.getContentLength());
+        request.setResponseExpiration(getExpiration(urlConnection));
 		return urlConnection.getInputStream();
 	}
 
+    /**
+     * Returns time, when the response becomes stale, from 'cache-control: max-age' header
+     * (in priority) or 'expires' header; or 0, if none of them was specified. Should be called
+     * after the connection was established.
+     */
+    protected long getExpiration(URLConnection urlConnection) {
+        final String cacheControl = urlConnection.getHeaderField("Cache-Control");
+        if (cacheControl != null)
+            for (String directive : cacheControl.split(",")) {
+                final String[] parts = directive.trim().split("=");
+                if (parts.length == 2 && parts[0].trim().equalsIgnoreCase("max-age"))
+                    try { return System.currentTimeMillis() + Long.parseLong(parts[1].trim()) * 1000; }
+                    catch (NumberFormatException ignored) {}
+            }
+
+        return urlConnection.getExpiration();
+    }
+
     /**
      * Applies default configurations to specified {@link java.net.URLConnection}.
      */
@@ -410,6 +796,18 @@ public abstract class DataLoader<T> {
     //
     ////////////////////////////////////////////////////////////////////////
 
+    /**
+     * Passes a listeners call into main thread, or runs it immediately in full asynchronous mode.
+     * Subclasses could override it to control delivery (for example, limit number of pending
+     * calls).
+     *
+     * @see #isFullAsyncMode()
+     */
+    protected void deliver(Runnable listenersCall) {
+        if (isFullAsyncMode()) listenersCall.run();
+        else mainThreadHandler.post(listenersCall);
+    }
+
     /**
      * Checks various stop flags (i.e. {@link #canWork()}, {@link #isCurrentCancelled()})
      */
@@ -426,11 +824,10 @@ public abstract class DataLoader<T> {
      * @see #isFullAsyncMode()
 	 */
 	protected void onProcessStarted(final Request request) {
-		if (!canPingListeners()) return;
+		if (!canPingListeners() || request.isPrefetch()) return;
 		logDebug("onProcessStarted: " + request.getURI());
 
-        if (isFullAsyncMode()) doPostProcessStarted(request);
-        else mainThreadHandler.post(new Runnable() {
+        deliver(new Runnable() {
 			@Override
 			public void run() { doPostProcessStarted(request); }
         });
@@ -453,13 +850,12 @@ public abstract class DataLoader<T> {
      * @see #isFullAsyncMode()
      */
 	protected void onUploadingUpdateProgress(final Request request, final long uploadedBytes, final long totalBytes) {
-		if (!canPingListeners()) return;
+		if (!canPingListeners() || request.isPrefetch()) return;
 		logDebug("onUploadingUpdateProgress: " + request.getURI() + " : "
 					+ "uploaded " + uploadedBytes + "bytes; "
 					+ "total " + totalBytes + "bytes");
 
-        if (isFullAsyncMode()) doPostUploadingUpdateProgress(request, uploadedBytes, totalBytes);
-		else mainThreadHandler.post(new Runnable()  {
+        deliver(new Runnable()  {
 			@Override
 			public void run()  { doPostUploadingUpdateProgress(request, uploadedBytes, totalBytes); }
 		});
@@ -481,13 +877,12 @@ public abstract class DataLoader<T> {
      * @see #isFullAsyncMode()
      */
     protected void onDownloadingUpdateProgress(final Request request, final long loadedBytes, final long totalBytes) {
-        if (!canPingListeners()) return;
+        if (!canPingListeners() || request.isPrefetch()) return;
         logDebug("onDownloadingUpdateProgress: " + request.getURI() + " : "
                 + "downloaded " + loadedBytes + "bytes; "
                 + "total " + totalBytes + "bytes");
 
-        if (isFullAsyncMode()) doPostDownloadingUpdateProgress(request, loadedBytes, totalBytes);
-        else mainThreadHandler.post(new Runnable()  {
+        deliver(new Runnable()  {
             @Override
             public void run()  { doPostDownloadingUpdateProgress(request, loadedBytes, totalBytes); }
         });
@@ -503,26 +898,69 @@ public abstract class DataLoader<T> {
      * has just successfully finished.
      *
      * @param request   {@link ru.jango.j0loader.Request} that had just been processed
-     * @param rawData   raw bytes of the downloaded data
+     * @param rawData   raw bytes of the downloaded data, or NULL if they are not kept in memory
+     *                  (e.g. tiles of a source, that is kept in a file)
      * @param data      postprocessed loader-specific data
      *
      * @see #isFullAsyncMode()
      */
 	protected void onProcessFinished(final Request request, final byte[] rawData, final T data) {
-		if (!canPingListeners()) return;
+		if (!canPingListeners() || request.isPrefetch()) return;
 		logDebug("onProcessFinished: " + request.getURI() + " : "
-					+ rawData.length + "bytes");
+					+ (rawData == null ? 0 : rawData.length) + "bytes");
 
-        if (isFullAsyncMode()) doPostProcessFinished(request, rawData, data);
-        else mainThreadHandler.post(new Runnable()  {
+        deliver(new Runnable()  {
 			@Override
 			public void run()  { doPostProcessFinished(request, rawData, data); }
 		});
 	}
 
+    /**
+     * Reports to all listeners that the specified {@link ru.jango.j0loader.Request} has been
+     * successfully finished right in the calling thread. It is for results, that are ready without
+     * loading (for example, taken from memory), so the caller should check itself, that it is in
+     * main thread (or in full asynchronous mode). Stop flags are checked as in
+     * {@link #onProcessFinished(Request, byte[], Object)}. If it is called by a listener (e.g. the
+     * listener adds one more request), the call is postponed, until the current listeners call is
+     * finished, so listeners are not reentered.
+     *
+     * @param request   {@link ru.jango.j0loader.Request} that had just been processed
+     * @param rawData   raw bytes of the data, or NULL if they are not kept in memory
+     * @param data      postprocessed loader-specific data
+     * @return          false if listeners couldn't be called now (loader is stopped or it is a
+     *                  prefetch) - then the request should be processed as usual
+     */
+    protected boolean onProcessFinishedImmediately(final Request request, final byte[] rawData, final T data) {
+        if (!canPingListeners() || request.isPrefetch()) return false;
+        logDebug("onProcessFinishedImmediately: " + request.getURI() + " : "
+                + (rawData == null ? 0 : rawData.length) + "bytes");
+
+        final LinkedList<Runnable> postponed = postponedCalls.get();
+        if (postponed == null) doPostProcessFinished(request, rawData, data);
+        else postponed.add(new Runnable() {
+            @Override
+            public void run() { doPostProcessFinished(request, rawData, data); }
+        });
+
+        return true;
+    }
+
     private void doPostProcessFinished(Request request, byte[] rawData, T data) {
-        for (LoadingListener<T> listener : listeners)
-            listener.processFinished(request, rawData, data);
+        final boolean outer = postponedCalls.get() == null;
+        if (outer) postponedCalls.set(new LinkedList<Runnable>());
+
+        try {
+            for (LoadingListener<T> listener : listeners)
+                listener.processFinished(request, rawData, data);
+
+            if (outer) {
+                Runnable call;
+                while ((call = postponedCalls.get().poll()) != null)
+                    call.run();
+            }
+        } finally {
+            if (outer) postponedCalls.remove();
+        }
     }
 
     /**
@@ -535,12 +973,11 @@ public abstract class DataLoader<T> {
      * @see #isFullAsyncMode()
      */
 	protected void onProcessFailed(final Request request, final Exception e) {
-		if (!canPingListeners()) return;
+		if (!canPingListeners() || request.isPrefetch()) return;
 		if (isDebug()) e.printStackTrace();
 		logDebug("onProcessFailed: " + request.getURI() + " : " + e);
 
-        if (isFullAsyncMode()) doPostProcessFailed(request, e);
-        else mainThreadHandler.post(new Runnable() {
+        deliver(new Runnable() {
 			@Override
 			public void run() { doPostProcessFailed(request, e); }
         });
@@ -594,7 +1031,8 @@ public abstract class DataLoader<T> {
 		 * Called when the loading had been successfully finished.
 		 *
          * @param request   {@link ru.jango.j0loader.Request} that had just successfully finished
-		 * @param rawData	raw downloaded data
+		 * @param rawData	raw downloaded data, may be NULL, if the loader doesn't keep it in the
+		 *                  heap (see {@link ru.jango.j0loader.image.ImageLoader})
 		 * @param data		postprocessed loader-specific data
 		 */
 		public void processFinished(Request request, byte[] rawData, T data);
@@ -614,14 +1052,14 @@ public abstract class DataLoader<T> {
 	private Runnable queueRunnable = new Runnable() {
 		@Override
 		public void run()  {
-			while (!isQueueEmpty() && canWork()) {
-				final Request request = queue.next();
-                currCancelled = false;
-
-				try {
-					onProcessStarted(request);
-					loadInBackground(request);
-				} catch (Exception e) { onProcessFailed(request, e); }
+			while (canWork()) {
+				Request request = queue.next();
+                if (request == null) request = nextPrefetch();
+                if (request == null) break;
+
+                setProcessingRequest(request);
+                try { processRequest(request); }
+                finally { setProcessingRequest(null); }
 
 				LogUtil.logMemoryUsage();
 			}
@@ -0,0 +1,174 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ru.jango.j0loader;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Negative cache - remembers recent loading failures, so loaders could fail fast without
+ * repeating a network round trip for a missing or unreachable resource.
+ * <ul>
+ * <li>time to live is specified per failure type (an {@link java.lang.Exception} class); for a
+ * failure the most specific type is chosen by walking up it's class hierarchy</li>
+ * <li>failures of types without time to live are not remembered; by default there are no types
+ * at all - the cache is disabled</li>
+ * <li>number of remembered failures is limited ({@link #DEFAULT_MAX_FAILURES}); the oldest ones
+ * are dropped first</li>
+ * </ul>
+ */
+public class FailureCache {
+
+    public static final int DEFAULT_MAX_FAILURES = 100;
+
+    private final Map<Class<?>, Long> timesToLive;
+    private final LinkedHashMap<URI, Failure> failures;
+    private int maxFailures;
+
+    public FailureCache() {
+        this(DEFAULT_MAX_FAILURES);
+    }
+
+    public FailureCache(int maxFailures) {
+        this.maxFailures = maxFailures;
+        this.timesToLive = new HashMap<Class<?>, Long>();
+        this.failures = new LinkedHashMap<URI, Failure>(16, 0.75f, false) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<URI, Failure> eldest) {
+                return size() > FailureCache.this.maxFailures;
+            }
+        };
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //
+    //		Policy
+    //
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Sets time to live for failures of the specified type (and it's subclasses, that don't have
+     * their own time to live).
+     *
+     * @param type          failure type
+     * @param timeToLive    time to live in milliseconds; 0 means failures of this type shouldn't
+     *                      be remembered
+     */
+    public synchronized void setTimeToLive(Class<? extends Exception> type, long timeToLive) {
+        timesToLive.put(type, timeToLive);
+    }
+
+    /**
+     * Returns time to live in milliseconds for the specified failure; 0 means the failure
+     * shouldn't be remembered.
+     */
+    public synchronized long getTimeToLive(Exception e) {
+        for (Class<?> type = e.getClass(); type != null; type = type.getSuperclass()) {
+            final Long timeToLive = timesToLive.get(type);
+            if (timeToLive != null) return timeToLive;
+        }
+
+        return 0;
+    }
+
+    public synchronized int getMaxFailures() {
+        return maxFailures;
+    }
+
+    public synchronized void setMaxFailures(int maxFailures) {
+        this.maxFailures = maxFailures;
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //
+    //		Failures controlling methods
+    //
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Remembers a failure, if it's type has time to live.
+     *
+     * @return  TRUE if the failure was remembered
+     */
+    public synchronized boolean put(URI uri, Exception e) {
+        final long timeToLive = getTimeToLive(e);
+        if (timeToLive <= 0)
+            return false;
+
+        failures.remove(uri);
+        failures.put(uri, new Failure(e, System.currentTimeMillis() + timeToLive));
+        return true;
+    }
+
+    /**
+     * Returns recent failure for the specified {@link java.net.URI}, or NULL if there was no
+     * failure or it has already expired.
+     */
+    public synchronized Exception get(URI uri) {
+        final Failure failure = failures.get(uri);
+        if (failure == null)
+            return null;
+
+        if (failure.expiresAt <= System.currentTimeMillis()) {
+            failures.remove(uri);
+            return null;
+        }
+
+        return failure.exception;
+    }
+
+    /**
+     * Checks if there was a recent failure for the specified {@link java.net.URI}.
+     */
+    public boolean contains(URI uri) {
+        return get(uri) != null;
+    }
+
+    /**
+     * Forgets failure for the specified {@link java.net.URI}.
+     */
+    public synchronized Exception remove(URI uri) {
+        final Failure failure = failures.remove(uri);
+        return failure == null ? null : failure.exception;
+    }
+
+    /**
+     * Returns number of remembered failures (including already expired ones).
+     */
+    public synchronized int size() {
+        return failures.size();
+    }
+
+    public synchronized void clear() {
+        failures.clear();
+    }
+
+    private static class Failure {
+        private final Exception exception;
+        private final long expiresAt;
+
+        private Failure(Exception exception, long expiresAt) {
+            this.exception = exception;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+}
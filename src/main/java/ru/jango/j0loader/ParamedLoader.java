@@ -25,8 +25,13 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.ProtocolException;
+import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 
 import ru.jango.j0loader.param.Param;
 
@@ -40,6 +45,132 @@ import ru.jango.j0loader.param.Param;
  */
 public abstract class ParamedLoader<T> extends DataLoader<T> {
 
+    /**
+     * Default limit of prefetched responses, kept in memory until they are requested - 256KB.
+     */
+    public static final long DEFAULT_MAX_PREFETCHED_BYTES = 256 * 1024;
+
+    /**
+     * Default time, while a prefetched response is kept, if the server hasn't specified it's
+     * expiration - 1 minute.
+     */
+    public static final long DEFAULT_PREFETCHED_TTL_MS = 60 * 1000;
+
+    private final LinkedHashMap<PrefetchKey, Prefetched<T>> prefetched;
+    private long prefetchedBytes;
+    private volatile long maxPrefetchedBytes;
+
+    public ParamedLoader() {
+        super();
+
+        prefetched = new LinkedHashMap<PrefetchKey, Prefetched<T>>(16, 0.75f, true);
+        maxPrefetchedBytes = DEFAULT_MAX_PREFETCHED_BYTES;
+    }
+
+    /**
+     * Returns limit of prefetched responses, that are kept in memory until they are requested.
+     *
+     * @see #prefetch(Request)
+     */
+    public long getMaxPrefetchedBytes() {
+        return maxPrefetchedBytes;
+    }
+
+    /**
+     * @see #getMaxPrefetchedBytes()
+     */
+    public void setMaxPrefetchedBytes(long maxPrefetchedBytes) {
+        this.maxPrefetchedBytes = maxPrefetchedBytes;
+        synchronized (prefetched) { trimPrefetched(); }
+    }
+
+    /**
+     * Returns number of bytes of prefetched responses, that are kept in memory.
+     */
+    public long getPrefetchedBytes() {
+        synchronized (prefetched) { return prefetchedBytes; }
+    }
+
+    /**
+     * Throws away all prefetched responses.
+     */
+    public void clearPrefetched() {
+        synchronized (prefetched) {
+            prefetched.clear();
+            prefetchedBytes = 0;
+        }
+    }
+
+    /**
+     * Adds a {@link ru.jango.j0loader.Request} into the loading queue. If a response for the same
+     * URI and params has been prefetched (see {@link #prefetch(Request)}) and is still fresh, it
+     * is consumed and reported to listeners without loading.
+     *
+     * @param request   a {@link Request} to add
+     */
+    @Override
+    public void addToQueue(Request request) {
+        final Prefetched<T> result = canPingListeners() ? takePrefetched(request) : null;
+        if (result == null) {
+            super.addToQueue(request);
+            return;
+        }
+
+        dropPrefetch(request);
+        request.setResponseContentLength(result.rawData.length);
+        request.setResponseExpiration(result.expiration);
+        logDebug("addToQueue: " + request.getURI() + " : prefetched response used");
+        onProcessFinished(request, result.rawData, result.data);
+    }
+
+    /**
+     * Prefetched responses are not reported to listeners - they are kept in memory (up to
+     * {@link #getMaxPrefetchedBytes()}, least recently prefetched are thrown away first) until
+     * the same {@link ru.jango.j0loader.Request} is added into the loading queue.
+     */
+    @Override
+    protected void onProcessFinished(Request request, byte[] rawData, T data) {
+        if (request.isPrefetch()) keepPrefetched(request, rawData, data);
+        else super.onProcessFinished(request, rawData, data);
+    }
+
+    private void keepPrefetched(Request request, byte[] rawData, T data) {
+        if (rawData == null || rawData.length > maxPrefetchedBytes)
+            return;
+
+        final long expiration = request.getResponseExpiration() > 0 ? request.getResponseExpiration()
+                : System.currentTimeMillis() + DEFAULT_PREFETCHED_TTL_MS;
+        synchronized (prefetched) {
+            final Prefetched<T> old = prefetched.put(new PrefetchKey(request),
+                    new Prefetched<T>(rawData, data, expiration));
+            if (old != null) prefetchedBytes -= old.rawData.length;
+            prefetchedBytes += rawData.length;
+            trimPrefetched();
+        }
+
+        logDebug("prefetched: " + request.getURI() + " : " + rawData.length + "bytes");
+    }
+
+    private Prefetched<T> takePrefetched(Request request) {
+        synchronized (prefetched) {
+            if (prefetched.isEmpty()) return null;
+
+            final Prefetched<T> result = prefetched.remove(new PrefetchKey(request));
+            if (result == null) return null;
+
+            prefetchedBytes -= result.rawData.length;
+            return result.expiration > System.currentTimeMillis() ? result : null;
+        }
+    }
+
+    private void trimPrefetched() {
+        final Iterator<Prefetched<T>> iterator = prefetched.values().iterator();
+        while (prefetchedBytes > maxPrefetchedBytes && iterator.hasNext()) {
+            prefetchedBytes -= iterator.next().rawData.length;
+            iterator.remove();
+        }
+    }
+
 	@Override
 	protected InputStream openInputStream(Request request) throws IOException, URISyntaxException {
 		final HttpURLConnection urlConnection = (HttpURLConnection) request.getComposedURL().openConnection();
@@ -47,6 +178,7 @@ public abstract class ParamedLoader<T> extends DataLoader<T> {
 
         if (request.getMethod() == Request.Method.POST) sendParams(request, urlConnection);
 		request.setResponseContentLength(urlConnection.getContentLength());
+        request.setResponseExpiration(getExpiration(urlConnection));
 		return urlConnection.getInputStream();
 	}
 
@@ -113,4 +245,69 @@ public abstract class ParamedLoader<T> extends DataLoader<T> {
 
         output.flush();
 	}
+
+    private static class Prefetched<T> {
+        private final byte[] rawData;
+        private final T data;
+        private final long expiration;
+
+        private Prefetched(byte[] rawData, T data, long expiration) {
+            this.rawData = rawData;
+            this.data = data;
+            this.expiration = expiration;
+        }
+    }
+
+    /**
+     * Identifies a response by request URI, method and params.
+     */
+    private static class PrefetchKey {
+        private final URI uri;
+        private final Request.Method method;
+        private final List<Param> params;
+
+        private PrefetchKey(Request request) {
+            uri = request.getURI();
+            method = request.getMethod();
+            params = request.getRequestParams();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof PrefetchKey)) return false;
+
+            final PrefetchKey key = (PrefetchKey) o;
+            if (!uri.equals(key.uri) || method != key.method) return false;
+            if (params == null || key.params == null) return params == key.params;
+            if (params.size() != key.params.size()) return false;
+
+            for (int i = 0; i < params.size(); i++)
+                if (!paramEquals(params.get(i), key.params.get(i))) return false;
+
+            return true;
+        }
+
+        private static boolean paramEquals(Param p1, Param p2) {
+            return p1 == p2 || (p1 != null && p2 != null
+                    && equals(p1.getName(), p2.getName())
+                    && equals(p1.getContentType(), p2.getContentType())
+                    && equals(p1.getContentDisposition(), p2.getContentDisposition())
+                    && Arrays.equals(p1.getRawData(), p2.getRawData()));
+        }
+
+        private static boolean equals(Object o1, Object o2) {
+            return o1 == null ? o2 == null : o1.equals(o2);
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 31 * uri.hashCode() + (method == null ? 0 : method.hashCode());
+            if (params != null)
+                for (Param param : params)
+                    hash = 31 * hash + (param == null ? 0 : Arrays.hashCode(param.getRawData()));
+
+            return hash;
+        }
+    }
 }
@@ -41,6 +41,8 @@ import ru.jango.j0loader.param.StringParam;
  * <li>HTTP method - basically it is determined automatically, GET is in priority</li>
  * <li>size of the response data in bytes (value of HTTP response 'content-length' header,
  * file size, etc.; -1 if the data size is unknown or unavailable)</li>
+ * <li>expiration time of the response data (from HTTP 'cache-control: max-age' or 'expires'
+ * headers; 0 if the server didn't specify it)</li>
  * </ul>
  */
 public class Request {
@@ -48,7 +50,9 @@ public class Request {
     private URI uri;
     private Method method;
     private long responseContentLength;
+    private long responseExpiration;
     private List<Param> params;
+    private boolean prefetch;
 
     /**
      * Constructs new request with some internal variables. HTTP method will be set automatically.
@@ -116,6 +120,43 @@ public class Request {
         return responseContentLength;
     }
 
+    /**
+     * Sets time (in milliseconds since epoch), when the response data becomes stale. Loaders set
+     * it automatically from response headers.
+     */
+    public void setResponseExpiration(long responseExpiration) {
+        this.responseExpiration = responseExpiration;
+    }
+
+    /**
+     * Returns time (in milliseconds since epoch), when the response data becomes stale, or 0 if
+     * it is unknown.
+     */
+    public long getResponseExpiration() {
+        return responseExpiration;
+    }
+
+    void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    /**
+     * Checks if the request was added by {@link ru.jango.j0loader.DataLoader#prefetch(Request)} -
+     * it's results are not reported to listeners.
+     */
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Returns a key, that identifies the data, this request should give - queues and caches
+     * tell requests apart by it. It is just {@link #getURI()}; subclasses, that describe variants
+     * of the data, add them to the key.
+     */
+    public URI getCacheKey() {
+        return uri;
+    }
+
     /**
      * Sets HTTP parameters for this request. This method also determines optimal HTTP method and
      * applies it. That is - rewrites previously set HTTP method.
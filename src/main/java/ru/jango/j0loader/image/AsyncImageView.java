@@ -21,15 +21,19 @@ package ru.jango.j0loader.image;
 
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.graphics.Point;
 import android.util.AttributeSet;
 import android.view.View;
+import android.view.ViewGroup;
 import android.widget.ImageView;
 import android.widget.RelativeLayout;
 
 import java.net.URI;
+import java.util.List;
 
 import ru.jango.j0loader.DataLoader;
 import ru.jango.j0loader.Request;
+import ru.jango.j0util.BmpUtil;
 import ru.jango.j0util.PathUtil;
 import ru.jango.j0widget.TorusIndicator;
 
@@ -44,6 +48,17 @@ import ru.jango.j0widget.TorusIndicator;
  * use {@link #setAutoDetachLoader(boolean)} or manually reset {@link ru.jango.j0loader.image.ImageLoader} via
  * {@link #setImageLoader(ImageLoader)} on each {@link android.widget.Adapter#getView(int, android.view.View, android.view.ViewGroup)}
  * call.
+ * <p>
+ * Images could be loaded by the view itself ({@link #loadImageURI(java.net.URI)}) - then they are
+ * decoded and cached in the size, that they are displayed in. The view owns such request: when
+ * it is rebound to another image or loses it's loader, the old request is cancelled
+ * ({@link ImageLoader#cancel(ru.jango.j0loader.Request)}); requests of views, that are shown, are
+ * moved ahead of the queue, requests of hidden or detached views - behind it. Opaque photos could
+ * be decoded in a config, that takes less memory ({@link #setBitmapConfig(android.graphics.Bitmap.Config)}),
+ * and images could be transformed in loader's threads ({@link #setTransformations(java.util.List)}).
+ * <p>
+ * While the image is loaded, it's low resolution preview is shown, if the loader could make one
+ * ({@link ImageLoader.PreviewListener}).
  */
 public class AsyncImageView extends RelativeLayout {
 
@@ -53,10 +68,17 @@ public class AsyncImageView extends RelativeLayout {
 	private Status status;
     private boolean autoDetachLoader;
     private boolean showIndicator;
+    private Bitmap.Config bitmapConfig;
+    private List<Transformation> transformations;
 
 	private ImageLoader loader;
 	private URI imageUri;
 	private boolean imageSet;
+    private boolean previewSet;
+    private boolean laidOut;
+    private ImageRequest pendingRequest;    // waits for layout (or loader) to be issued
+    private ImageRequest activeRequest;     // issued, but not finished yet
+    private ImageRequest ownRequest;        // request of loadImageURI (in any state), NULL for setImageURI
 
     public enum Status {
         UNKNOWN, LOADING, LOADED, FAILED
@@ -66,7 +88,7 @@ public class AsyncImageView extends RelativeLayout {
 		
 		@Override
 		public void processStarted(Request request) {
-			if (!PathUtil.uriEquals(imageUri, request.getURI())) return;
+			if (!isOwnRequest(request)) return;
 			if (!imageSet) return;
 			
 			imageView.setImageBitmap(null);
@@ -79,7 +101,7 @@ public class AsyncImageView extends RelativeLayout {
 
 		@Override
 		public void downloadingUpdateProgress(Request request, long loadedBytes, long totalBytes) {
-			if (!PathUtil.uriEquals(imageUri, request.getURI())) return;
+			if (!isOwnRequest(request)) return;
 			if (imageSet) return;
 
             indicator.setProgress((int) ((loadedBytes * 100) / totalBytes));
@@ -89,20 +111,17 @@ public class AsyncImageView extends RelativeLayout {
 
 		@Override
 		public void processFinished(Request request, byte[] rawData, Bitmap data) {
-			if (!PathUtil.uriEquals(imageUri, request.getURI())) return;
-			if (imageSet) return;
-
-            indicator.setProgress(100);
-			imageSet = true;
+			if (!isOwnRequest(request)) return;
+            activeRequest = null;
+            if (imageSet) return;
 
-            status = Status.LOADED;
-			imageView.setImageBitmap(data);
-            indicator.setVisibility(View.GONE);
+            showImage(data);
         }
 
 		@Override
 		public void processFailed(Request request, Exception e) {
-            if (!PathUtil.uriEquals(imageUri, request.getURI())) return;
+            if (!isOwnRequest(request)) return;
+            activeRequest = null;
             if (imageSet) return;
 
             indicator.setProgress(-1);
@@ -116,6 +135,18 @@ public class AsyncImageView extends RelativeLayout {
 		public void uploadingUpdateProgress(Request request, long uploadedBytes, long totalBytes) {}
 	};
 	
+    private final ImageLoader.PreviewListener previewListener = new ImageLoader.PreviewListener() {
+
+        @Override
+        public void previewLoaded(Request request, Bitmap preview) {
+            if (!isOwnRequest(request)) return;
+            if (imageSet) return;
+
+            imageView.setImageBitmap(preview);
+            previewSet = true;
+        }
+    };
+
 	public AsyncImageView(Context context) { super(context); init(context); }
 	public AsyncImageView(Context context, AttributeSet attrs) { super(context, attrs); init(context); }
 	public AsyncImageView(Context context, AttributeSet attrs, int defStyle) { super(context, attrs, defStyle);	init(context); }
@@ -141,13 +172,38 @@ public class AsyncImageView extends RelativeLayout {
         addView(indicator);
     }
 
+    @Override
+    protected void onLayout(boolean changed, int l, int t, int r, int b) {
+        super.onLayout(changed, l, t, r, b);
+        laidOut = true;
+        issuePendingRequest();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        if (loader != null && activeRequest != null) loader.prioritize(activeRequest);
+    }
+
 	@Override
 	protected void onDetachedFromWindow() {
 		super.onDetachedFromWindow();
 
 		if (autoDetachLoader)
             setImageLoader(null);
+        else if (loader != null && activeRequest != null)
+            loader.deprioritize(activeRequest);
 	}
+
+    @Override
+    protected void onWindowVisibilityChanged(int visibility) {
+        super.onWindowVisibilityChanged(visibility);
+        if (loader == null || activeRequest == null)
+            return;
+
+        if (visibility == View.VISIBLE) loader.prioritize(activeRequest);
+        else loader.deprioritize(activeRequest);
+    }
 	
 	////////////////////////////////////////////////////////////////////////
 	//
@@ -170,17 +226,30 @@ public class AsyncImageView extends RelativeLayout {
     /**
      * Switches view on new {@link ru.jango.j0loader.image.ImageLoader}. Automatically removes itself
      * from old loader's listeners collection and adds itself to new loader's listeners collection.
+     * Unfinished request of {@link #loadImageURI(java.net.URI)} is cancelled in the old loader and
+     * issued again by the new one.
      *
      * @param loader new {@link ru.jango.j0loader.image.ImageLoader}, may be NULL
      */
     public void setImageLoader(ImageLoader loader) {
-		if (this.loader != null)
+		if (this.loader != null) {
 			this.loader.removeLoadingListener(loadingListener);
+            this.loader.removePreviewListener(previewListener);
+        }
+
+        if (this.loader != null && this.loader != loader && activeRequest != null) {
+            this.loader.cancel(activeRequest);
+            pendingRequest = activeRequest;
+            activeRequest = null;
+        }
 		
-		if (loader != null)
+		if (loader != null) {
 			loader.addLoadingListener(loadingListener);
+            loader.addPreviewListener(previewListener);
+        }
 		
 		this.loader = loader;
+        issuePendingRequest();
 	}
 
     /**
@@ -191,7 +260,9 @@ public class AsyncImageView extends RelativeLayout {
 	}
 
     /**
-     * Just saves {@link URI} inside itself - doesn't start loading itself.
+     * Saves {@link URI} inside itself - doesn't start loading itself. But if the image is already
+     * decoded in loader's memory ({@link ImageLoader#getFromMemory(ru.jango.j0loader.Request)}),
+     * it is shown immediately, without waiting for the loader.
      *
      * @see ru.jango.j0loader.image.ImageLoader#addToQueue(ru.jango.j0loader.Request)
      * @see ImageLoader#start()
@@ -200,14 +271,163 @@ public class AsyncImageView extends RelativeLayout {
 		if (PathUtil.uriEquals(uri, this.imageUri))
 			return;
 
+        changeImageURI(uri);
+        if (uri == null || loader == null)
+            return;
+
+        final Bitmap bmp = loader.getFromMemory(createRequest(uri));
+        if (bmp != null) showImage(bmp);
+	}
+
+    /**
+     * Saves {@link URI} inside itself and loads the image by the view's {@link ImageLoader} in the
+     * size, that it is displayed in ({@link #getTargetSize()}), so the image is decoded and cached
+     * in that size, not in full size. If the view isn't laid out yet, the request is issued right
+     * after layout. Loader is started automatically.
+     *
+     * @see #setImageLoader(ImageLoader)
+     */
+    public void loadImageURI(URI uri) {
+        if (PathUtil.uriEquals(uri, this.imageUri))
+            return;
+
+        changeImageURI(uri);
+        pendingRequest = uri == null ? null : createRequest(uri);
+        ownRequest = pendingRequest;
+        issuePendingRequest();
+    }
+
+    /**
+     * Checks if a loader's callback is about this view's image. Requests of the view itself
+     * ({@link #loadImageURI(java.net.URI)}) are matched by cache key, so variants of the same
+     * image (another size, config or transformations), that are loaded for other views, are
+     * ignored; images, that are loaded by client ({@link #setImageURI(java.net.URI)}), are
+     * matched by {@link java.net.URI}.
+     */
+    private boolean isOwnRequest(Request request) {
+        if (ownRequest != null)
+            return ownRequest.getCacheKey().equals(request.getCacheKey());
+
+        return PathUtil.uriEquals(imageUri, request.getURI());
+    }
+
+    private ImageRequest createRequest(URI uri) {
+        final ImageRequest request = new ImageRequest(uri);
+        request.setConfig(bitmapConfig);
+        request.setTransformations(transformations);
+        return request;
+    }
+
+    private void changeImageURI(URI uri) {
+        if (loader != null && activeRequest != null)
+            loader.cancel(activeRequest);
+
 		imageUri = uri;
+        pendingRequest = null;
+        activeRequest = null;
+        ownRequest = null;
 		indicator.setProgress(0);
 
-		if (imageSet) {
+		if (imageSet || previewSet) {
 			imageView.setImageBitmap(null);
 			imageSet = false;
+            previewSet = false;
 		}
-	}
+    }
+
+    /**
+     * Issues the request, that waits for layout, if the view is laid out and has a loader. If the
+     * view is shown, the request is loaded before earlier ones.
+     */
+    private void issuePendingRequest() {
+        if (pendingRequest == null || loader == null || !laidOut)
+            return;
+
+        final ImageRequest request = pendingRequest;
+        pendingRequest = null;
+        activeRequest = request;
+
+        request.setScaleMode(resolveScaleMode(getTargetWidth(), getTargetHeight(), imageView.getScaleType()));
+        loader.addToQueue(request, getTargetSize());
+        if (isShown()) loader.prioritize(request);
+        loader.start();
+    }
+
+    /**
+     * Returns the size, that images should be decoded in to be displayed by this view - it is
+     * derived from the view's size (without padding) and image's scale type by
+     * {@link #resolveTargetSize(int, int, android.widget.ImageView.ScaleType)}. Dimensions, that
+     * wrap content or are still empty, don't limit the image. Returns NULL, if images should be
+     * displayed in full size.
+     */
+    public Point getTargetSize() {
+        return resolveTargetSize(getTargetWidth(), getTargetHeight(), imageView.getScaleType());
+    }
+
+    /**
+     * Returns displayed width without padding, or 0 if the view wraps the image's width.
+     */
+    private int getTargetWidth() {
+        final ViewGroup.LayoutParams params = getLayoutParams();
+        if (params != null && params.width == ViewGroup.LayoutParams.WRAP_CONTENT) return 0;
+        return Math.max(0, getWidth() - getPaddingLeft() - getPaddingRight());
+    }
+
+    /**
+     * Returns displayed height without padding, or 0 if the view wraps the image's height.
+     */
+    private int getTargetHeight() {
+        final ViewGroup.LayoutParams params = getLayoutParams();
+        if (params != null && params.height == ViewGroup.LayoutParams.WRAP_CONTENT) return 0;
+        return Math.max(0, getHeight() - getPaddingTop() - getPaddingBottom());
+    }
+
+    /**
+     * Derives decoding size from the displayed area and scale type:
+     * <ul>
+     * <li>images, that are not scaled ({@link android.widget.ImageView.ScaleType#CENTER}, MATRIX),
+     * and areas, that don't limit both dimensions - NULL (full size)</li>
+     * <li>areas, that don't limit one dimension - the other dimension, the image is fit into it</li>
+     * <li>other images - the area itself; the image is fit into it or covers it, see
+     * {@link #resolveScaleMode(int, int, android.widget.ImageView.ScaleType)}</li>
+     * </ul>
+     *
+     * @param width     displayed width, or 0 if it doesn't limit the image
+     * @param height    displayed height, or 0 if it doesn't limit the image
+     * @return          decoding size or NULL, if the image should be decoded in full size
+     */
+    public static Point resolveTargetSize(int width, int height, ImageView.ScaleType scaleType) {
+        if ((width <= 0 && height <= 0) || scaleType == ImageView.ScaleType.CENTER
+                || scaleType == ImageView.ScaleType.MATRIX)
+            return null;
+
+        return new Point(width <= 0 ? BmpUtil.MAX_TEXTURE_SIZE : width,
+                height <= 0 ? BmpUtil.MAX_TEXTURE_SIZE : height);
+    }
+
+    /**
+     * Derives the way images are scaled into {@link #resolveTargetSize(int, int, android.widget.ImageView.ScaleType)}:
+     * images, that cover the area ({@link android.widget.ImageView.ScaleType#CENTER_CROP}, FIT_XY),
+     * should be not smaller, than the area in both dimensions; others are fit into it. If the area
+     * doesn't limit a dimension, images are fit into the other one.
+     */
+    public static ImageDecoder.ScaleMode resolveScaleMode(int width, int height, ImageView.ScaleType scaleType) {
+        if (width > 0 && height > 0
+                && (scaleType == ImageView.ScaleType.CENTER_CROP || scaleType == ImageView.ScaleType.FIT_XY))
+            return ImageDecoder.ScaleMode.COVER;
+
+        return ImageDecoder.ScaleMode.FIT;
+    }
+
+    private void showImage(Bitmap bmp) {
+        indicator.setProgress(100);
+        imageSet = true;
+        previewSet = false;
+
+        status = Status.LOADED;
+        imageView.setImageBitmap(bmp);
+        indicator.setVisibility(View.GONE);
+    }
 
     /**
      * @see #setImageURI(java.net.URI)
@@ -216,6 +436,46 @@ public class AsyncImageView extends RelativeLayout {
 		return imageUri;
 	}
 
+    /**
+     * @see #setBitmapConfig(android.graphics.Bitmap.Config)
+     */
+    public Bitmap.Config getBitmapConfig() {
+        return bitmapConfig;
+    }
+
+    /**
+     * Sets config, that images are decoded in. E.g. {@link android.graphics.Bitmap.Config#RGB_565}
+     * takes half of the memory, but has no transparency, so it suits only opaque images. Affects
+     * images, that are set after this call.
+     *
+     * @param bitmapConfig  bitmap config, or NULL for the default one
+     *
+     * @see ru.jango.j0loader.image.ImageRequest#setConfig(android.graphics.Bitmap.Config)
+     */
+    public void setBitmapConfig(Bitmap.Config bitmapConfig) {
+        this.bitmapConfig = bitmapConfig;
+    }
+
+    /**
+     * @see #setTransformations(java.util.List)
+     */
+    public List<Transformation> getTransformations() {
+        return transformations;
+    }
+
+    /**
+     * Sets transformations (crop, round corners, etc.), that are applied to images by the loader,
+     * so they are not done in main thread and transformed images are cached. Affects images, that
+     * are set after this call.
+     *
+     * @param transformations   transformations in order of applying, or NULL for none
+     *
+     * @see ru.jango.j0loader.image.ImageRequest#setTransformations(java.util.List)
+     */
+    public void setTransformations(List<Transformation> transformations) {
+        this.transformations = transformations;
+    }
+
     /**
      * Just hides indicator at all.
      */
@@ -0,0 +1,155 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0loader.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+
+/**
+ * Sprite sheet - a single image with lots of small images (sprites) in it, e.g. icons. Sprites
+ * are described by a JSON manifest:
+ * <pre>
+ * {
+ *     "image": "icons.png",
+ *     "sprites": {
+ *         "home.png": [0, 0, 48, 48],
+ *         "search.png": [48, 0, 48, 48]
+ *     }
+ * }
+ * </pre>
+ * Every sprite is described by it's own {@link java.net.URI} and [left, top, width, height] in
+ * the image. Relative {@link java.net.URI}s (both of the image and of sprites) are resolved
+ * against manifest's {@link java.net.URI}.
+ *
+ * @see ru.jango.j0loader.image.ImageLoader#addAtlas(java.net.URI, java.net.URI)
+ */
+public class Atlas {
+
+    private final URI imageURI;
+    private final Map<URI, Rect> sprites;
+
+    public Atlas(URI imageURI, Map<URI, Rect> sprites) {
+        this.imageURI = imageURI;
+        this.sprites = new HashMap<URI, Rect>();
+        for (Map.Entry<URI, Rect> sprite : sprites.entrySet())
+            this.sprites.put(sprite.getKey(), new Rect(sprite.getValue()));
+    }
+
+    /**
+     * Parses a JSON manifest.
+     *
+     * @param manifestURI   {@link java.net.URI} of the manifest, relative {@link java.net.URI}s
+     *                      are resolved against it
+     * @param data          loaded manifest
+     *
+     * @throws DataFormatException  if the manifest is not a valid JSON, or describes sprites
+     *                              incorrectly
+     */
+    public static Atlas parse(URI manifestURI, byte[] data) throws DataFormatException {
+        try {
+            final JSONObject manifest = new JSONObject(new String(data, "UTF-8"));
+            final URI imageURI = manifestURI.resolve(manifest.getString("image"));
+
+            final Map<URI, Rect> sprites = new HashMap<URI, Rect>();
+            final JSONObject spritesObject = manifest.getJSONObject("sprites");
+            final Iterator<?> names = spritesObject.keys();
+            while (names.hasNext()) {
+                final String name = (String) names.next();
+                final JSONArray bounds = spritesObject.getJSONArray(name);
+                if (bounds.length() != 4 || bounds.getInt(2) <= 0 || bounds.getInt(3) <= 0)
+                    throw new DataFormatException("Wrong bounds of sprite " + name);
+
+                sprites.put(manifestURI.resolve(name), new Rect(bounds.getInt(0), bounds.getInt(1),
+                        bounds.getInt(0) + bounds.getInt(2), bounds.getInt(1) + bounds.getInt(3)));
+            }
+
+            return new Atlas(imageURI, sprites);
+        } catch (JSONException e) {
+            throw new DataFormatException("Wrong atlas manifest: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            throw new DataFormatException("Wrong URI in atlas manifest: " + e.getMessage());
+        } catch (UnsupportedEncodingException e) {
+            throw new DataFormatException(e.getMessage());
+        }
+    }
+
+    public URI getImageURI() {
+        return imageURI;
+    }
+
+    public boolean contains(URI uri) {
+        return sprites.containsKey(uri);
+    }
+
+    /**
+     * Returns bounds of the sprite in the image, or NULL if there is no such sprite.
+     */
+    public Rect getSprite(URI uri) {
+        final Rect bounds = sprites.get(uri);
+        return bounds == null ? null : new Rect(bounds);
+    }
+
+    public Set<URI> getSprites() {
+        return Collections.unmodifiableSet(sprites.keySet());
+    }
+
+    public int size() {
+        return sprites.size();
+    }
+
+    /**
+     * Cuts all sprites out of the image. Sprites, that are partially out of the image, are
+     * clipped; sprites, that are out of it completely, are skipped.
+     *
+     * @param image decoded image of the atlas - it is not changed or recycled, sprites don't share
+ *              it
+     * @return      sprites by their {@link java.net.URI}s
+     */
+    public Map<URI, Bitmap> slice(Bitmap image) {
+        final Rect imageBounds = new Rect(0, 0, image.getWidth(), image.getHeight());
+        final Map<URI, Bitmap> ret = new HashMap<URI, Bitmap>();
+        for (Map.Entry<URI, Rect> sprite : sprites.entrySet()) {
+            final Rect bounds = new Rect(sprite.getValue());
+            if (!bounds.intersect(imageBounds))
+                continue;
+
+            // the whole immutable image is returned as is - sprites shouldn't depend on it
+            Bitmap bmp = Bitmap.createBitmap(image, bounds.left, bounds.top, bounds.width(), bounds.height());
+            if (bmp == image) bmp = image.copy(image.getConfig(), false);
+            ret.put(sprite.getKey(), bmp);
+        }
+
+        return ret;
+    }
+
+}
@@ -0,0 +1,285 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0loader.image;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+
+import android.graphics.Bitmap;
+
+import ru.jango.j0loader.FailureCache;
+import ru.jango.j0loader.Request;
+import ru.jango.j0loader.image.ImageLoader.Source;
+import ru.jango.j0loader.image.cache.BitmapCache;
+import ru.jango.j0util.LogUtil;
+
+/**
+ * Fetch and decode stages of sprites of registered {@link ru.jango.j0loader.image.Atlas}es
+ * (see {@link ImageLoader#addAtlas(java.net.URI, java.net.URI)}): the atlas image is loaded and
+ * decoded once, and every sprite is cached under it's own {@link java.net.URI}.
+ */
+class AtlasWorker {
+
+    private final ImageLoader loader;
+    private final DecodeWorker decodeWorker;
+    private final Map<URI, URI> atlasBases;     // base URIs of sprites by manifest URIs
+    private final Map<URI, Atlas> atlases;      // already loaded manifests
+    private final Map<URI, List<Request>> slicing;  // sprite requests by atlas images, that are sliced now
+    private Request atlasPart;      // manifest or atlas image, that is loaded now (loading thread only)
+
+    AtlasWorker(ImageLoader loader, DecodeWorker decodeWorker) {
+        this.loader = loader;
+        this.decodeWorker = decodeWorker;
+        atlasBases = new ConcurrentHashMap<URI, URI>();
+        atlases = new ConcurrentHashMap<URI, Atlas>();
+        slicing = new HashMap<URI, List<Request>>();
+    }
+
+    void addAtlas(URI manifestURI, URI base) {
+        atlasBases.put(manifestURI, base);
+    }
+
+    void removeAtlas(URI manifestURI) {
+        atlasBases.remove(manifestURI);
+        atlases.remove(manifestURI);
+    }
+
+    Atlas getAtlas(URI manifestURI) {
+        return atlases.get(manifestURI);
+    }
+
+    /**
+     * Forgets loaded manifests; atlases stay registered.
+     */
+    void clear() {
+        atlases.clear();
+    }
+
+    /**
+     * Checks if the request is the manifest or the atlas image, that is loaded now.
+     */
+    boolean isAtlasPart(Request request) {
+        return request == atlasPart;
+    }
+
+    /**
+     * Fetch stage of sprites: loads the manifest (if it wasn't loaded yet) and the atlas image
+     * and passes it into decode stage, where all sprites are cut out and cached. Sprite requests
+     * of the atlas, that are taken from queue meanwhile, wait for that decode task instead of
+     * loading the atlas again.
+     *
+     * @return  false if the image is not a sprite of a registered atlas, or it should be loaded
+     *          as usual image by some other reason
+     */
+    boolean process(final Request request) throws IOException, URISyntaxException, InterruptedException {
+        final URI manifestURI = findAtlas(request.getURI());
+        if (manifestURI == null)
+            return false;
+
+        final Atlas atlas = loadAtlas(manifestURI);
+        // stopped or cancelled - loaded data could be incomplete
+        if (!loader.canPingListeners()) return true;
+        if (atlas == null || !atlas.contains(request.getURI()))
+            return false;
+
+        final boolean revalidation = loader.isRevalidating(request);
+        boolean submitted = false;
+        try {
+            synchronized (slicing) {
+                final List<Request> waiting = slicing.get(atlas.getImageURI());
+                if (waiting != null) {
+                    waiting.add(request);
+                    return true;
+                }
+            }
+
+            LogUtil.i(ImageLoader.class, "loading atlas from uri: " + atlas.getImageURI());
+            final Request imageRequest = new Request(atlas.getImageURI());
+            final long started = System.currentTimeMillis();
+            final byte[] loadedData = loadAtlasPart(imageRequest);
+            loader.getFetchStage().record(System.currentTimeMillis() - started);
+            if (!loader.canPingListeners()) return true;
+
+            final List<Request> waiting = new ArrayList<Request>();
+            waiting.add(request);
+            synchronized (slicing) { slicing.put(atlas.getImageURI(), waiting); }
+            try {
+                loader.getDecodeStage().submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        try { decodeAtlas(atlas, imageRequest, loadedData, started); }
+                        catch (Exception e) { onAtlasFailed(atlas, e); }
+                        finally {
+                            synchronized (slicing) { slicing.remove(atlas.getImageURI()); }
+                            if (revalidation) loader.endRevalidation(request);
+                        }
+                    }
+                });
+                submitted = true;
+            } finally {
+                if (!submitted) synchronized (slicing) { slicing.remove(atlas.getImageURI()); }
+            }
+        } finally {
+            if (revalidation && !submitted) loader.endRevalidation(request);
+        }
+
+        return true;
+    }
+
+    /**
+     * Decode stage of atlases: cuts all sprites out and caches them, then delivers sprites of
+     * all requests, that wait for the atlas. Sprites, that weren't cached (e.g. cache is too
+     * small), are delivered from their encoded data.
+     */
+    private void decodeAtlas(Atlas atlas, Request imageRequest, byte[] loadedData, long started)
+            throws DataFormatException {
+        if (!loader.canWork()) return;
+
+        final Map<URI, byte[]> sprites = cacheSprites(atlas, loadedData, loader.resolveExpiration(imageRequest));
+        loader.recordLoadTime(System.currentTimeMillis() - started);
+        loader.countHit(loader.getSource(imageRequest));
+
+        final List<Request> waiting;
+        synchronized (slicing) { waiting = slicing.remove(atlas.getImageURI()); }
+        if (waiting == null) return;
+
+        for (Request request : waiting) {
+            if (request.isPrefetch()) continue;
+
+            try { decodeSprite(request, sprites.get(request.getURI())); }
+            catch (Exception e) { decodeWorker.onDecodeFailed(request, e); }
+        }
+    }
+
+    /**
+     * Delivers a sprite from the just cut sprites: takes it from bitmap cache, or decodes (and
+     * derives the requested variant) it in the current decode task.
+     */
+    private void decodeSprite(Request request, byte[] data) throws DataFormatException {
+        final ImageRequest image = ImageRequest.of(request);
+        final URI key = request.getURI();
+        final Bitmap bmp = loader.getCachedBitmap(image, key);
+        if (bmp != null) decodeWorker.finishFromCache(request, key, data, bmp, Source.MEMORY);
+        else decodeWorker.decodeFromCache(request, key, data, Source.MEMORY);
+    }
+
+    /**
+     * Atlas decoding failure is reported to all requests, that wait for the atlas.
+     */
+    private void onAtlasFailed(Atlas atlas, Exception e) {
+        final List<Request> waiting;
+        synchronized (slicing) { waiting = slicing.remove(atlas.getImageURI()); }
+        if (waiting == null) return;
+
+        for (Request request : waiting)
+            decodeWorker.onDecodeFailed(request, e);
+    }
+
+    /**
+     * Returns manifest {@link java.net.URI} of a registered atlas, that could contain the image,
+     * or NULL.
+     */
+    private URI findAtlas(URI uri) {
+        final String uriString = uri.toString();
+        for (Map.Entry<URI, URI> atlasBase : atlasBases.entrySet())
+            if (uriString.startsWith(atlasBase.getValue().toString()))
+                return atlasBase.getKey();
+
+        return null;
+    }
+
+    /**
+     * Returns already loaded manifest, or loads it. Manifest failures are remembered in
+     * {@link ImageLoader#getFailureCache()} - sprites are loaded as usual images meanwhile.
+     *
+     * @return  manifest, or NULL if it couldn't be loaded
+     */
+    private Atlas loadAtlas(URI manifestURI) {
+        Atlas atlas = atlases.get(manifestURI);
+        final FailureCache failureCache = loader.getFailureCache();
+        if (atlas != null || (failureCache != null && failureCache.contains(manifestURI)))
+            return atlas;
+
+        try {
+            LogUtil.i(ImageLoader.class, "loading atlas manifest from uri: " + manifestURI);
+            atlas = Atlas.parse(manifestURI, loadAtlasPart(new Request(manifestURI)));
+            if (atlasBases.containsKey(manifestURI)) atlases.put(manifestURI, atlas);
+            return atlas;
+        } catch (Exception e) {
+            if (!loader.canPingListeners()) return null;
+
+            loader.debug("atlas manifest failed, sprites are loaded as usual: " + manifestURI + " : " + e);
+            if (failureCache != null) failureCache.put(manifestURI, e);
+            return null;
+        }
+    }
+
+    /**
+     * Loads the manifest or the atlas image. Listeners don't know about such requests - progress
+     * and previews are not reported.
+     */
+    private byte[] loadAtlasPart(Request part) throws IOException, URISyntaxException {
+        atlasPart = part;
+        try { return loader.loadData(part); }
+        finally { atlasPart = null; }
+    }
+
+    /**
+     * Decodes the atlas image and caches all it's sprites. Decoded sprites of waiting (not
+     * scaled) requests are also kept in bitmap cache, others are not kept.
+     *
+     * @return  encoded sprites by their {@link java.net.URI}s
+     */
+    private Map<URI, byte[]> cacheSprites(Atlas atlas, byte[] loadedData, long expiration) throws DataFormatException {
+        // atlas image is never displayed, so it is not limited by max texture size
+        final Bitmap image = ImageDecoder.decodeSampled(loadedData, ImageDecoder.decodeBounds(loadedData), 1,
+                loader.getBitmapPool());
+        final Map<URI, Bitmap> sprites;
+        try { sprites = atlas.slice(image); }
+        finally { loader.releaseBitmap(image); }
+        decodeWorker.countDecode();
+
+        final BitmapCache bitmapCache = loader.getBitmapCache();
+        final Map<URI, byte[]> encoded = new HashMap<URI, byte[]>();
+        for (Map.Entry<URI, Bitmap> sprite : sprites.entrySet()) {
+            final URI key = sprite.getKey();
+            final byte[] data = decodeWorker.encode(sprite.getValue(), null);
+            encoded.put(key, data);
+            if (loader.getCache().put(key, data))
+                loader.setCacheExpiration(key, expiration);
+
+            if (bitmapCache != null && loader.isWaited(key)) bitmapCache.put(key, sprite.getValue());
+            else {
+                if (bitmapCache != null) bitmapCache.remove(key);
+                loader.releaseBitmap(sprite.getValue());
+            }
+        }
+
+        loader.debug("cached " + sprites.size() + " sprites of " + atlas.getImageURI());
+        return encoded;
+    }
+}
@@ -0,0 +1,258 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ru.jango.j0loader.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.os.Build;
+
+import java.nio.ByteBuffer;
+import java.util.zip.DataFormatException;
+
+import ru.jango.j0loader.image.cache.BitmapPool;
+import ru.jango.j0util.BmpUtil;
+
+/**
+ * Policy of encoding scaled images before they are put into cache. Images, that were not scaled,
+ * are always cached as they were loaded. Possible formats:
+ * <ul>
+ * <li>{@link Format#ORIGINAL} - loaded bytes are cached as is; nothing is encoded, but cache
+ * holds full-size images and they are scaled on each retrieval</li>
+ * <li>{@link Format#PNG} - lossless, but slow and usually larger, than the original photo</li>
+ * <li>{@link Format#JPEG} - lossy with the specified quality; images with alpha channel are
+ * encoded into PNG, as JPEG doesn't support transparency</li>
+ * <li>{@link Format#WEBP} - lossy with the specified quality; available since API 14 (JPEG is
+ * used on older devices), images with alpha channel are encoded into PNG before API 18</li>
+ * <li>{@link Format#RAW} - raw pixels; nothing is encoded or decoded, but such data is as large
+ * as the bitmap itself and is not a valid image for clients</li>
+ * </ul>
+ * The best format depends on images and devices, so it should be chosen by measured encode time
+ * and cache bytes - see {@link ru.jango.j0loader.image.ImageLoader#getStatsString()}.
+ */
+public final class CacheEncoding {
+
+    /** Default quality of lossy formats */
+    public static final int DEFAULT_QUALITY = 90;
+
+    public enum Format { ORIGINAL, PNG, JPEG, WEBP, RAW }
+
+    private static final int RAW_MAGIC = 0x6A305257;    // 'j0RW'
+    private static final int RAW_HEADER_SIZE = 16;
+
+    private final Format format;
+    private final int quality;
+
+    private CacheEncoding(Format format, int quality) {
+        if (quality < 0 || quality > 100)
+            throw new IllegalArgumentException("Quality should be from 0 to 100: " + quality);
+
+        this.format = format;
+        this.quality = quality;
+    }
+
+    public static CacheEncoding original() {
+        return new CacheEncoding(Format.ORIGINAL, 100);
+    }
+
+    public static CacheEncoding png() {
+        return new CacheEncoding(Format.PNG, 100);
+    }
+
+    public static CacheEncoding jpeg(int quality) {
+        return new CacheEncoding(Format.JPEG, quality);
+    }
+
+    public static CacheEncoding webp(int quality) {
+        return new CacheEncoding(Format.WEBP, quality);
+    }
+
+    public static CacheEncoding raw() {
+        return new CacheEncoding(Format.RAW, 100);
+    }
+
+    public Format getFormat() {
+        return format;
+    }
+
+    /**
+     * Returns quality of lossy formats (from 0 to 100).
+     */
+    public int getQuality() {
+        return quality;
+    }
+
+    /**
+     * Encodes a scaled image for caching.
+     *
+     * @param bmp       scaled image
+     * @param original  data, that the image was decoded from
+     */
+    public byte[] encode(Bitmap bmp, byte[] original) {
+        switch (format) {
+            case ORIGINAL:
+                return original;
+
+            case RAW:
+                if (bmp.getConfig() != null)
+                    return encodeRaw(bmp);
+                break;
+
+            case JPEG:
+                if (!bmp.hasAlpha())
+                    return BmpUtil.bmpToByte(bmp, Bitmap.CompressFormat.JPEG, quality);
+                break;
+
+            case WEBP:
+                if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+                    return jpeg(quality).encode(bmp, original);
+                if (!bmp.hasAlpha() || Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2)
+                    return BmpUtil.bmpToByte(bmp, Bitmap.CompressFormat.WEBP, quality);
+                break;
+        }
+
+        return BmpUtil.bmpToByte(bmp, Bitmap.CompressFormat.PNG, 100);
+    }
+
+    /**
+     * Decodes cached data of any format into the size, resolved by
+     * {@link ru.jango.j0loader.image.ImageDecoder#resolveSize(android.graphics.Point, android.graphics.Point)}.
+     *
+     * @param data  cached data
+     * @param scale requested scale, or NULL for the original size (limited by max texture size)
+     *
+     * @throws DataFormatException  if the data is neither a supported image, nor raw pixels
+     */
+    public static Bitmap decode(byte[] data, Point scale) throws DataFormatException {
+        return decode(data, scale, null);
+    }
+
+    /**
+     * Decodes cached data like {@link #decode(byte[], android.graphics.Point)}, but reuses pooled
+     * bitmaps.
+     *
+     * @param pool  pool of bitmaps for reusing, or NULL
+     */
+    public static Bitmap decode(byte[] data, Point scale, BitmapPool pool) throws DataFormatException {
+        return decode(data, scale, pool, null);
+    }
+
+    /**
+     * Decodes cached data like {@link #decode(byte[], android.graphics.Point, ru.jango.j0loader.image.cache.BitmapPool)},
+     * but in the specified config. Raw pixels of another config are converted.
+     *
+     * @param config    config of the result, or NULL for ARGB_8888
+     */
+    public static Bitmap decode(byte[] data, Point scale, BitmapPool pool, Bitmap.Config config)
+            throws DataFormatException {
+        if (!isRaw(data))
+            return ImageDecoder.decode(data, scale, pool, config);
+
+        return decodeRaw(ByteBuffer.wrap(data), scale, pool, config);
+    }
+
+    /**
+     * Decodes cached data like {@link #decode(byte[], android.graphics.Point, ru.jango.j0loader.image.cache.BitmapPool, android.graphics.Bitmap.Config)},
+     * but from the remaining data of a buffer (buffer's position is not changed), e.g. straight
+     * from {@link ru.jango.j0loader.image.cache.DirectCache#acquireBuffer(java.net.URI)}.
+     */
+    public static Bitmap decode(ByteBuffer data, Point scale, BitmapPool pool, Bitmap.Config config)
+            throws DataFormatException {
+        if (!isRaw(data))
+            return ImageDecoder.decode(data, scale, pool, config);
+
+        return decodeRaw(data.duplicate(), scale, pool, config);
+    }
+
+    /**
+     * Reads image size of cached data of any format without decoding pixels.
+     *
+     * @throws DataFormatException  if the data is neither a supported image, nor raw pixels
+     */
+    public static Point decodeBounds(byte[] data) throws DataFormatException {
+        if (!isRaw(data))
+            return ImageDecoder.decodeBounds(data);
+
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        final int width = buffer.getInt(4);
+        final int height = buffer.getInt(8);
+        if (width <= 0 || height <= 0)
+            throw new DataFormatException("Corrupted raw image header");
+
+        return new Point(width, height);
+    }
+
+    /**
+     * Checks if the data was encoded by {@link Format#RAW}.
+     */
+    public static boolean isRaw(byte[] data) {
+        return isRaw(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Checks if the remaining data of a buffer was encoded by {@link Format#RAW}.
+     */
+    public static boolean isRaw(ByteBuffer data) {
+        return data.remaining() >= RAW_HEADER_SIZE && data.getInt(data.position()) == RAW_MAGIC;
+    }
+
+    private static byte[] encodeRaw(Bitmap bmp) {
+        final ByteBuffer buffer = ByteBuffer.allocate(RAW_HEADER_SIZE + bmp.getRowBytes() * bmp.getHeight());
+        buffer.putInt(RAW_MAGIC)
+                .putInt(bmp.getWidth())
+                .putInt(bmp.getHeight())
+                .putInt(bmp.getConfig().ordinal());
+        bmp.copyPixelsToBuffer(buffer);
+
+        return buffer.array();
+    }
+
+    private static Bitmap decodeRaw(ByteBuffer buffer, Point scale, BitmapPool pool, Bitmap.Config config)
+            throws DataFormatException {
+        final Bitmap bmp = ImageDecoder.convert(decodeRaw(buffer, pool), config, pool);
+
+        final Point target = ImageDecoder.resolveSize(new Point(bmp.getWidth(), bmp.getHeight()), scale);
+        return ImageDecoder.resize(bmp, target, pool);
+    }
+
+    private static Bitmap decodeRaw(ByteBuffer buffer, BitmapPool pool) throws DataFormatException {
+        buffer.getInt();
+        final int width = buffer.getInt();
+        final int height = buffer.getInt();
+        final int config = buffer.getInt();
+        if (width <= 0 || height <= 0 || config < 0 || config >= Bitmap.Config.values().length)
+            throw new DataFormatException("Corrupted raw image header");
+
+        Bitmap bmp = pool == null ? null : pool.get(width, height, Bitmap.Config.values()[config]);
+        if (bmp == null) bmp = Bitmap.createBitmap(width, height, Bitmap.Config.values()[config]);
+        if (buffer.remaining() < bmp.getRowBytes() * height) {
+            if (pool != null) pool.put(bmp);
+            else bmp.recycle();
+            throw new DataFormatException("Raw image data is too short");
+        }
+
+        bmp.copyPixelsFromBuffer(buffer);
+        return bmp;
+    }
+
+    @Override
+    public String toString() {
+        return format == Format.JPEG || format == Format.WEBP ? format + "(" + quality + ")" : format.toString();
+    }
+
+}
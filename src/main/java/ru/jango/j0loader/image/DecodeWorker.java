@@ -0,0 +1,331 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0loader.image;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+
+import ru.jango.j0loader.Request;
+import ru.jango.j0loader.image.ImageLoader.Source;
+import ru.jango.j0loader.image.cache.BitmapPool;
+import ru.jango.j0util.LogUtil;
+
+/**
+ * Decode stage of {@link ru.jango.j0loader.image.ImageLoader}: decodes (and scales) loaded and
+ * cached images, encodes and caches new variants, applies transformations and delivers images.
+ * All methods, except counters, are run by tasks of {@link ImageLoader#getDecodeStage()}.
+ */
+class DecodeWorker {
+
+    private final ImageLoader loader;
+    private final AtomicLong decodeCount;
+    private final AtomicLong lastAllocationCount;
+    private final AtomicLong encodedCount;
+    private final AtomicLong encodedBytes;
+    private final AtomicLong encodeTime;
+
+    DecodeWorker(ImageLoader loader) {
+        this.loader = loader;
+        decodeCount = new AtomicLong();
+        lastAllocationCount = new AtomicLong();
+        encodedCount = new AtomicLong();
+        encodedBytes = new AtomicLong();
+        encodeTime = new AtomicLong();
+    }
+
+    /**
+     * Decode stage of loaded images: decodes (and scales) the image, caches it, transforms and
+     * caches transformed image (if there are transformations) and delivers it.
+     */
+    void decodeFromURI(Request request, byte[] loadedData, long started) throws DataFormatException {
+        if (!loader.canWork()) return;
+        final ImageRequest image = ImageRequest.of(request);
+
+        final Point scale = resolveDecodeScale(image, loadedData);
+        final boolean transformed = !image.getTransformations().isEmpty();
+        final Bitmap.Config config = getDecodeConfig(image, scale != null || transformed);
+        Bitmap bmp;
+        byte[] rawData;
+        if (scale == null) {
+            bmp = ImageDecoder.decode(loadedData, null, loader.getBitmapPool(), config);
+            rawData = loadedData;
+        } else {
+            bmp = ImageDecoder.decode(loadedData, scale, loader.getBitmapPool(), config);
+            rawData = encode(bmp, loadedData);
+        }
+        countDecode();
+
+        if (loader.getCache().put(image.getSourceKey(), rawData))
+            loader.setCacheExpiration(image.getSourceKey(), loader.resolveExpiration(request));
+        if (transformed) {
+            bmp = transform(image, bmp);
+            rawData = cacheTransformed(image, bmp, loader.resolveExpiration(request));
+        }
+        bmp = ImageDecoder.convert(bmp, image.getConfig(), loader.getBitmapPool());
+        loader.putCachedBitmap(request, bmp);
+        loader.recordLoadTime(System.currentTimeMillis() - started);
+        loader.countHit(loader.getSource(request));
+        LogUtil.i(ImageLoader.class, "added to cache; cache size bytes: " + loader.getCache().size());
+        loader.debug("stats: " + loader.getStatsString());
+
+        loader.deliverFinished(request, rawData, bmp);
+    }
+
+    /**
+     * Decode stage of prefetched images: caches the image in requested size (and transformed
+     * image, if there are transformations). Decoded image is not kept - it's memory is returned
+     * into bitmap pool; images without scale and transformations are not decoded at all, only
+     * checked.
+     */
+    void cacheFromURI(Request request, byte[] loadedData) throws DataFormatException {
+        if (!loader.canWork()) return;
+        final ImageRequest image = ImageRequest.of(request);
+
+        final Point scale = resolveDecodeScale(image, loadedData);
+        final boolean transformed = !image.getTransformations().isEmpty();
+        byte[] rawData = loadedData;
+        Bitmap bmp = null;
+        if (scale == null && !transformed) ImageDecoder.decodeBounds(loadedData);
+        else {
+            bmp = ImageDecoder.decode(loadedData, scale, loader.getBitmapPool(), getDecodeConfig(image, true));
+            if (scale != null) rawData = encode(bmp, loadedData);
+            countDecode();
+        }
+
+        if (loader.getCache().put(image.getSourceKey(), rawData))
+            loader.setCacheExpiration(image.getSourceKey(), loader.resolveExpiration(request));
+        if (transformed) {
+            bmp = transform(image, bmp);
+            cacheTransformed(image, bmp, loader.resolveExpiration(request));
+        }
+
+        if (bmp != null) loader.releaseBitmap(bmp);
+        loader.debug("prefetched: " + image.getDataKey());
+    }
+
+    /**
+     * Decode stage of cached images: decodes the image (or derives the requested variant),
+     * transforms it, if the found variant is not transformed yet, and delivers it. Images, that
+     * are encoded again, are decoded in ARGB_8888 (see {@link #getDecodeConfig(ImageRequest, boolean)}).
+     */
+    void decodeFromCache(Request request, URI key, byte[] cached, Source source) throws DataFormatException {
+        if (!loader.canWork()) return;
+        final ImageRequest image = ImageRequest.of(request);
+
+        byte[] raw = cached;
+        Bitmap bmp;
+        final Point scale = loader.shouldDerive(image, key) ? resolveDecodeScale(image, cached) : null;
+        final boolean transformed = loader.shouldTransform(image, key);
+        final Bitmap.Config config = getDecodeConfig(image, scale != null || transformed);
+        if (scale != null) {
+            bmp = CacheEncoding.decode(cached, scale, loader.getBitmapPool(), config);
+            raw = encode(bmp, cached);
+            if (raw != cached && loader.getCache().put(image.getSourceKey(), raw))
+                loader.setCacheExpiration(image.getSourceKey(), loader.getCacheExpiration(key));
+            loader.debug("derived " + image.getSourceKey() + " from " + key);
+        } else bmp = CacheEncoding.decode(raw, getVariantScale(image), loader.getBitmapPool(), config);
+        countDecode();
+
+        if (transformed) {
+            bmp = transform(image, bmp);
+            raw = cacheTransformed(image, bmp, loader.getCacheExpiration(key));
+        }
+
+        bmp = ImageDecoder.convert(bmp, image.getConfig(), loader.getBitmapPool());
+        loader.putCachedBitmap(request, bmp);
+        finishFromCache(request, key, raw, bmp, source);
+    }
+
+    /**
+     * Decode stage of images, that are taken from {@link ru.jango.j0loader.image.cache.DirectCache}
+     * without copying.
+     */
+    void decodeFromBuffer(Request request, URI key, ByteBuffer buffer) throws DataFormatException {
+        if (!loader.canWork()) return;
+        final ImageRequest image = ImageRequest.of(request);
+
+        Bitmap bmp = CacheEncoding.decode(buffer, getVariantScale(image), loader.getBitmapPool(),
+                getDecodeConfig(image, false));
+        countDecode();
+
+        bmp = ImageDecoder.convert(bmp, image.getConfig(), loader.getBitmapPool());
+        loader.putCachedBitmap(request, bmp);
+        finishFromCache(request, key, null, bmp, Source.MEMORY);
+    }
+
+    void finishFromCache(Request request, URI key, byte[] raw, Bitmap bmp, Source source) {
+        loader.countHit(source);
+        loader.deliverFinished(request, raw, bmp);
+
+        if (loader.isCacheExpired(key))
+            loader.revalidate(request);
+    }
+
+    /**
+     * Decode stage failure - it is remembered in {@link ImageLoader#getFailureCache()} (as loading
+     * failures are) and reported to listeners.
+     */
+    void onDecodeFailed(Request request, Exception e) {
+        if (loader.getFailureCache() != null && loader.canWork())
+            loader.getFailureCache().put(request.getURI(), e);
+
+        loader.onProcessFailed(request, e);
+    }
+
+    /**
+     * Resolves the size, in witch the data is decoded and cached under
+     * {@link ru.jango.j0loader.image.ImageRequest#getSourceKey()}. Scale of the request is a part
+     * of that key, so it is used as is - scales registry is bounded and forgets scales of evicted
+     * images, so it is asked only for requests without scale (e.g. plain
+     * {@link ru.jango.j0loader.Request}s, or scales, that were loaded on launch).
+     */
+    Point resolveDecodeScale(ImageRequest request, byte[] data) throws DataFormatException {
+        if (request.getScale() == null)
+            return loader.getCache().resolveScale(request.getSourceKey(), data);
+
+        // covering size depends on the image proportions; the image is fit into it then exactly
+        if (request.getScaleMode() == ImageDecoder.ScaleMode.COVER)
+            return ImageDecoder.resolveSize(CacheEncoding.decodeBounds(data), request.getScale(),
+                    ImageDecoder.ScaleMode.COVER);
+
+        return request.getScale();
+    }
+
+    /**
+     * Returns a scale to decode the found variant in, when it is not derived. Covering variants
+     * are cached in their final size, so they are decoded as is.
+     */
+    private Point getVariantScale(ImageRequest request) {
+        return request.getScaleMode() == ImageDecoder.ScaleMode.COVER ? null : request.getScale();
+    }
+
+    /**
+     * Returns a config to decode the image in. Encoded data is common for all configs, so images,
+     * that will be encoded and cached, are decoded in ARGB_8888 (otherwise, for example, RGB_565
+     * image would lose alpha for all other requests); they are converted into requested config
+     * after encoding.
+     *
+     * @param encoded   TRUE if the decoded image will be encoded and cached
+     */
+    private Bitmap.Config getDecodeConfig(ImageRequest request, boolean encoded) {
+        return encoded ? Bitmap.Config.ARGB_8888 : request.getConfig();
+    }
+
+    /**
+     * Applies request's transformations to the just decoded image in order. Images, that are
+     * replaced by transformations, are released.
+     */
+    Bitmap transform(ImageRequest request, Bitmap bmp) {
+        Bitmap ret = bmp;
+        for (Transformation transformation : request.getTransformations()) {
+            final Bitmap transformed = transformation.transform(ret);
+            if (transformed == null) {
+                loader.releaseBitmap(ret);
+                throw new IllegalStateException("Transformation returned NULL: " + transformation.getKey());
+            }
+
+            if (transformed != ret) loader.releaseBitmap(ret);
+            ret = transformed;
+        }
+
+        if (!request.getTransformations().isEmpty())
+            loader.debug("transformed " + request.getCacheKey());
+        return ret;
+    }
+
+    /**
+     * Encodes transformed image and caches it under
+     * {@link ru.jango.j0loader.image.ImageRequest#getDataKey()}.
+     *
+     * @return  encoded image
+     */
+    private byte[] cacheTransformed(ImageRequest request, Bitmap bmp, long expiration) {
+        final byte[] raw = encode(bmp, null);
+        if (loader.getCache().put(request.getDataKey(), raw))
+            loader.setCacheExpiration(request.getDataKey(), expiration);
+
+        return raw;
+    }
+
+    /**
+     * Encodes a scaled image by {@link ImageLoader#getCacheEncoding()} and counts encoding time
+     * and bytes.
+     *
+     * @param original  loaded data, or NULL if the image has no data of it's own (sprites) - then
+     *                  {@link ru.jango.j0loader.image.CacheEncoding.Format#ORIGINAL} is replaced
+     *                  by PNG
+     */
+    byte[] encode(Bitmap bmp, byte[] original) {
+        CacheEncoding encoding = loader.getCacheEncoding();
+        if (original == null && encoding.getFormat() == CacheEncoding.Format.ORIGINAL)
+            encoding = CacheEncoding.png();
+
+        final long started = System.currentTimeMillis();
+        final byte[] raw = encoding.encode(bmp, original);
+        encodeTime.addAndGet(System.currentTimeMillis() - started);
+        encodedBytes.addAndGet(raw.length);
+        encodedCount.incrementAndGet();
+
+        return raw;
+    }
+
+    /**
+     * Counts a decode; every 100 decodes number of bitmap allocations is logged.
+     */
+    void countDecode() {
+        final BitmapPool bitmapPool = loader.getBitmapPool();
+        if (decodeCount.incrementAndGet() % 100 != 0 || bitmapPool == null)
+            return;
+
+        final long allocationCount = bitmapPool.getAllocationCount();
+        loader.debug("bitmap allocations per 100 decodes: "
+                + (allocationCount - lastAllocationCount.getAndSet(allocationCount))
+                + " (pool size bytes: " + bitmapPool.size() + ")");
+    }
+
+    long getDecodeCount() {
+        return decodeCount.get();
+    }
+
+    long getEncodedCount() {
+        return encodedCount.get();
+    }
+
+    long getEncodedBytes() {
+        return encodedBytes.get();
+    }
+
+    long getEncodeTime() {
+        return encodeTime.get();
+    }
+
+    void resetStats() {
+        decodeCount.set(0);
+        lastAllocationCount.set(0);
+        encodedCount.set(0);
+        encodedBytes.set(0);
+        encodeTime.set(0);
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0loader.image;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+
+import android.graphics.Bitmap;
+
+import ru.jango.j0loader.Request;
+import ru.jango.j0loader.image.ImageLoader.Source;
+import ru.jango.j0loader.image.cache.Cache;
+import ru.jango.j0loader.image.cache.DirectCache;
+import ru.jango.j0util.LogUtil;
+
+/**
+ * Fetch stage of {@link ru.jango.j0loader.image.ImageLoader}: takes images from cache, snapshot
+ * or {@link java.net.URI} in loader and cache threads and passes them into
+ * {@link ImageLoader#getDecodeStage()} (blocks, while decode stage is full).
+ */
+class FetchWorker {
+
+    private final ImageLoader loader;
+    private final DecodeWorker decodeWorker;
+
+    FetchWorker(ImageLoader loader, DecodeWorker decodeWorker) {
+        this.loader = loader;
+        this.decodeWorker = decodeWorker;
+    }
+
+    /**
+     * Takes an image from cache. Decoded images are delivered immediately, encoded images are
+     * passed into decode stage.
+     *
+     * @return  false if the image is not cached
+     */
+    boolean processFromCache(final Request request) throws InterruptedException {
+        final ImageRequest image = ImageRequest.of(request);
+        final URI key = loader.findCachedKey(image);
+        final Cache cache = loader.getCache();
+        if (key != null && cache instanceof DirectCache && processFromBuffer(request, key, (DirectCache) cache))
+            return true;
+
+        byte[] cached = key == null ? null : cache.get(key);
+        Source source = Source.MEMORY;
+        if (cached == null && key != null) {
+            cached = loader.restoreFromSnapshot(key);
+            source = Source.DISK;
+        }
+
+        if (cached == null)
+            return false;
+
+        LogUtil.i(ImageLoader.class, "loading from " + (source == Source.MEMORY ? "cache: " : "snapshot: ") + key);
+        final Bitmap bmp = loader.getCachedBitmap(image, key);
+        if (bmp != null) {
+            loader.debug("decoded image is taken from bitmap cache: " + request.getCacheKey());
+            decodeWorker.finishFromCache(request, key, cached, bmp, source);
+            return true;
+        }
+
+        final byte[] data = cached;
+        final Source dataSource = source;
+        loader.getDecodeStage().submit(new Runnable() {
+            @Override
+            public void run() {
+                try { decodeWorker.decodeFromCache(request, key, data, dataSource); }
+                catch (Exception e) { decodeWorker.onDecodeFailed(request, e); }
+            }
+        });
+
+        return true;
+    }
+
+    /**
+     * Takes an image from {@link ru.jango.j0loader.image.cache.DirectCache} without copying it's
+     * data into the heap: the entry is pinned and decoded straight from the slab in decode stage,
+     * so the cache isn't locked while decoding. Listeners get NULL as raw data then. Only images,
+     * that are decoded as is, are taken so - derived and transformed variants are encoded and
+     * cached again, so they need the data in the heap.
+     *
+     * @return  false if the image should be taken from cache as usual
+     */
+    private boolean processFromBuffer(final Request request, final URI key, final DirectCache cache)
+            throws InterruptedException {
+        final ImageRequest image = ImageRequest.of(request);
+        if (loader.shouldDerive(image, key) || loader.shouldTransform(image, key))
+            return false;
+
+        final ByteBuffer buffer = cache.acquireBuffer(key);
+        if (buffer == null)
+            return false;
+
+        LogUtil.i(ImageLoader.class, "loading from direct cache: " + key);
+        boolean submitted = false;
+        try {
+            final Bitmap bmp = loader.getCachedBitmap(image, key);
+            if (bmp != null) {
+                loader.debug("decoded image is taken from bitmap cache: " + request.getCacheKey());
+                decodeWorker.finishFromCache(request, key, null, bmp, Source.MEMORY);
+                return true;
+            }
+
+            loader.getDecodeStage().submit(new Runnable() {
+                @Override
+                public void run() {
+                    try { decodeWorker.decodeFromBuffer(request, key, buffer); }
+                    catch (Exception e) { decodeWorker.onDecodeFailed(request, e); }
+                    finally { cache.releaseBuffer(buffer); }
+                }
+            });
+            submitted = true;
+        } finally {
+            if (!submitted) cache.releaseBuffer(buffer);
+        }
+
+        return true;
+    }
+
+    /**
+     * Fetch stage: loads the image and passes it into decode stage (blocks, while decode stage
+     * is full).
+     */
+    void processFromURI(final Request request) throws IOException, URISyntaxException, InterruptedException {
+        LogUtil.i(ImageLoader.class, "loading from uri: " + request.getURI());
+        if (loader.shouldPreview(request)) loader.previewFromCache(request);
+
+        final boolean revalidation = loader.isRevalidating(request);
+        boolean submitted = false;
+        try {
+            final long started = System.currentTimeMillis();
+            final byte[] loadedData = loader.loadData(request);
+            loader.getFetchStage().record(System.currentTimeMillis() - started);
+
+            // stopped or cancelled - loaded data could be incomplete
+            if (!loader.canPingListeners()) return;
+
+            if (request.isPrefetch()) {
+                submitPrefetch(request, loadedData);
+                return;
+            }
+
+            loader.getDecodeStage().submit(new Runnable() {
+                @Override
+                public void run() {
+                    try { decodeWorker.decodeFromURI(request, loadedData, started); }
+                    catch (Exception e) { decodeWorker.onDecodeFailed(request, e); }
+                    finally { if (revalidation) loader.endRevalidation(request); }
+                }
+            });
+            submitted = true;
+        } finally {
+            if (revalidation && !submitted) loader.endRevalidation(request);
+        }
+    }
+
+    /**
+     * Passes prefetched data into decode stage; data is counted as prefetched bytes in flight,
+     * until it is cached.
+     */
+    private void submitPrefetch(final Request request, final byte[] loadedData) throws InterruptedException {
+        loader.holdPrefetch(loadedData.length);
+        boolean submitted = false;
+        try {
+            loader.getDecodeStage().submit(new Runnable() {
+                @Override
+                public void run() {
+                    try { decodeWorker.cacheFromURI(request, loadedData); }
+                    catch (Exception e) { decodeWorker.onDecodeFailed(request, e); }
+                    finally { loader.releasePrefetch(loadedData.length); }
+                }
+            });
+            submitted = true;
+        } finally {
+            if (!submitted) loader.releasePrefetch(loadedData.length);
+        }
+    }
+}
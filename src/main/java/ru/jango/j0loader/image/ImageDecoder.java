@@ -0,0 +1,493 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ru.jango.j0loader.image;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.os.Build;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+
+import ru.jango.j0loader.image.cache.BitmapPool;
+import ru.jango.j0loader.image.cache.ByteBufferInputStream;
+import ru.jango.j0util.BmpUtil;
+
+/**
+ * Bounds-first image decoder. Unlike decoding the whole image and scaling it afterwards, it
+ * <ul>
+ * <li>reads image bounds once (without allocating pixels)</li>
+ * <li>calculates the final size - proportionally fit into the requested scale (or covering it,
+ * see {@link ru.jango.j0loader.image.ImageDecoder.ScaleMode}) and into
+ * {@link ru.jango.j0util.BmpUtil#MAX_TEXTURE_SIZE}; images are never upscaled</li>
+ * <li>picks the largest power-of-two sample size, that still gives an image not smaller, than
+ * the final size, and decodes straight into that near-target size</li>
+ * <li>scales the sampled image to the exact final size (if needed) - it's at most 2 times larger
+ * in each dimension</li>
+ * </ul>
+ * So peak memory per decode is about the size of the result, not of the original image. With a
+ * {@link ru.jango.j0loader.image.cache.BitmapPool} memory of unused bitmaps is reused instead of
+ * allocating new bitmaps.
+ * <br><br>
+ * Images could be decoded in any {@link android.graphics.Bitmap.Config} (ARGB_8888 by default), e.g.
+ * RGB_565 takes half of the memory.
+ * <br><br>
+ * Images, that are too large to be decoded at once, could be decoded by tiles
+ * ({@link #getTiles(android.graphics.Point, int, int)}, {@link #decodeRegion(byte[], android.graphics.Rect, int, ru.jango.j0loader.image.cache.BitmapPool)}).
+ */
+public class ImageDecoder {
+
+    /**
+     * The way images are scaled into the requested scale.
+     */
+    public enum ScaleMode {
+        /** image is fit into the scale - it is not larger, than the scale, in both dimensions */
+        FIT,
+        /** image covers the scale - it is not smaller, than the scale, in both dimensions (for cropping) */
+        COVER
+    }
+
+    /**
+     * Reads image size without decoding pixels.
+     *
+     * @throws DataFormatException  if the data is not a supported image
+     */
+    public static Point decodeBounds(byte[] data) throws DataFormatException {
+        return decodeBounds(data, null);
+    }
+
+    /**
+     * Reads image size like {@link #decodeBounds(byte[])}, but from the remaining data of a buffer
+     * (buffer's position is not changed).
+     */
+    public static Point decodeBounds(ByteBuffer data) throws DataFormatException {
+        return decodeBounds(null, data);
+    }
+
+    private static Point decodeBounds(byte[] data, ByteBuffer buffer) throws DataFormatException {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decodeData(data, buffer, options);
+
+        if (options.outWidth <= 0 || options.outHeight <= 0)
+            throw new DataFormatException("Couldn't decode image bounds");
+
+        return new Point(options.outWidth, options.outHeight);
+    }
+
+    /**
+     * Calculates the final image size: image is proportionally fit into the scale and into
+     * {@link ru.jango.j0util.BmpUtil#MAX_TEXTURE_SIZE}, but not upscaled.
+     *
+     * @param bounds    original image size
+     * @param scale     requested scale, or NULL for the original size
+     */
+    public static Point resolveSize(Point bounds, Point scale) {
+        return resolveSize(bounds, scale, ScaleMode.FIT);
+    }
+
+    /**
+     * Calculates the final image size like {@link #resolveSize(android.graphics.Point, android.graphics.Point)},
+     * but the image could also cover the scale. Covering image is still limited by
+     * {@link ru.jango.j0util.BmpUtil#MAX_TEXTURE_SIZE} and is not upscaled.
+     *
+     * @param mode  the way the image is scaled, or NULL for {@link ScaleMode#FIT}
+     */
+    public static Point resolveSize(Point bounds, Point scale, ScaleMode mode) {
+        if (scale != null && mode == ScaleMode.COVER)
+            return resolveCoverSize(bounds, scale);
+
+        final int maxWidth = Math.min(scale == null ? bounds.x : scale.x, BmpUtil.MAX_TEXTURE_SIZE);
+        final int maxHeight = Math.min(scale == null ? bounds.y : scale.y, BmpUtil.MAX_TEXTURE_SIZE);
+        final float factor = Math.min(1f, Math.min((float) maxWidth / bounds.x, (float) maxHeight / bounds.y));
+        if (factor >= 1f)
+            return new Point(bounds.x, bounds.y);
+
+        return new Point(Math.max(1, Math.round(bounds.x * factor)), Math.max(1, Math.round(bounds.y * factor)));
+    }
+
+    private static Point resolveCoverSize(Point bounds, Point scale) {
+        final float cover = Math.max((float) scale.x / bounds.x, (float) scale.y / bounds.y);
+        final float limit = Math.min((float) BmpUtil.MAX_TEXTURE_SIZE / bounds.x,
+                (float) BmpUtil.MAX_TEXTURE_SIZE / bounds.y);
+        final float factor = Math.min(1f, Math.min(cover, limit));
+        if (factor >= 1f)
+            return new Point(bounds.x, bounds.y);
+
+        final int width = Math.max(1, Math.round(bounds.x * factor));
+        final int height = Math.max(1, Math.round(bounds.y * factor));
+        // rounding shouldn't make the image smaller, than the scale
+        if (cover > limit) return new Point(width, height);
+        return new Point(Math.max(width, scale.x), Math.max(height, scale.y));
+    }
+
+    /**
+     * Returns the largest power of two, that being used as
+     * {@link android.graphics.BitmapFactory.Options#inSampleSize} still gives an image not smaller,
+     * than the target size.
+     */
+    public static int calculateSampleSize(Point bounds, Point target) {
+        int sampleSize = 1;
+        while (bounds.x / (sampleSize * 2) >= target.x && bounds.y / (sampleSize * 2) >= target.y)
+            sampleSize *= 2;
+
+        return sampleSize;
+    }
+
+    /**
+     * Decodes image with the specified sample size.
+     */
+    public static Bitmap decodeSampled(byte[] data, int sampleSize) throws DataFormatException {
+        return decodeSampled(data, null, sampleSize, null);
+    }
+
+    /**
+     * Decodes image with the specified sample size into a pooled bitmap, if there is a suitable
+     * one (before API 19 bitmaps could be reused only without sampling).
+     *
+     * @param bounds    original image size, or NULL (nothing is reused then)
+     * @param pool      pool of bitmaps for reusing, or NULL
+     */
+    public static Bitmap decodeSampled(byte[] data, Point bounds, int sampleSize, BitmapPool pool)
+            throws DataFormatException {
+        return decodeSampled(data, bounds, sampleSize, pool, null);
+    }
+
+    /**
+     * Decodes image like {@link #decodeSampled(byte[], android.graphics.Point, int, ru.jango.j0loader.image.cache.BitmapPool)},
+     * but in the specified config.
+     *
+     * @param config    config of the result, or NULL for ARGB_8888
+     */
+    public static Bitmap decodeSampled(byte[] data, Point bounds, int sampleSize, BitmapPool pool,
+                                       Bitmap.Config config) throws DataFormatException {
+        return decodeSampled(data, null, bounds, sampleSize, pool, config);
+    }
+
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private static Bitmap decodeSampled(byte[] data, ByteBuffer buffer, Point bounds, int sampleSize,
+                                        BitmapPool pool, Bitmap.Config config) throws DataFormatException {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = resolveConfig(config);
+        if (pool != null && BitmapPool.isSupported()) {
+            options.inMutable = true;
+            if (bounds != null && (sampleSize == 1 || Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT))
+                options.inBitmap = pool.get((bounds.x + sampleSize - 1) / sampleSize,
+                        (bounds.y + sampleSize - 1) / sampleSize, resolveConfig(config));
+            else pool.recordAllocation();
+        }
+
+        Bitmap bmp;
+        try {
+            bmp = decodeData(data, buffer, options);
+        } catch (IllegalArgumentException e) {
+            // pooled bitmap couldn't be reused for this image (format or size doesn't fit)
+            final Bitmap rejected = options.inBitmap;
+            if (rejected == null) throw e;
+
+            options.inBitmap = null;
+            pool.recordAllocation();
+            bmp = decodeData(data, buffer, options);
+            pool.put(rejected);
+        }
+
+        if (bmp == null) {
+            if (pool != null) pool.put(options.inBitmap);
+            throw new DataFormatException("Couldn't decode image");
+        }
+
+        return bmp;
+    }
+
+    /**
+     * Decodes image into the size, resolved by {@link #resolveSize(android.graphics.Point, android.graphics.Point)}.
+     *
+     * @param data  encoded image
+     * @param scale requested scale, or NULL for the original size (limited by max texture size)
+     *
+     * @throws DataFormatException  if the data is not a supported image
+     */
+    public static Bitmap decode(byte[] data, Point scale) throws DataFormatException {
+        return decode(data, scale, null);
+    }
+
+    /**
+     * Decodes image like {@link #decode(byte[], android.graphics.Point)}, but reuses pooled
+     * bitmaps (both for decoding and for scaling) and puts the intermediate sampled bitmap back
+     * into the pool.
+     *
+     * @param pool  pool of bitmaps for reusing, or NULL
+     */
+    public static Bitmap decode(byte[] data, Point scale, BitmapPool pool) throws DataFormatException {
+        return decode(data, scale, pool, null);
+    }
+
+    /**
+     * Decodes image like {@link #decode(byte[], android.graphics.Point, ru.jango.j0loader.image.cache.BitmapPool)},
+     * but in the specified config.
+     *
+     * @param config    config of the result, or NULL for ARGB_8888
+     */
+    public static Bitmap decode(byte[] data, Point scale, BitmapPool pool, Bitmap.Config config)
+            throws DataFormatException {
+        return decode(data, null, scale, pool, config);
+    }
+
+    /**
+     * Decodes image like {@link #decode(byte[], android.graphics.Point, ru.jango.j0loader.image.cache.BitmapPool, android.graphics.Bitmap.Config)},
+     * but from the remaining data of a buffer (buffer's position is not changed), so data of
+     * {@link ru.jango.j0loader.image.cache.DirectCache} is not copied into the heap.
+     */
+    public static Bitmap decode(ByteBuffer data, Point scale, BitmapPool pool, Bitmap.Config config)
+            throws DataFormatException {
+        return decode(null, data, scale, pool, config);
+    }
+
+    private static Bitmap decode(byte[] data, ByteBuffer buffer, Point scale, BitmapPool pool,
+                                 Bitmap.Config config) throws DataFormatException {
+        final Point bounds = decodeBounds(data, buffer);
+        final Point target = resolveSize(bounds, scale);
+        final Bitmap sampled = decodeSampled(data, buffer, bounds, calculateSampleSize(bounds, target), pool, config);
+
+        return resize(sampled, target, pool);
+    }
+
+    /**
+     * Decodes either a byte array, or (if it is NULL) the remaining data of a buffer.
+     */
+    private static Bitmap decodeData(byte[] data, ByteBuffer buffer, BitmapFactory.Options options) {
+        if (data != null)
+            return BitmapFactory.decodeByteArray(data, 0, data.length, options);
+
+        return BitmapFactory.decodeStream(new ByteBufferInputStream(buffer.duplicate()), null, options);
+    }
+
+    /**
+     * Returns the config, that images are decoded in, if NULL is specified - ARGB_8888.
+     */
+    public static Bitmap.Config resolveConfig(Bitmap.Config config) {
+        return config == null ? Bitmap.Config.ARGB_8888 : config;
+    }
+
+    /**
+     * Converts bitmap into the specified config. The source bitmap is recycled (or put into the
+     * pool), if a new bitmap was created.
+     *
+     * @param config    config of the result, or NULL for ARGB_8888
+     * @param pool      pool of bitmaps for reusing, or NULL
+     */
+    public static Bitmap convert(Bitmap bmp, Bitmap.Config config, BitmapPool pool) {
+        if (bmp.getConfig() == resolveConfig(config))
+            return bmp;
+
+        final Bitmap converted = bmp.copy(resolveConfig(config), true);
+        if (pool != null) pool.put(bmp);
+        else bmp.recycle();
+
+        return converted;
+    }
+
+    /**
+     * Scales bitmap into the target size. The source bitmap is recycled (or put into the pool),
+     * if a new bitmap was created.
+     *
+     * @param pool  pool of bitmaps for reusing, or NULL
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB_MR1)
+    public static Bitmap resize(Bitmap bmp, Point target, BitmapPool pool) {
+        if (bmp.getWidth() == target.x && bmp.getHeight() == target.y)
+            return bmp;
+
+        if (pool == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB_MR1) {
+            final Bitmap scaled = Bitmap.createScaledBitmap(bmp, target.x, target.y, true);
+            if (scaled != bmp) bmp.recycle();
+
+            return scaled;
+        }
+
+        final Bitmap.Config config = bmp.getConfig() == null ? Bitmap.Config.ARGB_8888 : bmp.getConfig();
+        Bitmap scaled = pool.get(target.x, target.y, config);
+        if (scaled == null) scaled = Bitmap.createBitmap(target.x, target.y, config);
+        else scaled.eraseColor(Color.TRANSPARENT);
+
+        new Canvas(scaled).drawBitmap(bmp, null, new Rect(0, 0, target.x, target.y),
+                new Paint(Paint.FILTER_BITMAP_FLAG));
+        scaled.setHasAlpha(bmp.hasAlpha());
+        pool.put(bmp);
+
+        return scaled;
+    }
+
+    /**
+     * Decodes only a region of the image with the specified sample size - without decoding the
+     * whole image. Region is clipped by image bounds.
+     *
+     * @param region        region in pixels of the original image
+     * @param sampleSize    sample size - region is decoded into about region / sampleSize size
+     * @param pool          pool of bitmaps for reusing (since API 16), or NULL
+     *
+     * @throws DataFormatException  if the data is not a supported image, or the region is out of it
+     */
+    public static Bitmap decodeRegion(byte[] data, Rect region, int sampleSize, BitmapPool pool)
+            throws DataFormatException {
+        return decodeRegion(data, region, sampleSize, pool, null);
+    }
+
+    /**
+     * Decodes a region like {@link #decodeRegion(byte[], android.graphics.Rect, int, ru.jango.j0loader.image.cache.BitmapPool)},
+     * but in the specified config.
+     *
+     * @param config    config of the result, or NULL for ARGB_8888
+     */
+    public static Bitmap decodeRegion(byte[] data, Rect region, int sampleSize, BitmapPool pool,
+                                      Bitmap.Config config) throws DataFormatException {
+        final BitmapRegionDecoder decoder = newRegionDecoder(data);
+        try {
+            return decodeRegion(decoder, region, sampleSize, pool, config);
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * Creates a decoder of image regions. Creating of a decoder parses the whole image, so if
+     * several regions of the same image are decoded, the decoder should be reused
+     * ({@link #decodeRegion(android.graphics.BitmapRegionDecoder, android.graphics.Rect, int, ru.jango.j0loader.image.cache.BitmapPool, android.graphics.Bitmap.Config)}).
+     *
+     * @throws DataFormatException  if the data is not a supported image
+     */
+    public static BitmapRegionDecoder newRegionDecoder(byte[] data) throws DataFormatException {
+        final BitmapRegionDecoder decoder;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(data, 0, data.length, false);
+        } catch (IOException e) {
+            throw new DataFormatException("Couldn't decode image: " + e.getMessage());
+        }
+        if (decoder == null)
+            throw new DataFormatException("Couldn't decode image");
+
+        return decoder;
+    }
+
+    /**
+     * Creates a decoder of image regions from a file - the image is not read into memory.
+     *
+     * @see #newRegionDecoder(byte[])
+     * @throws DataFormatException  if the file is not a supported image, or couldn't be read
+     */
+    public static BitmapRegionDecoder newRegionDecoder(String path) throws DataFormatException {
+        final BitmapRegionDecoder decoder;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(path, false);
+        } catch (IOException e) {
+            throw new DataFormatException("Couldn't decode image: " + e.getMessage());
+        }
+        if (decoder == null)
+            throw new DataFormatException("Couldn't decode image: " + path);
+
+        return decoder;
+    }
+
+    /**
+     * Decodes a region by already created decoder (see {@link #newRegionDecoder(byte[])}). The
+     * decoder is not recycled; it could be shared by several threads - decodes are serialized
+     * by the decoder itself.
+     *
+     * @param config    config of the result, or NULL for ARGB_8888
+     * @throws DataFormatException  if the region is out of the image, or couldn't be decoded
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public static Bitmap decodeRegion(BitmapRegionDecoder decoder, Rect region, int sampleSize, BitmapPool pool,
+                                      Bitmap.Config config) throws DataFormatException {
+        final Rect clipped = new Rect(region);
+        if (!clipped.intersect(0, 0, decoder.getWidth(), decoder.getHeight()))
+            throw new DataFormatException("Region is out of image: " + region.flattenToString());
+
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sampleSize;
+        options.inPreferredConfig = resolveConfig(config);
+        if (pool != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+            options.inBitmap = pool.get((clipped.width() + sampleSize - 1) / sampleSize,
+                    (clipped.height() + sampleSize - 1) / sampleSize, resolveConfig(config));
+        else if (pool != null) pool.recordAllocation();
+
+        Bitmap bmp;
+        try {
+            bmp = decoder.decodeRegion(clipped, options);
+        } catch (IllegalArgumentException e) {
+            // pooled bitmap couldn't be reused for this region
+            final Bitmap rejected = options.inBitmap;
+            if (rejected == null) throw e;
+
+            options.inBitmap = null;
+            pool.recordAllocation();
+            bmp = decoder.decodeRegion(clipped, options);
+            pool.put(rejected);
+        }
+
+        if (bmp == null) {
+            if (pool != null) pool.put(options.inBitmap);
+            throw new DataFormatException("Couldn't decode region: " + clipped.flattenToString());
+        }
+
+        return bmp;
+    }
+
+    /**
+     * Splits the image into a grid of regions for {@link #decodeRegion(byte[], android.graphics.Rect, int, ru.jango.j0loader.image.cache.BitmapPool)}:
+     * every region is tileSize * sampleSize pixels of the original image (except the last
+     * ones in rows and columns), so it is decoded into tileSize x tileSize bitmap. Regions go row
+     * by row.
+     *
+     * @param bounds        original image size
+     * @param tileSize      size of decoded tiles
+     * @param sampleSize    sample size (zoom level)
+     */
+    public static List<Rect> getTiles(Point bounds, int tileSize, int sampleSize) {
+        if (tileSize < 1 || sampleSize < 1)
+            throw new IllegalArgumentException("Wrong tile size: " + tileSize + " @" + sampleSize);
+
+        final List<Rect> tiles = new ArrayList<Rect>();
+        final int step = tileSize * sampleSize;
+        for (int top=0; top<bounds.y; top+=step)
+            for (int left=0; left<bounds.x; left+=step)
+                tiles.add(new Rect(left, top, Math.min(left + step, bounds.x), Math.min(top + step, bounds.y)));
+
+        return tiles;
+    }
+
+    /**
+     * Returns size of the bitmap pixels in bytes (works on all API levels).
+     */
+    public static long getByteCount(Bitmap bmp) {
+        return (long) bmp.getRowBytes() * bmp.getHeight();
+    }
+
+}
@@ -19,22 +19,42 @@
 
 package ru.jango.j0loader.image;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.net.SocketTimeoutException;
 import java.net.URISyntaxException;
+import java.net.URI;
+import java.net.UnknownHostException;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.DataFormatException;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Point;
+import android.os.Looper;
 
 import ru.jango.j0loader.DataLoader;
+import ru.jango.j0loader.FailureCache;
+import ru.jango.j0loader.image.cache.BitmapCache;
+import ru.jango.j0loader.image.cache.BitmapPool;
 import ru.jango.j0loader.image.cache.Cache;
+import ru.jango.j0loader.image.cache.CacheSnapshot;
+import ru.jango.j0loader.image.cache.CacheStats;
 import ru.jango.j0loader.image.cache.DefaultCache;
+import ru.jango.j0loader.image.cache.DirectCache;
+import ru.jango.j0loader.image.cache.ExpiringCache;
+import ru.jango.j0loader.image.cache.RegionSourceCache;
+import ru.jango.j0loader.image.cache.StatsCache;
 import ru.jango.j0loader.queue.Queue;
 import ru.jango.j0loader.Request;
 import ru.jango.j0loader.queue.SingleURIQueue;
-import ru.jango.j0util.BmpUtil;
 import ru.jango.j0util.LogUtil;
 
 /**
@@ -44,23 +64,20 @@ import ru.jango.j0util.LogUtil;
  * transformed into {@link android.graphics.Bitmap} with
  * {@link android.graphics.BitmapFactory#decodeByteArray(byte[], int, int, android.graphics.BitmapFactory.Options)});
  * it takes some time to retrieve an image from cache then, but on the other hand pretty much data
- * could be cached (encoded data is much smaller, than raw pixel data)</li>
+ * could be cached (encoded data is much smaller, than raw pixel data); recently used images are
+ * also kept decoded in {@link #getBitmapCache()}</li>
  * <li>smart scaling - loader's clients could specify the desired image size and loader will
- * automatically and asynchronously (in the downloading thread) scale images before passing it to
- * clients; for scaling are used algorithms from {@link ru.jango.j0util.BmpUtil}</li>
+ * automatically and asynchronously scale images before passing it to clients; images are decoded
+ * by {@link ru.jango.j0loader.image.ImageDecoder} straight into near-target size</li>
  * </ul>
  * <br>
  *
  * Other features:
  * <ul>
- * <li>images are cached in already scaled size</li>
- * <li>only one instance of a single image could be cached - if clients try to load same image with
- * different scales, would be selected a larger one and an image will be cached in this larger scale;
- * if clients try to load an image that is already cached but in smaller scale, then the image
- * would be reloaded, rescaled in new large scale and recached
+ * <li>images are cached in already scaled size; several variants of a single image could be
+ * cached together (see {@link ru.jango.j0loader.image.ImageRequest}) - smaller variants are
+ * derived from larger ones without loading
  * {@link #addToQueue(ru.jango.j0loader.Request, android.graphics.Point)}</li>
- * <li>due to that, images could be retrieved from cache by it's {@link java.net.URI}, not a
- * {@link ru.jango.j0loader.Request}</li>
  * <li>cache is separated as a standalone class, so you can different caching strategies,
  * or create your own (default is simple memory cache)</li>
  * <li>by default cache size is limited by {@link ru.jango.j0loader.image.cache.DefaultCache#DEFAULT_MAX_CACHE_SIZE};
@@ -70,17 +87,96 @@ import ru.jango.j0util.LogUtil;
  * <li>loading is separated into default and cache threads and queues - defaults come from
  * {@link ru.jango.j0loader.DataLoader} and cache thread and queue are created and managed by
  * {@link ru.jango.j0loader.image.ImageLoader} itself</li>
+ * <li>threads only fetch images and pass them into a pool of decoding threads
+ * ({@link #getDecodeStage()}), so network and CPU work overlap</li>
+ * <li>stale images are delivered and then silently reloaded; recent failures are not retried for
+ * a while ({@link #getFailureCache()})</li>
+ * <li>large images could be loaded by tiles, and small ones - as a single sprite sheet
+ * ({@link #addAtlas(java.net.URI, java.net.URI)})</li>
  * </ul>
  */
 public class ImageLoader extends DataLoader<Bitmap> {
 
+    /** Time to live of 'not found' failures in milliseconds */
+    public static final long NOT_FOUND_FAILURE_TTL = 300000;
+    /** Time to live of connection failures (timeouts, unknown hosts) in milliseconds */
+    public static final long NETWORK_FAILURE_TTL = 10000;
+    /** Time to live of other I/O failures in milliseconds */
+    public static final long DEFAULT_FAILURE_TTL = 30000;
+    /** Max number of listeners calls, that are pending in main thread */
+    public static final int DEFAULT_DELIVERY_CAPACITY = 32;
+
+    /**
+     * Place, where a loaded image came from.
+     */
+    public enum Source {
+        /** image was taken from {@link ru.jango.j0loader.image.cache.Cache} */
+        MEMORY,
+        /** image was loaded from a local file ('file', 'jar' or 'content' schemes) or from cache snapshot */
+        DISK,
+        /** image was downloaded */
+        NETWORK
+    }
+
+    /**
+     * Listener of low resolution previews, that are delivered while images are loaded.
+     * Previews are optional - usual {@link ru.jango.j0loader.DataLoader.LoadingListener} gets the
+     * full image after it anyway. Is called in main thread (or in loading thread in full
+     * asynchronous mode).
+     */
+    public interface PreviewListener {
+
+        /**
+         * Is called, when a preview of the requested image is ready. Preview could be shared with
+         * bitmap cache (as usual results are), so it shouldn't be recycled by listeners.
+         */
+        public void previewLoaded(Request request, Bitmap preview);
+    }
+
 	private Thread cacheLoaderThread;
 	private Queue cacheQueue;
+    private volatile Request cacheProcessing;  // Request, that is being processed by cache thread, or NULL
+    private Set<PreviewListener> previewListeners;
+    private Request previewed;      // request, that already got a preview (loading thread only)
     private Cache cache;
+    private AtomicLong[] hitCounts;
+    private Set<URI> revalidating;    // stale images, that are reloaded now
+    private final Map<URI, Integer> interest;   // number of clients, that wait for queued cache keys
+    private volatile CacheSnapshot snapshot;
+    private volatile CacheEncoding cacheEncoding;
+    private volatile BitmapCache bitmapCache;
+    private volatile BitmapPool bitmapPool;
+    private volatile RegionSourceCache regionSources;
+    private PipelineStage fetchStage;
+    private PipelineStage decodeStage;
+    private PipelineStage deliveryStage;
+    private DecodeWorker decodeWorker;
+    private FetchWorker fetchWorker;
+    private RegionWorker regionWorker;
+    private AtlasWorker atlasWorker;
 	
 	public ImageLoader() {
 		super();
         cacheQueue = createCacheQueue();
+        watchDrops(cacheQueue);
+        revalidating = Collections.newSetFromMap(new ConcurrentHashMap<URI, Boolean>());
+        previewListeners = new HashSet<PreviewListener>();
+        interest = new HashMap<URI, Integer>();
+        cacheEncoding = createCacheEncoding();
+        bitmapCache = createBitmapCache();
+        bitmapPool = createBitmapPool();
+        regionSources = createRegionSourceCache();
+        fetchStage = new PipelineStage("fetch", null, 1);
+        decodeStage = createDecodeStage();
+        deliveryStage = createDeliveryStage();
+        decodeWorker = new DecodeWorker(this);
+        fetchWorker = new FetchWorker(this, decodeWorker);
+        regionWorker = new RegionWorker(this, decodeWorker);
+        atlasWorker = new AtlasWorker(this, decodeWorker);
+
+        hitCounts = new AtomicLong[Source.values().length];
+        for (int i=0; i<hitCounts.length; i++)
+            hitCounts[i] = new AtomicLong();
 	}
 
     public ImageLoader(LoadingListener<Bitmap> listener) {
@@ -88,6 +184,53 @@ public class ImageLoader extends DataLoader<Bitmap> {
         addLoadingListener(listener);
     }
 
+    /**
+     * Adds a listener of previews.
+     *
+     * @see ru.jango.j0loader.image.ImageLoader.PreviewListener
+     */
+    public void addPreviewListener(PreviewListener listener) {
+        if (listener != null) previewListeners.add(listener);
+    }
+
+    /**
+     * Removes a listener of previews.
+     */
+    public void removePreviewListener(PreviewListener listener) {
+        previewListeners.remove(listener);
+    }
+
+    /**
+     * Registers a sprite sheet ({@link ru.jango.j0loader.image.Atlas}). When an image, which
+     * {@link java.net.URI} starts with the specified base, is not cached, it's manifest is loaded
+     * (only once) and if the image is a sprite, the whole atlas image is loaded instead of it -
+     * every sprite is cut out and cached under it's own {@link java.net.URI}. So hundreds of icons
+     * cost one manifest and one image loading.
+     * <br><br>
+     * Images, that are not described by the manifest, are loaded as usual; they are loaded as
+     * usual also, if the manifest couldn't be loaded recently.
+     *
+     * @param manifestURI   {@link java.net.URI} of JSON manifest
+     * @param base          common beginning of sprites {@link java.net.URI}s
+     */
+    public void addAtlas(URI manifestURI, URI base) {
+        atlasWorker.addAtlas(manifestURI, base);
+    }
+
+    /**
+     * Unregisters a sprite sheet. Already cached sprites stay in cache.
+     */
+    public void removeAtlas(URI manifestURI) {
+        atlasWorker.removeAtlas(manifestURI);
+    }
+
+    /**
+     * Returns already loaded manifest of a registered sprite sheet, or NULL.
+     */
+    public Atlas getAtlas(URI manifestURI) {
+        return atlasWorker.getAtlas(manifestURI);
+    }
+
     @Override
 	public void addToQueue(Request request) {
         doAddToQueue(request);
@@ -100,18 +243,105 @@ public class ImageLoader extends DataLoader<Bitmap> {
 	}
 
     private void doAddToQueue(Request request) {
-        if (getCache().isCached(request.getURI())) cacheQueue.add(request);
-        else super.addToQueue(request);
+        final ImageRequest image = ImageRequest.of(request);
+        if (image.getScale() != null && image.getRegion() == null)
+            getCache().setScale(image.getSourceKey(), image.getScale());
+
+        dropPrefetch(request);
+        final Request prefetch = findQueued(getPrefetchQueue(), request);
+        if (prefetch != null) getPrefetchQueue().remove(prefetch);
+
+        if (isMainThread() || isFullAsyncMode()) {
+            final URI key = findCachedKey(image);
+            final Bitmap bmp = key == null ? null : getCachedBitmap(image, key);
+            // data of DirectCache isn't copied into the heap just for listeners
+            final byte[] raw = bmp == null || getCache() instanceof DirectCache ? null : getCache().get(key);
+            if ((raw != null || (bmp != null && isKept(image, key)))
+                    && onProcessFinishedImmediately(request, raw, bmp)) {
+                logDebug("memory hit, delivered immediately: " + request.getCacheKey());
+                hitCounts[Source.MEMORY.ordinal()].incrementAndGet();
+                if (isExpired(image, key)) revalidate(request);
+                return;
+            }
+        }
+
+        // requests could be dropped by queue itself (e.g. LIFOQueue), so stale counts are reset
+        final boolean pending = isPending(request);
+        if (findCachedKey(image) != null || getRecentFailure(request) != null) {
+            cacheQueue.add(request);
+            // cache thread finishes, when the cache queue is empty; the loader is still started
+            if (canWork()) startCacheLoaderThread();
+        } else super.addToQueue(request);
+
+        synchronized (interest) {
+            final Integer count = pending ? interest.get(request.getCacheKey()) : null;
+            interest.put(request.getCacheKey(), count == null ? 1 : count + 1);
+        }
+    }
+
+    /**
+     * Adds an image into the prefetch queue - it will be loaded, when nothing else is loaded,
+     * and cached in the specified size. Images, that are already cached or queued, are skipped.
+     *
+     * @see ru.jango.j0loader.DataLoader#prefetch(ru.jango.j0loader.Request)
+     */
+    @Override
+    public void prefetch(Request request) {
+        final ImageRequest image = ImageRequest.of(request);
+        if (findCachedKey(image) != null || getRecentFailure(request) != null
+                || findQueued(getQueue(), request) != null)
+            return;
+
+        if (image.getScale() != null && image.getRegion() == null)
+            getCache().setScale(image.getSourceKey(), image.getScale());
+        super.prefetch(request);
+    }
+
+    /**
+     * Adds images into the prefetch queue to be cached in the specified size.
+     *
+     * @param requests  images to prefetch
+     * @param scale     a size, in witch images should be cached, or NULL for the original size
+     *
+     * @see #prefetch(ru.jango.j0loader.Request)
+     */
+    public void prefetch(Collection<Request> requests, Point scale) {
+        for (Request request : requests) {
+            setScale(request, scale);
+            prefetch(request);
+        }
+    }
+
+    /**
+     * Returns already decoded image right in the calling thread, if it is in memory
+     * ({@link #getBitmapCache()}), or NULL - then the image should be loaded as usual. Listeners
+     * are not called and hit counts are not changed - the hit is counted, when the request is
+     * delivered ({@link #addToQueue(ru.jango.j0loader.Request)}). Stale images are returned too,
+     * but are reloaded in background.
+     */
+    public Bitmap getFromMemory(Request request) {
+        final ImageRequest image = ImageRequest.of(request);
+        final URI key = findCachedKey(image);
+        final Bitmap bmp = key == null ? null : getCachedBitmap(image, key);
+        if (bmp == null || !isKept(image, key))
+            return null;
+
+        if (isExpired(image, key)) revalidate(request);
+
+        return bmp;
     }
 
     /**
      * Adds an element into loading queues. Automatically checks cache and chooses a queue. Second
-     * parameter specifies a size, in witch image should be cached and returned to the client. <br><br>
-     * If clients try to load a cached image, but with smaller scale, loader will return a cached
-     * image. <br><br>
-     * If clients try to load a cached image, but with larger scale, loader will remove that image
-     * from cache, then reload it from URI, rescale into size, put again in cache and return it to
-     * the client.
+     * parameter specifies a size, in witch image should be cached and returned to the client
+     * ({@link ru.jango.j0loader.image.ImageRequest#setScale(android.graphics.Point)}). <br><br>
+     * If clients try to load a cached image, but with about the same or smaller scale, loader will
+     * return a cached image, or derive a smaller variant from it. <br><br>
+     * If clients try to load a cached image, but with larger scale, loader will load it from URI,
+     * rescale into size and cache it as one more variant; smaller variants are kept. <br><br>
+     * Plain {@link ru.jango.j0loader.Request}s have no variants - they are cached under their
+     * {@link java.net.URI} in the largest requested scale (cached image is loaded again, if a
+     * larger scale is requested).
      *
      * @param request   a {@link java.net.URI} where to take the image
      * @param scale	    a size, in witch image should be cached and returned to the client; be aware,
@@ -119,37 +349,153 @@ public class ImageLoader extends DataLoader<Bitmap> {
      *                  appropriate scaling
      */
     public void addToQueue(Request request, Point scale) {
+        setScale(request, scale);
+        addToQueue(request);
+    }
+
+    private void setScale(Request request, Point scale) {
+        if (request instanceof ImageRequest) {
+            ((ImageRequest) request).setScale(scale);
+            return;
+        }
+
         if (scaleLarger(scale, getCache().getScale(request.getURI()))) {
             getCache().setScale(request.getURI(), scale);
             getCache().remove(request.getURI());
-            removeFromQueue(request);
-            removeFromCacheQueue(request);
         }
-
-        addToQueue(request);
     }
 
 	@Override
 	public void removeFromQueue(Request request) {
 		super.removeFromQueue(request);
         removeFromCacheQueue(request);
+        synchronized (interest) { interest.remove(request.getCacheKey()); }
 	}
 
+    /**
+     * Withdraws interest of one client in the image - the client doesn't need it anymore (e.g.
+     * a view was rebound to another image). Requests are counted by cache key, so if other
+     * clients still wait for the same image, nothing happens. Otherwise queued request is removed
+     * from queues, and if the image is being loaded now, loading is stopped by
+     * {@link #cancelProcessing(ru.jango.j0loader.Request)}; listeners are not notified about cancelled requests.
+     *
+     * @param request   a {@link Request}, that was added by {@link #addToQueue(ru.jango.j0loader.Request)};
+     *                  it could be another {@link Request} object with the same cache key
+     * @return          TRUE if the request was removed from queues or stopped
+     */
+    public boolean cancel(Request request) {
+        final URI key = request.getCacheKey();
+        synchronized (interest) {
+            final Integer count = interest.get(key);
+            if (count == null) return false;
+            if (count > 1) {
+                interest.put(key, count - 1);
+                return false;
+            }
+
+            interest.remove(key);
+        }
+
+        boolean cancelled = false;
+        Request queued;
+        if ((queued = findQueued(getQueue(), request)) != null)
+            cancelled = getQueue().remove(queued);
+        if ((queued = findQueued(cacheQueue, request)) != null)
+            cancelled |= cacheQueue.remove(queued);
+
+        if (!isRevalidating(request) && cancelProcessing(request))
+            cancelled = true;
+
+        if (cancelled) logDebug("cancelled: " + key);
+        return cancelled;
+    }
+
+    /**
+     * Moves a queued request (or another request with the same cache key) into the head of it's
+     * queue.
+     */
+    @Override
+    public boolean prioritize(Request request) {
+        return move(request, 0);
+    }
+
+    /**
+     * Moves a queued request (or another request with the same cache key) into the end of it's
+     * queue.
+     */
+    @Override
+    public boolean deprioritize(Request request) {
+        return move(request, Integer.MAX_VALUE);
+    }
+
+    private boolean move(Request request, int pos) {
+        Request queued;
+        if ((queued = findQueued(getQueue(), request)) != null)
+            return getQueue().move(queued, pos);
+        if ((queued = findQueued(cacheQueue, request)) != null)
+            return cacheQueue.move(queued, pos);
+
+        return false;
+    }
+
+    /**
+     * Returns the request itself, if it is queued, or queued request with the same cache key (if
+     * queue is a {@link ru.jango.j0loader.queue.SingleURIQueue}), or NULL.
+     */
+    private Request findQueued(Queue queue, Request request) {
+        if (queue.contains(request)) return request;
+        if (queue instanceof SingleURIQueue) return ((SingleURIQueue) queue).get(request.getCacheKey());
+        return null;
+    }
+
+    /**
+     * Checks if the request (or another request with the same cache key) is queued or is being
+     * loaded now.
+     */
+    private boolean isPending(Request request) {
+        return findQueued(getQueue(), request) != null || findQueued(cacheQueue, request) != null
+                || isProcessing(getProcessingRequest(), request) || isProcessing(cacheProcessing, request);
+    }
+
+    private boolean isProcessing(Request processing, Request request) {
+        return processing != null && processing.getCacheKey().equals(request.getCacheKey());
+    }
+
+    /**
+     * Forgets clients' interest in the request, when it's processing is over (unless one more
+     * request with the same cache key was queued meanwhile).
+     */
+    private void releaseInterest(Request request) {
+        synchronized (interest) {
+            if (findQueued(getQueue(), request) == null && findQueued(cacheQueue, request) == null)
+                interest.remove(request.getCacheKey());
+        }
+    }
+
 	@Override
 	public void start()  {
 		super.start();
-		
-		final Thread thread = getCacheLoaderThread();
-		if (!thread.isAlive()) thread.start();
+        startCacheLoaderThread();
 	}
 
+    private synchronized void startCacheLoaderThread() {
+        final Thread thread = getCacheLoaderThread();
+        if (!thread.isAlive()) thread.start();
+    }
+
     /**
      * Resets the loader to it's initial clear state: <br>
      * <ul>
      * <li>stop operations by {@link #stopWorking()}</li>
      * <li>clear queue by {@link #clearQueue()}</li>
      * <li>clear cache by {@link ru.jango.j0loader.image.cache.Cache#clear()}</li>
+     * <li>clear bitmap cache by {@link ru.jango.j0loader.image.cache.BitmapCache#clear()}</li>
+     * <li>drop decoders of tiles sources by {@link ru.jango.j0loader.image.cache.RegionSourceCache#clear()}</li>
+     * <li>clear bitmap pool by {@link ru.jango.j0loader.image.cache.BitmapPool#clear()}</li>
      * <li>clear queue queue by {@link #clearCacheQueue()}</li>
+     * <li>clear prefetch queue by {@link #clearPrefetchQueue()}</li>
+     * <li>forget recent failures by {@link ru.jango.j0loader.FailureCache#clear()}</li>
+     * <li>forget loaded manifests of sprite sheets (sheets stay registered)</li>
      * </ul>
      */
     @Override
@@ -157,8 +503,15 @@ public class ImageLoader extends DataLoader<Bitmap> {
         stopWorking();
         clearQueue();
         clearCacheQueue();
+        clearPrefetchQueue();
+        synchronized (interest) { interest.clear(); }
 
         getCache().clear();
+        if (getBitmapCache() != null) getBitmapCache().clear();
+        if (getBitmapPool() != null) getBitmapPool().clear();
+        if (getFailureCache() != null) getFailureCache().clear();
+        regionSources.clear();
+        atlasWorker.clear();
     }
 
     protected boolean scaleLarger(Point p1, Point p2) {
@@ -174,6 +527,220 @@ public class ImageLoader extends DataLoader<Bitmap> {
         return new SingleURIQueue();
     }
 
+    @Override
+    protected Queue createPrefetchQueue() {
+        return new SingleURIQueue();
+    }
+
+    /**
+     * Creates a {@link ru.jango.j0loader.FailureCache}, that remembers 'not found' failures for
+     * {@link #NOT_FOUND_FAILURE_TTL}, connection failures for {@link #NETWORK_FAILURE_TTL} and
+     * other I/O failures for {@link #DEFAULT_FAILURE_TTL}.
+     */
+    @Override
+    protected FailureCache createFailureCache() {
+        final FailureCache failureCache = new FailureCache();
+        failureCache.setTimeToLive(IOException.class, DEFAULT_FAILURE_TTL);
+        failureCache.setTimeToLive(FileNotFoundException.class, NOT_FOUND_FAILURE_TTL);
+        failureCache.setTimeToLive(SocketTimeoutException.class, NETWORK_FAILURE_TTL);
+        failureCache.setTimeToLive(UnknownHostException.class, NETWORK_FAILURE_TTL);
+
+        return failureCache;
+    }
+
+    /**
+     * Creates encoding policy for scaled images. By default they are encoded into JPEG with
+     * {@link ru.jango.j0loader.image.CacheEncoding#DEFAULT_QUALITY} (images with alpha channel -
+     * into PNG).
+     */
+    protected CacheEncoding createCacheEncoding() {
+        return CacheEncoding.jpeg(CacheEncoding.DEFAULT_QUALITY);
+    }
+
+    /**
+     * Creates memory cache of decoded images. By default it is
+     * {@link ru.jango.j0loader.image.cache.BitmapCache} of
+     * {@link ru.jango.j0loader.image.cache.BitmapCache#DEFAULT_MAX_SIZE}.
+     *
+     * @return  bitmap cache, or NULL to decode images on every cache hit
+     */
+    protected BitmapCache createBitmapCache() {
+        return new BitmapCache();
+    }
+
+    /**
+     * Creates pool of bitmaps, whose memory is reused by decodes. By default it is
+     * {@link ru.jango.j0loader.image.cache.BitmapPool} of
+     * {@link ru.jango.j0loader.image.cache.BitmapPool#DEFAULT_MAX_SIZE}, if reusing is supported on
+     * the device.
+     *
+     * @return  bitmap pool, or NULL to allocate a new bitmap for every decode
+     */
+    protected BitmapPool createBitmapPool() {
+        return BitmapPool.isSupported() ? new BitmapPool() : null;
+    }
+
+    /**
+     * Creates keeper of tiles sources
+     * ({@link ru.jango.j0loader.image.ImageRequest#setRegion(android.graphics.Rect, int)}).
+     * By default it is {@link ru.jango.j0loader.image.cache.RegionSourceCache} without directory -
+     * sources are kept only in memory.
+     */
+    protected RegionSourceCache createRegionSourceCache() {
+        return new RegionSourceCache();
+    }
+
+    /**
+     * Creates decode stage of the pipeline. By default it is a pool of threads, one per CPU core;
+     * up to two images per thread could be in flight, then fetching waits for decoding.
+     */
+    protected PipelineStage createDecodeStage() {
+        final int threads = Runtime.getRuntime().availableProcessors();
+        return PipelineStage.createPool("decode", threads, threads * 2);
+    }
+
+    /**
+     * Creates delivery stage of the pipeline. By default listeners are called in main thread
+     * (or immediately in full asynchronous mode) and up to {@link #DEFAULT_DELIVERY_CAPACITY}
+     * calls could be pending.
+     */
+    protected PipelineStage createDeliveryStage() {
+        return new PipelineStage("deliver", new Executor() {
+            @Override
+            public void execute(Runnable runnable) { superDeliver(runnable); }
+        }, DEFAULT_DELIVERY_CAPACITY);
+    }
+
+    /**
+     * Cached images are never failed fast - they are taken from cache.
+     */
+    @Override
+    protected Exception getRecentFailure(Request request) {
+        if (findCachedKey(ImageRequest.of(request)) != null) return null;
+        return super.getRecentFailure(request);
+    }
+
+    /**
+     * Finds a cached variant, that could satisfy the request: the requested variant itself
+     * (transformed, if the request has transformations); for requests without scale - the largest
+     * cached variant; for scaled requests - the smallest variant, that is not smaller, than
+     * requested, or the original image; for covering requests - only the original image.
+     * Variants, except the requested one, are not transformed.
+     *
+     * @return  cache key of the found variant, or NULL
+     */
+    URI findCachedKey(ImageRequest request) {
+        // tiles are decoded from the source image, that is cached as is
+        if (request.getRegion() != null)
+            return isAvailable(request.getURI()) || regionSources.contains(request.getURI()) ? request.getURI() : null;
+
+        if (!request.getTransformations().isEmpty() && isAvailable(request.getDataKey()))
+            return request.getDataKey();
+
+        final URI key = request.getSourceKey();
+        if (isAvailable(key))
+            return key;
+
+        final Point scale = request.getScale();
+        // other variants are fit into their scales, so they could be smaller, than the covering image
+        if (scale != null && request.getScaleMode() == ImageDecoder.ScaleMode.COVER)
+            return isAvailable(request.getURI()) ? request.getURI() : null;
+
+        URI bestKey = null;
+        Point bestScale = null;
+        for (Map.Entry<URI, Point> variant : getVariants(request.getURI()).entrySet()) {
+            if (!isAvailable(variant.getKey()))
+                continue;
+
+            final boolean better;
+            if (scale == null) better = bestKey == null || scaleLarger(variant.getValue(), bestScale);
+            else better = !scaleLarger(scale, variant.getValue())
+                    && (bestKey == null || scaleLarger(bestScale, variant.getValue()));
+
+            if (better) {
+                bestKey = variant.getKey();
+                bestScale = variant.getValue();
+            }
+        }
+
+        if (bestKey == null && scale != null && isAvailable(request.getURI()))
+            return request.getURI();
+
+        return bestKey;
+    }
+
+    /**
+     * Checks if an image could be taken without loading - from cache or from snapshot.
+     */
+    private boolean isAvailable(URI key) {
+        final CacheSnapshot snapshot = this.snapshot;
+        return getCache().isCached(key) || (snapshot != null && snapshot.contains(key));
+    }
+
+    /**
+     * Checks if the found image is still cached; tiles - if their source is cached or kept by
+     * {@link #getRegionSourceCache()}.
+     */
+    private boolean isKept(ImageRequest request, URI key) {
+        return getCache().isCached(key) || (request.getRegion() != null && regionSources.contains(key));
+    }
+
+    /**
+     * Checks if the found image (for tiles - their source) is stale.
+     */
+    private boolean isExpired(ImageRequest request, URI key) {
+        return isCacheExpired(key) || (request.getRegion() != null && regionSources.isExpired(key));
+    }
+
+    /**
+     * Takes an image from snapshot and puts it into cache.
+     *
+     * @return  image data, or NULL if there is no snapshot or the image is not in it
+     */
+    byte[] restoreFromSnapshot(URI key) {
+        final CacheSnapshot snapshot = this.snapshot;
+        final byte[] raw = snapshot == null ? null : snapshot.get(key);
+        if (raw != null && getCache().put(key, raw))
+            setCacheExpiration(key, snapshot.getExpiration(key));
+
+        return raw;
+    }
+
+    /**
+     * Returns remembered variants of an image. Only {@link ru.jango.j0loader.image.cache.DefaultCache}
+     * and it's subclasses know variants, for other caches only exact cache keys are found.
+     */
+    private Map<URI, Point> getVariants(URI uri) {
+        final Cache cache = getCache();
+        if (cache instanceof DefaultCache) return ((DefaultCache) cache).getVariants(uri);
+        else return Collections.emptyMap();
+    }
+
+    long getCacheExpiration(URI key) {
+        final Cache cache = getCache();
+        return cache instanceof ExpiringCache ? ((ExpiringCache) cache).getExpiration(key) : 0;
+    }
+
+    void setCacheExpiration(URI key, long expiresAt) {
+        final Cache cache = getCache();
+        if (cache instanceof ExpiringCache) ((ExpiringCache) cache).setExpiration(key, expiresAt);
+    }
+
+    boolean isCacheExpired(URI key) {
+        final Cache cache = getCache();
+        return cache instanceof ExpiringCache && ((ExpiringCache) cache).isExpired(key);
+    }
+
+    private long getCacheTimeToLive() {
+        final Cache cache = getCache();
+        return cache instanceof ExpiringCache ? ((ExpiringCache) cache).getTimeToLive() : 0;
+    }
+
+    void recordLoadTime(long loadTime) {
+        final Cache cache = getCache();
+        if (cache instanceof StatsCache) ((StatsCache) cache).recordLoadTime(loadTime);
+    }
+
     /**
      * Returns internal cache object. By default in {@link ru.jango.j0loader.image.ImageLoader}
      * it is {@link ru.jango.j0loader.image.cache.DefaultCache}. With help of
@@ -193,6 +760,203 @@ public class ImageLoader extends DataLoader<Bitmap> {
         this.cache = cache;
     }
 
+    /**
+     * Returns memory cache of decoded images, or NULL if it is disabled.
+     */
+    public BitmapCache getBitmapCache() {
+        return bitmapCache;
+    }
+
+    /**
+     * Sets memory cache of decoded images. Decoded images are taken from it only if the encoded
+     * image is in {@link #getCache()}, so it could be smaller, but not larger, than the cache.
+     *
+     * @param bitmapCache   bitmap cache, or NULL to decode images on every cache hit
+     */
+    public void setBitmapCache(BitmapCache bitmapCache) {
+        this.bitmapCache = bitmapCache;
+    }
+
+    /**
+     * Returns pool of bitmaps, whose memory is reused by decodes, or NULL if it is disabled.
+     */
+    public BitmapPool getBitmapPool() {
+        return bitmapPool;
+    }
+
+    /**
+     * Returns keeper of tiles sources. To keep sources in files (so they don't flush memory
+     * cache), set it's directory ({@link ru.jango.j0loader.image.cache.RegionSourceCache#setDir(java.io.File)}).
+     */
+    public RegionSourceCache getRegionSourceCache() {
+        return regionSources;
+    }
+
+    /**
+     * Sets pool of bitmaps, whose memory is reused by decodes.
+     *
+     * @param bitmapPool    bitmap pool, or NULL to allocate a new bitmap for every decode
+     */
+    public void setBitmapPool(BitmapPool bitmapPool) {
+        this.bitmapPool = bitmapPool;
+    }
+
+    /**
+     * Gives back an image, that was passed to the client, but isn't used anymore: it is removed
+     * from {@link #getBitmapCache()} and it's memory is reused by next decodes (or it is recycled,
+     * if there is no pool). The image should not be used by anyone after that.
+     */
+    public void releaseBitmap(Bitmap bmp) {
+        if (getBitmapCache() != null) getBitmapCache().remove(bmp);
+
+        final BitmapPool bitmapPool = this.bitmapPool;
+        if (bitmapPool != null) bitmapPool.put(bmp);
+        else bmp.recycle();
+    }
+
+    /**
+     * Returns encoding policy for scaled images.
+     */
+    public CacheEncoding getCacheEncoding() {
+        return cacheEncoding;
+    }
+
+    /**
+     * Sets encoding policy for scaled images. Already cached images are not re-encoded - cache
+     * could hold images of different formats at the same time.
+     */
+    public void setCacheEncoding(CacheEncoding cacheEncoding) {
+        this.cacheEncoding = cacheEncoding;
+    }
+
+    /**
+     * Returns previously saved cache contents, that are used on cache misses, or NULL.
+     */
+    public CacheSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Sets previously saved cache contents (see {@link ru.jango.j0loader.image.cache.CacheSnapshot#open(java.io.File)}).
+     * When an image is missing in cache, but is in the snapshot, it is taken from the snapshot
+     * (counted as {@link ru.jango.j0loader.image.ImageLoader.Source#DISK} hit) and put into cache.
+     *
+     * @param snapshot  saved cache contents, or NULL
+     */
+    public void setSnapshot(CacheSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Returns number of images, that were successfully loaded from the specified source.
+     */
+    public long getHitCount(Source source) {
+        return hitCounts[source.ordinal()].get();
+    }
+
+    /**
+     * Returns number of scaled images, encoded by {@link #getCacheEncoding()}.
+     */
+    public long getEncodedCount() {
+        return decodeWorker.getEncodedCount();
+    }
+
+    /**
+     * Returns total size of scaled images, encoded by {@link #getCacheEncoding()}, in bytes.
+     */
+    public long getEncodedBytes() {
+        return decodeWorker.getEncodedBytes();
+    }
+
+    /**
+     * Returns total time, spent on encoding scaled images, in milliseconds.
+     */
+    public long getEncodeTime() {
+        return decodeWorker.getEncodeTime();
+    }
+
+    /**
+     * Resets loader's hit counters, encoding and decoding counters, pipeline stages, bitmap pool
+     * counters and cache statistics.
+     *
+     * @see ru.jango.j0loader.image.cache.StatsCache#resetStats()
+     */
+    public void resetStats() {
+        for (AtomicLong hitCount : hitCounts)
+            hitCount.set(0);
+        decodeWorker.resetStats();
+        fetchStage.resetStats();
+        decodeStage.resetStats();
+        deliveryStage.resetStats();
+        if (getBitmapPool() != null) getBitmapPool().resetStats();
+
+        if (getCache() instanceof StatsCache) ((StatsCache) getCache()).resetStats();
+    }
+
+    /**
+     * Returns fetch stage of the pipeline - loading in the loader thread.
+     */
+    public PipelineStage getFetchStage() {
+        return fetchStage;
+    }
+
+    /**
+     * Returns decode stage of the pipeline - decoding, scaling, encoding and caching.
+     */
+    public PipelineStage getDecodeStage() {
+        return decodeStage;
+    }
+
+    /**
+     * Returns delivery stage of the pipeline - listeners calls.
+     */
+    public PipelineStage getDeliveryStage() {
+        return deliveryStage;
+    }
+
+    /**
+     * Checks if there are no images in decode and delivery stages. Loader and cache threads
+     * should be checked separately.
+     */
+    public boolean isPipelineIdle() {
+        return decodeStage.isIdle() && deliveryStage.isIdle();
+    }
+
+    /**
+     * Returns number of images, decoded by the loader (not taken from
+     * {@link #getBitmapCache()}).
+     */
+    public long getDecodeCount() {
+        return decodeWorker.getDecodeCount();
+    }
+
+    /**
+     * Returns statistics string for debugging: loader's hit counters, encoding and decoding
+     * counters, pipeline stages and cache statistics.
+     */
+    public String getStatsString() {
+        final CacheStats cacheStats = getCache() instanceof StatsCache ? ((StatsCache) getCache()).getStats() : null;
+        final BitmapPool bitmapPool = this.bitmapPool;
+        return "memory: " + getHitCount(Source.MEMORY)
+                + "; disk: " + getHitCount(Source.DISK)
+                + "; network: " + getHitCount(Source.NETWORK)
+                + "; encoded (" + getCacheEncoding() + "): " + getEncodedCount()
+                + " images, " + getEncodedBytes() + " bytes, " + getEncodeTime() + " ms"
+                + "; decoded: " + getDecodeCount()
+                + (bitmapPool == null ? "" : " (bitmaps reused: " + bitmapPool.getReuseCount()
+                        + ", allocated: " + bitmapPool.getAllocationCount() + ")")
+                + "; " + fetchStage + "; " + decodeStage + "; " + deliveryStage
+                + (cacheStats == null ? "" : "; cache - " + cacheStats);
+    }
+
+    Source getSource(Request request) {
+        final String scheme = request.getURI().getScheme();
+        if ("file".equalsIgnoreCase(scheme) || "jar".equalsIgnoreCase(scheme) || "content".equalsIgnoreCase(scheme))
+            return Source.DISK;
+
+        return Source.NETWORK;
+    }
+
     ////////////////////////////////////////////////////////////////////////
     //
     //		Cache queue controlling methods
@@ -269,58 +1033,283 @@ public class ImageLoader extends DataLoader<Bitmap> {
 		return cacheLoaderThread;
 	}
 
-    private boolean processFromCache(Request request) {
-    	if (getCache().isCached(request.getURI())) {
-	    	LogUtil.i(ImageLoader.class, "loading from cache: "+request.getURI());
-				
-			final byte[] raw = getCache().get(request.getURI());
-			onProcessFinished(request, raw, BitmapFactory.decodeByteArray(raw, 0, raw.length));
-			return true;
-		}
+    /**
+     * Checks if the requested variant should be derived from the found one: scaled request was
+     * satisfied by the original image, or by a noticeably larger variant.
+     */
+    boolean shouldDerive(ImageRequest request, URI foundKey) {
+        if (request.getRegion() != null)
+            return !foundKey.equals(request.getCacheKey());
+        if (request.getScale() == null || foundKey.equals(request.getSourceKey())
+                || foundKey.equals(request.getDataKey()))
+            return false;
 
-		return false;
-	}
+        final Point foundScale = getCache().getScale(foundKey);
+        return foundScale == null || scaleLarger(foundScale, request.getScale());
+    }
 
-	private void processFromURI(Request request) throws DataFormatException, IOException, URISyntaxException {
-		LogUtil.i(ImageLoader.class, "loading from uri: "+request.getURI());
-        final byte[] loadedData = load(request);
-        final Point scale = getCache().resolveScale(request.getURI(), loadedData);
-
-        Bitmap bmp;
-        byte[] rawData;
-        if (scale == null) {
-            bmp = BitmapFactory.decodeByteArray(loadedData, 0, loadedData.length);
-            rawData = loadedData;
-        } else {
-            bmp = BmpUtil.scale(loadedData, BmpUtil.ScaleType.PROPORTIONAL_FIT, scale.x, scale.y);
-            rawData = BmpUtil.bmpToByte(bmp, Bitmap.CompressFormat.PNG, 100);
-        }
+    /**
+     * Returns already decoded image for the request, or NULL. If the request itself wasn't
+     * decoded yet, but the found variant was (in the requested config) and the request could be
+     * satisfied by it without deriving, variant's image is returned.
+     *
+     * @param foundKey  cache key of the variant, found by {@link #findCachedKey(ImageRequest)}
+     */
+    Bitmap getCachedBitmap(ImageRequest request, URI foundKey) {
+        final BitmapCache bitmapCache = this.bitmapCache;
+        if (bitmapCache == null) return null;
 
-        getCache().put(request.getURI(), rawData);
-        LogUtil.i(ImageLoader.class, "added to cache; cache size bytes: " + getCache().size());
+        final Bitmap bmp = bitmapCache.get(request.getCacheKey());
+        if (bmp != null || foundKey.equals(request.getCacheKey()) || shouldDerive(request, foundKey)
+                || shouldTransform(request, foundKey))
+            return bmp;
+
+        final Bitmap variant = bitmapCache.get(foundKey);
+        return variant != null && variant.getConfig() == ImageDecoder.resolveConfig(request.getConfig()) ? variant : null;
+    }
+
+    /**
+     * Checks if the found variant should be transformed - it is not the transformed image itself.
+     */
+    boolean shouldTransform(ImageRequest request, URI foundKey) {
+        return !request.getTransformations().isEmpty() && !foundKey.equals(request.getDataKey());
+    }
+
+    private boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    void putCachedBitmap(Request request, Bitmap bmp) {
+        final BitmapCache bitmapCache = this.bitmapCache;
+        if (bitmapCache != null && bmp != null) bitmapCache.put(request.getCacheKey(), bmp);
+    }
+
+    /**
+     * Puts a request with stale cached image into loading queue for silent reloading. Loader
+     * thread could have finished the queue already, so it is started again (if loader is working).
+     */
+    void revalidate(Request request) {
+        if (!revalidating.add(request.getCacheKey()))
+            return;
+
+        logDebug("revalidating stale image: " + request.getCacheKey());
+        super.addToQueue(request);
+        if (canWork()) startLoaderThread();
+    }
+
+    boolean isRevalidating(Request request) {
+        return revalidating.contains(request.getCacheKey());
+    }
+
+    /**
+     * Returns time, when the just loaded image becomes stale: from the response headers, or
+     * from cache's default time to live.
+     */
+    long resolveExpiration(Request request) {
+        if (request.getResponseExpiration() > 0)
+            return request.getResponseExpiration();
+
+        final long timeToLive = getCacheTimeToLive();
+        return timeToLive > 0 ? System.currentTimeMillis() + timeToLive : 0;
+    }
 
-		onProcessFinished(request, rawData, bmp);
-	}
-	
 	@Override
 	protected void loadInBackground(Request request) throws Exception {
-		if (!processFromCache(request)) processFromURI(request);
+        final ImageRequest image = ImageRequest.of(request);
+        try {
+            // prefetch is done - image was cached meanwhile
+            if (request.isPrefetch() && findCachedKey(image) != null) return;
+
+            if (image.getRegion() != null) regionWorker.processRegion(request);
+            else if ((isRevalidating(request) || !fetchWorker.processFromCache(request)) && !atlasWorker.process(request))
+                fetchWorker.processFromURI(request);
+        } finally {
+            releaseInterest(request);
+        }
 	}
+
+    /**
+     * Decode and delivery stages don't process the current queue element, so only
+     * {@link #canWork()} matters for them.
+     */
+    @Override
+    protected boolean canPingListeners() {
+        if (PipelineStage.current() != null) return canWork();
+        return super.canPingListeners();
+    }
+
+    /**
+     * Dropped requests are not waited for anymore, so their clients are forgotten.
+     */
+    @Override
+    protected void onRequestDropped(Request request) {
+        synchronized (interest) { interest.remove(request.getCacheKey()); }
+        super.onRequestDropped(request);
+    }
+
+    /**
+     * Delivery stage: listeners calls are passed through {@link #getDeliveryStage()}, so decode
+     * stage is blocked, while too many calls are pending in main thread. Calls from main thread
+     * itself are never blocked.
+     */
+    @Override
+    protected void deliver(Runnable listenersCall) {
+        if (isMainThread()) {
+            super.deliver(listenersCall);
+            return;
+        }
+
+        try {
+            deliveryStage.submit(listenersCall);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void superDeliver(Runnable listenersCall) {
+        super.deliver(listenersCall);
+    }
+
+    @Override
+    protected void onProcessStarted(Request request) {
+        if (!isRevalidating(request)) super.onProcessStarted(request);
+    }
+
+    @Override
+    protected void onDownloadingUpdateProgress(Request request, long loadedBytes, long totalBytes) {
+        if (!isRevalidating(request) && !atlasWorker.isAtlasPart(request))
+            super.onDownloadingUpdateProgress(request, loadedBytes, totalBytes);
+    }
+
+    /**
+     * Tries to decode a preview from partially loaded data.
+     */
+    @Override
+    protected void onPartialData(Request request, byte[] data, int length) {
+        if (request == previewed || atlasWorker.isAtlasPart(request) || !shouldPreview(request))
+            return;
+
+        final Bitmap preview = PreviewDecoder.decodePreview(data, length, ImageRequest.of(request).getScale());
+        if (preview != null) onPreview(request, preview);
+    }
+
+    boolean shouldPreview(Request request) {
+        final ImageRequest image = ImageRequest.of(request);
+        return !previewListeners.isEmpty() && !request.isPrefetch() && image.getRegion() == null
+                && image.getTransformations().isEmpty() && !isRevalidating(request);
+    }
+
+    /**
+     * Delivers the largest smaller variant of the image from cache as a preview, if there is one.
+     * Requests without scale could be previewed by any variant.
+     */
+    void previewFromCache(Request request) {
+        final ImageRequest image = ImageRequest.of(request);
+        final Point scale = image.getScale();
+        URI bestKey = null;
+        Point bestScale = null;
+        for (Map.Entry<URI, Point> variant : getVariants(request.getURI()).entrySet()) {
+            if (!getCache().isCached(variant.getKey()) || (scale != null && !scaleLarger(scale, variant.getValue())))
+                continue;
+
+            if (bestKey == null || scaleLarger(variant.getValue(), bestScale)) {
+                bestKey = variant.getKey();
+                bestScale = variant.getValue();
+            }
+        }
+
+        if (bestKey == null)
+            return;
+
+        final BitmapCache bitmapCache = this.bitmapCache;
+        Bitmap preview = bitmapCache == null ? null : bitmapCache.get(bestKey);
+        if (preview == null) {
+            final byte[] raw = getCache().get(bestKey);
+            try { if (raw != null) preview = CacheEncoding.decode(raw, null, null, image.getConfig()); }
+            catch (DataFormatException e) { logDebug("couldn't decode preview " + bestKey + " : " + e); }
+        }
+
+        if (preview != null) onPreview(request, preview);
+    }
+
+    private void onPreview(final Request request, final Bitmap preview) {
+        previewed = request;
+        if (!canPingListeners()) return;
+        logDebug("onPreview: " + request.getURI() + " : " + preview.getWidth() + "x" + preview.getHeight());
+
+        deliver(new Runnable() {
+            @Override
+            public void run() {
+                for (PreviewListener listener : previewListeners)
+                    listener.previewLoaded(request, preview);
+            }
+        });
+    }
+
+    @Override
+    protected void onProcessFailed(Request request, Exception e) {
+        final URI key = findCachedKey(ImageRequest.of(request));
+        if (key != null && isCacheExpired(key))
+            logDebug("revalidation failed, stale image is kept: " + request.getURI() + " : " + e);
+        else super.onProcessFailed(request, e);
+    }
 	
 	private Runnable cacheQueueRunnable = new Runnable() {
 		@Override
 		public void run()  {
 			while (!isCacheQueueEmpty() && canWork()) {
 				final Request request = cacheQueue.next();
-				
-				try {
-					onProcessStarted(request);
-					loadInBackground(request);
-				} catch (Exception e) { onProcessFailed(request, e); }
+				cacheProcessing = request;
+				try { processRequest(request); }
+				finally { cacheProcessing = null; }
 
 				LogUtil.logMemoryUsage();
 			}
 		}
 	};
-	
-}
\ No newline at end of file
+
+    ////////////////////////////////////////////////////////////////////////
+    //
+    //		Pipeline workers access
+    //
+    ////////////////////////////////////////////////////////////////////////
+
+    // workers (FetchWorker, DecodeWorker, RegionWorker, AtlasWorker) are in this package, but
+    // protected methods of DataLoader are not accessible for them
+
+    byte[] loadData(Request request) throws IOException, URISyntaxException {
+        return load(request);
+    }
+
+    void deliverFinished(Request request, byte[] rawData, Bitmap bmp) {
+        onProcessFinished(request, rawData, bmp);
+    }
+
+    void debug(String message) {
+        logDebug(message);
+    }
+
+    void holdPrefetch(long bytes) {
+        holdPrefetchBytes(bytes);
+    }
+
+    void releasePrefetch(long bytes) {
+        releasePrefetchBytes(bytes);
+    }
+
+    void countHit(Source source) {
+        hitCounts[source.ordinal()].incrementAndGet();
+    }
+
+    void endRevalidation(Request request) {
+        revalidating.remove(request.getCacheKey());
+    }
+
+    /**
+     * Checks if some clients wait for the image.
+     */
+    boolean isWaited(URI key) {
+        synchronized (interest) { return interest.containsKey(key); }
+    }
+
+}
@@ -0,0 +1,312 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0loader.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import ru.jango.j0loader.Request;
+import ru.jango.j0loader.param.Param;
+
+/**
+ * {@link ru.jango.j0loader.Request} for {@link ru.jango.j0loader.image.ImageLoader}, that describes
+ * the exact variant of the image to give: <br>
+ * <ul>
+ * <li>desired size of the result and the way the image is scaled into it (fit or cover); different
+ * sizes of the same {@link java.net.URI} are different variants of the image and have different
+ * cache keys ({@link #getCacheKey()})</li>
+ * <li>region of the image and sample size (for tiles of very large images) - every tile is a
+ * variant of the image too</li>
+ * <li>config of decoded image - images in different configs are different variants, but they are
+ * decoded from the same data ({@link #getDataKey()})</li>
+ * <li>transformations of decoded image - transformed images are variants too, they are made from
+ * the image before transformations ({@link #getSourceKey()})</li>
+ * </ul>
+ * Plain {@link ru.jango.j0loader.Request}s are loaded by {@link ru.jango.j0loader.image.ImageLoader}
+ * as the original image.
+ */
+public class ImageRequest extends Request {
+
+    /**
+     * Prefix of the {@link java.net.URI} fragment, that describes a variant in cache keys.
+     */
+    public static final String KEY_FRAGMENT_PREFIX = "j0=";
+
+    private Point scale;
+    private ImageDecoder.ScaleMode scaleMode;
+    private Rect region;
+    private int sampleSize;
+    private Bitmap.Config config;
+    private List<Transformation> transformations;
+
+    public ImageRequest(URI uri) {
+        this(uri, -1, null);
+    }
+
+    public ImageRequest(URI uri, long responseContentLength) {
+        this(uri, responseContentLength, null);
+    }
+
+    public ImageRequest(URI uri, List<Param> params) {
+        this(uri, -1, params);
+    }
+
+    /**
+     * @see ru.jango.j0loader.Request#Request(java.net.URI, long, java.util.List)
+     */
+    public ImageRequest(URI uri, long responseContentLength, List<Param> params) {
+        super(uri, responseContentLength, params);
+        this.transformations = new ArrayList<Transformation>();
+        this.scaleMode = ImageDecoder.ScaleMode.FIT;
+    }
+
+    /**
+     * Returns the request itself, if it is an {@link ru.jango.j0loader.image.ImageRequest}, or
+     * variant params of the original image for a plain {@link ru.jango.j0loader.Request}. The
+     * returned object is used only to read params - loaders pass the request itself to queues
+     * and listeners.
+     */
+    static ImageRequest of(Request request) {
+        return request instanceof ImageRequest ? (ImageRequest) request : new ImageRequest(request.getURI());
+    }
+
+    /**
+     * Sets desired size of the result. Images are scaled to fit into it.
+     *
+     * @param scale desired size, or NULL for the original size
+     */
+    public void setScale(Point scale) {
+        this.scale = scale;
+    }
+
+    public Point getScale() {
+        return scale;
+    }
+
+    /**
+     * Sets the way the image is scaled into {@link #getScale()}: fit into it (by default), or
+     * cover it - e.g. for views, that crop images, so the image is not smaller, than the view.
+     *
+     * @param scaleMode scale mode, or NULL for {@link ru.jango.j0loader.image.ImageDecoder.ScaleMode#FIT}
+     */
+    public void setScaleMode(ImageDecoder.ScaleMode scaleMode) {
+        this.scaleMode = scaleMode == null ? ImageDecoder.ScaleMode.FIT : scaleMode;
+    }
+
+    /**
+     * @see #setScaleMode(ru.jango.j0loader.image.ImageDecoder.ScaleMode)
+     */
+    public ImageDecoder.ScaleMode getScaleMode() {
+        return scaleMode;
+    }
+
+    /**
+     * Makes it a region request - only the specified region of the image will be decoded (with
+     * the specified sample size), not the whole image; scale is ignored then. Used for zoomable
+     * views of images, that are too large to be decoded at once.
+     *
+     * @param region        region in pixels of the original image, or NULL for the whole image
+     * @param sampleSize    sample size (zoom level) - region is decoded into about
+     *                      region / sampleSize size; should be a power of two
+     *
+     * @see ru.jango.j0loader.image.ImageDecoder#getTiles(android.graphics.Point, int, int)
+     */
+    public void setRegion(Rect region, int sampleSize) {
+        if (region != null && (sampleSize < 1 || region.isEmpty()))
+            throw new IllegalArgumentException("Wrong region: " + region.flattenToString() + " @" + sampleSize);
+
+        this.region = region == null ? null : new Rect(region);
+        this.sampleSize = region == null ? 0 : sampleSize;
+    }
+
+    /**
+     * @see #setRegion(android.graphics.Rect, int)
+     */
+    public Rect getRegion() {
+        return region == null ? null : new Rect(region);
+    }
+
+    /**
+     * @see #setRegion(android.graphics.Rect, int)
+     */
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    /**
+     * Sets config of the decoded image. E.g. {@link android.graphics.Bitmap.Config#RGB_565} takes
+     * half of the memory of {@link android.graphics.Bitmap.Config#ARGB_8888}, but has no alpha
+     * channel and fewer colors - it suits opaque photos (in lists especially).
+     *
+     * @param config    bitmap config, or NULL for the default {@link android.graphics.Bitmap.Config#ARGB_8888}
+     */
+    public void setConfig(Bitmap.Config config) {
+        this.config = config;
+    }
+
+    /**
+     * @see #setConfig(android.graphics.Bitmap.Config)
+     */
+    public Bitmap.Config getConfig() {
+        return config;
+    }
+
+    /**
+     * Adds a transformation of the decoded image - transformations are applied in order, they
+     * were added in.
+     *
+     * @see ru.jango.j0loader.image.Transformation
+     */
+    public void addTransformation(Transformation transformation) {
+        if (transformation != null) transformations.add(transformation);
+    }
+
+    /**
+     * Replaces all transformations of the decoded image.
+     *
+     * @param transformations   transformations in order of applying, or NULL for none
+     */
+    public void setTransformations(List<Transformation> transformations) {
+        this.transformations = new ArrayList<Transformation>();
+        if (transformations != null)
+            for (Transformation transformation : transformations)
+                addTransformation(transformation);
+    }
+
+    /**
+     * @see #addTransformation(ru.jango.j0loader.image.Transformation)
+     */
+    public List<Transformation> getTransformations() {
+        return Collections.unmodifiableList(transformations);
+    }
+
+    /**
+     * Returns a key, that identifies the exact variant of the image, this request should give:
+     * for requests without variant params it is just {@link #getURI()}; otherwise the variant is
+     * described in the {@link java.net.URI} fragment (original fragment is dropped), for example
+     * 'http://example.com/img.jpg#j0=96x96', for a covering scale
+     * 'http://example.com/img.jpg#j0=96x96+cover', for a region (tile)
+     * 'http://example.com/img.jpg#j0=0,0-512,512@4', for a config
+     * 'http://example.com/img.jpg#j0=96x96:RGB_565', or for transformations
+     * 'http://example.com/img.jpg#j0=96x96/crop/round(8)'.
+     *
+     * @see #getBaseURI(java.net.URI)
+     */
+    @Override
+    public URI getCacheKey() {
+        return createKey(getVariant());
+    }
+
+    /**
+     * Returns a key of the data, that this request's variant is decoded from - it is
+     * {@link #getCacheKey()} without the config: loaders encode and cache only full quality
+     * (ARGB_8888) images, so the data is common for all configs.
+     */
+    public URI getDataKey() {
+        return createKey(getDataVariant());
+    }
+
+    /**
+     * Returns a key of the data before transformations - it is {@link #getDataKey()} without
+     * transformations.
+     */
+    public URI getSourceKey() {
+        return createKey(getSourceVariant());
+    }
+
+    private URI createKey(String variant) {
+        if (variant == null)
+            return getURI();
+
+        return URI.create(getBaseURI(getURI()).toString() + "#" + KEY_FRAGMENT_PREFIX + variant);
+    }
+
+    /**
+     * Describes variant params of this request for {@link #getCacheKey()}.
+     *
+     * @return  variant description, or NULL if it is the original image
+     */
+    protected String getVariant() {
+        String variant = getSourceVariant();
+        if (config != null && config != Bitmap.Config.ARGB_8888)
+            variant = variant == null ? config.name() : variant + ":" + config.name();
+
+        return appendTransformations(variant);
+    }
+
+    /**
+     * Describes variant params of the data for {@link #getDataKey()} - scale or region and
+     * transformations.
+     *
+     * @return  variant description, or NULL if it is the original image
+     */
+    protected String getDataVariant() {
+        return appendTransformations(getSourceVariant());
+    }
+
+    private String appendTransformations(String variant) {
+        if (transformations.isEmpty())
+            return variant;
+
+        final StringBuilder sb = new StringBuilder(variant == null ? "" : variant);
+        for (Transformation transformation : transformations)
+            sb.append('/').append(Uri.encode(transformation.getKey()));
+
+        return sb.toString();
+    }
+
+    /**
+     * Describes variant params of the data before transformations for {@link #getSourceKey()} -
+     * scale (with scale mode) or region.
+     *
+     * @return  variant description, or NULL if it is the original image
+     */
+    protected String getSourceVariant() {
+        if (region != null)
+            return region.left + "," + region.top + "-" + region.right + "," + region.bottom + "@" + sampleSize;
+
+        if (scale == null)
+            return null;
+
+        if (scaleMode == ImageDecoder.ScaleMode.COVER)
+            return scale.x + "x" + scale.y + "+cover";
+
+        return scale.x + "x" + scale.y;
+    }
+
+    /**
+     * Returns the specified {@link java.net.URI} or cache key without fragment - {@link java.net.URI}
+     * of the data, that is common for all it's variants.
+     */
+    public static URI getBaseURI(URI uri) {
+        if (uri.getRawFragment() == null)
+            return uri;
+
+        final String str = uri.toString();
+        return URI.create(str.substring(0, str.indexOf('#')));
+    }
+}
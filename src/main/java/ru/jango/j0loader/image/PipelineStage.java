@@ -0,0 +1,225 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ru.jango.j0loader.image;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One stage of {@link ru.jango.j0loader.image.ImageLoader} pipeline (fetch - decode - deliver).
+ * Stage runs tasks on it's {@link java.util.concurrent.Executor} and limits number of tasks in
+ * flight (queued and running): when the stage is full, {@link #submit(Runnable)} blocks the
+ * previous stage (backpressure).
+ * <br><br>
+ * Stage counts processed tasks, time spent in stage's queue, running time and time, that
+ * previous stages were blocked by this one.
+ */
+public class PipelineStage {
+
+    private static final ThreadLocal<PipelineStage> CURRENT = new ThreadLocal<PipelineStage>();
+
+    private final String name;
+    private final Executor executor;
+    private final Semaphore slots;
+    private final int capacity;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong processedCount = new AtomicLong();
+    private final AtomicLong waitTime = new AtomicLong();
+    private final AtomicLong runTime = new AtomicLong();
+    private final AtomicLong blockedCount = new AtomicLong();
+    private final AtomicLong blockedTime = new AtomicLong();
+
+    /**
+     * @param name      stage name for logs
+     * @param executor  executor, that runs stage's tasks, or NULL for a stage, that is run by
+     *                  somebody else (only {@link #record(long)} is used then)
+     * @param capacity  max number of tasks in flight
+     */
+    public PipelineStage(String name, Executor executor, int capacity) {
+        this.name = name;
+        this.executor = executor;
+        this.capacity = capacity;
+        slots = new Semaphore(capacity);
+    }
+
+    /**
+     * Creates a stage with it's own pool of daemon threads; idle threads die after a few
+     * seconds.
+     *
+     * @param threads   number of threads
+     * @param capacity  max number of tasks in flight (should be not less, than number of threads)
+     */
+    public static PipelineStage createPool(final String name, int threads, int capacity) {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 5, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger number = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        final Thread thread = new Thread(runnable, "j0loader-" + name + "-" + number.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+
+        return new PipelineStage(name, executor, Math.max(threads, capacity));
+    }
+
+    /**
+     * Returns stage, whose task is running in the current thread, or NULL.
+     */
+    public static PipelineStage current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Puts a task into the stage. If the stage is full, blocks until some task is finished.
+     *
+     * @throws InterruptedException if the calling thread was interrupted while blocked
+     */
+    public void submit(final Runnable task) throws InterruptedException {
+        if (!slots.tryAcquire()) {
+            final long blockedSince = System.currentTimeMillis();
+            slots.acquire();
+            blockedCount.incrementAndGet();
+            blockedTime.addAndGet(System.currentTimeMillis() - blockedSince);
+        }
+
+        inFlight.incrementAndGet();
+        final long submitted = System.currentTimeMillis();
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final long started = System.currentTimeMillis();
+                    waitTime.addAndGet(started - submitted);
+
+                    final PipelineStage previous = CURRENT.get();
+                    CURRENT.set(PipelineStage.this);
+                    try {
+                        task.run();
+                    } finally {
+                        CURRENT.set(previous);
+                        record(System.currentTimeMillis() - started);
+                        inFlight.decrementAndGet();
+                        slots.release();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.decrementAndGet();
+            slots.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Counts a task, that was run outside of the stage's executor.
+     *
+     * @param runTime   task running time in milliseconds
+     */
+    public void record(long runTime) {
+        processedCount.incrementAndGet();
+        this.runTime.addAndGet(runTime);
+    }
+
+    /**
+     * Checks if there are no tasks in flight.
+     */
+    public boolean isIdle() {
+        return inFlight.get() == 0;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns max number of tasks in flight.
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Returns number of queued and running tasks.
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    public long getProcessedCount() {
+        return processedCount.get();
+    }
+
+    /**
+     * Returns total time in milliseconds, that tasks spent in stage's queue.
+     */
+    public long getWaitTime() {
+        return waitTime.get();
+    }
+
+    /**
+     * Returns total running time of tasks in milliseconds.
+     */
+    public long getRunTime() {
+        return runTime.get();
+    }
+
+    /**
+     * Returns number of {@link #submit(Runnable)} calls, that were blocked by full stage.
+     */
+    public long getBlockedCount() {
+        return blockedCount.get();
+    }
+
+    /**
+     * Returns total time in milliseconds, that previous stages were blocked by this one.
+     */
+    public long getBlockedTime() {
+        return blockedTime.get();
+    }
+
+    public void resetStats() {
+        processedCount.set(0);
+        waitTime.set(0);
+        runTime.set(0);
+        blockedCount.set(0);
+        blockedTime.set(0);
+    }
+
+    @Override
+    public String toString() {
+        final long processed = getProcessedCount();
+        return name + ": processed " + processed
+                + ", in flight " + getInFlight() + "/" + getCapacity()
+                + ", avg wait " + (processed == 0 ? 0 : getWaitTime() / processed) + " ms"
+                + ", avg run " + (processed == 0 ? 0 : getRunTime() / processed) + " ms"
+                + ", blocked " + getBlockedCount() + " times for " + getBlockedTime() + " ms";
+    }
+
+}
@@ -0,0 +1,214 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ru.jango.j0loader.image;
+
+import android.graphics.Bitmap;
+import android.graphics.Point;
+
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+
+/**
+ * Decodes low resolution previews from partially loaded JPEG data:
+ * <ul>
+ * <li>embedded EXIF thumbnail - it is stored in the APP1 segment at the beginning of the file,
+ * so it is available right after the first kilobytes are loaded</li>
+ * <li>first scan of a progressive JPEG - it is a blurry version of the whole image, that usually
+ * takes 10-20% of the file</li>
+ * </ul>
+ * Baseline JPEGs without thumbnails and other formats give no preview.
+ */
+public class PreviewDecoder {
+
+    /**
+     * Previews are decoded in (requested size / PREVIEW_RATIO) - they are blurry anyway.
+     */
+    public static final int PREVIEW_RATIO = 4;
+
+    private static final int MARKER_SOF2 = 0xC2;   // start of frame, progressive
+    private static final int MARKER_DHT = 0xC4;
+    private static final int MARKER_SOI = 0xD8;
+    private static final int MARKER_EOI = 0xD9;
+    private static final int MARKER_SOS = 0xDA;
+    private static final int MARKER_APP1 = 0xE1;
+
+    private static final int TAG_THUMBNAIL_OFFSET = 0x0201;
+    private static final int TAG_THUMBNAIL_LENGTH = 0x0202;
+
+    /**
+     * Decodes a preview from partially loaded data: EXIF thumbnail, or the first scan of a
+     * progressive JPEG.
+     *
+     * @param data      loaded data (could be a larger buffer)
+     * @param length    number of loaded bytes in data
+     * @param scale     requested scale of the full image, or NULL
+     * @return          preview, or NULL if there is no preview (yet), or the data is malformed
+     */
+    public static Bitmap decodePreview(byte[] data, int length, Point scale) {
+        try {
+            final byte[] thumbnail = findExifThumbnail(data, length);
+            if (thumbnail != null)
+                return ImageDecoder.decode(thumbnail, scale);
+
+            final int scanEnd = findFirstScanEnd(data, length);
+            if (scanEnd == -1)
+                return null;
+
+            final byte[] scan = Arrays.copyOf(data, scanEnd + 2);
+            scan[scanEnd] = (byte) 0xFF;
+            scan[scanEnd + 1] = (byte) MARKER_EOI;
+
+            final Point target = ImageDecoder.resolveSize(ImageDecoder.decodeBounds(scan), scale);
+            return ImageDecoder.decode(scan, new Point(Math.max(1, target.x / PREVIEW_RATIO),
+                    Math.max(1, target.y / PREVIEW_RATIO)));
+        } catch (DataFormatException e) {
+            return null;
+        } catch (RuntimeException e) {
+            // malformed data should never fail loading of the full image
+            return null;
+        }
+    }
+
+    /**
+     * Returns EXIF thumbnail (JPEG data), or NULL if the data has no thumbnail, or it isn't loaded
+     * completely yet.
+     *
+     * @param data      loaded data (could be a larger buffer)
+     * @param length    number of loaded bytes in data
+     */
+    public static byte[] findExifThumbnail(byte[] data, int length) {
+        if (!isJPEG(data, length))
+            return null;
+
+        // APP1 (if any) goes right after SOI, or after APP0
+        int pos = 2;
+        while (pos + 4 <= length && u8(data, pos) == 0xFF) {
+            final int marker = u8(data, pos + 1);
+            final int segmentLength = u16(data, pos + 2, false);
+            if (marker == MARKER_APP1)
+                return readThumbnail(data, pos + 4, Math.min(length, pos + 2 + segmentLength));
+            if (marker == MARKER_SOS)
+                return null;
+
+            pos += 2 + segmentLength;
+        }
+
+        return null;
+    }
+
+    private static byte[] readThumbnail(byte[] data, int start, int end) {
+        // "Exif\0\0" and TIFF header
+        final int tiff = start + 6;
+        if (tiff + 8 > end || data[start] != 'E' || data[start + 1] != 'x' || data[start + 2] != 'i' || data[start + 3] != 'f')
+            return null;
+
+        final boolean littleEndian = data[tiff] == 'I';
+        final int ifd0 = tiff + u32(data, tiff + 4, littleEndian);
+        if (ifd0 < tiff || ifd0 + 2 > end)
+            return null;
+
+        final int ifd1Offset = ifd0 + 2 + u16(data, ifd0, littleEndian) * 12;
+        if (ifd1Offset + 4 > end || u32(data, ifd1Offset, littleEndian) == 0)
+            return null;
+
+        final int ifd1 = tiff + u32(data, ifd1Offset, littleEndian);
+        if (ifd1 < tiff || ifd1 + 2 > end)
+            return null;
+
+        int offset = -1, thumbnailLength = -1;
+        final int count = u16(data, ifd1, littleEndian);
+        for (int i=0; i<count; i++) {
+            final int entry = ifd1 + 2 + i * 12;
+            if (entry + 12 > end)
+                return null;
+
+            final int tag = u16(data, entry, littleEndian);
+            if (tag == TAG_THUMBNAIL_OFFSET) offset = u32(data, entry + 8, littleEndian);
+            else if (tag == TAG_THUMBNAIL_LENGTH) thumbnailLength = u32(data, entry + 8, littleEndian);
+        }
+
+        // subtraction, as offset + length of malformed EXIF could overflow
+        if (offset <= 0 || thumbnailLength <= 0 || offset > end - tiff - thumbnailLength)
+            return null;
+
+        final byte[] thumbnail = Arrays.copyOfRange(data, tiff + offset, tiff + offset + thumbnailLength);
+        return isJPEG(thumbnail, thumbnail.length) ? thumbnail : null;
+    }
+
+    /**
+     * Returns position, where the first scan of a progressive JPEG ends (position of the next
+     * marker), or -1 if the data is not a progressive JPEG, or the first scan isn't loaded
+     * completely yet.
+     *
+     * @param data      loaded data (could be a larger buffer)
+     * @param length    number of loaded bytes in data
+     */
+    public static int findFirstScanEnd(byte[] data, int length) {
+        if (!isJPEG(data, length))
+            return -1;
+
+        boolean progressive = false;
+        int pos = 2;
+        while (pos + 4 <= length && u8(data, pos) == 0xFF) {
+            final int marker = u8(data, pos + 1);
+            final int segmentLength = u16(data, pos + 2, false);
+            if (marker == MARKER_SOF2)
+                progressive = true;
+            if (marker == MARKER_SOS)
+                return progressive ? findScanEnd(data, pos + 2 + segmentLength, length) : -1;
+
+            pos += 2 + segmentLength;
+        }
+
+        return -1;
+    }
+
+    private static int findScanEnd(byte[] data, int start, int length) {
+        // entropy coded data ends with a marker; 0xFF00 is stuffing, 0xFFD0-0xFFD7 are restarts
+        for (int pos=start; pos+1<length; pos++) {
+            if (u8(data, pos) != 0xFF)
+                continue;
+
+            final int next = u8(data, pos + 1);
+            if (next == MARKER_SOS || next == MARKER_DHT || next == MARKER_EOI)
+                return pos;
+        }
+
+        return -1;
+    }
+
+    private static boolean isJPEG(byte[] data, int length) {
+        return length >= 4 && u8(data, 0) == 0xFF && u8(data, 1) == MARKER_SOI;
+    }
+
+    private static int u8(byte[] data, int pos) {
+        return data[pos] & 0xFF;
+    }
+
+    private static int u16(byte[] data, int pos, boolean littleEndian) {
+        return littleEndian ? u8(data, pos) | (u8(data, pos + 1) << 8)
+                : (u8(data, pos) << 8) | u8(data, pos + 1);
+    }
+
+    private static int u32(byte[] data, int pos, boolean littleEndian) {
+        return littleEndian ? u16(data, pos, true) | (u16(data, pos + 2, true) << 16)
+                : (u16(data, pos, false) << 16) | u16(data, pos + 2, false);
+    }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0loader.image;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.zip.DataFormatException;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapRegionDecoder;
+
+import ru.jango.j0loader.Request;
+import ru.jango.j0loader.image.ImageLoader.Source;
+import ru.jango.j0loader.image.cache.BitmapCache;
+import ru.jango.j0loader.image.cache.RegionSourceCache;
+import ru.jango.j0util.LogUtil;
+
+/**
+ * Fetch and decode stages of tiles
+ * ({@link ru.jango.j0loader.image.ImageRequest#setRegion(android.graphics.Rect, int)}) of
+ * {@link ru.jango.j0loader.image.ImageLoader}: the source image is decoded by a
+ * {@link android.graphics.BitmapRegionDecoder}, that is shared by all it's tiles, and only the
+ * requested region is decoded.
+ */
+class RegionWorker {
+
+    private final ImageLoader loader;
+    private final DecodeWorker decodeWorker;
+
+    RegionWorker(ImageLoader loader, DecodeWorker decodeWorker) {
+        this.loader = loader;
+        this.decodeWorker = decodeWorker;
+    }
+
+    /**
+     * Fetch stage of region requests: takes decoder of the source image from
+     * {@link ImageLoader#getRegionSourceCache()}; if the source is not kept there, takes it from
+     * cache or snapshot, or loads it (it is cached as is, if
+     * {@link ImageLoader#getRegionSourceCache()} has no directory) and opens a decoder, that is
+     * shared by all tiles of the source. Then passes the tile into decode stage. Stale source is
+     * reloaded and the tile is decoded again.
+     */
+    void processRegion(final Request request) throws IOException, URISyntaxException,
+            InterruptedException, DataFormatException {
+        final boolean revalidation = loader.isRevalidating(request);
+        try {
+            doProcessRegion(request, revalidation);
+        } finally {
+            if (revalidation) loader.endRevalidation(request);
+        }
+    }
+
+    private void doProcessRegion(final Request request, boolean revalidation)
+            throws IOException, URISyntaxException, InterruptedException, DataFormatException {
+        final URI uri = request.getURI();
+        final RegionSourceCache regionSources = loader.getRegionSourceCache();
+        BitmapRegionDecoder decoder = revalidation ? null : regionSources.get(uri);
+        byte[] data = decoder == null || !loader.getCache().isCached(uri) ? null : loader.getCache().get(uri);
+        Source source = Source.MEMORY;
+        if (decoder == null) {
+            data = revalidation ? null : loader.getCache().get(uri);
+            if (data == null && !revalidation) {
+                data = loader.restoreFromSnapshot(uri);
+                source = Source.DISK;
+            }
+
+            long expiration = loader.getCacheExpiration(uri);
+            if (data == null) {
+                LogUtil.i(ImageLoader.class, "loading tile source from uri: " + uri);
+                final long started = System.currentTimeMillis();
+                data = loader.loadData(request);
+                loader.getFetchStage().record(System.currentTimeMillis() - started);
+
+                // stopped or cancelled - loaded data could be incomplete
+                if (!loader.canPingListeners()) return;
+
+                expiration = loader.resolveExpiration(request);
+                if (regionSources.getDir() == null && loader.getCache().put(uri, data))
+                    loader.setCacheExpiration(uri, expiration);
+                loader.recordLoadTime(System.currentTimeMillis() - started);
+                source = loader.getSource(request);
+
+                final BitmapCache bitmapCache = loader.getBitmapCache();
+                if (revalidation && bitmapCache != null) bitmapCache.remove(request.getCacheKey());
+            }
+
+            decoder = regionSources.put(uri, data, expiration);
+            loader.debug("opened tile source " + uri);
+        }
+
+        if (request.isPrefetch())
+            return;
+
+        final BitmapRegionDecoder tileDecoder = decoder;
+        final byte[] tileData = data;
+        final Source tileSource = source;
+        loader.getDecodeStage().submit(new Runnable() {
+            @Override
+            public void run() {
+                try { decodeRegion(request, tileDecoder, tileData, tileSource); }
+                catch (Exception e) { decodeWorker.onDecodeFailed(request, e); }
+            }
+        });
+    }
+
+    /**
+     * Decode stage of region requests: decodes the tile by the shared decoder (if it wasn't
+     * decoded meanwhile), keeps it in bitmap cache and delivers it.
+     *
+     * @param data  source data, or NULL if it is not in memory cache
+     */
+    private void decodeRegion(Request request, BitmapRegionDecoder decoder, byte[] data, Source source)
+            throws DataFormatException {
+        if (!loader.canWork()) return;
+        final ImageRequest image = ImageRequest.of(request);
+
+        final BitmapCache bitmapCache = loader.getBitmapCache();
+        Bitmap bmp = bitmapCache == null ? null : bitmapCache.get(request.getCacheKey());
+        if (bmp == null) {
+            bmp = ImageDecoder.decodeRegion(decoder, image.getRegion(), image.getSampleSize(),
+                    loader.getBitmapPool(), image.getConfig());
+            decodeWorker.countDecode();
+            bmp = decodeWorker.transform(image, bmp);
+            loader.putCachedBitmap(request, bmp);
+            loader.debug("decoded tile " + request.getCacheKey());
+        }
+
+        loader.countHit(source);
+        loader.deliverFinished(request, data, bmp);
+    }
+}
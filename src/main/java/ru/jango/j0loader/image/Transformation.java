@@ -0,0 +1,48 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0loader.image;
+
+import android.graphics.Bitmap;
+
+/**
+ * Transformation of decoded images - crop, round corners, blur, etc. Transformations are set by
+ * {@link ru.jango.j0loader.image.ImageRequest#addTransformation(Transformation)} and applied by
+ * {@link ru.jango.j0loader.image.ImageLoader} in decode stage (not in main thread) right after
+ * decoding, in order. Transformed images are cached under a key, that includes keys of all
+ * transformations, so they are not transformed again.
+ */
+public interface Transformation {
+
+    /**
+     * Transforms the image. Is called from decode stage threads, so it should be thread safe.
+     *
+     * @param source    decoded image; if another image is returned, the source is released by
+     *                  the loader, so it shouldn't be recycled here
+     * @return          transformed image, or the source itself, if it was changed in place
+     */
+    public Bitmap transform(Bitmap source);
+
+    /**
+     * Returns a key, that identifies the transformation with it's params (e.g. 'round(8)') -
+     * it becomes a part of cache keys, so different transformations should have different keys.
+     */
+    public String getKey();
+
+}
@@ -0,0 +1,184 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ru.jango.j0loader.image.cache;
+
+import android.graphics.Bitmap;
+import android.support.v4.util.LruCache;
+
+import java.net.URI;
+import java.util.Map;
+
+import ru.jango.j0loader.image.ImageDecoder;
+
+/**
+ * Memory cache of already decoded images, that stands in front of the encoded
+ * {@link ru.jango.j0loader.image.cache.Cache}: hits are returned without any decoding work.
+ * Images are kept by {@link ru.jango.j0loader.image.ImageRequest#getCacheKey()} (so by URI and
+ * size), least recently used are evicted first. Size is counted in bitmap bytes
+ * ({@link ru.jango.j0loader.image.ImageDecoder#getByteCount(android.graphics.Bitmap)}).
+ * <br><br>
+ * Cached images are shared between clients, so they should not be recycled or modified by
+ * clients; recycled images are silently dropped from cache.
+ */
+public class BitmapCache implements Trimmable {
+
+    /** Default max size - 1/8 of the max heap size */
+    public static final long DEFAULT_MAX_SIZE = Runtime.getRuntime().maxMemory() / 8;
+
+    private LruCache<URI, Bitmap> cache;
+    private StatsCounter statsCounter;
+    private volatile BitmapPool pool;
+    private boolean clearing;
+
+    public BitmapCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public BitmapCache(long maxSize) {
+        statsCounter = new StatsCounter();
+        cache = new LruCache<URI, Bitmap>((int) Math.min(maxSize, Integer.MAX_VALUE)) {
+            protected int sizeOf(URI key, Bitmap value) {
+                return (int) Math.min(ImageDecoder.getByteCount(value), Integer.MAX_VALUE);
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, URI key, Bitmap oldValue, Bitmap newValue) {
+                if (!evicted || clearing)
+                    return;
+
+                statsCounter.recordEviction();
+                final BitmapPool pool = BitmapCache.this.pool;
+                if (pool != null) pool.put(oldValue);
+            }
+        };
+    }
+
+    /**
+     * Puts an image into cache. Images, that are larger than max size, are not cached.
+     *
+     * @return  true if the image was cached
+     */
+    public synchronized boolean put(URI key, Bitmap bmp) {
+        final boolean added = !bmp.isRecycled() && ImageDecoder.getByteCount(bmp) <= cache.maxSize();
+        if (added) cache.put(key, bmp);
+        statsCounter.recordPut(added);
+
+        return added;
+    }
+
+    /**
+     * Returns cached image, or NULL.
+     */
+    public synchronized Bitmap get(URI key) {
+        Bitmap bmp = cache.get(key);
+        if (bmp != null && bmp.isRecycled()) {
+            cache.remove(key);
+            bmp = null;
+        }
+
+        statsCounter.recordGet(bmp != null);
+        return bmp;
+    }
+
+    public synchronized Bitmap remove(URI key) {
+        return cache.remove(key);
+    }
+
+    /**
+     * Removes the image from cache, under whatever keys it is cached.
+     *
+     * @return  true if the image was cached
+     */
+    public synchronized boolean remove(Bitmap bmp) {
+        boolean removed = false;
+        for (Map.Entry<URI, Bitmap> entry : cache.snapshot().entrySet())
+            if (entry.getValue() == bmp) {
+                cache.remove(entry.getKey());
+                removed = true;
+            }
+
+        return removed;
+    }
+
+    public synchronized boolean contains(URI key) {
+        return cache.get(key) != null;
+    }
+
+    /**
+     * Returns number of cached images.
+     */
+    public synchronized int count() {
+        return cache.snapshot().size();
+    }
+
+    @Override
+    public synchronized long size() {
+        return cache.size();
+    }
+
+    @Override
+    public long getMaxCacheSize() {
+        return cache.maxSize();
+    }
+
+    @Override
+    public synchronized void trimToSize(long maxSize) {
+        cache.trimToSize((int) Math.max(0, Math.min(maxSize, Integer.MAX_VALUE)));
+    }
+
+    /**
+     * Removes all images. Images are not recycled - they still could be used by clients.
+     */
+    public synchronized void clear() {
+        clearing = true;
+        cache.evictAll();
+        clearing = false;
+    }
+
+    /**
+     * Returns pool, that evicted images are put into, or NULL.
+     */
+    public BitmapPool getPool() {
+        return pool;
+    }
+
+    /**
+     * Sets pool, that evicted images are put into, so their memory is reused by next decodes. Set
+     * it only if clients don't use images after they were evicted (for example, clients display
+     * only a few images, that are always cached) - otherwise displayed images would be
+     * overwritten.
+     *
+     * @param pool  bitmap pool, or NULL to leave evicted images to garbage collector
+     */
+    public void setPool(BitmapPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * Returns snapshot of hit, miss, put and eviction counters.
+     */
+    public CacheStats getStats() {
+        return statsCounter.snapshot();
+    }
+
+    public void resetStats() {
+        statsCounter.reset();
+    }
+
+}
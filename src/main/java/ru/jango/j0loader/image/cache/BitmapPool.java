@@ -0,0 +1,252 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ru.jango.j0loader.image.cache;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ru.jango.j0loader.image.ImageDecoder;
+
+/**
+ * Pool of bitmaps, that are not used anymore, for reusing their memory in next decodes
+ * ({@link android.graphics.BitmapFactory.Options#inBitmap}). Bitmaps are grouped by size and
+ * config; oldest bitmaps are dropped (recycled), when the pool exceeds it's max size.
+ * <br><br>
+ * Reusing is supported since API 11, and before API 19 only a bitmap of exactly the same size
+ * could be reused; since API 19 any bitmap, that is large enough, is reconfigured to the required
+ * size. On older devices pool doesn't keep anything.
+ * <br><br>
+ * Only bitmaps, that are not used anywhere else, could be put into the pool - their pixels are
+ * overwritten by the next decode.
+ */
+public class BitmapPool implements Trimmable {
+
+    /** Default max size - 1/16 of the max heap size */
+    public static final long DEFAULT_MAX_SIZE = Runtime.getRuntime().maxMemory() / 16;
+
+    private final Map<String, LinkedList<Bitmap>> groups;
+    private final LinkedList<Bitmap> order;     // oldest first
+    private final AtomicLong reuseCount;
+    private final AtomicLong allocationCount;
+    private long maxSize;
+    private long size;
+
+    public BitmapPool() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    public BitmapPool(long maxSize) {
+        this.maxSize = maxSize;
+        groups = new HashMap<String, LinkedList<Bitmap>>();
+        order = new LinkedList<Bitmap>();
+        reuseCount = new AtomicLong();
+        allocationCount = new AtomicLong();
+    }
+
+    /**
+     * Checks if bitmaps could be reused on this device.
+     */
+    public static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB;
+    }
+
+    /**
+     * Puts a bitmap into the pool. Immutable, recycled and too large bitmaps are not kept - they
+     * are recycled immediately.
+     *
+     * @return  true if the bitmap was pooled
+     */
+    public synchronized boolean put(Bitmap bmp) {
+        if (bmp == null || bmp.isRecycled())
+            return false;
+
+        final long bytes = getSize(bmp);
+        if (!isSupported() || !bmp.isMutable() || bmp.getConfig() == null || bytes > maxSize) {
+            bmp.recycle();
+            return false;
+        }
+
+        getGroup(getKey(bmp.getWidth(), bmp.getHeight(), bmp.getConfig()), true).addLast(bmp);
+        order.addLast(bmp);
+        size += bytes;
+        evict(maxSize);
+
+        return true;
+    }
+
+    /**
+     * Takes a bitmap, that could be reused for an image of the specified size and config. Every
+     * call is counted either as reuse, or as allocation (if nothing suitable was found).
+     *
+     * @return  mutable bitmap of the specified size and config, or NULL
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        Bitmap bmp = null;
+        final LinkedList<Bitmap> group = getGroup(getKey(width, height, config), false);
+        if (group != null) {
+            bmp = group.removeLast();
+            if (group.isEmpty()) groups.remove(getKey(width, height, config));
+            order.remove(bmp);
+            size -= getSize(bmp);
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+            bmp = takeReconfigurable(width, height, config);
+
+        if (bmp == null) allocationCount.incrementAndGet();
+        else reuseCount.incrementAndGet();
+
+        return bmp;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private Bitmap takeReconfigurable(int width, int height, Bitmap.Config config) {
+        final long required = (long) width * height * getBytesPerPixel(config);
+        final Iterator<Bitmap> iterator = order.descendingIterator();
+        while (iterator.hasNext()) {
+            final Bitmap bmp = iterator.next();
+            if (bmp.getAllocationByteCount() < required)
+                continue;
+
+            iterator.remove();
+            removeFromGroup(bmp);
+            size -= getSize(bmp);
+            bmp.reconfigure(width, height, config);
+            return bmp;
+        }
+
+        return null;
+    }
+
+    /**
+     * Counts a bitmap, that was allocated without asking the pool (nothing could be reused).
+     */
+    public void recordAllocation() {
+        allocationCount.incrementAndGet();
+    }
+
+    /**
+     * Returns number of {@link #get(int, int, android.graphics.Bitmap.Config)} calls, that
+     * returned a pooled bitmap.
+     */
+    public long getReuseCount() {
+        return reuseCount.get();
+    }
+
+    /**
+     * Returns number of allocated bitmaps: {@link #get(int, int, android.graphics.Bitmap.Config)}
+     * calls, that found nothing, and {@link #recordAllocation()} calls.
+     */
+    public long getAllocationCount() {
+        return allocationCount.get();
+    }
+
+    public void resetStats() {
+        reuseCount.set(0);
+        allocationCount.set(0);
+    }
+
+    /**
+     * Returns number of pooled bitmaps.
+     */
+    public synchronized int count() {
+        return order.size();
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized long getMaxCacheSize() {
+        return maxSize;
+    }
+
+    public synchronized void setMaxCacheSize(long maxSize) {
+        this.maxSize = maxSize;
+        evict(maxSize);
+    }
+
+    @Override
+    public synchronized void trimToSize(long maxSize) {
+        evict(maxSize);
+    }
+
+    /**
+     * Recycles all pooled bitmaps.
+     */
+    public synchronized void clear() {
+        evict(0);
+    }
+
+    private void evict(long maxSize) {
+        while (size > maxSize && !order.isEmpty()) {
+            final Bitmap bmp = order.removeFirst();
+            removeFromGroup(bmp);
+            size -= getSize(bmp);
+            bmp.recycle();
+        }
+    }
+
+    private void removeFromGroup(Bitmap bmp) {
+        final String key = getKey(bmp.getWidth(), bmp.getHeight(), bmp.getConfig());
+        final LinkedList<Bitmap> group = getGroup(key, false);
+        if (group == null)
+            return;
+
+        group.remove(bmp);
+        if (group.isEmpty()) groups.remove(key);
+    }
+
+    private LinkedList<Bitmap> getGroup(String key, boolean create) {
+        LinkedList<Bitmap> group = groups.get(key);
+        if (group == null && create)
+            groups.put(key, group = new LinkedList<Bitmap>());
+
+        return group;
+    }
+
+    private String getKey(int width, int height, Bitmap.Config config) {
+        return width + "x" + height + ":" + config;
+    }
+
+    @TargetApi(Build.VERSION_CODES.KITKAT)
+    private long getSize(Bitmap bmp) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT)
+            return bmp.getAllocationByteCount();
+
+        return ImageDecoder.getByteCount(bmp);
+    }
+
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8: return 1;
+            case RGB_565:
+            case ARGB_4444: return 2;
+            default: return 4;
+        }
+    }
+
+}
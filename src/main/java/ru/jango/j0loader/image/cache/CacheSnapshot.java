@@ -0,0 +1,296 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ru.jango.j0loader.image.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Read-only binary snapshot of cache contents, saved into a file. Snapshot is opened by memory
+ * mapping, so opening doesn't depend on the number of entries - nothing is parsed in advance;
+ * entries are found by binary search over a sorted hash index and read only on demand.
+ * <br><br>
+ * Usage example:
+ * <pre>
+ * // on shutdown or periodically
+ * CacheSnapshot.write((DefaultCache) imageLoader.getCache(), file, 2000000);
+ *
+ * // on next launch
+ * imageLoader.setSnapshot(CacheSnapshot.open(file));
+ * </pre>
+ * Only the hot set is saved: most recently used entries, that fit into the specified size.
+ * Scales are not saved - use {@link ru.jango.j0loader.image.cache.ScaleRegistry#save(java.io.File)}.
+ * <br><br>
+ * File format (big-endian):
+ * <ul>
+ * <li>header: magic, version, entries count (3 ints)</li>
+ * <li>index: entries count of (key hash, record offset) pairs (2 longs), sorted by hash</li>
+ * <li>records: key length (int), key in UTF-8, expiration time (long), data length (int), data</li>
+ * </ul>
+ */
+public class CacheSnapshot {
+
+    private static final int FORMAT_MAGIC = 0x6A30534E; // "j0SN"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int INDEX_ENTRY_SIZE = 16;
+
+    private final ByteBuffer buffer;
+    private final int count;
+
+    private CacheSnapshot(ByteBuffer buffer) throws IOException {
+        if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != FORMAT_MAGIC || buffer.getInt(4) != FORMAT_VERSION)
+            throw new IOException("Unknown snapshot format");
+
+        this.buffer = buffer;
+        this.count = buffer.getInt(8);
+        if (count < 0 || HEADER_SIZE + (long) count * INDEX_ENTRY_SIZE > buffer.limit())
+            throw new IOException("Broken snapshot index");
+    }
+
+    /**
+     * Memory-maps a snapshot file. Only the header is checked - index and records are read
+     * lazily.
+     *
+     * @throws IOException  if the file couldn't be read or has wrong format
+     */
+    public static CacheSnapshot open(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            return new CacheSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally { raf.close(); }
+    }
+
+    /**
+     * Returns number of entries in the snapshot.
+     */
+    public int count() {
+        return count;
+    }
+
+    public boolean contains(URI key) {
+        return findRecord(key) >= 0;
+    }
+
+    /**
+     * Reads data of the specified entry.
+     *
+     * @return  entry data, or NULL if there is no such entry
+     */
+    public byte[] get(URI key) {
+        final int record = findRecord(key);
+        if (record < 0)
+            return null;
+
+        final ByteBuffer view = buffer.duplicate();
+        view.position(record + 4 + view.getInt(record) + 8);
+
+        final byte[] data = new byte[view.getInt()];
+        view.get(data);
+        return data;
+    }
+
+    /**
+     * Returns time (in milliseconds since epoch), when the entry becomes stale; 0 if it never
+     * expires, or there is no such entry.
+     */
+    public long getExpiration(URI key) {
+        final int record = findRecord(key);
+        if (record < 0)
+            return 0;
+
+        return buffer.getLong(record + 4 + buffer.getInt(record));
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //
+    //		Writing
+    //
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Saves most recently used entries of the cache into a file ({@link DefaultCache#snapshot(long)}),
+     * so only saved entries are read. File is written atomically - data is written into a
+     * temporary file, that replaces the specified one at the end; on failure it is deleted.
+     *
+     * @param cache     cache to save
+     * @param file      destination file
+     * @param maxSize   max total size of saved entries' data in bytes
+     * @return          number of saved entries
+     */
+    public static int write(DefaultCache cache, File file, long maxSize) throws IOException {
+        final List<Record> records = new ArrayList<Record>();
+        for (Map.Entry<URI, byte[]> entry : cache.snapshot(maxSize).entrySet())
+            records.add(new Record(entry.getKey(), entry.getValue(), cache.getExpiration(entry.getKey())));
+        Collections.reverse(records);
+
+        final File tmp = new File(file.getPath() + ".tmp");
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try { write(records, out); }
+            finally { out.close(); }
+
+            if (!tmp.renameTo(file)) {
+                if (!file.delete() || !tmp.renameTo(file))
+                    throw new IOException("Couldn't replace " + file);
+            }
+        } finally {
+            // after successful replacing there is no temporary file already
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+        }
+
+        return records.size();
+    }
+
+    private static void write(List<Record> records, DataOutputStream out) throws IOException {
+        long offset = HEADER_SIZE + (long) records.size() * INDEX_ENTRY_SIZE;
+        for (Record record : records) {
+            record.offset = offset;
+            offset += 4 + record.key.length + 8 + 4 + record.data.length;
+        }
+        if (offset > Integer.MAX_VALUE)
+            throw new IOException("Snapshot is too large");
+
+        final List<Record> index = new ArrayList<Record>(records);
+        Collections.sort(index, new Comparator<Record>() {
+            @Override
+            public int compare(Record r1, Record r2) {
+                return r1.hash < r2.hash ? -1 : (r1.hash == r2.hash ? 0 : 1);
+            }
+        });
+
+        out.writeInt(FORMAT_MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(records.size());
+        for (Record record : index) {
+            out.writeLong(record.hash);
+            out.writeLong(record.offset);
+        }
+
+        for (Record record : records) {
+            out.writeInt(record.key.length);
+            out.write(record.key);
+            out.writeLong(record.expiresAt);
+            out.writeInt(record.data.length);
+            out.write(record.data);
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //
+    //		Index
+    //
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Finds a record by binary search over the index. Entries with equal hashes are checked
+     * by comparing the keys themselves.
+     *
+     * @return  record offset, or -1
+     */
+    private int findRecord(URI key) {
+        final long hash = hash(key);
+        int low = 0, high = count - 1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final long midHash = indexHash(mid);
+
+            if (midHash < hash) low = mid + 1;
+            else if (midHash > hash) high = mid - 1;
+            else {
+                final byte[] keyBytes = encode(key);
+                for (int i=mid; i>=0 && indexHash(i) == hash; i--)
+                    if (keyEquals(indexOffset(i), keyBytes)) return indexOffset(i);
+                for (int i=mid+1; i<count && indexHash(i) == hash; i++)
+                    if (keyEquals(indexOffset(i), keyBytes)) return indexOffset(i);
+
+                return -1;
+            }
+        }
+
+        return -1;
+    }
+
+    private long indexHash(int i) {
+        return buffer.getLong(HEADER_SIZE + i * INDEX_ENTRY_SIZE);
+    }
+
+    private int indexOffset(int i) {
+        return (int) buffer.getLong(HEADER_SIZE + i * INDEX_ENTRY_SIZE + 8);
+    }
+
+    private boolean keyEquals(int record, byte[] keyBytes) {
+        if (buffer.getInt(record) != keyBytes.length)
+            return false;
+
+        for (int i=0; i<keyBytes.length; i++)
+            if (buffer.get(record + 4 + i) != keyBytes[i])
+                return false;
+
+        return true;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of the key.
+     */
+    private static long hash(URI key) {
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : encode(key)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+
+        return hash;
+    }
+
+    private static byte[] encode(URI key) {
+        try { return key.toString().getBytes("UTF-8"); }
+        catch (java.io.UnsupportedEncodingException e) { throw new IllegalStateException(e); }
+    }
+
+    private static class Record {
+        private final byte[] key;
+        private final byte[] data;
+        private final long expiresAt;
+        private final long hash;
+        private long offset;
+
+        private Record(URI key, byte[] data, long expiresAt) {
+            this.key = encode(key);
+            this.data = data;
+            this.expiresAt = expiresAt;
+            this.hash = CacheSnapshot.hash(key);
+        }
+    }
+
+}
@@ -0,0 +1,128 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0loader.image.cache;
+
+/**
+ * Immutable snapshot of {@link ru.jango.j0loader.image.cache.Cache} statistics. Could be
+ * retrieved by {@link StatsCache#getStats()}.
+ * <ul>
+ * <li>hit - requested data was found in cache</li>
+ * <li>miss - requested data wasn't found in cache and should be loaded</li>
+ * <li>put - data was added into cache</li>
+ * <li>rejected put - cache refused to add data (cache is full, entry is too large, admission
+ * policy rejected it, etc.)</li>
+ * <li>eviction - an entry was removed from cache automatically to free some space (not by
+ * {@link Cache#remove(java.net.URI)} or {@link Cache#clear()})</li>
+ * <li>load - a miss was loaded (from {@link java.net.URI}) by a loader; load time is measured
+ * by the loader and reported by {@link StatsCache#recordLoadTime(long)}</li>
+ * </ul>
+ */
+public class CacheStats {
+
+    private final long hitCount;
+    private final long missCount;
+    private final long putCount;
+    private final long rejectedPutCount;
+    private final long evictionCount;
+    private final long loadCount;
+    private final long totalLoadTime;
+
+    public CacheStats(long hitCount, long missCount, long putCount, long rejectedPutCount,
+                      long evictionCount, long loadCount, long totalLoadTime) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.putCount = putCount;
+        this.rejectedPutCount = rejectedPutCount;
+        this.evictionCount = evictionCount;
+        this.loadCount = loadCount;
+        this.totalLoadTime = totalLoadTime;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns number of lookups - sum of hits and misses.
+     */
+    public long getRequestCount() {
+        return hitCount + missCount;
+    }
+
+    /**
+     * Returns ratio of hits to all lookups, or 1.0 if there were no lookups.
+     */
+    public double getHitRate() {
+        final long requestCount = getRequestCount();
+        return requestCount == 0 ? 1.0 : (double) hitCount / requestCount;
+    }
+
+    /**
+     * Returns ratio of misses to all lookups, or 0.0 if there were no lookups.
+     */
+    public double getMissRate() {
+        final long requestCount = getRequestCount();
+        return requestCount == 0 ? 0.0 : (double) missCount / requestCount;
+    }
+
+    public long getPutCount() {
+        return putCount;
+    }
+
+    public long getRejectedPutCount() {
+        return rejectedPutCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public long getLoadCount() {
+        return loadCount;
+    }
+
+    /**
+     * Returns total time in milliseconds, spent on loading misses.
+     */
+    public long getTotalLoadTime() {
+        return totalLoadTime;
+    }
+
+    /**
+     * Returns average time in milliseconds, spent on loading one miss, or 0.
+     */
+    public double getAverageLoadPenalty() {
+        return loadCount == 0 ? 0.0 : (double) totalLoadTime / loadCount;
+    }
+
+    @Override
+    public String toString() {
+        return "hits: " + hitCount + "; misses: " + missCount
+                + "; hit rate: " + getHitRate()
+                + "; puts: " + putCount + "; rejected puts: " + rejectedPutCount
+                + "; evictions: " + evictionCount
+                + "; average load penalty: " + getAverageLoadPenalty() + "ms";
+    }
+
+}
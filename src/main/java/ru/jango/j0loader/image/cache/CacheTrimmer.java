@@ -0,0 +1,85 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ru.jango.j0loader.image.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import ru.jango.j0util.LogUtil;
+
+/**
+ * Trims registered caches on memory pressure. Each cache is trimmed to a fraction of it's max
+ * size, according to {@link ru.jango.j0loader.image.cache.MemoryPressure#getRetainedFraction()};
+ * max sizes are not changed, so caches grow back after pressure is gone.
+ * <br><br>
+ * Usage example:
+ * <pre>
+ * final CacheTrimmer trimmer = new CacheTrimmer();
+ * trimmer.addTrimmable(imageLoader.getCache());
+ * new ComponentCallbacksPressureSource(context).addListener(trimmer);
+ * </pre>
+ */
+public class CacheTrimmer implements MemoryPressureSource.Listener {
+
+    private final List<Trimmable> trimmables;
+    private boolean debug;
+
+    public CacheTrimmer() {
+        trimmables = new CopyOnWriteArrayList<Trimmable>();
+    }
+
+    public void addTrimmable(Trimmable trimmable) {
+        if (!trimmables.contains(trimmable))
+            trimmables.add(trimmable);
+    }
+
+    public void removeTrimmable(Trimmable trimmable) {
+        trimmables.remove(trimmable);
+    }
+
+    public boolean isDebug() {
+        return debug;
+    }
+
+    public void setDebug(boolean debug) {
+        this.debug = debug;
+    }
+
+    @Override
+    public void onMemoryPressure(MemoryPressure level) {
+        for (Trimmable trimmable : trimmables)
+            trim(trimmable, level);
+    }
+
+    /**
+     * Trims the specified storage according to pressure level. Does nothing, if it already
+     * fits the target size.
+     */
+    protected void trim(Trimmable trimmable, MemoryPressure level) {
+        final long targetSize = (long) (trimmable.getMaxCacheSize() * level.getRetainedFraction());
+        final long size = trimmable.size();
+        if (size <= targetSize)
+            return;
+
+        trimmable.trimToSize(targetSize);
+        if (debug) LogUtil.d(CacheTrimmer.class, "memory pressure " + level + ": trimmed "
+                + trimmable.getClass().getSimpleName() + " from " + size + " to " + trimmable.size() + " bytes");
+    }
+
+}
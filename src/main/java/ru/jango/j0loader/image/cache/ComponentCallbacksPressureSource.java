@@ -0,0 +1,107 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ru.jango.j0loader.image.cache;
+
+import android.annotation.TargetApi;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.os.Build;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link ru.jango.j0loader.image.cache.MemoryPressureSource}, that translates system
+ * {@link android.content.ComponentCallbacks2#onTrimMemory(int)} and
+ * {@link android.content.ComponentCallbacks2#onLowMemory()} callbacks into pressure levels.
+ * <br><br>
+ * <b>NOTE:</b> requires Android 4.0 (API 14) or higher; on older versions use
+ * {@link ru.jango.j0loader.image.cache.HeapPressureSource}.
+ */
+@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+public class ComponentCallbacksPressureSource implements MemoryPressureSource, ComponentCallbacks2 {
+
+    private final Context context;
+    private final List<Listener> listeners;
+
+    /**
+     * Creates a source and registers it in application context.
+     */
+    public ComponentCallbacksPressureSource(Context context) {
+        this.context = context.getApplicationContext();
+        this.listeners = new CopyOnWriteArrayList<Listener>();
+        this.context.registerComponentCallbacks(this);
+    }
+
+    /**
+     * Unregisters the source from application context. After that no signals would be passed.
+     */
+    public void release() {
+        context.unregisterComponentCallbacks(this);
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        final MemoryPressure pressure = toPressure(level);
+        if (pressure != null)
+            notifyListeners(pressure);
+    }
+
+    @Override
+    public void onLowMemory() {
+        notifyListeners(MemoryPressure.COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {
+    }
+
+    /**
+     * Maps {@link android.content.ComponentCallbacks2} trim levels into pressure levels.
+     *
+     * @return  pressure level, or NULL for unknown trim levels
+     */
+    public static MemoryPressure toPressure(int trimLevel) {
+        if (trimLevel >= TRIM_MEMORY_COMPLETE) return MemoryPressure.COMPLETE;
+        else if (trimLevel >= TRIM_MEMORY_MODERATE) return MemoryPressure.CRITICAL;
+        else if (trimLevel >= TRIM_MEMORY_BACKGROUND) return MemoryPressure.HIGH;
+        else if (trimLevel >= TRIM_MEMORY_UI_HIDDEN) return MemoryPressure.MODERATE;
+        else if (trimLevel >= TRIM_MEMORY_RUNNING_CRITICAL) return MemoryPressure.CRITICAL;
+        else if (trimLevel >= TRIM_MEMORY_RUNNING_LOW) return MemoryPressure.HIGH;
+        else if (trimLevel >= TRIM_MEMORY_RUNNING_MODERATE) return MemoryPressure.MODERATE;
+        else return null;
+    }
+
+    private void notifyListeners(MemoryPressure level) {
+        for (Listener listener : listeners)
+            listener.onMemoryPressure(level);
+    }
+
+}
@@ -0,0 +1,322 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0loader.image.cache;
+
+import java.net.URI;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memory LRU cache for concurrent use. Unlike {@link ru.jango.j0loader.image.cache.DefaultCache}
+ * and {@link ru.jango.j0loader.image.cache.LRUCache} it doesn't lock the whole object - entries
+ * are distributed between several segments (lock striping), each segment has it's own lock. So
+ * {@link #isCached(java.net.URI)} checks on the UI thread never wait for loader threads working
+ * with other images.
+ * <ul>
+ * <li>data is stored in memory as encoded byte arrays</li>
+ * <li>max cache size is common for all segments - an entry could be as large as the whole cache</li>
+ * <li>every put and get stamps the entry with a common clock, so the usage order is global: when
+ * the cache is full, the least recently used entry of the whole cache is evicted (eviction looks
+ * through eldest entries of all segments, locking one segment at a time)</li>
+ * <li>scales are stored in a {@link ru.jango.j0loader.image.cache.ScaleRegistry}, that is locked
+ * only for a short map access</li>
+ * </ul>
+ */
+public class ConcurrentCache extends DefaultCache {
+
+    public static final int DEFAULT_CONCURRENCY_LEVEL = 16;
+
+    private Segment[] segments;
+    private int segmentMask;
+    private AtomicLong size;
+    private AtomicInteger count;
+    private AtomicLong clock;       // usage stamps of entries
+    private volatile long maxCacheSize;
+
+    public ConcurrentCache() {
+        this(DEFAULT_MAX_CACHE_SIZE);
+    }
+
+    public ConcurrentCache(long maxSize) {
+        this(maxSize, DEFAULT_CONCURRENCY_LEVEL);
+    }
+
+    /**
+     * @param maxSize           max cache size in bytes
+     * @param concurrencyLevel  number of segments (would be rounded up to a power of two)
+     */
+    public ConcurrentCache(long maxSize, int concurrencyLevel) {
+        super();
+
+        int segmentsCount = 1;
+        while (segmentsCount < concurrencyLevel)
+            segmentsCount <<= 1;
+
+        segments = new Segment[segmentsCount];
+        for (int i=0; i<segmentsCount; i++)
+            segments[i] = new Segment();
+
+        segmentMask = segmentsCount - 1;
+        size = new AtomicLong();
+        count = new AtomicInteger();
+        clock = new AtomicLong();
+        maxCacheSize = maxSize;
+    }
+
+    @Override
+    public void clear() {
+        clearCache();
+        clearScales();
+        clearExpirations();
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //
+    //		Cache controlling methods
+    //
+    ////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public boolean put(URI uri, byte[] raw) {
+        if (raw.length > maxCacheSize) {
+            getStatsCounter().recordPut(false);
+            return false;
+        }
+
+        segmentFor(uri).put(uri, raw);
+        evict(maxCacheSize);
+
+        getStatsCounter().recordPut(true);
+        return true;
+    }
+
+    @Override
+    public byte[] get(URI uri) {
+        final byte[] raw = segmentFor(uri).get(uri);
+        getStatsCounter().recordGet(raw != null);
+
+        return raw;
+    }
+
+    @Override
+    public byte[] remove(URI uri) {
+        return segmentFor(uri).remove(uri);
+    }
+
+    @Override
+    public boolean isCached(URI uri) {
+        return segmentFor(uri).contains(uri);
+    }
+
+    @Override
+    public long size() {
+        return size.get();
+    }
+
+    @Override
+    public int count() {
+        return count.get();
+    }
+
+    /**
+     * Returns a copy of cache contents in usage order (least recently used first).
+     */
+    @Override
+    public Map<URI, byte[]> snapshot() {
+        final List<Map.Entry<URI, Entry>> entries = new ArrayList<Map.Entry<URI, Entry>>();
+        for (Segment segment : segments)
+            segment.copyInto(entries);
+
+        Collections.sort(entries, new Comparator<Map.Entry<URI, Entry>>() {
+            @Override
+            public int compare(Map.Entry<URI, Entry> lhs, Map.Entry<URI, Entry> rhs) {
+                return lhs.getValue().stamp < rhs.getValue().stamp ? -1
+                        : (lhs.getValue().stamp == rhs.getValue().stamp ? 0 : 1);
+            }
+        });
+
+        final Map<URI, byte[]> snapshot = new LinkedHashMap<URI, byte[]>();
+        for (Map.Entry<URI, Entry> entry : entries)
+            snapshot.put(entry.getKey(), entry.getValue().raw);
+
+        return snapshot;
+    }
+
+    @Override
+    public long getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    /**
+     * Sets max allowed cache size in bytes. If the cache is already larger, least recently used
+     * entries are evicted.
+     */
+    @Override
+    public void setMaxCacheSize(long maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+        evict(maxCacheSize);
+    }
+
+    @Override
+    public void trimToSize(long maxSize) {
+        evict(maxSize);
+    }
+
+    @Override
+    public void clearCache() {
+        for (Segment segment : segments)
+            segment.clear();
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //
+    //		Segments
+    //
+    ////////////////////////////////////////////////////////////////////////
+
+    private int segmentIndex(URI uri) {
+        int h = uri.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12);
+        h ^= (h >>> 7) ^ (h >>> 4);
+        return h & segmentMask;
+    }
+
+    private Segment segmentFor(URI uri) {
+        return segments[segmentIndex(uri)];
+    }
+
+    /**
+     * Evicts least recently used entries, until the cache fits the specified size. Every step looks
+     * through eldest entries of all segments and evicts the eldest of them. Locks only one segment
+     * at a time, so an entry could be used meanwhile - then the step is just repeated.
+     */
+    private void evict(long maxSize) {
+        while (size.get() > maxSize) {
+            Segment eldest = null;
+            long eldestStamp = Long.MAX_VALUE;
+            for (Segment segment : segments) {
+                final long stamp = segment.eldestStamp();
+                if (stamp < eldestStamp) {
+                    eldest = segment;
+                    eldestStamp = stamp;
+                }
+            }
+
+            if (eldest == null) return;
+            eldest.evictEldest(eldestStamp);
+        }
+    }
+
+    private static class Entry {
+        final byte[] raw;
+        long stamp;
+
+        Entry(byte[] raw, long stamp) {
+            this.raw = raw;
+            this.stamp = stamp;
+        }
+    }
+
+    private class Segment {
+
+        private final LinkedHashMap<URI, Entry> map = new LinkedHashMap<URI, Entry>(16, 0.75f, true);
+
+        public synchronized void put(URI uri, byte[] raw) {
+            final Entry old = map.put(uri, new Entry(raw, clock.incrementAndGet()));
+            size.addAndGet(raw.length - (old == null ? 0 : old.raw.length));
+            if (old == null) count.incrementAndGet();
+        }
+
+        public synchronized byte[] get(URI uri) {
+            final Entry entry = map.get(uri);
+            if (entry == null) return null;
+
+            entry.stamp = clock.incrementAndGet();
+            return entry.raw;
+        }
+
+        public synchronized byte[] remove(URI uri) {
+            final Entry entry = map.remove(uri);
+            if (entry != null) {
+                size.addAndGet(-entry.raw.length);
+                count.decrementAndGet();
+            }
+
+            onEntryRemoved(uri, false);
+            return entry == null ? null : entry.raw;
+        }
+
+        public synchronized void copyInto(List<Map.Entry<URI, Entry>> entries) {
+            for (Map.Entry<URI, Entry> entry : map.entrySet())
+                entries.add(new AbstractMap.SimpleEntry<URI, Entry>(entry.getKey(),
+                        new Entry(entry.getValue().raw, entry.getValue().stamp)));
+        }
+
+        public synchronized boolean contains(URI uri) {
+            return map.containsKey(uri);
+        }
+
+        /**
+         * Returns usage stamp of the least recently used entry of the segment, or
+         * {@link java.lang.Long#MAX_VALUE} if the segment is empty.
+         */
+        public synchronized long eldestStamp() {
+            if (map.isEmpty()) return Long.MAX_VALUE;
+            return map.values().iterator().next().stamp;
+        }
+
+        /**
+         * Evicts the least recently used entry of the segment, if it still has the specified stamp.
+         */
+        public synchronized void evictEldest(long stamp) {
+            if (map.isEmpty()) return;
+
+            // not map.get() - it would move the entry to the end of usage order
+            final Iterator<Map.Entry<URI, Entry>> iterator = map.entrySet().iterator();
+            final Map.Entry<URI, Entry> eldest = iterator.next();
+            final URI uri = eldest.getKey();
+            final Entry entry = eldest.getValue();
+            if (entry.stamp != stamp) return;
+
+            iterator.remove();
+            size.addAndGet(-entry.raw.length);
+            count.decrementAndGet();
+            onEntryRemoved(uri, true);
+        }
+
+        public synchronized void clear() {
+            for (Entry entry : map.values()) {
+                size.addAndGet(-entry.raw.length);
+                count.decrementAndGet();
+            }
+
+            map.clear();
+        }
+    }
+
+}
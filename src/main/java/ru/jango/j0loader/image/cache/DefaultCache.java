@@ -22,8 +22,14 @@ package ru.jango.j0loader.image.cache;
 import android.graphics.Point;
 
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import ru.jango.j0util.BmpUtil;
 
@@ -33,26 +39,40 @@ import ru.jango.j0util.BmpUtil;
  * <li>data is stored in memory</li>
  * <li>data is stored as encoded byte arrays</li>
  * <li>default cache size - 5M</li>
+ * <li>by default images never expire ({@link #setTimeToLive(long)})</li>
+ * <li>scales are stored in a bounded {@link ru.jango.j0loader.image.cache.ScaleRegistry}; scale
+ * of an evicted image is dropped, scale of a manually removed image is kept (it is usually
+ * removed to be reloaded in that scale)</li>
  * </ul>
+ * <br>
+ *
+ * Subclasses, that store data on their own, should call {@link #onEntryRemoved(java.net.URI, boolean)}
+ * for each removed or evicted entry.
  */
-public class DefaultCache implements Cache {
+public class DefaultCache implements ExpiringCache, StatsCache, Trimmable {
 
     public static final long DEFAULT_MAX_CACHE_SIZE = 5000000;
 
     private Map<URI, byte[]> cache;
-	private Map<URI, Point> scales;
+	private ScaleRegistry scales;
 	private long maxCacheSize;
+    private Map<URI, Long> expirations;
+    private long timeToLive;
+    private StatsCounter stats;
 
     public DefaultCache() {
         cache = new HashMap<URI, byte[]>();
-		scales = new HashMap<URI, Point>();
+		scales = createScaleRegistry();
         maxCacheSize = DEFAULT_MAX_CACHE_SIZE;
+        expirations = new ConcurrentHashMap<URI, Long>();
+        stats = new StatsCounter();
     }
 
     @Override
     public synchronized void clear() {
         clearCache();
         clearScales();
+        clearExpirations();
     }
 
     ////////////////////////////////////////////////////////////////////////
@@ -63,21 +83,24 @@ public class DefaultCache implements Cache {
 
     @Override
     public synchronized boolean put(URI uri, byte[] raw) {
-        if (size() <= getMaxCacheSize()) {
-            cache.put(uri, raw);
-            return true;
-        }
+        final boolean added = size() <= getMaxCacheSize();
+        if (added) cache.put(uri, raw);
 
-        return false;
+        stats.recordPut(added);
+        return added;
     }
 
     @Override
     public synchronized byte[] get(URI uri) {
-        return cache.get(uri);
+        final byte[] raw = cache.get(uri);
+        stats.recordGet(raw != null);
+
+        return raw;
     }
 
     @Override
     public synchronized byte[] remove(URI uri) {
+        onEntryRemoved(uri, false);
         return cache.remove(uri);
     }
 
@@ -100,6 +123,42 @@ public class DefaultCache implements Cache {
         return cache.size();
     }
 
+    /**
+     * Returns a copy of cache contents, from least to most recently used entry (if the cache
+     * tracks usage). Neither usage order nor statistics are affected.
+     */
+    public synchronized Map<URI, byte[]> snapshot() {
+        return new LinkedHashMap<URI, byte[]>(cache);
+    }
+
+    /**
+     * Returns the hot set of the cache: most recently used entries, that fit into the specified
+     * size (larger entries are skipped), from least to most recently used. Neither usage order
+     * nor statistics are affected. Data of heap caches is not copied - only references are.
+     *
+     * @param maxSize   max total size of returned entries' data in bytes
+     */
+    public Map<URI, byte[]> snapshot(long maxSize) {
+        final List<Map.Entry<URI, byte[]>> entries = new ArrayList<Map.Entry<URI, byte[]>>(snapshot().entrySet());
+
+        long size = 0;
+        final LinkedList<Map.Entry<URI, byte[]>> hot = new LinkedList<Map.Entry<URI, byte[]>>();
+        for (int i=entries.size()-1; i>=0; i--) {
+            final Map.Entry<URI, byte[]> entry = entries.get(i);
+            if (size + entry.getValue().length > maxSize)
+                continue;
+
+            size += entry.getValue().length;
+            hot.addFirst(entry);
+        }
+
+        final Map<URI, byte[]> snapshot = new LinkedHashMap<URI, byte[]>();
+        for (Map.Entry<URI, byte[]> entry : hot)
+            snapshot.put(entry.getKey(), entry.getValue());
+
+        return snapshot;
+    }
+
     /**
      * Returns max allowed cache size in bytes.
      * @see #DEFAULT_MAX_CACHE_SIZE
@@ -118,6 +177,22 @@ public class DefaultCache implements Cache {
         this.maxCacheSize = maxCacheSize;
     }
 
+    /**
+     * Evicts entries until cache size is not greater, than the specified one. This simple cache
+     * doesn't track usage, so entries are evicted in no particular order.
+     */
+    @Override
+    public synchronized void trimToSize(long maxSize) {
+        long size = size();
+        final Iterator<Map.Entry<URI, byte[]>> iterator = cache.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            final Map.Entry<URI, byte[]> entry = iterator.next();
+            size -= entry.getValue().length;
+            iterator.remove();
+            onEntryRemoved(entry.getKey(), true);
+        }
+    }
+
     /**
      * Clears cache.
      */
@@ -132,41 +207,152 @@ public class DefaultCache implements Cache {
     ////////////////////////////////////////////////////////////////////////
 
     @Override
-    public synchronized void setScale(URI uri, Point scale) {
+    public void setScale(URI uri, Point scale) {
         scales.put(uri, scale);
     }
 
     @Override
-    public synchronized Point getScale(URI uri) {
+    public Point getScale(URI uri) {
         return scales.get(uri);
     }
 
     @Override
-    public synchronized Point resolveScale(URI uri, byte[] loadedData) {
-        final boolean tooBig = BmpUtil.isTooBig(loadedData);
+    public Point resolveScale(URI uri, byte[] loadedData) {
+        final Point scale = getScale(uri);
 
-        if (hasScale(uri)) return getScale(uri);
-        else if (tooBig) return new Point(BmpUtil.MAX_TEXTURE_SIZE, BmpUtil.MAX_TEXTURE_SIZE);
+        if (scale != null) return scale;
+        else if (BmpUtil.isTooBig(loadedData)) return new Point(BmpUtil.MAX_TEXTURE_SIZE, BmpUtil.MAX_TEXTURE_SIZE);
         else return null;
     }
 
     @Override
-    public synchronized boolean hasScale(URI uri) {
-        return scales.containsKey(uri);
+    public boolean hasScale(URI uri) {
+        return scales.contains(uri);
     }
 
     @Override
-    public synchronized Point removeScale(URI uri) {
+    public Point removeScale(URI uri) {
         return scales.remove(uri);
     }
 
     @Override
-    public synchronized int scalesCount() {
+    public int scalesCount() {
         return scales.size();
     }
 
-    public synchronized void clearScales() {
+    /**
+     * Returns remembered scales of all variants of an image (see
+     * {@link ru.jango.j0loader.image.ImageRequest#getCacheKey()}). Variants could be not cached.
+     *
+     * @param uri   image {@link java.net.URI}, or cache key of any it's variant
+     * @return      variants' cache keys with their scales; could be empty
+     */
+    public Map<URI, Point> getVariants(URI uri) {
+        return scales.getVariants(uri);
+    }
+
+    public void clearScales() {
         scales.clear();
     }
 
+    /**
+     * Returns scales storage - for example, to persist scales between launches with
+     * {@link ru.jango.j0loader.image.cache.ScaleRegistry#save(java.io.File)} and
+     * {@link ru.jango.j0loader.image.cache.ScaleRegistry#load(java.io.File)}.
+     */
+    public ScaleRegistry getScaleRegistry() {
+        return scales;
+    }
+
+    /**
+     * Special method for scales storage configuration. By default creates a
+     * {@link ru.jango.j0loader.image.cache.ScaleRegistry} with
+     * {@link ru.jango.j0loader.image.cache.ScaleRegistry#DEFAULT_MAX_SCALES} limit.
+     */
+    protected ScaleRegistry createScaleRegistry() {
+        return new ScaleRegistry();
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //
+    //		Expiration controlling methods
+    //
+    ////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public void setExpiration(URI uri, long expiresAt) {
+        if (expiresAt > 0) expirations.put(uri, expiresAt);
+        else expirations.remove(uri);
+    }
+
+    @Override
+    public long getExpiration(URI uri) {
+        final Long expiresAt = expirations.get(uri);
+        return expiresAt == null ? 0 : expiresAt;
+    }
+
+    @Override
+    public boolean isExpired(URI uri) {
+        final Long expiresAt = expirations.get(uri);
+        return expiresAt != null && expiresAt <= System.currentTimeMillis() && isCached(uri);
+    }
+
+    @Override
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    @Override
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    public void clearExpirations() {
+        expirations.clear();
+    }
+
+    /**
+     * Should be called by subclasses after an entry was removed from cache - both manually and
+     * automatically. Cleans the data, that was stored for the entry (expiration time; scale, if the
+     * entry was evicted), and updates statistics.
+     *
+     * @param uri       key of the removed entry
+     * @param evicted   TRUE if the entry was removed automatically to free some space
+     */
+    protected void onEntryRemoved(URI uri, boolean evicted) {
+        expirations.remove(uri);
+        if (evicted) {
+            scales.remove(uri);
+            stats.recordEviction();
+        }
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //
+    //		Statistics
+    //
+    ////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public CacheStats getStats() {
+        return stats.snapshot();
+    }
+
+    @Override
+    public void recordLoadTime(long loadTime) {
+        stats.recordLoadTime(loadTime);
+    }
+
+    @Override
+    public void resetStats() {
+        stats.reset();
+    }
+
+    /**
+     * Returns statistics accumulator for subclasses to record their events.
+     */
+    protected StatsCounter getStatsCounter() {
+        return stats;
+    }
+
 }
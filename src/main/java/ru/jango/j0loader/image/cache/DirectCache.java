@@ -0,0 +1,413 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0loader.image.cache;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Memory LRU cache, that keeps data out of the Java heap. All entries are stored in one direct
+ * {@link java.nio.ByteBuffer} slab, allocated once for the whole max cache size; only a small
+ * index (offset and length of each entry) lives on the heap. So several megabytes of cached
+ * images don't make GC pauses longer.
+ * <ul>
+ * <li>slab space is managed by own first-fit allocator with coalescing of free blocks</li>
+ * <li>if there is no free block large enough for a new entry, least recently used entries are
+ * evicted until there is one</li>
+ * <li>{@link #get(java.net.URI)} copies data into a new byte array; {@link #getBuffer(java.net.URI)},
+ * {@link #acquireBuffer(java.net.URI)} and {@link #decode(java.net.URI, android.graphics.BitmapFactory.Options)}
+ * work without copying</li>
+ * <li>acquired entries are pinned - if they are removed or evicted meanwhile, their memory is
+ * not given to other entries, until the buffer is released; so images are decoded straight from
+ * the slab without locking the cache</li>
+ * <li>slab is allocated lazily - on the first {@link #put(java.net.URI, byte[])}; after that the
+ * cache couldn't be resized</li>
+ * </ul>
+ */
+public class DirectCache extends DefaultCache {
+
+    private ByteBuffer slab;
+    private LinkedHashMap<URI, Block> index;
+    private TreeMap<Integer, Integer> freeBlocks;
+    private IdentityHashMap<ByteBuffer, Block> pinned;     // acquired views and their blocks
+    private long size;
+
+    public DirectCache() {
+        this(DEFAULT_MAX_CACHE_SIZE);
+    }
+
+    public DirectCache(long maxSize) {
+        super();
+        if (maxSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("DirectCache couldn't be larger, than " + Integer.MAX_VALUE + " bytes.");
+
+        super.setMaxCacheSize(maxSize);
+        index = new LinkedHashMap<URI, Block>(16, 0.75f, true);
+        freeBlocks = new TreeMap<Integer, Integer>();
+        pinned = new IdentityHashMap<ByteBuffer, Block>();
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //
+    //		Cache controlling methods
+    //
+    ////////////////////////////////////////////////////////////////////////
+
+    @Override
+    public synchronized boolean put(URI uri, byte[] raw) {
+        if (raw.length > getMaxCacheSize()) {
+            getStatsCounter().recordPut(false);
+            return false;
+        }
+
+        removeEntry(uri);
+        final int offset = allocate(raw.length);
+        if (offset < 0) {
+            getStatsCounter().recordPut(false);
+            return false;
+        }
+
+        final ByteBuffer target = slab.duplicate();
+        target.position(offset);
+        target.put(raw);
+
+        index.put(uri, new Block(offset, raw.length));
+        size += raw.length;
+        getStatsCounter().recordPut(true);
+        return true;
+    }
+
+    @Override
+    public synchronized byte[] get(URI uri) {
+        final Block block = index.get(uri);
+        getStatsCounter().recordGet(block != null);
+
+        return block == null ? null : read(block);
+    }
+
+    /**
+     * Returns a read-only view of the cached data without copying it into the heap, or NULL.
+     * <br><br>
+     * <b>NOTE:</b> the view shares memory with the cache - after the entry is removed or evicted,
+     * the memory could be given to another entry. So the view should be used immediately; for
+     * longer work use {@link #acquireBuffer(java.net.URI)}.
+     */
+    public synchronized ByteBuffer getBuffer(URI uri) {
+        final Block block = index.get(uri);
+        if (block == null)
+            return null;
+
+        return view(block);
+    }
+
+    /**
+     * Returns a read-only view of the cached data like {@link #getBuffer(java.net.URI)}, but pins
+     * the entry: if it is removed or evicted, it's memory isn't given to other entries, until the
+     * view is passed into {@link #releaseBuffer(java.nio.ByteBuffer)}. So the view could be used
+     * without locking the cache. Every acquired view should be released.
+     *
+     * @return  view of the data, or NULL if it isn't cached
+     */
+    public synchronized ByteBuffer acquireBuffer(URI uri) {
+        final Block block = index.get(uri);
+        getStatsCounter().recordGet(block != null);
+        if (block == null)
+            return null;
+
+        final ByteBuffer view = view(block);
+        block.pins++;
+        pinned.put(view, block);
+        return view;
+    }
+
+    /**
+     * Unpins the entry of a view, returned by {@link #acquireBuffer(java.net.URI)}. If the entry
+     * was removed or evicted meanwhile, it's memory is freed now.
+     */
+    public synchronized void releaseBuffer(ByteBuffer view) {
+        final Block block = pinned.remove(view);
+        if (block == null)
+            return;
+
+        block.pins--;
+        if (block.pins == 0 && block.dropped)
+            free(block);
+    }
+
+    /**
+     * Decodes cached image straight from the slab, without copying it's data into the heap. The
+     * entry is pinned while decoding (see {@link #acquireBuffer(java.net.URI)}), so the cache
+     * isn't locked.
+     *
+     * @param options   decoding options, may be NULL
+     * @return          decoded image, or NULL, if it wasn't cached or couldn't be decoded
+     */
+    public Bitmap decode(URI uri, BitmapFactory.Options options) {
+        final ByteBuffer view = acquireBuffer(uri);
+        if (view == null)
+            return null;
+
+        try {
+            return BitmapFactory.decodeStream(new ByteBufferInputStream(view), null, options);
+        } finally {
+            releaseBuffer(view);
+        }
+    }
+
+    @Override
+    public synchronized byte[] remove(URI uri) {
+        final Block block = index.get(uri);
+        if (block == null)
+            return null;
+
+        final byte[] raw = read(block);
+        removeEntry(uri);
+        return raw;
+    }
+
+    /**
+     * Removes an entry and frees it's memory without copying the data into the heap.
+     *
+     * @return  false, if the entry wasn't cached
+     */
+    private boolean removeEntry(URI uri) {
+        final Block block = index.remove(uri);
+        if (block == null)
+            return false;
+
+        drop(block);
+        size -= block.length;
+        onEntryRemoved(uri, false);
+        return true;
+    }
+
+    @Override
+    public synchronized boolean isCached(URI uri) {
+        return index.containsKey(uri);
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized int count() {
+        return index.size();
+    }
+
+    /**
+     * Returns a copy of cache contents. <b>NOTE:</b> all the data is copied into the Java heap.
+     */
+    @Override
+    public synchronized Map<URI, byte[]> snapshot() {
+        final Map<URI, byte[]> snapshot = new LinkedHashMap<URI, byte[]>();
+        for (Map.Entry<URI, Block> entry : index.entrySet())
+            snapshot.put(entry.getKey(), read(entry.getValue()));
+
+        return snapshot;
+    }
+
+    /**
+     * Returns the hot set like {@link DefaultCache#snapshot(long)}, but entries are chosen by
+     * their sizes in index, so only chosen entries are copied into the Java heap.
+     */
+    @Override
+    public synchronized Map<URI, byte[]> snapshot(long maxSize) {
+        final List<Map.Entry<URI, Block>> entries = new ArrayList<Map.Entry<URI, Block>>(index.entrySet());
+
+        long size = 0;
+        final LinkedList<Map.Entry<URI, Block>> hot = new LinkedList<Map.Entry<URI, Block>>();
+        for (int i=entries.size()-1; i>=0; i--) {
+            final Map.Entry<URI, Block> entry = entries.get(i);
+            if (size + entry.getValue().length > maxSize)
+                continue;
+
+            size += entry.getValue().length;
+            hot.addFirst(entry);
+        }
+
+        final Map<URI, byte[]> snapshot = new LinkedHashMap<URI, byte[]>();
+        for (Map.Entry<URI, Block> entry : hot)
+            snapshot.put(entry.getKey(), read(entry.getValue()));
+
+        return snapshot;
+    }
+
+    /**
+     * Sets max allowed cache size in bytes. Works only before the slab was allocated (before
+     * the first {@link #put(java.net.URI, byte[])}).
+     *
+     * @throws IllegalStateException    if the slab was already allocated
+     */
+    @Override
+    public synchronized void setMaxCacheSize(long maxCacheSize) {
+        if (slab != null)
+            throw new IllegalStateException("DirectCache couldn't be resized after the first put. " +
+                    "Create a new instance with new max size.");
+        if (maxCacheSize > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("DirectCache couldn't be larger, than " + Integer.MAX_VALUE + " bytes.");
+
+        super.setMaxCacheSize(maxCacheSize);
+    }
+
+    /**
+     * Evicts least recently used entries until cache size is not greater, than the specified one.
+     * The slab itself is not shrunk - freed blocks are kept for further use.
+     */
+    @Override
+    public synchronized void trimToSize(long maxSize) {
+        while (size > maxSize && !index.isEmpty())
+            evictEldest();
+    }
+
+    /**
+     * Clears cache. The slab itself is kept for further use.
+     */
+    @Override
+    public synchronized void clearCache() {
+        for (Block block : index.values())
+            drop(block);
+
+        index.clear();
+        size = 0;
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //
+    //		Allocator
+    //
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Finds a free block for the specified number of bytes. Evicts least recently used entries,
+     * if there is no such block.
+     *
+     * @return  offset of the allocated block, or -1
+     */
+    private int allocate(int length) {
+        if (slab == null) {
+            slab = ByteBuffer.allocateDirect((int) getMaxCacheSize());
+            freeBlocks.put(0, slab.capacity());
+        }
+
+        int offset = findFreeBlock(length);
+        while (offset < 0 && !index.isEmpty()) {
+            evictEldest();
+            offset = findFreeBlock(length);
+        }
+
+        return offset;
+    }
+
+    private void evictEldest() {
+        final Iterator<Map.Entry<URI, Block>> iterator = index.entrySet().iterator();
+        final Map.Entry<URI, Block> eldest = iterator.next();
+        iterator.remove();
+        drop(eldest.getValue());
+        size -= eldest.getValue().length;
+        onEntryRemoved(eldest.getKey(), true);
+    }
+
+    private int findFreeBlock(int length) {
+        for (Map.Entry<Integer, Integer> block : freeBlocks.entrySet()) {
+            final int offset = block.getKey();
+            final int blockLength = block.getValue();
+            if (blockLength < length)
+                continue;
+
+            freeBlocks.remove(offset);
+            if (blockLength > length)
+                freeBlocks.put(offset + length, blockLength - length);
+
+            return offset;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Frees a block, that is not in the index anymore, or only marks it, if it is pinned.
+     */
+    private void drop(Block block) {
+        if (block.pins > 0) block.dropped = true;
+        else free(block);
+    }
+
+    /**
+     * Returns a block into the free list and merges it with adjacent free blocks.
+     */
+    private void free(Block block) {
+        int offset = block.offset;
+        int length = block.length;
+
+        final Map.Entry<Integer, Integer> prev = freeBlocks.lowerEntry(offset);
+        if (prev != null && prev.getKey() + prev.getValue() == offset) {
+            freeBlocks.remove(prev.getKey());
+            offset = prev.getKey();
+            length += prev.getValue();
+        }
+
+        final Integer nextLength = freeBlocks.get(offset + length);
+        if (nextLength != null) {
+            freeBlocks.remove(offset + length);
+            length += nextLength;
+        }
+
+        freeBlocks.put(offset, length);
+    }
+
+    private ByteBuffer view(Block block) {
+        final ByteBuffer view = slab.asReadOnlyBuffer();
+        view.position(block.offset);
+        view.limit(block.offset + block.length);
+        return view.slice();
+    }
+
+    private byte[] read(Block block) {
+        final byte[] raw = new byte[block.length];
+        view(block).get(raw);
+        return raw;
+    }
+
+    private static class Block {
+        private final int offset;
+        private final int length;
+        private int pins;           // number of acquired views
+        private boolean dropped;    // TRUE if the block was removed from index, while pinned
+
+        private Block(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+}
@@ -0,0 +1,63 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0loader.image.cache;
+
+import java.net.URI;
+
+/**
+ * {@link ru.jango.j0loader.image.cache.Cache}, that knows, when cached images become stale.
+ * Stale images are still returned by {@link #get(java.net.URI)}, but loaders should reload them.
+ * It is optional: {@link ru.jango.j0loader.image.ImageLoader} treats images of other caches as
+ * always fresh.
+ */
+public interface ExpiringCache extends Cache {
+
+    /**
+     * Sets time (in milliseconds since epoch), when the cached image becomes stale. Method is
+     * called just after {@link #put(java.net.URI, byte[])}.
+     *
+     * @param expiresAt expiration time, or 0 if the image never expires
+     */
+    public void setExpiration(URI uri, long expiresAt);
+
+    /**
+     * Returns time (in milliseconds since epoch), when the cached image becomes stale, or 0 if
+     * it never expires.
+     */
+    public long getExpiration(URI uri);
+
+    /**
+     * Checks if a cached image is stale (was cached and it's expiration time has passed).
+     */
+    public boolean isExpired(URI uri);
+
+    /**
+     * Returns default time to live of cached images in milliseconds; 0 means that images never
+     * expire.
+     */
+    public long getTimeToLive();
+
+    /**
+     * Sets default time to live of cached images in milliseconds. It is used by loaders for
+     * images, which response didn't specify it's own expiration time.
+     */
+    public void setTimeToLive(long timeToLive);
+
+}
@@ -0,0 +1,135 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0loader.image.cache;
+
+/**
+ * Compact frequency estimator (count-min sketch with 4-bit counters) used by
+ * {@link ru.jango.j0loader.image.cache.TinyLFUCache} to decide whether a new entry is accessed
+ * often enough to replace an old one.
+ * <ul>
+ * <li>each element is counted in 4 counters of a single long word; estimated frequency is the
+ * minimum of them, so it could only be overestimated (by hash collisions)</li>
+ * <li>counters are saturated at 15 - for admission decisions exact big numbers are useless</li>
+ * <li>after a sample of 10 * table size increments all counters are halved (aging), so items,
+ * that were popular long ago, don't stay in cache forever</li>
+ * </ul>
+ * <br>
+ *
+ * Class is not thread safe - callers should synchronize on their own.
+ */
+public class FrequencySketch {
+
+    private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+    private static final long RESET_MASK = 0x7777777777777777L;
+    private static final int MAX_COUNT = 15;
+
+    private long[] table;
+    private int tableMask;
+    private int sampleSize;
+    private int additions;
+
+    /**
+     * @param expectedEntries   approximate number of elements, that the cache could hold; sketch
+     *                          occupies 8 bytes per entry
+     */
+    public FrequencySketch(int expectedEntries) {
+        int size = 16;
+        while (size < expectedEntries && size < (1 << 30))
+            size <<= 1;
+
+        table = new long[size];
+        tableMask = size - 1;
+        sampleSize = 10 * size;
+    }
+
+    /**
+     * Returns estimated number of occurrences of the element (0..15).
+     */
+    public int frequency(Object element) {
+        final int hash = spread(element.hashCode());
+        final int start = (hash & 3) << 2;
+
+        int frequency = MAX_COUNT;
+        for (int i=0; i<4; i++) {
+            final int offset = (start + i) << 2;
+            final int count = (int) ((table[indexOf(hash, i)] >>> offset) & 0xfL);
+            frequency = Math.min(frequency, count);
+        }
+
+        return frequency;
+    }
+
+    /**
+     * Increments estimated number of occurrences of the element. Periodically halves all
+     * counters.
+     */
+    public void increment(Object element) {
+        final int hash = spread(element.hashCode());
+        final int start = (hash & 3) << 2;
+
+        boolean added = false;
+        for (int i=0; i<4; i++)
+            added |= incrementAt(indexOf(hash, i), start + i);
+
+        if (added && ++additions >= sampleSize)
+            reset();
+    }
+
+    /**
+     * Resets all counters to zero.
+     */
+    public void clear() {
+        for (int i=0; i<table.length; i++)
+            table[i] = 0;
+
+        additions = 0;
+    }
+
+    private boolean incrementAt(int index, int counter) {
+        final int offset = counter << 2;
+        final long mask = 0xfL << offset;
+        if ((table[index] & mask) == mask)
+            return false;
+
+        table[index] += 1L << offset;
+        return true;
+    }
+
+    private void reset() {
+        for (int i=0; i<table.length; i++)
+            table[i] = (table[i] >>> 1) & RESET_MASK;
+
+        additions >>>= 1;
+    }
+
+    private int indexOf(int hash, int i) {
+        long h = (hash + SEEDS[i]) * SEEDS[i];
+        h += h >>> 32;
+        return ((int) h) & tableMask;
+    }
+
+    private int spread(int x) {
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        x = ((x >>> 16) ^ x) * 0x45d9f3b;
+        return (x >>> 16) ^ x;
+    }
+
+}
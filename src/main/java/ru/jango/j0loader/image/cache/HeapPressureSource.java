@@ -0,0 +1,141 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ru.jango.j0loader.image.cache;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link ru.jango.j0loader.image.cache.MemoryPressureSource}, that periodically checks Java heap
+ * usage and signals, when it crosses thresholds. Works on any JVM and any Android version (on
+ * Android 4.0+ {@link ru.jango.j0loader.image.cache.ComponentCallbacksPressureSource} could be
+ * used instead or together).
+ * <br><br>
+ * Listeners are notified only when pressure becomes worse, than the last signaled level; the
+ * level is reset after heap usage drops below the lowest threshold.
+ */
+public class HeapPressureSource implements MemoryPressureSource {
+
+    public static final long DEFAULT_CHECK_INTERVAL = 1000;
+
+    public static final float MODERATE_THRESHOLD = 0.75f;
+    public static final float HIGH_THRESHOLD = 0.85f;
+    public static final float CRITICAL_THRESHOLD = 0.95f;
+
+    private final List<Listener> listeners;
+    private final long checkInterval;
+    private MemoryPressure lastLevel;
+    private Thread pollingThread;
+
+    public HeapPressureSource() {
+        this(DEFAULT_CHECK_INTERVAL);
+    }
+
+    /**
+     * @param checkInterval interval between heap checks in milliseconds
+     */
+    public HeapPressureSource(long checkInterval) {
+        this.checkInterval = checkInterval;
+        this.listeners = new CopyOnWriteArrayList<Listener>();
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Starts background polling. Does nothing, if polling is already started.
+     */
+    public synchronized void start() {
+        if (pollingThread != null)
+            return;
+
+        pollingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    check();
+                    try { Thread.sleep(checkInterval); }
+                    catch (InterruptedException e) { break; }
+                }
+            }
+        }, "HeapPressureSource");
+        pollingThread.setDaemon(true);
+        pollingThread.start();
+    }
+
+    /**
+     * Stops background polling.
+     */
+    public synchronized void stop() {
+        if (pollingThread == null)
+            return;
+
+        pollingThread.interrupt();
+        pollingThread = null;
+    }
+
+    /**
+     * Checks heap usage once and notifies listeners, if pressure became worse.
+     *
+     * @return  current pressure level, or NULL if there is no pressure
+     */
+    public MemoryPressure check() {
+        final MemoryPressure level = getLevel(getUsedFraction());
+        final boolean worse;
+        synchronized (this) {
+            worse = level != null && level.isWorseThan(lastLevel);
+            if (worse || level == null) lastLevel = level;
+        }
+
+        if (worse)
+            for (Listener listener : listeners)
+                listener.onMemoryPressure(level);
+
+        return level;
+    }
+
+    /**
+     * Returns used fraction of max heap size (from 0 to 1).
+     */
+    protected float getUsedFraction() {
+        final Runtime runtime = Runtime.getRuntime();
+        final long used = runtime.totalMemory() - runtime.freeMemory();
+        return (float) used / runtime.maxMemory();
+    }
+
+    /**
+     * Maps heap usage into a pressure level.
+     *
+     * @return  pressure level, or NULL if there is no pressure
+     */
+    protected MemoryPressure getLevel(float usedFraction) {
+        if (usedFraction >= CRITICAL_THRESHOLD) return MemoryPressure.CRITICAL;
+        else if (usedFraction >= HIGH_THRESHOLD) return MemoryPressure.HIGH;
+        else if (usedFraction >= MODERATE_THRESHOLD) return MemoryPressure.MODERATE;
+        else return null;
+    }
+
+}
@@ -22,6 +22,7 @@ package ru.jango.j0loader.image.cache;
 import android.support.v4.util.LruCache;
 
 import java.net.URI;
+import java.util.Map;
 
 /**
  * Special wrapper for {@link android.support.v4.util.LruCache}. That is also memory cache, but
@@ -32,6 +33,7 @@ import java.net.URI;
 public class LRUCache extends DefaultCache {
 
     private LruCache<URI, byte[]> cache;
+    private boolean clearing;
 
     public LRUCache() {
         this((int) DEFAULT_MAX_CACHE_SIZE);
@@ -43,18 +45,27 @@ public class LRUCache extends DefaultCache {
             protected int sizeOf(URI key, byte[] value) {
                 return value.length;
             }
+
+            @Override
+            protected void entryRemoved(boolean evicted, URI key, byte[] oldValue, byte[] newValue) {
+                if (newValue == null) onEntryRemoved(key, evicted && !clearing);
+            }
         };
     }
 
     @Override
     public synchronized boolean put(URI uri, byte[] raw) {
         cache.put(uri, raw);
+        getStatsCounter().recordPut(true);
         return true;
     }
 
     @Override
     public synchronized byte[] get(URI uri) {
-        return cache.get(uri);
+        final byte[] raw = cache.get(uri);
+        getStatsCounter().recordGet(raw != null);
+
+        return raw;
     }
 
     @Override
@@ -77,6 +88,11 @@ public class LRUCache extends DefaultCache {
         return cache.snapshot().size();
     }
 
+    @Override
+    public Map<URI, byte[]> snapshot() {
+        return cache.snapshot();
+    }
+
     @Override
     public long getMaxCacheSize() {
         return cache.maxSize();
@@ -88,8 +104,15 @@ public class LRUCache extends DefaultCache {
                 "Create a new instance with new max size.");
     }
 
+    @Override
+    public synchronized void trimToSize(long maxSize) {
+        cache.trimToSize((int) Math.max(0, Math.min(maxSize, Integer.MAX_VALUE)));
+    }
+
     public synchronized void clearCache() {
+        clearing = true;
         cache.evictAll();
+        clearing = false;
     }
 
 }
@@ -0,0 +1,68 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ru.jango.j0loader.image.cache;
+
+/**
+ * Memory pressure levels, ordered by severity. Each level specifies a fraction of max size, that
+ * caches should keep, when the level is signaled.
+ */
+public enum MemoryPressure {
+
+    /**
+     * Memory is getting low; drop a quarter of caches.
+     */
+    MODERATE(0.75f),
+
+    /**
+     * Memory is low; drop a half of caches.
+     */
+    HIGH(0.5f),
+
+    /**
+     * Memory is critically low; keep only the most valuable entries.
+     */
+    CRITICAL(0.25f),
+
+    /**
+     * The process is about to be killed, or is not visible anymore; drop everything.
+     */
+    COMPLETE(0f);
+
+    private final float retainedFraction;
+
+    private MemoryPressure(float retainedFraction) {
+        this.retainedFraction = retainedFraction;
+    }
+
+    /**
+     * Returns fraction of max size (from 0 to 1), that should be kept on this level.
+     */
+    public float getRetainedFraction() {
+        return retainedFraction;
+    }
+
+    /**
+     * Checks if this level is more severe, than the specified one. Any level is more severe, than
+     * NULL.
+     */
+    public boolean isWorseThan(MemoryPressure other) {
+        return other == null || compareTo(other) > 0;
+    }
+
+}
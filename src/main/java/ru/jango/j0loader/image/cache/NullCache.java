@@ -29,14 +29,19 @@ import ru.jango.j0util.BmpUtil;
  * The simplest {@link ru.jango.j0loader.image.cache.Cache} implementation - does nothing. Also
  * could be named as fake cache. If you don't need to cache anything at all you can use this class.
  */
-public class NullCache implements Cache {
+public class NullCache implements StatsCache {
+
+    private final StatsCounter stats = new StatsCounter();
+
     @Override
     public boolean put(URI uri, byte[] raw) {
+        stats.recordPut(false);
         return false;
     }
 
     @Override
     public byte[] get(URI uri) {
+        stats.recordGet(false);
         return null;
     }
 
@@ -101,6 +106,21 @@ public class NullCache implements Cache {
         return 0;
     }
 
+    @Override
+    public CacheStats getStats() {
+        return stats.snapshot();
+    }
+
+    @Override
+    public void recordLoadTime(long loadTime) {
+        stats.recordLoadTime(loadTime);
+    }
+
+    @Override
+    public void resetStats() {
+        stats.reset();
+    }
+
     @Override
     public void clear() {
     }
@@ -0,0 +1,408 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ru.jango.j0loader.image.cache;
+
+import android.graphics.BitmapRegionDecoder;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DataFormatException;
+
+import ru.jango.j0loader.image.ImageDecoder;
+
+/**
+ * Keeps sources of region requests (tiles) ready for decoding: one
+ * {@link android.graphics.BitmapRegionDecoder} per source image is shared by all it's tiles, so
+ * the huge source is parsed once, not for every tile. If a directory is set
+ * ({@link #setDir(java.io.File)}), sources are also kept in files there - so they don't flush
+ * memory cache, and decoders, that were evicted, are opened again without loading.
+ * <br><br>
+ * Only a few decoders are kept open ({@link #DEFAULT_MAX_DECODERS}), least recently used are
+ * evicted first. Evicted decoders are not recycled explicitly (other threads could still decode
+ * tiles by them) - their memory is released by GC.
+ * <br><br>
+ * Directory is limited by size too ({@link #DEFAULT_MAX_DIR_SIZE}): least recently used files are
+ * deleted first (file's last modification time is it's last use). Expiration time of a source is
+ * kept in a small file near the source, so it survives restarts.
+ */
+public class RegionSourceCache {
+
+    /** Default number of decoders, that are kept open */
+    public static final int DEFAULT_MAX_DECODERS = 2;
+
+    /** Default max size of files in directory - 50MB */
+    public static final long DEFAULT_MAX_DIR_SIZE = 50 * 1024 * 1024;
+
+    private static final String TMP_SUFFIX = ".tmp";
+    private static final String EXPIRATION_SUFFIX = ".exp";
+
+    private final Map<URI, BitmapRegionDecoder> decoders;
+    private final Map<URI, Long> expirations;
+    private volatile File dir;
+    private volatile long maxDirSize;
+
+    public RegionSourceCache() {
+        this(DEFAULT_MAX_DECODERS);
+    }
+
+    public RegionSourceCache(final int maxDecoders) {
+        expirations = new HashMap<URI, Long>();
+        maxDirSize = DEFAULT_MAX_DIR_SIZE;
+        decoders = new LinkedHashMap<URI, BitmapRegionDecoder>(maxDecoders + 1, 1, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<URI, BitmapRegionDecoder> eldest) {
+                if (size() <= maxDecoders)
+                    return false;
+
+                // evicted decoder was used till now - it's file shouldn't look old
+                touch(getFile(eldest.getKey()));
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Sets a directory, where sources are kept in files, or NULL to keep only decoders.
+     */
+    public void setDir(File dir) {
+        this.dir = dir;
+    }
+
+    /**
+     * @see #setDir(java.io.File)
+     */
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * Sets max size of files in directory in bytes. Least recently used files are deleted, when
+     * the next source is put. Sources, that are larger, are not written into files at all.
+     *
+     * @see #DEFAULT_MAX_DIR_SIZE
+     */
+    public void setMaxDirSize(long maxDirSize) {
+        this.maxDirSize = maxDirSize;
+    }
+
+    /**
+     * @see #setMaxDirSize(long)
+     */
+    public long getMaxDirSize() {
+        return maxDirSize;
+    }
+
+    /**
+     * Returns decoder of the source (it is opened from file again, if it was evicted), or NULL,
+     * if the source is not kept.
+     *
+     * @throws DataFormatException  if the kept file couldn't be decoded (it is deleted then)
+     */
+    public BitmapRegionDecoder get(URI uri) throws DataFormatException {
+        synchronized (this) {
+            final BitmapRegionDecoder decoder = decoders.get(uri);
+            if (decoder != null) return decoder;
+        }
+
+        final File file = getFile(uri);
+        if (file == null || !file.exists())
+            return null;
+
+        final BitmapRegionDecoder decoder;
+        try { decoder = ImageDecoder.newRegionDecoder(file.getPath()); }
+        catch (DataFormatException e) {
+            remove(uri);
+            throw e;
+        }
+        touch(file);
+
+        synchronized (this) {
+            final BitmapRegionDecoder opened = decoders.get(uri);
+            if (opened != null) return opened;
+
+            decoders.put(uri, decoder);
+            return decoder;
+        }
+    }
+
+    /**
+     * Keeps a just loaded source: writes it into a file (if directory is set) and opens a decoder
+     * of it, that replaces the old one.
+     *
+     * @param expiration    time, when the source becomes stale, or 0 if it never does
+     * @return  decoder of the source
+     *
+     * @throws DataFormatException  if the data is not a supported image
+     */
+    public BitmapRegionDecoder put(URI uri, byte[] data, long expiration) throws DataFormatException {
+        final File file = data.length <= maxDirSize ? getFile(uri) : null;
+        final boolean written = file != null && write(file, data);
+        final BitmapRegionDecoder decoder = written
+                ? ImageDecoder.newRegionDecoder(file.getPath())
+                : ImageDecoder.newRegionDecoder(data);
+
+        synchronized (this) {
+            decoders.put(uri, decoder);
+            expirations.put(uri, expiration > 0 ? expiration : 0);
+        }
+
+        if (written) {
+            writeExpiration(file, expiration);
+            trimDir(file);
+        }
+
+        return decoder;
+    }
+
+    /**
+     * Checks if the source is kept - as an open decoder or as a file.
+     */
+    public boolean contains(URI uri) {
+        synchronized (this) {
+            if (decoders.containsKey(uri)) return true;
+        }
+
+        final File file = getFile(uri);
+        return file != null && file.exists();
+    }
+
+    /**
+     * Checks if the source is stale.
+     */
+    public boolean isExpired(URI uri) {
+        final long expiresAt = getExpiration(uri);
+        return expiresAt > 0 && expiresAt <= System.currentTimeMillis();
+    }
+
+    /**
+     * Returns time, when the source becomes stale, or 0 if it never does (or it is not kept).
+     * Expiration of a source, that was kept in file before restart, is read from file.
+     */
+    public long getExpiration(URI uri) {
+        synchronized (this) {
+            final Long expiresAt = expirations.get(uri);
+            if (expiresAt != null) return expiresAt;
+        }
+
+        final File file = getFile(uri);
+        if (file == null || !file.exists())
+            return 0;
+
+        final long expiresAt = readExpiration(file);
+        synchronized (this) {
+            if (!expirations.containsKey(uri)) expirations.put(uri, expiresAt);
+        }
+
+        return expiresAt;
+    }
+
+    /**
+     * Forgets the source: drops it's decoder and deletes it's file.
+     */
+    public void remove(URI uri) {
+        synchronized (this) {
+            decoders.remove(uri);
+            expirations.remove(uri);
+        }
+
+        final File file = getFile(uri);
+        if (file != null) delete(file);
+    }
+
+    /**
+     * Drops all decoders. Files are kept - they could be used again, until
+     * {@link #clear(boolean)} with TRUE is called.
+     */
+    public void clear() {
+        clear(false);
+    }
+
+    /**
+     * Drops all decoders and deletes all files, if deleteFiles is TRUE.
+     */
+    public void clear(boolean deleteFiles) {
+        synchronized (this) {
+            decoders.clear();
+            expirations.clear();
+        }
+
+        final File dir = this.dir;
+        final File[] files = dir == null || !deleteFiles ? null : dir.listFiles();
+        if (files != null)
+            for (File file : files) //noinspection ResultOfMethodCallIgnored
+                file.delete();
+    }
+
+    /**
+     * Returns number of decoders, that are kept open.
+     */
+    public synchronized int size() {
+        return decoders.size();
+    }
+
+    /**
+     * Deletes least recently used files, until the directory fits into {@link #getMaxDirSize()}.
+     * Decoders, that are still open, are not dropped - sources are forgotten after their
+     * decoders are evicted.
+     *
+     * @param keep  just written file, that shouldn't be deleted
+     */
+    private void trimDir(File keep) {
+        final File[] files = keep.getParentFile().listFiles();
+        if (files == null)
+            return;
+
+        long size = 0;
+        final List<File> sources = new ArrayList<File>();
+        final Map<File, Long> lastUsed = new HashMap<File, Long>();
+        for (File file : files) {
+            if (file.getName().endsWith(TMP_SUFFIX) || file.getName().endsWith(EXPIRATION_SUFFIX))
+                continue;
+
+            sources.add(file);
+            lastUsed.put(file, file.lastModified());
+            size += file.length();
+        }
+
+        final long maxDirSize = this.maxDirSize;
+        if (size <= maxDirSize)
+            return;
+
+        Collections.sort(sources, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                final long t1 = lastUsed.get(f1), t2 = lastUsed.get(f2);
+                return t1 < t2 ? -1 : (t1 == t2 ? 0 : 1);
+            }
+        });
+
+        for (File file : sources) {
+            if (size <= maxDirSize) break;
+            if (file.equals(keep)) continue;
+
+            size -= file.length();
+            delete(file);
+        }
+    }
+
+    private static void delete(File file) {
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        //noinspection ResultOfMethodCallIgnored
+        new File(file.getPath() + EXPIRATION_SUFFIX).delete();
+    }
+
+    private static void touch(File file) {
+        if (file != null) //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+    }
+
+    private static void writeExpiration(File file, long expiration) {
+        final File expirationFile = new File(file.getPath() + EXPIRATION_SUFFIX);
+        if (expiration <= 0) {
+            //noinspection ResultOfMethodCallIgnored
+            expirationFile.delete();
+            return;
+        }
+
+        try {
+            final DataOutputStream out = new DataOutputStream(new FileOutputStream(expirationFile));
+            try { out.writeLong(expiration); }
+            finally { out.close(); }
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            expirationFile.delete();
+        }
+    }
+
+    /**
+     * @return  expiration, that was kept near the source file, or 0 if there is no one
+     */
+    private static long readExpiration(File file) {
+        final File expirationFile = new File(file.getPath() + EXPIRATION_SUFFIX);
+        if (!expirationFile.exists())
+            return 0;
+
+        try {
+            final DataInputStream in = new DataInputStream(new FileInputStream(expirationFile));
+            try { return in.readLong(); }
+            finally { in.close(); }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private File getFile(URI uri) {
+        final File dir = this.dir;
+        return dir == null ? null : new File(dir, getFileName(uri));
+    }
+
+    private static String getFileName(URI uri) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(uri.toString().getBytes("UTF-8"));
+            return String.format("%032x", new BigInteger(1, digest));
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(uri.toString().hashCode());
+        } catch (UnsupportedEncodingException e) {
+            return Integer.toHexString(uri.toString().hashCode());
+        }
+    }
+
+    /**
+     * Writes the data into the file through a temporary file, so half-written sources are never
+     * opened.
+     *
+     * @return  TRUE if the file was written
+     */
+    private boolean write(File file, byte[] data) {
+        if (!file.getParentFile().isDirectory() && !file.getParentFile().mkdirs())
+            return false;
+
+        final File tmp = new File(file.getPath() + TMP_SUFFIX);
+        try {
+            final FileOutputStream out = new FileOutputStream(tmp);
+            try { out.write(data); }
+            finally { out.close(); }
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            tmp.delete();
+            return false;
+        }
+
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        return tmp.renameTo(file);
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ru.jango.j0loader.image.cache;
+
+import android.graphics.Point;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ru.jango.j0loader.image.ImageRequest;
+
+/**
+ * Bounded thread safe storage of image scales, used by caches.
+ * <ul>
+ * <li>number of scales is limited ({@link #DEFAULT_MAX_SCALES}); least recently used scales are
+ * dropped first</li>
+ * <li>caches drop the scale together with an evicted image, so the registry doesn't grow during
+ * long sessions</li>
+ * <li>scales could be saved into a file and loaded back ({@link #save(java.io.File)},
+ * {@link #load(java.io.File)}), so {@link ru.jango.j0loader.image.cache.Cache#resolveScale(java.net.URI, byte[])}
+ * works right after restart, while the cache is still empty</li>
+ * <li>scales are indexed by base {@link java.net.URI}
+ * ({@link ru.jango.j0loader.image.ImageRequest#getBaseURI(java.net.URI)}), so all variants of an
+ * image could be found ({@link #getVariants(java.net.URI)})</li>
+ * </ul>
+ */
+public class ScaleRegistry {
+
+    public static final int DEFAULT_MAX_SCALES = 1000;
+
+    private static final int FORMAT_MAGIC = 0x6A305343; // "j0SC"
+    private static final int FORMAT_VERSION = 1;
+
+    private final LinkedHashMap<URI, Point> scales;
+    private final Map<URI, Set<URI>> variants;
+    private int maxScales;
+
+    public ScaleRegistry() {
+        this(DEFAULT_MAX_SCALES);
+    }
+
+    public ScaleRegistry(int maxScales) {
+        this.maxScales = maxScales;
+        this.variants = new HashMap<URI, Set<URI>>();
+        this.scales = new LinkedHashMap<URI, Point>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<URI, Point> eldest) {
+                final boolean remove = size() > ScaleRegistry.this.maxScales;
+                if (remove) unindex(eldest.getKey());
+
+                return remove;
+            }
+        };
+    }
+
+    public synchronized void put(URI uri, Point scale) {
+        if (scales.put(uri, scale) == null)
+            index(uri);
+    }
+
+    public synchronized Point get(URI uri) {
+        return scales.get(uri);
+    }
+
+    public synchronized boolean contains(URI uri) {
+        return scales.containsKey(uri);
+    }
+
+    public synchronized Point remove(URI uri) {
+        final Point scale = scales.remove(uri);
+        if (scale != null) unindex(uri);
+
+        return scale;
+    }
+
+    /**
+     * Returns scales of all variants of the image.
+     *
+     * @param uri   image {@link java.net.URI}, or cache key of any it's variant
+     * @return      variants' cache keys with their scales; could be empty
+     */
+    public synchronized Map<URI, Point> getVariants(URI uri) {
+        final Map<URI, Point> ret = new HashMap<URI, Point>();
+        final Set<URI> keys = variants.get(ImageRequest.getBaseURI(uri));
+        if (keys != null)
+            for (URI key : keys)
+                ret.put(key, scales.get(key));
+
+        return ret;
+    }
+
+    public synchronized int size() {
+        return scales.size();
+    }
+
+    public synchronized void clear() {
+        scales.clear();
+        variants.clear();
+    }
+
+    public synchronized int getMaxScales() {
+        return maxScales;
+    }
+
+    /**
+     * Sets max number of scales. If there are more scales already, least recently used ones are
+     * dropped.
+     */
+    public synchronized void setMaxScales(int maxScales) {
+        this.maxScales = maxScales;
+
+        final List<URI> eldest = new ArrayList<URI>(scales.keySet());
+        for (int i=0; i<eldest.size() - maxScales; i++)
+            remove(eldest.get(i));
+    }
+
+    private void index(URI key) {
+        final URI base = ImageRequest.getBaseURI(key);
+        Set<URI> keys = variants.get(base);
+        if (keys == null) variants.put(base, keys = new HashSet<URI>());
+
+        keys.add(key);
+    }
+
+    private void unindex(URI key) {
+        final URI base = ImageRequest.getBaseURI(key);
+        final Set<URI> keys = variants.get(base);
+        if (keys == null)
+            return;
+
+        keys.remove(key);
+        if (keys.isEmpty()) variants.remove(base);
+    }
+
+    ////////////////////////////////////////////////////////////////////////
+    //
+    //		Persistence
+    //
+    ////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Writes all scales into the stream in LRU order. Stream is not closed.
+     */
+    public void save(OutputStream out) throws IOException {
+        final Map<URI, Point> snapshot;
+        synchronized (this) {
+            snapshot = new LinkedHashMap<URI, Point>(scales);
+        }
+
+        final DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(FORMAT_MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        data.writeInt(snapshot.size());
+        for (Map.Entry<URI, Point> entry : snapshot.entrySet()) {
+            data.writeUTF(entry.getKey().toString());
+            data.writeInt(entry.getValue().x);
+            data.writeInt(entry.getValue().y);
+        }
+        data.flush();
+    }
+
+    /**
+     * Reads scales from the stream and adds them into the registry; already registered scales
+     * are overwritten. Stream is not closed.
+     *
+     * @throws IOException  if the stream has wrong format
+     */
+    public void load(InputStream in) throws IOException {
+        final DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != FORMAT_MAGIC || data.readInt() != FORMAT_VERSION)
+            throw new IOException("Unknown scales format");
+
+        final int count = data.readInt();
+        final Map<URI, Point> loaded = new LinkedHashMap<URI, Point>();
+        for (int i=0; i<count; i++)
+            try { loaded.put(new URI(data.readUTF()), new Point(data.readInt(), data.readInt())); }
+            catch (java.net.URISyntaxException e) { throw new IOException("Broken scales URI: " + e.getMessage()); }
+
+        synchronized (this) {
+            for (Map.Entry<URI, Point> entry : loaded.entrySet())
+                put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Saves scales into the file.
+     *
+     * @see #save(java.io.OutputStream)
+     */
+    public void save(File file) throws IOException {
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try { save(out); }
+        finally { out.close(); }
+    }
+
+    /**
+     * Loads scales from the file. Does nothing, if the file doesn't exist.
+     *
+     * @see #load(java.io.InputStream)
+     */
+    public void load(File file) throws IOException {
+        if (!file.exists())
+            return;
+
+        final InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try { load(in); }
+        finally { in.close(); }
+    }
+
+}
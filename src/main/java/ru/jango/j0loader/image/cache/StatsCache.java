@@ -0,0 +1,46 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0loader.image.cache;
+
+/**
+ * {@link ru.jango.j0loader.image.cache.Cache}, that records it's statistics. It is optional:
+ * {@link ru.jango.j0loader.image.ImageLoader} reports cache statistics only for such caches.
+ */
+public interface StatsCache extends Cache {
+
+    /**
+     * Returns a snapshot of cache statistics - hits, misses, puts, evictions, etc.
+     */
+    public CacheStats getStats();
+
+    /**
+     * Records time spent on loading an image, that wasn't found in cache. Method is called by
+     * loaders just after loading (and scaling) a miss.
+     *
+     * @param loadTime  load time in milliseconds
+     */
+    public void recordLoadTime(long loadTime);
+
+    /**
+     * Resets all statistics counters.
+     */
+    public void resetStats();
+
+}
@@ -0,0 +1,82 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0loader.image.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe accumulator of cache statistics. {@link ru.jango.j0loader.image.cache.Cache}
+ * implementations record events in it and return {@link #snapshot()} from
+ * {@link StatsCache#getStats()}.
+ */
+public class StatsCounter {
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong putCount = new AtomicLong();
+    private final AtomicLong rejectedPutCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong loadCount = new AtomicLong();
+    private final AtomicLong totalLoadTime = new AtomicLong();
+
+    /**
+     * Records a lookup - hit or miss.
+     */
+    public void recordGet(boolean hit) {
+        if (hit) hitCount.incrementAndGet();
+        else missCount.incrementAndGet();
+    }
+
+    /**
+     * Records a put - successful or rejected.
+     */
+    public void recordPut(boolean added) {
+        if (added) putCount.incrementAndGet();
+        else rejectedPutCount.incrementAndGet();
+    }
+
+    public void recordEviction() {
+        evictionCount.incrementAndGet();
+    }
+
+    /**
+     * Records time in milliseconds, spent on loading one miss.
+     */
+    public void recordLoadTime(long loadTime) {
+        loadCount.incrementAndGet();
+        totalLoadTime.addAndGet(loadTime);
+    }
+
+    public CacheStats snapshot() {
+        return new CacheStats(hitCount.get(), missCount.get(), putCount.get(), rejectedPutCount.get(),
+                evictionCount.get(), loadCount.get(), totalLoadTime.get());
+    }
+
+    public void reset() {
+        hitCount.set(0);
+        missCount.set(0);
+        putCount.set(0);
+        rejectedPutCount.set(0);
+        evictionCount.set(0);
+        loadCount.set(0);
+        totalLoadTime.set(0);
+    }
+
+}
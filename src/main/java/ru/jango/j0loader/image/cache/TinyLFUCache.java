@@ -0,0 +1,213 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+
+package ru.jango.j0loader.image.cache;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Memory cache with frequency-aware admission policy (TinyLFU). Entries are evicted in LRU order,
+ * but a new entry is admitted only if it was accessed more often, than the entries it should
+ * push out of the cache. Access frequencies are estimated by a compact
+ * {@link ru.jango.j0loader.image.cache.FrequencySketch}, that also remembers elements, which are
+ * not cached.
+ * <br><br>
+ *
+ * That is useful for long feeds: one-hit images, that are shown only once while scrolling, don't
+ * push out avatars and icons, that are shown on every screen.
+ * <ul>
+ * <li>data is stored in memory as encoded byte arrays</li>
+ * <li>default cache size - {@link #DEFAULT_MAX_CACHE_SIZE}</li>
+ * <li>{@link #put(java.net.URI, byte[])} returns FALSE, if the entry was rejected by admission
+ * policy</li>
+ * </ul>
+ */
+public class TinyLFUCache extends DefaultCache {
+
+    /**
+     * Assumed average entry size; used to size the frequency sketch, if the expected number of
+     * entries wasn't specified.
+     */
+    public static final int AVERAGE_ENTRY_SIZE = 20000;
+
+    private LinkedHashMap<URI, byte[]> cache;
+    private FrequencySketch sketch;
+    private long size;
+
+    public TinyLFUCache() {
+        this(DEFAULT_MAX_CACHE_SIZE);
+    }
+
+    public TinyLFUCache(long maxSize) {
+        this(maxSize, (int) Math.max(1, maxSize / AVERAGE_ENTRY_SIZE));
+    }
+
+    /**
+     * @param maxSize           max cache size in bytes
+     * @param expectedEntries   approximate number of entries, that could fit in cache; frequency
+     *                          sketch is sized by it
+     */
+    public TinyLFUCache(long maxSize, int expectedEntries) {
+        super();
+        super.setMaxCacheSize(maxSize);
+
+        cache = new LinkedHashMap<URI, byte[]>(16, 0.75f, true);
+        sketch = new FrequencySketch(expectedEntries);
+    }
+
+    @Override
+    public synchronized boolean put(URI uri, byte[] raw) {
+        sketch.increment(uri);
+
+        final byte[] old = cache.remove(uri);
+        if (old != null) size -= old.length;
+
+        if (!admit(uri, raw.length)) {
+            if (old != null) {
+                cache.put(uri, old);
+                size += old.length;
+            }
+
+            getStatsCounter().recordPut(false);
+            return false;
+        }
+
+        cache.put(uri, raw);
+        size += raw.length;
+        getStatsCounter().recordPut(true);
+        return true;
+    }
+
+    @Override
+    public synchronized byte[] get(URI uri) {
+        sketch.increment(uri);
+
+        final byte[] raw = cache.get(uri);
+        getStatsCounter().recordGet(raw != null);
+        return raw;
+    }
+
+    @Override
+    public synchronized byte[] remove(URI uri) {
+        final byte[] raw = cache.remove(uri);
+        if (raw != null) size -= raw.length;
+
+        onEntryRemoved(uri, false);
+        return raw;
+    }
+
+    @Override
+    public synchronized boolean isCached(URI uri) {
+        return cache.containsKey(uri);
+    }
+
+    @Override
+    public synchronized long size() {
+        return size;
+    }
+
+    @Override
+    public synchronized int count() {
+        return cache.size();
+    }
+
+    @Override
+    public synchronized Map<URI, byte[]> snapshot() {
+        return new LinkedHashMap<URI, byte[]>(cache);
+    }
+
+    /**
+     * Sets max allowed cache size in bytes. If the cache is already larger, least recently used
+     * entries are evicted.
+     */
+    @Override
+    public synchronized void setMaxCacheSize(long maxCacheSize) {
+        super.setMaxCacheSize(maxCacheSize);
+        evict(maxCacheSize);
+    }
+
+    @Override
+    public synchronized void trimToSize(long maxSize) {
+        evict(maxSize);
+    }
+
+    @Override
+    public synchronized void clearCache() {
+        cache.clear();
+        sketch.clear();
+        size = 0;
+    }
+
+    /**
+     * Returns estimated access frequency of the specified {@link java.net.URI}.
+     *
+     * @see ru.jango.j0loader.image.cache.FrequencySketch#frequency(Object)
+     */
+    public synchronized int frequency(URI uri) {
+        return sketch.frequency(uri);
+    }
+
+    /**
+     * Decides whether an entry could be put in cache and frees space for it. Victims are taken
+     * from the LRU end of the cache until there is enough space; if the candidate is accessed
+     * more often, than every victim, victims are evicted, otherwise the candidate is rejected.
+     */
+    private boolean admit(URI candidate, int length) {
+        final long maxSize = getMaxCacheSize();
+        if (length > maxSize) return false;
+        if (size + length <= maxSize) return true;
+
+        final int candidateFreq = sketch.frequency(candidate);
+        final List<URI> victims = new ArrayList<URI>();
+        long freed = 0;
+
+        final Iterator<Map.Entry<URI, byte[]>> iterator = cache.entrySet().iterator();
+        while (size - freed + length > maxSize && iterator.hasNext()) {
+            final Map.Entry<URI, byte[]> victim = iterator.next();
+            if (sketch.frequency(victim.getKey()) >= candidateFreq)
+                return false;
+
+            victims.add(victim.getKey());
+            freed += victim.getValue().length;
+        }
+
+        for (URI victim : victims) {
+            size -= cache.remove(victim).length;
+            onEntryRemoved(victim, true);
+        }
+
+        return true;
+    }
+
+    private void evict(long maxSize) {
+        final Iterator<Map.Entry<URI, byte[]>> iterator = cache.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            final Map.Entry<URI, byte[]> eldest = iterator.next();
+            size -= eldest.getValue().length;
+            iterator.remove();
+            onEntryRemoved(eldest.getKey(), true);
+        }
+    }
+
+}
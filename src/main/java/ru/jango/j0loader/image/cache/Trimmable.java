@@ -0,0 +1,46 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ru.jango.j0loader.image.cache;
+
+/**
+ * Something, that holds memory and could give it back on demand - caches, pools, etc. Used by
+ * {@link ru.jango.j0loader.image.cache.CacheTrimmer} to react on memory pressure.
+ */
+public interface Trimmable {
+
+    /**
+     * Returns current size in bytes.
+     */
+    public long size();
+
+    /**
+     * Returns max allowed size in bytes.
+     */
+    public long getMaxCacheSize();
+
+    /**
+     * Removes (evicts) elements until the size is not greater, than the specified one. Max
+     * allowed size is not changed, so after the memory pressure is gone, the storage could grow
+     * back.
+     *
+     * @param maxSize   target size in bytes; 0 means remove everything
+     */
+    public void trimToSize(long maxSize);
+
+}
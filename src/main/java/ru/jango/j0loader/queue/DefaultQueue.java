@@ -96,6 +96,18 @@ public class DefaultQueue implements Queue, Iterable<Request> {
         return true;
     }
 
+    @Override
+    public synchronized boolean move(Request request, int pos) {
+        final int index = queue.indexOf(request);
+        final int target = Math.max(0, Math.min(pos, queue.size() - 1));
+        if (index == -1 || index == target)
+            return false;
+
+        queue.remove(index);
+        queue.add(target, request);
+        return true;
+    }
+
     @Override
     public synchronized int size() {
         return queue.size();
@@ -0,0 +1,202 @@
+/*
+ * The MIT License Copyright (c) 2014 Krayushkin Konstantin (jangokvk@gmail.com)
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of this software and
+ * associated documentation files (the "Software"), to deal in the Software without restriction,
+ * including without limitation the rights to use, copy, modify, merge, publish, distribute,
+ * sublicense, and/or sell copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in all copies or
+ * substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR IMPLIED, INCLUDING BUT
+ * NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ * NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM,
+ * DAMAGES OR OTHER LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN THE SOFTWARE.
+ */
+package ru.jango.j0loader.queue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import ru.jango.j0loader.Request;
+
+/**
+ * Special queue for {@link ru.jango.j0loader.image.ImageLoader} in fast scrolling lists: the most
+ * recently added requests are served first (last in - first out), as they are the images, that
+ * user is looking at now. Requests, that are added again while still queued, are moved into the
+ * head of the queue. Like {@link ru.jango.j0loader.queue.SingleURIQueue}, it contains requests with
+ * unique cache keys.
+ * <br><br>
+ * Optionally the queue could be limited by {@link #setMaxDepth(int)} - when it overflows, the
+ * oldest requests (images, that were scrolled away long ago) are dropped and reported to
+ * {@link ru.jango.j0loader.queue.LIFOQueue.DropListener} - {@link ru.jango.j0loader.DataLoader}
+ * sets it itself and reports dropped requests to it's listeners as failed.
+ * <br><br>
+ * To use it, override {@link ru.jango.j0loader.DataLoader#createQueue()}:
+ * <pre>
+ * new ImageLoader() {
+ *     protected Queue createQueue() { return new LIFOQueue(50); }
+ * };
+ * </pre>
+ */
+public class LIFOQueue extends SingleURIQueue {
+
+    /**
+     * Max depth value for queues without limit.
+     */
+    public static final int UNLIMITED = 0;
+
+    private int maxDepth;
+    private long droppedCount;
+    private volatile DropListener dropListener;
+
+    public LIFOQueue() {
+        this(UNLIMITED);
+    }
+
+    /**
+     * @param maxDepth  max number of queued requests, or {@link #UNLIMITED}
+     */
+    public LIFOQueue(int maxDepth) {
+        super();
+        setMaxDepth(maxDepth);
+    }
+
+    /**
+     * Adds a {@link Request} into the head of the queue. If a request with the same cache key is
+     * already queued, it is moved into the head instead.
+     */
+    @Override
+    public void add(Request request) {
+        notifyDropped(doAdd(request));
+    }
+
+    private synchronized List<Request> doAdd(Request request) {
+        if (request == null)
+            return Collections.emptyList();
+
+        final Request queued = get(request.getCacheKey());
+        if (queued != null) {
+            move(queued, 0);
+            return Collections.emptyList();
+        }
+
+        queue.addFirst(request);
+        return trim();
+    }
+
+    /**
+     * Adds requests one by one, so dropped requests are reported outside of the queue lock.
+     */
+    @Override
+    public void addAll(Collection<? extends Request> requests) {
+        if (requests != null)
+            for (Request request : requests)
+                add(request);
+    }
+
+    @Override
+    public boolean insert(int pos, Request request) {
+        final List<Request> dropped = new ArrayList<Request>();
+        final boolean inserted = doInsert(pos, request, dropped);
+        notifyDropped(dropped);
+        return inserted;
+    }
+
+    private synchronized boolean doInsert(int pos, Request request, List<Request> dropped) {
+        if (!super.insert(pos, request))
+            return false;
+
+        dropped.addAll(trim());
+        return true;
+    }
+
+    /**
+     * Returns max number of queued requests, or {@link #UNLIMITED}.
+     */
+    public synchronized int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Sets max number of queued requests; if the queue is already larger, the oldest requests
+     * are dropped immediately.
+     *
+     * @param maxDepth  max number of queued requests, or {@link #UNLIMITED}
+     */
+    public void setMaxDepth(int maxDepth) {
+        if (maxDepth < 0)
+            throw new IllegalArgumentException("Max depth should not be negative: " + maxDepth);
+
+        notifyDropped(doSetMaxDepth(maxDepth));
+    }
+
+    private synchronized List<Request> doSetMaxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+        return trim();
+    }
+
+    /**
+     * Returns number of requests, that were dropped because of queue overflow.
+     */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * Returns listener of dropped requests, or NULL.
+     */
+    public DropListener getDropListener() {
+        return dropListener;
+    }
+
+    /**
+     * Sets listener of dropped requests. It is called outside of the queue lock, so it could add
+     * requests into the queue.
+     *
+     * @param dropListener  listener, or NULL
+     */
+    public void setDropListener(DropListener dropListener) {
+        this.dropListener = dropListener;
+    }
+
+    /**
+     * Drops the oldest requests, while the queue is too large.
+     *
+     * @return  dropped requests
+     */
+    private List<Request> trim() {
+        if (maxDepth == UNLIMITED || queue.size() <= maxDepth)
+            return Collections.emptyList();
+
+        final List<Request> dropped = new ArrayList<Request>();
+        while (queue.size() > maxDepth) {
+            dropped.add(queue.removeLast());
+            droppedCount++;
+        }
+
+        return dropped;
+    }
+
+    private void notifyDropped(List<Request> dropped) {
+        final DropListener listener = dropListener;
+        if (listener == null)
+            return;
+
+        for (Request request : dropped)
+            listener.onDropped(request);
+    }
+
+    /**
+     * Listener of requests, that were dropped because of queue overflow.
+     */
+    public interface DropListener {
+        public void onDropped(Request request);
+    }
+
+}
@@ -74,6 +74,15 @@ public interface Queue {
      */
     public boolean insert(int pos, Request request);
 
+    /**
+     * Moves a {@link Request}, that is already in queue, into the specified position. Position
+     * is fit into the queue bounds, so requests could be moved into the end of the queue by
+     * {@link Integer#MAX_VALUE}.
+     *
+     * @return  TRUE if the queue was modified
+     */
+    public boolean move(Request request, int pos);
+
     /**
      * Returns current size of the queue.
      */
@@ -28,8 +28,9 @@ import ru.jango.j0loader.Request;
  * requests' {@link ru.jango.j0loader.Request#params} - it needs only {@link java.net.URI}, so we 
  * can uniquely identify a queue element by it's uri, not combination of uri-params.
  * <br><br>
- * That queue checks {@link java.net.URI} inside a {@link ru.jango.j0loader.Request} before adding
- * it, so it contains requests with unique URIs.
+ * That queue checks {@link ru.jango.j0loader.Request#getCacheKey()} before adding a request, so
+ * it contains requests with unique URIs; but different variants (sizes) of the same URI could be
+ * queued together.
  */
 public class SingleURIQueue extends DefaultQueue {
 
@@ -63,15 +64,39 @@ public class SingleURIQueue extends DefaultQueue {
         return false;
     }
 
+    /**
+     * Checks if a request with certain {@link ru.jango.j0loader.Request#getCacheKey()} is in queue.
+     */
+    public synchronized boolean containsKey(URI key) {
+        for (Request request : queue)
+            if (request.getCacheKey().equals(key))
+                return true;
+
+        return false;
+    }
+
+    /**
+     * Returns queued request with certain {@link ru.jango.j0loader.Request#getCacheKey()}, or
+     * NULL. As requests are unique by cache key, it could be another {@link Request} object,
+     * than the one, that was tried to add.
+     */
+    public synchronized Request get(URI key) {
+        for (Request request : queue)
+            if (request.getCacheKey().equals(key))
+                return request;
+
+        return null;
+    }
+
     @Override
     public synchronized void add(Request request) {
-        if (request != null && !contains(request.getURI()))
+        if (request != null && !containsKey(request.getCacheKey()))
             queue.add(request);
     }
 
     @Override
     public synchronized boolean insert(int pos, Request request) {
-        if (request == null || pos < 0 || pos > queue.size() || contains(request.getURI()))
+        if (request == null || pos < 0 || pos > queue.size() || containsKey(request.getCacheKey()))
             return false;
 
         queue.add(pos, request);